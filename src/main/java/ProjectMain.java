@@ -1,11 +1,29 @@
+import api.AnchorLinker;
+import api.Annotator;
+import api.EntityEmbeddings;
+import api.IdResolver;
+import api.LinkGraph;
+import api.MinHashBenchmark;
+import api.MinHashIndex;
+import api.Relatedness;
+import api.TitleIndex;
 import experiments.baselines.EntityStat;
+import experiments.ltr.CoordinateAscent;
+import experiments.ltr.Feature;
+import experiments.ltr.FeatureExtractor;
+import experiments.ltr.Features;
 import experiments.relatedness.*;
 import experiments.wiki.WikiTerms;
+import help.AnalyzedTextCache;
 import help.GetRelatedness;
+import help.QueryAnalysis;
+import help.Utilities;
+import lucene.EntityLanguageModels;
 import lucene.Index;
 import lucene.PageIndex;
 import lucene.ParagraphIndex;
 import lucene.StanfordNERIndex;
+import lucene.TermVectors;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -20,6 +38,12 @@ import random.MakePageMap;
 import random.SWATAnnotate;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class ProjectMain {
     public static void main(@NotNull String[] args) {
@@ -66,6 +90,26 @@ public class ProjectMain {
             stanfordNER(args);
         } else if (command.equalsIgnoreCase("--qe-rel-ecd-ent")) {
             qeRelEcdEnt(args);
+        } else if (command.equalsIgnoreCase("--link-graph")) {
+            LinkGraph.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (command.equalsIgnoreCase("--minhash")) {
+            MinHashIndex.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (command.equalsIgnoreCase("--minhash-benchmark")) {
+            MinHashBenchmark.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (command.equalsIgnoreCase("--extract-features")) {
+            extractFeatures(args);
+        } else if (command.equalsIgnoreCase("--ltr")) {
+            CoordinateAscent.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (command.equalsIgnoreCase("--title-index")) {
+            TitleIndex.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (command.equalsIgnoreCase("--anchor-linker")) {
+            AnchorLinker.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (command.equalsIgnoreCase("--term-vectors")) {
+            termVectors(args);
+        } else if (command.equalsIgnoreCase("--entity-lm")) {
+            entityLM(args);
+        } else if (command.equalsIgnoreCase("--entity-embeddings")) {
+            EntityEmbeddings.main(Arrays.copyOfRange(args, 1, args.length));
         }  else if (command.equalsIgnoreCase("--make-page-map")) {
             try {
                 makePageMap(args);
@@ -167,8 +211,23 @@ public class ProjectMain {
         String outFile = "QERelECDEntities" + "-" + s1 + "-" + s2 + "-" + relType + "-" + s3 +".run";
 
 
+        // Optional last argument: path to the MinHash index built with --minhash (jaccard measure only)
+        int minHashArg = sim.equalsIgnoreCase("lmjm") ? 18 : 17;
+        MinHashIndex minHashIndex = null;
+        if (args.length > minHashArg) {
+            try {
+                System.out.print("Loading MinHash index...");
+                minHashIndex = MinHashIndex.load(args[minHashArg]);
+                System.out.println("[Done].");
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
         new QERelECDEntities(indexDir, mainDir, outputDir, dataDir, relFile, paraRunFile, entityRunFile, outFile,
-                entityQrel, takeKEntities, takeKDocs, omit, parallel, useEcd, relType, analyzer, similarity);
+                entityQrel, takeKEntities, takeKDocs, omit, parallel, useEcd, relType, analyzer, similarity,
+                minHashIndex);
     }
 
     private static void getRel(@NotNull String[] args) {
@@ -195,6 +254,149 @@ public class ProjectMain {
                 outputFilePath, relType, type, parallel);
     }
 
+    private static void extractFeatures(@NotNull String[] args) {
+        String indexDir = args[1];
+        String paraRunFile = args[2];
+        String entityRunFile = args[3];
+        String entityQrelFile = args[4];
+        String featureNames = args[5];
+        String outFile = args[6];
+        boolean parallel = args[7].equalsIgnoreCase("true");
+        String supportPsgQrelFile = args.length > 8 && !args[8].equalsIgnoreCase("none") ? args[8] : null;
+        String svmRankFile = args.length > 9 && !args[9].equalsIgnoreCase("none") ? args[9] : null;
+
+        try {
+            List<Feature> configured = new ArrayList<>();
+
+            // ecn-rel: relType|relFile|[linkGraphFile, entityEmbeddingsFile or minHashFile]
+            if (args.length > 11 && !args[10].equalsIgnoreCase("none")) {
+                configured.add(ecnRelFeature(args[10], args[11], args.length > 12 ? args[12] : "none"));
+            }
+
+            // qe-ecd-terms: analyzer|takeKTerms|[stopWordsFile]|[omitQueryTerms]
+            if (args.length > 14 && !args[13].equalsIgnoreCase("none")) {
+                Analyzer analyzer = QueryAnalysis.getAnalyzer(args[13]);
+                if (analyzer == null) {
+                    System.out.println("Wrong choice of analyzer! Exiting.");
+                    System.exit(1);
+                }
+                int takeKTerms = Integer.parseInt(args[14]);
+                boolean omit = args.length > 16 && args[16].equalsIgnoreCase("true");
+
+                System.out.print("Setting up paragraph index for query expansion...");
+                IndexSearcher searcher = new Index.Setup(indexDir, "text", analyzer, new BM25Similarity())
+                        .getSearcher();
+                TermVectors termVectors = new TermVectors(searcher, "id", "text", analyzer,
+                        AnalyzedTextCache.getInstance());
+                if (args.length > 15 && !args[15].equalsIgnoreCase("none")) {
+                    termVectors.setStopWords(Files.readAllLines(Paths.get(args[15])));
+                }
+                System.out.println("[Done].");
+                configured.add(Features.qeEcdTerms(searcher, termVectors, analyzer, takeKTerms, omit));
+            }
+
+            FeatureExtractor extractor = new FeatureExtractor(indexDir, paraRunFile, entityRunFile, entityQrelFile,
+                    supportPsgQrelFile, Features.forNames(featureNames, configured.toArray(new Feature[0])), parallel);
+            extractor.extract(outFile, svmRankFile);
+        } catch (IllegalArgumentException | IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @NotNull
+    private static Feature ecnRelFeature(@NotNull String relType, String relFile, String relatednessFile)
+            throws IOException, ClassNotFoundException {
+        switch (relType.toLowerCase()) {
+            case "cp":
+                relType = "conditionalprobability";
+                break;
+            case "ba":
+                relType = "barabasialbert";
+                break;
+            default:
+                relType = relType.toLowerCase();
+        }
+        System.out.println("Entity Similarity Measure: " + relType);
+
+        Map<String, Map<String, Double>> entRelMap = null;
+        if (!relFile.equalsIgnoreCase("none")) {
+            System.out.print("Reading relatedness file...");
+            entRelMap = Utilities.readMap(relFile);
+            System.out.println("[Done].");
+        }
+
+        // As for --ecn-rel: a local relatedness system if given, the WAT API otherwise
+        if (relatednessFile.equalsIgnoreCase("none")) {
+            return Features.ecnRelatedness(relType, Relatedness.WAT, IdResolver.WAT, entRelMap);
+        }
+        if (relType.equals("w2v")) {
+            System.out.print("Loading entity embeddings...");
+            EntityEmbeddings embeddings = EntityEmbeddings.load(relatednessFile);
+            System.out.println("[Done].");
+            return Features.ecnRelatedness(relType, embeddings, embeddings, entRelMap);
+        }
+        if (MinHashIndex.isIndexFile(relatednessFile)) {
+            if (!MinHashIndex.supports(relType)) {
+                throw new IllegalArgumentException("Relatedness measure " + relType
+                        + " cannot be estimated from MinHash signatures.");
+            }
+            System.out.print("Loading MinHash index...");
+            MinHashIndex minHashIndex = MinHashIndex.load(relatednessFile);
+            System.out.println("[Done].");
+            return Features.ecnRelatedness(relType, minHashIndex, minHashIndex, entRelMap);
+        }
+        if (!LinkGraph.supports(relType)) {
+            throw new IllegalArgumentException("Relatedness measure " + relType
+                    + " cannot be computed from the link graph.");
+        }
+        System.out.print("Loading link graph...");
+        LinkGraph graph = LinkGraph.load(relatednessFile);
+        System.out.println("[Done].");
+        return Features.ecnRelatedness(relType, graph, graph, entRelMap);
+    }
+
+    private static void termVectors(@NotNull String[] args) {
+        String indexDir = args[1];
+        String outIndexDir = args[2];
+        String a = args[3];
+        String idField = args.length > 4 ? args[4] : "id";
+        String textField = args.length > 5 ? args[5] : "text";
+
+        Analyzer analyzer = null;
+        switch (a) {
+            case "std" :
+                System.out.println("Analyzer: Standard");
+                analyzer = new StandardAnalyzer();
+                break;
+            case "eng":
+                System.out.println("Analyzer: English");
+                analyzer = new EnglishAnalyzer();
+                break;
+            default:
+                System.out.println("Wrong choice of analyzer! Exiting.");
+                System.exit(1);
+        }
+        try {
+            System.out.println("Adding term vectors to field \"" + textField + "\" of index: " + indexDir);
+            TermVectors.addTermVectors(indexDir, outIndexDir, idField, textField, analyzer);
+            System.out.println("New index written at: " + outIndexDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void entityLM(@NotNull String[] args) {
+        String pageIndexDir = args[1];
+        String stopWordsFile = args[2];
+        String outFile = args[3];
+
+        try {
+            EntityLanguageModels.build(pageIndexDir, stopWordsFile, outFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private static void makePageMap(@NotNull String[] args) throws IOException {
         String pageCborFile = args[1];
         String outputFile = args[2];
@@ -300,12 +502,15 @@ public class ProjectMain {
             parallel = true;
         }
 
+        int next = sim.equalsIgnoreCase("lmjm") ? 15 : 14;
+        String entityModelsFile = args.length > next ? args[next] : null;
+
         new WikiTerms(pageIndexDir,paraIndexDir, mainDir, dataDir, outputDir, paraRunFile, entityRunFile,
-                entityQrelFile, outFile, stopWordsFilePath, parallel, useProb, analyzer, similarity);
+                entityQrelFile, outFile, stopWordsFilePath, parallel, useProb, analyzer, similarity, entityModelsFile);
     }
 
     private static void entityStat(@NotNull String[] args) {
-        String cbor, passageRunFile;
+        String passageRunFile;
         boolean parallel;
 
         String indexDir = args[1];
@@ -315,10 +520,10 @@ public class ProjectMain {
         String outputFile = args[5];
         String type = args[6];
         if (type.equalsIgnoreCase("corpus")) {
-            cbor = args[7];
+            // args[7] (the paragraph corpus) is not read anymore: the counts come from the index
             passageRunFile = args[8];
             parallel = args[9].equalsIgnoreCase("true");
-            new EntityStat(indexDir, idField, entityField, entityPoolFile, outputFile, cbor, passageRunFile, parallel);
+            new EntityStat(indexDir, entityField, entityPoolFile, outputFile, passageRunFile, parallel);
         } else if (type.equalsIgnoreCase("run")) {
             passageRunFile = args[7];
             parallel = args[8].equalsIgnoreCase("true");
@@ -490,9 +695,22 @@ public class ProjectMain {
             parallel = true;
         }
 
+        // Optional last argument (w2v measure only): path to the entity embeddings built with --entity-embeddings
+        int embeddingsArg = sim.equalsIgnoreCase("lmjm") ? 14 : 13;
+        EntityEmbeddings embeddings = null;
+        if (args.length > embeddingsArg && relType.equalsIgnoreCase("w2v")) {
+            System.out.print("Loading entity embeddings...");
+            try {
+                embeddings = EntityEmbeddings.load(args[embeddingsArg]);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("[Done].");
+        }
 
         new ECNWeighted(indexDir, mainDir, outputDir, dataDir, paraRunFile, entityRunFile, idFile,
-                outFile, entityQrel, relType, parallel, analyzer, similarity);
+                outFile, entityQrel, relType, parallel, analyzer, similarity, embeddings);
     }
 
     private static void getEntId(@NotNull String[] args) {
@@ -558,8 +776,22 @@ public class ProjectMain {
                 System.exit(1);
         }
 
+        // Optional last argument: path to a title index built with --title-index
+        int titleIndexArg = sim.equalsIgnoreCase("lmjm") ? 15 : 14;
+        IdResolver idResolver = IdResolver.WAT;
+        if (args.length > titleIndexArg) {
+            System.out.print("Loading title index...");
+            try {
+                idResolver = TitleIndex.load(args[titleIndexArg], TitleIndex.IdSpace.WIKIPEDIA);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("[Done].");
+        }
+
         new GetEntityId(pageIndexDir,paraIndexDir, mainDir, dataDir,outputDir, paraRunFile, entityRunFile,
-                entityQrelFile, outputFile, mode, parallel, analyzer, similarity);
+                entityQrelFile, outputFile, mode, parallel, analyzer, similarity, idResolver);
 
     }
 
@@ -567,6 +799,8 @@ public class ProjectMain {
         String cborFile = args[1];
         String indexDir = args[2];
         String a = args[3];
+        String annotationFile = args.length > 4 && !args[4].equalsIgnoreCase("none") ? args[4] : null;
+        String anchorLinkerFile = args.length > 5 ? args[5] : null;
 
         Analyzer analyzer = null;
         switch (a) {
@@ -583,7 +817,13 @@ public class ProjectMain {
                 System.exit(1);
         }
         try {
-            ParagraphIndex.createIndex(cborFile, indexDir, analyzer);
+            Annotator annotator = Annotator.WAT;
+            if (anchorLinkerFile != null) {
+                System.out.print("Loading anchor linker from: " + anchorLinkerFile + "...");
+                annotator = AnchorLinker.load(anchorLinkerFile);
+                System.out.println("[Done].");
+            }
+            ParagraphIndex.createIndex(cborFile, indexDir, analyzer, annotationFile, annotator);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -786,9 +1026,42 @@ public class ProjectMain {
             parallel = true;
         }
 
+        // Optional last argument: path to the link graph built with --link-graph
+        // For the w2v measure: path to the entity embeddings built with --entity-embeddings
+        // For the jaccard measure, may also be the MinHash index built with --minhash (approximate relatedness)
+        int graphArg = sim.equalsIgnoreCase("lmjm") ? 14 : 13;
+        LinkGraph graph = null;
+        EntityEmbeddings embeddings = null;
+        MinHashIndex minHashIndex = null;
+        if (args.length > graphArg) {
+            try {
+                if (relType.equalsIgnoreCase("w2v")) {
+                    System.out.print("Loading entity embeddings...");
+                    embeddings = EntityEmbeddings.load(args[graphArg]);
+                } else if (MinHashIndex.isIndexFile(args[graphArg])) {
+                    System.out.print("Loading MinHash index...");
+                    minHashIndex = MinHashIndex.load(args[graphArg]);
+                } else {
+                    System.out.print("Loading link graph...");
+                    graph = LinkGraph.load(args[graphArg]);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("[Done].");
+        }
 
-        new ECNRel(indexDir, mainDir, outputDir, dataDir, paraRunFile, entityRunFile, idFile,
-                outFile, entityQrel, relType, parallel, analyzer, similarity);
+        if (embeddings != null) {
+            new ECNRel(indexDir, mainDir, outputDir, dataDir, paraRunFile, entityRunFile, idFile,
+                    outFile, entityQrel, relType, parallel, analyzer, similarity, embeddings);
+        } else if (minHashIndex != null) {
+            new ECNRel(indexDir, mainDir, outputDir, dataDir, paraRunFile, entityRunFile, idFile,
+                    outFile, entityQrel, relType, parallel, analyzer, similarity, minHashIndex);
+        } else {
+            new ECNRel(indexDir, mainDir, outputDir, dataDir, paraRunFile, entityRunFile, idFile,
+                    outFile, entityQrel, relType, parallel, analyzer, similarity, graph);
+        }
 
     }
 
@@ -888,7 +1161,42 @@ public class ProjectMain {
                 "useRelatedness|analyzer|similarity)");
 
         System.out.println("--qeRelEcdEntities (indexDir|mainDir|outputDir|dataDir|idFile|relFile|paraRunFile|entityRunFile|outFile|" +
-                "entityQrelFilePath|takeKEntities|omitQueryTerms|useFrequency|relType|analyzer|similarity)");
+                "entityQrelFilePath|takeKEntities|omitQueryTerms|useFrequency|relType|analyzer|similarity|[lambda]|" +
+                "[minHashFile])");
+
+        System.out.println("--ecn-rel (indexDir|mainDir|outputDir|dataDir|paraRunFile|entityRunFile|relFile|" +
+                "entityQrel|relType|parallel|analyzer|similarity|[lambda]|[linkGraphFile|embeddingsFile|minHashFile])");
+
+        System.out.println("--para-index (cborFile|indexDir|analyzer|[annotationFile|none]|[anchorLinkerFile])");
+
+        System.out.println("--anchor-linker (pageIndexDir|outFile|[minLinks])");
+
+        System.out.println("--term-vectors (indexDir|outIndexDir|analyzer|[idField]|[textField])");
+
+        System.out.println("--entity-lm (pageIndexDir|stopWordsFile|outFile)");
+
+        System.out.println("--link-graph (pageIndexDir|outFile)");
+
+        System.out.println("--minhash (linkGraphFile|outFile|[epsilon (default 0.05)]|[delta (default 0.1)]|[lshThreshold])");
+
+        System.out.println("--minhash-benchmark (linkGraphFile|minHashFile|entityRunFile|[topK])");
+
+        System.out.println("--extract-features (indexDir|paraRunFile|entityRunFile|entityQrelFile|features|outFile|" +
+                "parallel|[supportPsgQrelFile|none]|[svmRankFile|none]|[relType|none]|[relFile|none]|" +
+                "[relatednessFile|none]|[analyzer|none]|[takeKTerms]|[stopWordsFile|none]|[omitQueryTerms])");
+        System.out.println("    features: all, or a comma-separated list of " + Features.names());
+        System.out.println("    ecn-rel: needs relType and relFile (and a link graph, entity embeddings or MinHash " +
+                "index as relatednessFile, else the WAT API is used)");
+        System.out.println("    qe-ecd-terms: needs analyzer (std or eng) and takeKTerms");
+
+        System.out.println("--ltr (featureStoreFile|metric (MAP or P@1)|numFolds|numRestarts|outRunFile|[normalize]|[seed])");
+
+        System.out.println("--entity-embeddings (wikipedia2vecTextFile|outFile)");
+
+        System.out.println("--title-index (page|dump, pageIndexDir|titleDumpFile, outFile)");
+
+        System.out.println("--get-ent-id (pageIndexDir|paraIndexDir|mainDir|dataDir|outputDir|paraRunFile|entityRunFile|" +
+                "entityQrelFile|outputFile|mode|parallel|analyzer|similarity|[lambda]|[titleIndexFile])");
 
         System.out.println("--exp4 (indexDir|mainDir|outputDir|dataDir|passageRunFile|entityRunFile|idFile, outFile|" +
                 "entityQrelFilePath|takeKPassages|relType|analyzer|similarity)");
@@ -0,0 +1,564 @@
+package api;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Local dictionary-based entity linker built from the anchor texts in the PageIndex.
+ *
+ * Every anchor text in the "InlinkAnchors" field of the PageIndex (stored as anchor_freq) is linked to the page
+ * it points to most often. Two statistics of the anchor decide whether a match in a text is annotated:
+ * (1) Link probability: P(link | anchor) = link(anchor) / freq(anchor), the fraction of the occurrences of the
+ *     anchor in the "Content" of the pages which are links. Words which are sometimes used as anchors but are
+ *     mostly plain text ("the", "film", "also") have a low link probability; these are not mentions.
+ * (2) Commonness: P(page | anchor) = link(anchor, page) / link(anchor), the fraction of the links with the anchor
+ *     which point to the most frequent page. A low commonness means an ambiguous anchor, which this linker
+ *     cannot disambiguate as it does not look at the context.
+ * A match is annotated only if both are at least their threshold (see {@link #load(String, double, double)}).
+ * The score (rho) of an annotation is the product of the two, i.e., the probability that the match is a link to
+ * the page. This is not the WAT rho, so thresholds tuned for WAT do not carry over.
+ *
+ * The anchors are compiled into a Lucene FST. A text is annotated by walking the FST from every token position
+ * and taking the longest anchor that matches and passes the thresholds (left to right, non-overlapping), so
+ * annotation runs in memory with no network call. The FST is read-only, so the batch annotate methods annotate
+ * the texts in parallel.
+ *
+ * NOTE:
+ * (1) The wikiId of an annotation is the docid of the page in the PageIndex (i.e., the same id used by the
+ *     {@link LinkGraph} and by a {@link TitleIndex} built from the PageIndex), not the Wikipedia page ID used by WAT.
+ *     Use {@link #getPageDocId(WATApi.Annotation)} to read it.
+ * (2) Anchors and text are matched case-insensitively on runs of letters and digits,
+ *     so "U.S." in the text matches the anchor "u s".
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class AnchorLinker implements Annotator {
+
+    /**
+     * Default minimum link probability of a match. Below 5%, an anchor is far more often plain text than a link,
+     * and linking every occurrence would mostly add false positives (the TagMe spotter discards anchors on the same
+     * statistic). A lower value finds more mentions at the cost of precision.
+     */
+    public final static double DEFAULT_MIN_LINK_PROBABILITY = 0.05;
+
+    /**
+     * Default minimum commonness of a match: the most frequent page of an anchor must receive at least a fifth of
+     * its links. Anchors below this are ambiguous and are left out rather than linked to an arbitrary sense.
+     */
+    public final static double DEFAULT_MIN_COMMONNESS = 0.2;
+
+    private final static int MAGIC = 0x414E4B4C; // "ANKL"
+    private final static int VERSION = 2;
+    private final static int MAX_SPOT_TOKENS = 10;
+
+    // FST output: (page docid << 32) | (link probability << 16) | commonness, both probabilities in 16 bits
+    private final static int PROB_BITS = 16;
+    private final static long PROB_SCALE = (1L << PROB_BITS) - 1;
+
+    private final FST<Long> fst;
+    private final String[] pageNames;
+    private final double minLinkProbability;
+    private final double minCommonness;
+
+    @Contract(pure = true)
+    private AnchorLinker(FST<Long> fst, String[] pageNames, double minLinkProbability, double minCommonness) {
+        this.fst = fst;
+        this.pageNames = pageNames;
+        this.minLinkProbability = minLinkProbability;
+        this.minCommonness = minCommonness;
+    }
+
+    /**
+     * Annotate a piece of text.
+     * @param text String The text to annotate.
+     * @param rho Double Only annotations with a score (link probability * commonness) of at least rho are returned.
+     *            The thresholds of the linker are applied in any case, so rho = 0 is a sensible value.
+     * @return List of annotations.
+     */
+
+    @Override
+    @NotNull
+    public List<WATApi.Annotation> getAnnotations(@NotNull String text, double rho) {
+        List<WATApi.Annotation> annotations = new ArrayList<>();
+        int[] tokens = tokenize(text);
+        byte[][] bytes = tokenBytes(text, tokens);
+        int numTokens = bytes.length;
+
+        FST.BytesReader reader = fst.getBytesReader();
+        FST.Arc<Long> arc = new FST.Arc<>();
+        long[] outputs = new long[MAX_SPOT_TOKENS];
+
+        int t = 0;
+        while (t < numTokens) {
+            // Longest anchor starting at t which passes the thresholds
+            int matchLength = 0;
+            double linkProbability = 0, commonness = 0;
+            for (int k = walk(fst, bytes, t, reader, arc, outputs) - 1; k >= 0; k--) {
+                if (outputs[k] < 0) {
+                    continue;
+                }
+                linkProbability = unpack(outputs[k] >>> PROB_BITS);
+                commonness = unpack(outputs[k]);
+                if (linkProbability >= minLinkProbability && commonness >= minCommonness) {
+                    matchLength = k + 1;
+                    break;
+                }
+            }
+            if (matchLength == 0) {
+                t++;
+                continue;
+            }
+
+            int matchEnd = t + matchLength - 1;
+            int pageDocId = (int) (outputs[matchLength - 1] >>> (2 * PROB_BITS));
+            double score = linkProbability * commonness;
+            if (score >= rho) {
+                int start = tokens[2 * t];
+                int end = tokens[2 * matchEnd + 1];
+                annotations.add(new WATApi.Annotation(pageDocId, pageNames[pageDocId], text.substring(start, end),
+                        start, end, score));
+            }
+            t = matchEnd + 1;
+        }
+        return annotations;
+    }
+
+    /**
+     * Annotate a batch of texts in parallel.
+     * @param texts Map of (id, text).
+     * @param rho Double Only annotations with a score (link probability * commonness) of at least rho are returned.
+     * @return Map of (id, annotations).
+     */
+
+    @NotNull
+    public Map<String, List<WATApi.Annotation>> annotate(@NotNull Map<String, String> texts, double rho) {
+        return texts.entrySet()
+                .parallelStream()
+                .collect(Collectors.toConcurrentMap(Map.Entry::getKey, e -> getAnnotations(e.getValue(), rho)));
+    }
+
+    /**
+     * Annotate a batch of texts in parallel.
+     * @param texts List of texts.
+     * @param rho Double Only annotations with a score (link probability * commonness) of at least rho are returned.
+     * @return List of annotations of every text, in the same order as the texts.
+     */
+
+    @NotNull
+    public List<List<WATApi.Annotation>> annotate(@NotNull List<String> texts, double rho) {
+        return IntStream.range(0, texts.size())
+                .parallel()
+                .mapToObj(i -> getAnnotations(texts.get(i), rho))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the docid in the PageIndex of the page an annotation of this linker links to.
+     * @param annotation Annotation returned by this linker.
+     * @return Integer
+     */
+
+    @Contract(pure = true)
+    public static int getPageDocId(@NotNull WATApi.Annotation annotation) {
+        return annotation.getWikiId();
+    }
+
+    /**
+     * Walk the FST over the tokens starting at a position.
+     * @param fst FST over the anchors.
+     * @param bytes UTF-8 bytes of the (lowercased) tokens.
+     * @param t Integer Position of the first token.
+     * @param reader FST.BytesReader Reader of the FST.
+     * @param arc FST.Arc Scratch arc.
+     * @param outputs Filled with the output of the anchor made of the tokens t..t+k at index k, or -1 if there is none.
+     * @return Integer Number of entries of outputs filled.
+     */
+
+    private static int walk(@NotNull FST<Long> fst,
+                            @NotNull byte[][] bytes,
+                            int t,
+                            FST.BytesReader reader,
+                            FST.Arc<Long> arc,
+                            @NotNull long[] outputs) {
+        fst.getFirstArc(arc);
+        Long output = fst.outputs.getNoOutput();
+        int n = 0;
+        try {
+            for (int u = t; u < bytes.length && n < outputs.length; u++) {
+                if (u > t) {
+                    // Tokens are separated by a single space in the anchors
+                    if (fst.findTargetArc(' ', arc, arc, reader) == null) {
+                        return n;
+                    }
+                    output = fst.outputs.add(output, arc.output);
+                }
+                for (byte b : bytes[u]) {
+                    if (fst.findTargetArc(b & 0xFF, arc, arc, reader) == null) {
+                        return n;
+                    }
+                    output = fst.outputs.add(output, arc.output);
+                }
+                outputs[n++] = arc.isFinal() ? fst.outputs.add(output, arc.nextFinalOutput) : -1;
+            }
+        } catch (IOException e) {
+            // The FST is held in memory
+            throw new UncheckedIOException(e);
+        }
+        return n;
+    }
+
+    @Contract(pure = true)
+    private static double unpack(long bits) {
+        return (double) (bits & PROB_SCALE) / PROB_SCALE;
+    }
+
+    @Contract(pure = true)
+    private static long pack(double probability) {
+        return Math.round(Math.min(1.0d, probability) * PROB_SCALE);
+    }
+
+    /**
+     * Get the UTF-8 bytes of the lowercased tokens of a text.
+     * @param text String
+     * @param tokens Array of (start, end) character offsets of the tokens.
+     * @return Array of bytes of every token.
+     */
+
+    @NotNull
+    private static byte[][] tokenBytes(@NotNull String text, @NotNull int[] tokens) {
+        byte[][] bytes = new byte[tokens.length / 2][];
+        for (int t = 0; t < bytes.length; t++) {
+            bytes[t] = text.substring(tokens[2 * t], tokens[2 * t + 1]).toLowerCase().getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * Split a text into runs of letters and digits.
+     * @param text String
+     * @return Array of (start, end) character offsets of the tokens.
+     */
+
+    @NotNull
+    private static int[] tokenize(@NotNull String text) {
+        int[] tokens = new int[16];
+        int n = 0;
+        int i = 0, length = text.length();
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (n + 2 > tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            tokens[n++] = start;
+            tokens[n++] = i;
+        }
+        return Arrays.copyOf(tokens, n);
+    }
+
+    /**
+     * Normalize an anchor text the same way a text is tokenized for matching.
+     * @param anchor String
+     * @return String Lowercased tokens separated by a single space.
+     */
+
+    @NotNull
+    static String normalize(@NotNull String anchor) {
+        int[] tokens = tokenize(anchor);
+        StringBuilder sb = new StringBuilder(anchor.length());
+        for (int t = 0; t < tokens.length; t += 2) {
+            if (t > 0) {
+                sb.append(' ');
+            }
+            sb.append(anchor, tokens[t], tokens[t + 1]);
+        }
+        return sb.toString().toLowerCase();
+    }
+
+    /////////////////////////////////// BUILDING THE LINKER //////////////////////////////////////////////
+
+    /**
+     * Build the linker from the PageIndex.
+     * The link counts of the anchors are read from the "InlinkAnchors" field. The number of times every anchor
+     * occurs in the "Content" field of the pages (linked or not) is then counted with a second pass which walks the
+     * FST over the text, as for annotation; the link probability of the anchor is the ratio of the two.
+     * NOTE: All distinct anchors are held in memory while the FST is built.
+     * @param pageIndexDir String Path to the PageIndex.
+     * @param minLinks Integer Anchors used fewer than this many times (over all pages) are dropped.
+     * @return AnchorLinker
+     * @throws IOException
+     */
+
+    @NotNull
+    public static AnchorLinker build(String pageIndexDir, int minLinks) throws IOException {
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(pageIndexDir).toPath()));
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Set<String> fields = new HashSet<>(Arrays.asList("Name", "InlinkAnchors"));
+        String[] pageNames = new String[reader.maxDoc()];
+
+        // anchor --> {best page docid, freq of best page, total freq}
+        Map<String, long[]> anchors = new HashMap<>();
+
+        System.out.println("Reading anchors from page index...");
+        ProgressBar pb = new ProgressBar("Progress", reader.maxDoc());
+        for (int docId = 0; docId < reader.maxDoc(); docId++) {
+            pb.step();
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+            Document doc = reader.document(docId, fields);
+            pageNames[docId] = doc.get("Name");
+            String inlinkAnchors = doc.get("InlinkAnchors");
+            if (inlinkAnchors == null || inlinkAnchors.isEmpty()) {
+                continue;
+            }
+            for (String s : inlinkAnchors.split("\n")) {
+                int pos = s.lastIndexOf('_');
+                if (pos <= 0) {
+                    continue;
+                }
+                long freq;
+                try {
+                    freq = Long.parseLong(s.substring(pos + 1));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                String anchor = normalize(s.substring(0, pos));
+                if (anchor.isEmpty()) {
+                    continue;
+                }
+                long[] stats = anchors.computeIfAbsent(anchor, k -> new long[]{-1, 0, 0});
+                stats[2] += freq;
+                if (freq > stats[1]) {
+                    stats[0] = docId;
+                    stats[1] = freq;
+                }
+            }
+        }
+        pb.close();
+
+        // The FST must be built from keys in sorted (unsigned byte) order
+        List<BytesRef> keys = new ArrayList<>(anchors.size());
+        List<long[]> stats = new ArrayList<>(anchors.size());
+        List<Map.Entry<BytesRef, long[]>> entries = new ArrayList<>(anchors.size());
+        for (Map.Entry<String, long[]> entry : anchors.entrySet()) {
+            long[] s = entry.getValue();
+            if (s[2] >= minLinks && s[0] >= 0) {
+                entries.add(new AbstractMap.SimpleEntry<>(new BytesRef(entry.getKey()), s));
+            }
+        }
+        anchors.clear();
+        entries.sort(Map.Entry.comparingByKey());
+        for (Map.Entry<BytesRef, long[]> entry : entries) {
+            keys.add(entry.getKey());
+            stats.add(entry.getValue());
+        }
+        entries.clear();
+        if (keys.isEmpty()) {
+            reader.close();
+            throw new IOException("No anchors found in page index: " + pageIndexDir);
+        }
+
+        // Occurrences of every anchor in the text, found with an FST from the anchor to its ordinal
+        System.out.print("Building FST over " + keys.size() + " anchors...");
+        long[] ordinals = new long[keys.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        FST<Long> ordinalFst = buildFst(keys, ordinals);
+        System.out.println("[Done].");
+        long[] textFreq = countOccurrences(reader, liveDocs, ordinalFst, keys.size());
+        reader.close();
+
+        System.out.print("Building FST over " + keys.size() + " anchors...");
+        long[] outputs = new long[keys.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            long[] s = stats.get(i);
+            // Linked occurrences are also occurrences in the text, unless the text and the anchors disagree
+            double linkProbability = (double) s[2] / Math.max(textFreq[i], s[2]);
+            double commonness = (double) s[1] / s[2];
+            outputs[i] = (s[0] << (2 * PROB_BITS)) | (pack(linkProbability) << PROB_BITS) | pack(commonness);
+        }
+        FST<Long> fst = buildFst(keys, outputs);
+        System.out.println("[Done].");
+        return new AnchorLinker(fst, pageNames, DEFAULT_MIN_LINK_PROBABILITY, DEFAULT_MIN_COMMONNESS);
+    }
+
+    /**
+     * Build an FST over sorted keys.
+     * @param keys List of keys, in sorted (unsigned byte) order.
+     * @param outputs Output of every key (non-negative).
+     * @return FST
+     * @throws IOException
+     */
+
+    @NotNull
+    private static FST<Long> buildFst(@NotNull List<BytesRef> keys, @NotNull long[] outputs) throws IOException {
+        Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        for (int i = 0; i < outputs.length; i++) {
+            builder.add(Util.toIntsRef(keys.get(i), scratch), outputs[i]);
+        }
+        return builder.finish();
+    }
+
+    /**
+     * Count the occurrences of the anchors in the "Content" field of the pages.
+     * Every occurrence is counted, including the shorter anchors inside a longer one ("york" in "new york"),
+     * as every one of them is an occurrence the anchor could have been linked at.
+     * @param reader IndexReader Reader of the PageIndex.
+     * @param liveDocs Bits Live documents of the PageIndex. May be null.
+     * @param ordinalFst FST from the anchors to their ordinals.
+     * @param numAnchors Integer Number of anchors.
+     * @return Array of occurrence counts, indexed by ordinal.
+     * @throws IOException
+     */
+
+    @NotNull
+    private static long[] countOccurrences(@NotNull IndexReader reader,
+                                           @Nullable Bits liveDocs,
+                                           @NotNull FST<Long> ordinalFst,
+                                           int numAnchors) throws IOException {
+        long[] textFreq = new long[numAnchors];
+        Set<String> fields = Collections.singleton("Content");
+        FST.BytesReader fstReader = ordinalFst.getBytesReader();
+        FST.Arc<Long> arc = new FST.Arc<>();
+        long[] outputs = new long[MAX_SPOT_TOKENS];
+
+        System.out.println("Counting anchors in page text...");
+        ProgressBar pb = new ProgressBar("Progress", reader.maxDoc());
+        for (int docId = 0; docId < reader.maxDoc(); docId++) {
+            pb.step();
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+            String content = reader.document(docId, fields).get("Content");
+            if (content == null || content.isEmpty()) {
+                continue;
+            }
+            byte[][] bytes = tokenBytes(content, tokenize(content));
+            for (int t = 0; t < bytes.length; t++) {
+                int n = walk(ordinalFst, bytes, t, fstReader, arc, outputs);
+                for (int k = 0; k < n; k++) {
+                    if (outputs[k] >= 0) {
+                        textFreq[(int) outputs[k]]++;
+                    }
+                }
+            }
+        }
+        pb.close();
+        return textFreq;
+    }
+
+    /////////////////////////////////// READING AND WRITING ////////////////////////////////////////////
+
+    /**
+     * Write the linker to disk.
+     * The thresholds are not written; they are chosen when the linker is loaded.
+     * @param file String Path to the output file.
+     * @throws IOException
+     */
+
+    public void write(String file) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            OutputStreamDataOutput out = new OutputStreamDataOutput(os);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeVInt(pageNames.length);
+            for (String name : pageNames) {
+                out.writeString(name == null ? "" : name);
+            }
+            fst.save(out);
+        }
+    }
+
+    /**
+     * Read a linker written with {@link #write(String)}, with the default thresholds
+     * ({@link #DEFAULT_MIN_LINK_PROBABILITY} and {@link #DEFAULT_MIN_COMMONNESS}).
+     * @param file String Path to the file.
+     * @return AnchorLinker
+     * @throws IOException
+     */
+
+    @NotNull
+    public static AnchorLinker load(String file) throws IOException {
+        return load(file, DEFAULT_MIN_LINK_PROBABILITY, DEFAULT_MIN_COMMONNESS);
+    }
+
+    /**
+     * Read a linker written with {@link #write(String)}.
+     * @param file String Path to the file.
+     * @param minLinkProbability Double Matches with a lower link probability are not annotated.
+     * @param minCommonness Double Matches with a lower commonness are not annotated.
+     * @return AnchorLinker
+     * @throws IOException
+     */
+
+    @NotNull
+    public static AnchorLinker load(String file, double minLinkProbability, double minCommonness) throws IOException {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            InputStreamDataInput in = new InputStreamDataInput(is);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an anchor linker file (or written by an older version): " + file);
+            }
+            String[] pageNames = new String[in.readVInt()];
+            for (int i = 0; i < pageNames.length; i++) {
+                pageNames[i] = in.readString();
+            }
+            return new AnchorLinker(new FST<>(in, PositiveIntOutputs.getSingleton()), pageNames,
+                    minLinkProbability, minCommonness);
+        }
+    }
+
+    /**
+     * Main method to build the linker.
+     * @param args Command line arguments: pageIndexDir outputFile [minLinks]
+     */
+
+    public static void main(@NotNull String[] args) {
+        String pageIndexDir = args[0];
+        String outFile = args[1];
+        int minLinks = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        try {
+            AnchorLinker linker = build(pageIndexDir, minLinks);
+            System.out.print("Writing anchor linker to: " + outFile + "...");
+            linker.write(outFile);
+            System.out.println("[Done].");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package api;
+
+import help.RecordLog;
+import help.RecordStore;
+import help.VInt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sidecar store of the entity annotations of the paragraphs in the corpus (paraId --> annotations).
+ * Each paragraph is sent to the entity linker (WAT by default) once with rho = 0 (i.e., all annotations are kept)
+ * and the result is saved, so that the paragraph index can be rebuilt with a different analyzer or rho threshold
+ * without calling the entity linker again.
+ * NOTE: The store does not record which entity linker produced the annotations. Use one store per entity linker.
+ *
+ * On disk the store is a {@link RecordStore} (the annotations of all paragraphs seen so far) and a {@link RecordLog}
+ * next to it (file.log) with the annotations fetched in the current run. The log is merged into the store
+ * when the store is closed, or when it is next opened if the previous run crashed.
+ *
+ * Value format (per paragraph): vint numAnnotations, then for every annotation:
+ * int wikiId, int start, int end, double rho, UTF wikiTitle, UTF spot.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class AnnotationStore implements Closeable {
+
+    private final static int BATCH_SIZE = 1000;
+
+    private final String storeFile;
+    private final String logFile;
+    private final RecordStore store;
+    private final RecordLog log;
+    private final Annotator annotator;
+
+    /**
+     * Open the store. Creates it if it does not exist. Paragraphs not in the store are annotated with WAT.
+     * @param file String Path to the store.
+     * @throws IOException
+     */
+
+    public AnnotationStore(String file) throws IOException {
+        this(file, Annotator.WAT);
+    }
+
+    /**
+     * Open the store. Creates it if it does not exist.
+     * @param file String Path to the store.
+     * @param annotator Annotator Entity linker used for paragraphs not in the store.
+     * @throws IOException
+     */
+
+    public AnnotationStore(String file, @NotNull Annotator annotator) throws IOException {
+        this.annotator = annotator;
+        this.storeFile = file;
+        this.logFile = file + ".log";
+
+        if (new File(logFile).exists()) {
+            System.out.print("Merging annotations from previous run into store...");
+            RecordStore.compact(storeFile, logFile);
+            System.out.println("[Done].");
+        }
+        this.store = new File(storeFile).exists() ? RecordStore.open(storeFile) : null;
+        this.log = new RecordLog(logFile, BATCH_SIZE);
+        if (store != null) {
+            System.out.println("Found annotations for " + store.size() + " paragraphs in " + storeFile);
+        }
+    }
+
+    /**
+     * Get the annotations of a paragraph.
+     * If the paragraph is not in the store, it is annotated and the annotations are added to the store.
+     * If the entity linker fails, nothing is stored (so the paragraph is annotated again next time) and no
+     * annotations are returned.
+     * @param paraId String ID of the paragraph.
+     * @param text String Text of the paragraph.
+     * @param rho Double Only annotations with a rho above this value are returned.
+     * @return List of annotations.
+     */
+
+    @NotNull
+    public List<WATApi.Annotation> getAnnotations(@NotNull String paraId, String text, double rho) {
+        List<WATApi.Annotation> annotations = get(paraId);
+        if (annotations == null) {
+            annotations = annotator.tryGetAnnotations(text, 0.0);
+            if (annotations == null) {
+                System.err.println("ERROR: Could not annotate paragraph " + paraId + ". It is not stored.");
+                return new ArrayList<>();
+            }
+            try {
+                log.append(paraId, encode(annotations));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        List<WATApi.Annotation> result = new ArrayList<>(annotations.size());
+        for (WATApi.Annotation annotation : annotations) {
+            if (annotation.getRho() >= rho) {
+                result.add(annotation);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the stored annotations of a paragraph.
+     * @param paraId String ID of the paragraph.
+     * @return List of annotations or null if the paragraph is not in the store.
+     */
+
+    @Nullable
+    public List<WATApi.Annotation> get(@NotNull String paraId) {
+        if (store == null) {
+            return null;
+        }
+        byte[] value = store.get(paraId);
+        return value == null ? null : decode(value);
+    }
+
+    /**
+     * Close the store. The annotations fetched in this run are merged into the store.
+     * @throws IOException
+     */
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+        if (store != null) {
+            store.close();
+        }
+        System.out.print("Writing annotations to: " + storeFile + "...");
+        RecordStore.compact(storeFile, logFile);
+        System.out.println("[Done].");
+    }
+
+    ///////////////////////////////////////// ENCODING ////////////////////////////////////////////////
+
+    @NotNull
+    private static byte[] encode(@NotNull List<WATApi.Annotation> annotations) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        VInt.write(out, annotations.size());
+        for (WATApi.Annotation annotation : annotations) {
+            out.writeInt(annotation.getWikiId());
+            out.writeInt(annotation.getStart());
+            out.writeInt(annotation.getEnd());
+            out.writeDouble(annotation.getRho());
+            out.writeUTF(annotation.getWikiTitle());
+            out.writeUTF(annotation.getSpot() == null ? "" : annotation.getSpot());
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @NotNull
+    private static List<WATApi.Annotation> decode(@NotNull byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            int n = VInt.read(in);
+            List<WATApi.Annotation> annotations = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int wikiId = in.readInt();
+                int start = in.readInt();
+                int end = in.readInt();
+                double rho = in.readDouble();
+                String wikiTitle = in.readUTF();
+                String spot = in.readUTF();
+                annotations.add(new WATApi.Annotation(wikiId, wikiTitle, spot, start, end, rho));
+            }
+            return annotations;
+        } catch (IOException e) {
+            // Reading from a byte array does not do any I/O
+            throw new UncheckedIOException(e);
+        }
+    }
+}
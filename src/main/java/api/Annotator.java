@@ -0,0 +1,55 @@
+package api;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * An entity linker: finds the entity mentions in a piece of text.
+ * Implemented by the WAT Entity Linker (over the network) and by the {@link AnchorLinker} (in memory).
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+@FunctionalInterface
+public interface Annotator {
+
+    /**
+     * The WAT Entity Linker.
+     */
+
+    Annotator WAT = new Annotator() {
+        @Override
+        public List<WATApi.Annotation> getAnnotations(String text, double rho) {
+            return WATApi.EntityLinker.getAnnotations(text, rho);
+        }
+
+        @Override
+        public List<WATApi.Annotation> tryGetAnnotations(String text, double rho) {
+            return WATApi.EntityLinker.tryGetAnnotations(text, rho);
+        }
+    };
+
+    /**
+     * Annotate a piece of text.
+     * @param text String The text to annotate.
+     * @param rho Double Only annotations with a score of at least rho are returned.
+     * @return List of annotations.
+     */
+
+    List<WATApi.Annotation> getAnnotations(String text, double rho);
+
+    /**
+     * Annotate a piece of text, telling failures (e.g., a network or parse error of a remote linker) apart from
+     * texts without annotations. Results that are stored for later runs must come from this method.
+     * @param text String The text to annotate.
+     * @param rho Double Only annotations with a score of at least rho are returned.
+     * @return List of annotations, or null if the text could not be annotated.
+     */
+
+    @Nullable
+    default List<WATApi.Annotation> tryGetAnnotations(String text, double rho) {
+        return getAnnotations(text, rho);
+    }
+}
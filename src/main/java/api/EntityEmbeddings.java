@@ -0,0 +1,315 @@
+package api;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local entity relatedness engine for the "w2v" measure, from a Wikipedia2Vec entity embedding file.
+ * The WAT "w2v" measure is the cosine similarity of the embeddings of two entities, so with the embeddings at hand
+ * we can compute it in-process instead of making one call to WAT per pair.
+ *
+ * The embedding file (text format of Wikipedia2Vec: a header line "count dim", then one line per word or entity:
+ * name v1 ... vdim, with entity names prefixed with "ENTITY/") is converted once with {@link #build(String, String)}.
+ * Only the entities are kept, and their vectors are normalized to unit length, so the cosine similarity is a dot
+ * product. The vectors are written as one float matrix (one row per entity ordinal) which {@link #load(String)}
+ * memory-maps, so the vectors live off-heap and are shared by all threads.
+ *
+ * The similarity of one entity with many entities ({@link #cosine(int, int[])}) loads the vector of the target
+ * once and scores every other entity with an unrolled dot product (four independent accumulators, which the JIT
+ * turns into pipelined multiply-adds).
+ *
+ * NOTE: The ids accepted by this class are ordinals of this store, not Wikipedia page IDs.
+ * Use {@link #getId(String)} to resolve a title or a page id to its ordinal.
+ *
+ * Files:
+ * (1) file: int MAGIC, int VERSION, int numEntities, int dim, then numEntities * dim floats.
+ * (2) file.titles: int numEntities, then the titles (UTF) in order of ordinal.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class EntityEmbeddings implements Relatedness, IdResolver, Closeable {
+
+    private final static int MAGIC = 0x454D4244; // "EMBD"
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+    private final static String ENTITY_PREFIX = "ENTITY/";
+
+    private final String[] titles;
+    private final int dim;
+    private final FloatBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final FileChannel channel;
+    private final TitleIndex titleIndex;
+    private final ThreadLocal<float[][]> buffers;
+
+    private EntityEmbeddings(@NotNull String[] titles, int dim, FloatBuffer[] chunks, int rowsPerChunk,
+                             FileChannel channel) {
+        this.titles = titles;
+        this.dim = dim;
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.channel = channel;
+        this.titleIndex = TitleIndex.fromTitles(titles, TitleIndex.IdSpace.LOCAL);
+        this.buffers = ThreadLocal.withInitial(() -> new float[2][dim]);
+    }
+
+    /**
+     * Check if a relatedness measure can be computed from the embeddings.
+     * @param relMeasure String Relatedness measure (as passed to WAT).
+     * @return Boolean True if the measure is supported, false otherwise.
+     */
+
+    public static boolean supports(@NotNull String relMeasure) {
+        return "w2v".equalsIgnoreCase(relMeasure);
+    }
+
+    /**
+     * Get the relatedness between every pair of entities provided as argument.
+     * Same contract as WATApi.EntityRelatedness.getRelatedness().
+     * @param relMeasure String Relatedness function to compute. Only "w2v" is accepted.
+     * @param ids List of ordinals in the store.
+     * @return List List of Pairs of entities with relatedness score.
+     */
+
+    @NotNull
+    @Override
+    public List<WATApi.EntityRelatedness.Pair> getRelatedness(String relMeasure, @NotNull int ... ids) {
+        List<WATApi.EntityRelatedness.Pair> relatedPairsList = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            int[] others = new int[ids.length - i - 1];
+            System.arraycopy(ids, i + 1, others, 0, others.length);
+            double[] rel = cosine(ids[i], others);
+            for (int j = 0; j < others.length; j++) {
+                WATApi.EntityRelatedness.Pair.Source source =
+                        new WATApi.EntityRelatedness.Pair.Source(ids[i], getName(ids[i]));
+                WATApi.EntityRelatedness.Pair.Destination destination =
+                        new WATApi.EntityRelatedness.Pair.Destination(others[j], getName(others[j]));
+                relatedPairsList.add(new WATApi.EntityRelatedness.Pair(source, destination, rel[j]));
+            }
+        }
+        return relatedPairsList;
+    }
+
+    /**
+     * Cosine similarity of two entities.
+     * @param id1 Integer Ordinal of the first entity.
+     * @param id2 Integer Ordinal of the second entity.
+     * @return Double Zero if either id is not in the store.
+     */
+
+    public double cosine(int id1, int id2) {
+        return cosine(id1, new int[]{id2})[0];
+    }
+
+    /**
+     * Cosine similarity of one entity with many entities.
+     * @param target Integer Ordinal of the target entity.
+     * @param others Ordinals of the other entities.
+     * @return Array of similarities, in the order of the others. Zero for the ids not in the store.
+     */
+
+    @NotNull
+    public double[] cosine(int target, @NotNull int[] others) {
+        double[] scores = new double[others.length];
+        if (!contains(target)) {
+            return scores;
+        }
+        float[][] buffer = buffers.get();
+        float[] u = buffer[0], v = buffer[1];
+        getVector(target, u);
+        for (int j = 0; j < others.length; j++) {
+            if (contains(others[j])) {
+                getVector(others[j], v);
+                scores[j] = dot(u, v, dim);
+            }
+        }
+        return scores;
+    }
+
+    private static double dot(@NotNull float[] u, @NotNull float[] v, int dim) {
+        float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+        int i = 0;
+        for (int end = dim & ~3; i < end; i += 4) {
+            s0 += u[i] * v[i];
+            s1 += u[i + 1] * v[i + 1];
+            s2 += u[i + 2] * v[i + 2];
+            s3 += u[i + 3] * v[i + 3];
+        }
+        for (; i < dim; i++) {
+            s0 += u[i] * v[i];
+        }
+        return (double) s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * Copy the (unit length) vector of an entity.
+     * @param id Integer Ordinal of the entity.
+     * @param dst Array of at least {@link #getDimension()} floats.
+     */
+
+    public void getVector(int id, @NotNull float[] dst) {
+        // Duplicate the buffer, since the position of a buffer is not thread-safe
+        FloatBuffer chunk = chunks[id / rowsPerChunk].duplicate();
+        chunk.position((id % rowsPerChunk) * dim);
+        chunk.get(dst, 0, dim);
+    }
+
+    @Override
+    public int getId(@NotNull String title) {
+        return titleIndex.getId(title);
+    }
+
+    @Contract(pure = true)
+    private boolean contains(int id) {
+        return id >= 0 && id < titles.length;
+    }
+
+    public String getName(int id) {
+        return contains(id) ? titles[id] : "";
+    }
+
+    public int size() {
+        return titles.length;
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Convert a Wikipedia2Vec embedding file (text format) to a store.
+     * @param embeddingFile String Path to the embedding file.
+     * @param file String Path to the store.
+     * @throws IOException
+     */
+
+    public static void build(String embeddingFile, String file) throws IOException {
+        List<String> titles = new ArrayList<>();
+        int dim;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(embeddingFile),
+                StandardCharsets.UTF_8), 1 << 16);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            String[] header = br.readLine().trim().split(" ");
+            if (header.length != 2) {
+                throw new IOException("Missing header line (count dim) in embedding file: " + embeddingFile);
+            }
+            int count = Integer.parseInt(header[0]);
+            dim = Integer.parseInt(header[1]);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0); // Number of entities, written at the end
+            out.writeInt(dim);
+
+            float[] vector = new float[dim];
+            ProgressBar pb = new ProgressBar("Progress", count);
+            String line;
+            while ((line = br.readLine()) != null) {
+                pb.step();
+                if (!line.startsWith(ENTITY_PREFIX)) {
+                    continue;
+                }
+                // The title may contain spaces, so read the vector from the end of the line
+                int end = line.length();
+                double norm = 0.0d;
+                for (int i = dim - 1; i >= 0; i--) {
+                    int start = line.lastIndexOf(' ', end - 1);
+                    vector[i] = Float.parseFloat(line.substring(start + 1, end));
+                    norm += (double) vector[i] * vector[i];
+                    end = start;
+                }
+                norm = Math.sqrt(norm);
+                for (int i = 0; i < dim; i++) {
+                    out.writeFloat(norm == 0.0d ? 0.0f : (float) (vector[i] / norm));
+                }
+                titles.add(line.substring(ENTITY_PREFIX.length(), end));
+            }
+            pb.close();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(titles.size());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file + ".titles"),
+                1 << 16))) {
+            out.writeInt(titles.size());
+            for (String title : titles) {
+                out.writeUTF(title);
+            }
+        }
+    }
+
+    /**
+     * Open a store written with {@link #build(String, String)}.
+     * @param file String Path to the store.
+     * @return EntityEmbeddings
+     * @throws IOException
+     */
+
+    @NotNull
+    public static EntityEmbeddings load(String file) throws IOException {
+        String[] titles;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file + ".titles"),
+                1 << 16))) {
+            titles = new String[in.readInt()];
+            for (int i = 0; i < titles.length; i++) {
+                titles[i] = in.readUTF();
+            }
+        }
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an entity embedding file: " + file);
+            }
+            if (in.readInt() != titles.length) {
+                throw new IOException("Entity embedding file does not match its titles: " + file);
+            }
+            int dim = in.readInt();
+
+            // A mapping is at most 2GB, so map the matrix in chunks of whole rows
+            int rowsPerChunk = Math.max(1, Integer.MAX_VALUE / (4 * dim));
+            int numChunks = (titles.length + rowsPerChunk - 1) / rowsPerChunk;
+            FloatBuffer[] chunks = new FloatBuffer[numChunks];
+            for (int c = 0; c < numChunks; c++) {
+                long rows = Math.min(rowsPerChunk, titles.length - (long) c * rowsPerChunk);
+                long offset = HEADER_SIZE + (long) c * rowsPerChunk * dim * 4;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset, rows * dim * 4).asFloatBuffer();
+            }
+            return new EntityEmbeddings(titles, dim, chunks, rowsPerChunk, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Main method.
+     * @param args Command line arguments: embeddingFile outFile
+     */
+
+    public static void main(@NotNull String[] args) {
+        try {
+            System.out.println("Converting entity embeddings from: " + args[0]);
+            build(args[0], args[1]);
+            System.out.println("Entity embeddings written to: " + args[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
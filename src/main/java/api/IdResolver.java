@@ -0,0 +1,53 @@
+package api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Common interface for the systems that take a Wikipedia entity name and return the corresponding ID.
+ * The remote WAT Title Resolver and the local title indexes can be used interchangeably.
+ * Every system has its own way to spell a title, so the experiments turn their entity ids into titles with
+ * {@link #getKey(String)} before calling {@link #getId(String)}.
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public interface IdResolver {
+
+    /**
+     * The WAT Title Resolver.
+     */
+    IdResolver WAT = new IdResolver() {
+        @Override
+        public int getId(String title) {
+            return WATApi.TitleResolver.getId(title);
+        }
+
+        @Nullable
+        @Override
+        public String getKey(@NotNull String entityId) {
+            return WATApi.TitleResolver.toTitle(entityId);
+        }
+    };
+
+    /**
+     * Get the ID of an entity.
+     * @param title String Wikipedia page title of the entity.
+     * @return Integer ID of the entity. A negative value if the title could not be resolved.
+     */
+
+    int getId(String title);
+
+    /**
+     * Get the title to resolve an entity with.
+     * The local title indexes normalize titles themselves ({@link TitleIndex#normalize(String)}), so by default the
+     * entity id (e.g., enwiki:Barack%20Obama or the processed barack_obama) is used as it is.
+     * @param entityId String Entity id.
+     * @return String Title, or null if the entity id is malformed.
+     */
+
+    @Nullable
+    default String getKey(@NotNull String entityId) {
+        return entityId;
+    }
+}
@@ -0,0 +1,486 @@
+package api;
+
+import help.VInt;
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Local entity relatedness engine built from the link graph stored in the PageIndex.
+ * The Milne-Witten and Jaccard measures served by WAT are pure functions of the inlink and outlink sets of the
+ * two pages, so we can compute them in-process from the InlinkIds and OutlinkIds fields of the PageIndex.
+ *
+ * Every page is given an ordinal (its Lucene docid in the PageIndex). The inlinks and outlinks of every page are
+ * stored as sorted, de-duplicated int arrays of ordinals in a compressed sparse row layout.
+ * The graph is built once from the PageIndex and written to disk; experiments load it with {@link #load(String)}.
+ *
+ * NOTE: The ids accepted by this class are ordinals of this graph, not Wikipedia page IDs.
+ * Use {@link #getId(String)} (or a {@link TitleIndex} built from the same PageIndex) to resolve a title or a
+ * page id to its ordinal.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class LinkGraph implements Relatedness, IdResolver {
+
+    private final static int MAGIC = 0x4C4E4B47; // "LNKG"
+    private final static int VERSION = 1;
+
+    // Use galloping search instead of a linear merge when one list is this many times longer than the other
+    private final static int GALLOP_RATIO = 32;
+
+    private final String[] pageIds;
+    private final String[] pageNames;
+    private final int[] inOffsets, inTargets;
+    private final int[] outOffsets, outTargets;
+    private final double logNumPages;
+    private volatile TitleIndex titleIndex = null;
+
+    @Contract(pure = true)
+    private LinkGraph(@NotNull String[] pageIds,
+                      String[] pageNames,
+                      int[] inOffsets,
+                      int[] inTargets,
+                      int[] outOffsets,
+                      int[] outTargets) {
+        this.pageIds = pageIds;
+        this.pageNames = pageNames;
+        this.inOffsets = inOffsets;
+        this.inTargets = inTargets;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.logNumPages = Math.log(pageIds.length);
+    }
+
+    /**
+     * Check if a relatedness measure can be computed from the link graph.
+     * @param relMeasure String Relatedness measure (as passed to WAT).
+     * @return Boolean True if the measure is supported, false otherwise.
+     */
+
+    public static boolean supports(@NotNull String relMeasure) {
+        return relMeasure.equalsIgnoreCase("mw") || relMeasure.equalsIgnoreCase("jaccard");
+    }
+
+    /**
+     * Get the relatedness between every pair of entities provided as argument.
+     * Same contract as WATApi.EntityRelatedness.getRelatedness().
+     * @param relMeasure String Relatedness function to compute. Accepted values are "mw" and "jaccard".
+     * @param ids List of ordinals in the graph.
+     * @return List List of Pairs of entities with relatedness score.
+     */
+
+    @NotNull
+    @Override
+    public List<WATApi.EntityRelatedness.Pair> getRelatedness(String relMeasure, @NotNull int ... ids) {
+        List<WATApi.EntityRelatedness.Pair> relatedPairsList = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = i + 1; j < ids.length; j++) {
+                double rel = relatedness(relMeasure, ids[i], ids[j]);
+                WATApi.EntityRelatedness.Pair.Source source =
+                        new WATApi.EntityRelatedness.Pair.Source(ids[i], getName(ids[i]));
+                WATApi.EntityRelatedness.Pair.Destination destination =
+                        new WATApi.EntityRelatedness.Pair.Destination(ids[j], getName(ids[j]));
+                relatedPairsList.add(new WATApi.EntityRelatedness.Pair(source, destination, rel));
+            }
+        }
+        return relatedPairsList;
+    }
+
+    /**
+     * Relatedness between two entities without creating any objects.
+     * @param relMeasure String Either "mw" or "jaccard".
+     * @param id1 Integer Ordinal of the first entity.
+     * @param id2 Integer Ordinal of the second entity.
+     * @return Double Relatedness score in [0,1]. Zero if either id is not in the graph.
+     */
+
+    public double relatedness(@NotNull String relMeasure, int id1, int id2) {
+        if (relMeasure.equalsIgnoreCase("mw")) {
+            return milneWitten(id1, id2);
+        } else if (relMeasure.equalsIgnoreCase("jaccard")) {
+            return jaccard(id1, id2);
+        }
+        throw new IllegalArgumentException("Relatedness measure not supported by the link graph: " + relMeasure);
+    }
+
+    /**
+     * Milne-Witten relatedness computed over the inlinks of the two pages.
+     * @param id1 Integer Ordinal of the first entity.
+     * @param id2 Integer Ordinal of the second entity.
+     * @return Double
+     */
+
+    public double milneWitten(int id1, int id2) {
+        if (!contains(id1) || !contains(id2)) {
+            return 0.0d;
+        }
+        if (id1 == id2) {
+            return 1.0d;
+        }
+        int size1 = inOffsets[id1 + 1] - inOffsets[id1];
+        int size2 = inOffsets[id2 + 1] - inOffsets[id2];
+        if (size1 == 0 || size2 == 0) {
+            return 0.0d;
+        }
+        int common = intersectionSize(inTargets, inOffsets[id1], inOffsets[id1 + 1],
+                inTargets, inOffsets[id2], inOffsets[id2 + 1]);
+        if (common == 0) {
+            return 0.0d;
+        }
+        double num = Math.log(Math.max(size1, size2)) - Math.log(common);
+        double den = logNumPages - Math.log(Math.min(size1, size2));
+        if (den <= 0) {
+            return 0.0d;
+        }
+        return Math.max(0.0d, 1.0d - num / den);
+    }
+
+    /**
+     * Jaccard measure over the outlinks of the two pages.
+     * @param id1 Integer Ordinal of the first entity.
+     * @param id2 Integer Ordinal of the second entity.
+     * @return Double
+     */
+
+    public double jaccard(int id1, int id2) {
+        if (!contains(id1) || !contains(id2)) {
+            return 0.0d;
+        }
+        if (id1 == id2) {
+            return 1.0d;
+        }
+        int size1 = outOffsets[id1 + 1] - outOffsets[id1];
+        int size2 = outOffsets[id2 + 1] - outOffsets[id2];
+        if (size1 == 0 || size2 == 0) {
+            return 0.0d;
+        }
+        int common = intersectionSize(outTargets, outOffsets[id1], outOffsets[id1 + 1],
+                outTargets, outOffsets[id2], outOffsets[id2 + 1]);
+        return (double) common / (size1 + size2 - common);
+    }
+
+    /**
+     * Size of the intersection of two sorted int ranges.
+     * Uses a branch-free merge (the comparison results are added to the cursors) which the JIT compiles to
+     * conditional moves, and switches to galloping search when one range is much shorter than the other.
+     */
+
+    static int intersectionSize(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int aLen = aTo - aFrom, bLen = bTo - bFrom;
+        if (aLen > bLen) {
+            return intersectionSize(b, bFrom, bTo, a, aFrom, aTo);
+        }
+        if (aLen == 0) {
+            return 0;
+        }
+        if ((long) aLen * GALLOP_RATIO < bLen) {
+            return gallopingIntersectionSize(a, aFrom, aTo, b, bFrom, bTo);
+        }
+        int i = aFrom, j = bFrom, count = 0;
+        while (i < aTo && j < bTo) {
+            int x = a[i], y = b[j];
+            count += (x == y) ? 1 : 0;
+            i += (x <= y) ? 1 : 0;
+            j += (y <= x) ? 1 : 0;
+        }
+        return count;
+    }
+
+    private static int gallopingIntersectionSize(int[] small, int sFrom, int sTo, int[] large, int lFrom, int lTo) {
+        int count = 0, lo = lFrom;
+        for (int i = sFrom; i < sTo && lo < lTo; i++) {
+            int key = small[i];
+            // Exponential search for an upper bound
+            int step = 1, hi = lo;
+            while (hi < lTo && large[hi] < key) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int idx = Arrays.binarySearch(large, lo, Math.min(hi + 1, lTo), key);
+            if (idx >= 0) {
+                count++;
+                lo = idx + 1;
+            } else {
+                lo = -idx - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Resolve a title or a page id to its ordinal in the graph.
+     * Accepts page ids ("enwiki:Albert%20Einstein") and titles with either spaces or underscores.
+     * @param title String
+     * @return Integer Ordinal of the page or -1 if the page is not in the graph.
+     */
+
+    @Override
+    public int getId(@NotNull String title) {
+        TitleIndex index = titleIndex;
+        if (index == null) {
+            index = buildTitleIndex();
+        }
+        return index.getId(title);
+    }
+
+    private synchronized TitleIndex buildTitleIndex() {
+        if (titleIndex == null) {
+            titleIndex = TitleIndex.fromTitles(pageNames, TitleIndex.IdSpace.PAGE_INDEX);
+        }
+        return titleIndex;
+    }
+
+    @Contract(pure = true)
+    private boolean contains(int id) {
+        return id >= 0 && id < pageIds.length;
+    }
+
+    public String getName(int id) {
+        return contains(id) ? pageNames[id] : "";
+    }
+
+    public String getPageId(int id) {
+        return contains(id) ? pageIds[id] : "";
+    }
+
+    public int numPages() {
+        return pageIds.length;
+    }
+
+    /**
+     * Outlinks of a page.
+     * @param id Integer Ordinal of the page.
+     * @return Sorted array of the ordinals of the pages linked to. Empty if the id is not in the graph.
+     */
+
+    @NotNull
+    int[] getOutlinks(int id) {
+        return contains(id) ? Arrays.copyOfRange(outTargets, outOffsets[id], outOffsets[id + 1]) : new int[0];
+    }
+
+    /////////////////////////////////// BUILDING THE GRAPH //////////////////////////////////////////////
+
+    /**
+     * Build the link graph from the PageIndex.
+     * Reads the stored fields of the index twice: once to assign ordinals and once to resolve the links.
+     * @param pageIndexDir String Path to the PageIndex.
+     * @return LinkGraph
+     * @throws IOException
+     */
+
+    @NotNull
+    public static LinkGraph build(String pageIndexDir) throws IOException {
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(pageIndexDir).toPath()));
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int n = reader.maxDoc();
+
+        String[] pageIds = new String[n];
+        String[] pageNames = new String[n];
+        Map<String, Integer> ordinals = new HashMap<>(n * 2);
+
+        System.out.println("Assigning ordinals to pages...");
+        Set<String> idFields = new HashSet<>(Arrays.asList("Id", "Name"));
+        for (int docId = 0; docId < n; docId++) {
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+            Document doc = reader.document(docId, idFields);
+            pageIds[docId] = doc.get("Id");
+            pageNames[docId] = doc.get("Name");
+            ordinals.put(pageIds[docId], docId);
+        }
+
+        System.out.println("Resolving links...");
+        int[][] inLinks = new int[n][];
+        int[][] outLinks = new int[n][];
+        Set<String> linkFields = new HashSet<>(Arrays.asList("InlinkIds", "OutlinkIds"));
+        ProgressBar pb = new ProgressBar("Progress", n);
+        for (int docId = 0; docId < n; docId++) {
+            pb.step();
+            if (pageIds[docId] == null) {
+                inLinks[docId] = new int[0];
+                outLinks[docId] = new int[0];
+                continue;
+            }
+            Document doc = reader.document(docId, linkFields);
+            inLinks[docId] = toOrdinals(doc.get("InlinkIds"), ordinals);
+            outLinks[docId] = toOrdinals(doc.get("OutlinkIds"), ordinals);
+        }
+        pb.close();
+        reader.close();
+
+        for (int i = 0; i < n; i++) {
+            if (pageIds[i] == null) {
+                pageIds[i] = "";
+                pageNames[i] = "";
+            }
+        }
+
+        int[] inOffsets = new int[n + 1];
+        int[] outOffsets = new int[n + 1];
+        int[] inTargets = flatten(inLinks, inOffsets);
+        int[] outTargets = flatten(outLinks, outOffsets);
+
+        return new LinkGraph(pageIds, pageNames, inOffsets, inTargets, outOffsets, outTargets);
+    }
+
+    /**
+     * Convert a newline separated list of page ids to a sorted array of unique ordinals.
+     * Links to pages that are not in the index are dropped.
+     */
+
+    @NotNull
+    private static int[] toOrdinals(String links, Map<String, Integer> ordinals) {
+        if (links == null || links.isEmpty()) {
+            return new int[0];
+        }
+        String[] parts = links.split("\n");
+        int[] result = new int[parts.length];
+        int size = 0;
+        for (String link : parts) {
+            Integer ordinal = ordinals.get(link);
+            if (ordinal != null) {
+                result[size++] = ordinal;
+            }
+        }
+        Arrays.sort(result, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || result[unique - 1] != result[i]) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    @NotNull
+    private static int[] flatten(@NotNull int[][] lists, @NotNull int[] offsets) {
+        long total = 0;
+        for (int[] list : lists) {
+            total += list.length;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many links to store in a single array: " + total);
+        }
+        int[] targets = new int[(int) total];
+        int pos = 0;
+        for (int i = 0; i < lists.length; i++) {
+            offsets[i] = pos;
+            System.arraycopy(lists[i], 0, targets, pos, lists[i].length);
+            pos += lists[i].length;
+            lists[i] = null;
+        }
+        offsets[lists.length] = pos;
+        return targets;
+    }
+
+    /////////////////////////////////// READING AND WRITING ////////////////////////////////////////////
+
+    /**
+     * Write the graph to disk.
+     * The link lists are delta encoded and written as variable length integers.
+     * @param file String Path to the output file.
+     * @throws IOException
+     */
+
+    public void write(String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pageIds.length);
+            out.writeInt(inTargets.length);
+            out.writeInt(outTargets.length);
+            for (int i = 0; i < pageIds.length; i++) {
+                out.writeUTF(pageIds[i]);
+                out.writeUTF(pageNames[i]);
+                writeList(out, inTargets, inOffsets[i], inOffsets[i + 1]);
+                writeList(out, outTargets, outOffsets[i], outOffsets[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Read a graph written with {@link #write(String)}.
+     * @param file String Path to the file.
+     * @return LinkGraph
+     * @throws IOException
+     */
+
+    @NotNull
+    public static LinkGraph load(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a link graph file: " + file);
+            }
+            int n = in.readInt();
+            String[] pageIds = new String[n];
+            String[] pageNames = new String[n];
+            int[] inOffsets = new int[n + 1];
+            int[] outOffsets = new int[n + 1];
+            int[] inTargets = new int[in.readInt()];
+            int[] outTargets = new int[in.readInt()];
+            int inPos = 0, outPos = 0;
+            for (int i = 0; i < n; i++) {
+                pageIds[i] = in.readUTF();
+                pageNames[i] = in.readUTF();
+                inOffsets[i] = inPos;
+                inPos = readList(in, inTargets, inPos);
+                outOffsets[i] = outPos;
+                outPos = readList(in, outTargets, outPos);
+            }
+            inOffsets[n] = inPos;
+            outOffsets[n] = outPos;
+            return new LinkGraph(pageIds, pageNames, inOffsets, inTargets, outOffsets, outTargets);
+        }
+    }
+
+    private static void writeList(DataOutputStream out, int[] targets, int from, int to) throws IOException {
+        VInt.write(out, to - from);
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            VInt.write(out, targets[i] - prev);
+            prev = targets[i];
+        }
+    }
+
+    private static int readList(DataInputStream in, int[] targets, int pos) throws IOException {
+        int size = VInt.read(in);
+        int prev = 0;
+        for (int i = 0; i < size; i++) {
+            prev += VInt.read(in);
+            targets[pos++] = prev;
+        }
+        return pos;
+    }
+
+    /**
+     * Main method to build the graph.
+     * @param args Command line arguments: pageIndexDir outputFile
+     */
+
+    public static void main(@NotNull String[] args) {
+        String pageIndexDir = args[0];
+        String outFile = args[1];
+        try {
+            System.out.println("Building link graph from: " + pageIndexDir);
+            LinkGraph graph = build(pageIndexDir);
+            System.out.print("Writing link graph to: " + outFile + "...");
+            graph.write(outFile);
+            System.out.println("[Done].");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package api;
+
+import help.Utilities;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares the approximate Jaccard relatedness of a {@link MinHashIndex} with the exact measure of the
+ * {@link LinkGraph} it was built from, on the entities of a run.
+ *
+ * For every query, every pair of entities in the run is scored both ways. The benchmark reports:
+ * (1) the mean and maximum absolute error of the estimate, and the fraction of pairs within the error bound;
+ * (2) the time taken by the exact measure and by the estimate;
+ * (3) the recall of the LSH candidates: for every entity of a query, the fraction of its exact top-K related entities
+ *     (with a non-zero score) that the LSH index of the query returns among its top-K.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class MinHashBenchmark {
+
+    /**
+     * Main method.
+     * @param args Command line arguments: linkGraphFile minHashFile entityRunFile [topK]
+     */
+
+    public static void main(@NotNull String[] args) {
+        String graphFile = args[0];
+        String minHashFile = args[1];
+        String entityRunFile = args[2];
+        int topK = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        try (MinHashIndex index = MinHashIndex.load(minHashFile)) {
+            System.out.print("Loading link graph...");
+            LinkGraph graph = LinkGraph.load(graphFile);
+            System.out.println("[Done].");
+
+            System.out.print("Reading entity rankings...");
+            HashMap<String, ArrayList<String>> entityRankings = Utilities.getRankings(entityRunFile);
+            System.out.println("[Done].");
+
+            run(graph, index, entityRankings, topK);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void run(@NotNull LinkGraph graph,
+                            @NotNull MinHashIndex index,
+                            @NotNull Map<String, ArrayList<String>> entityRankings,
+                            int topK) {
+        long numPairs = 0, withinBound = 0;
+        double sumError = 0.0d, maxError = 0.0d;
+        long exactTime = 0, estimateTime = 0, lshTime = 0;
+        long relevant = 0, retrieved = 0;
+
+        for (List<String> entities : entityRankings.values()) {
+            // Resolve the entities once; both stores are built from the same graph, so the ordinals are the same
+            int[] ids = entities.stream().mapToInt(graph::getId).filter(id -> id >= 0).distinct().toArray();
+            int n = ids.length;
+            double[][] exact = new double[n][n];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    exact[i][j] = exact[j][i] = graph.jaccard(ids[i], ids[j]);
+                }
+            }
+            exactTime += System.nanoTime() - start;
+
+            double[][] estimate = new double[n][n];
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    estimate[i][j] = index.jaccard(ids[i], ids[j]);
+                }
+            }
+            estimateTime += System.nanoTime() - start;
+
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    double error = Math.abs(exact[i][j] - estimate[i][j]);
+                    sumError += error;
+                    maxError = Math.max(maxError, error);
+                    withinBound += error <= index.getEpsilon() ? 1 : 0;
+                    numPairs++;
+                }
+            }
+
+            start = System.nanoTime();
+            MinHashIndex.Lsh lsh = index.lsh(ids);
+            List<Set<Integer>> found = new ArrayList<>();
+            for (int id : ids) {
+                Set<Integer> top = new HashSet<>();
+                for (Map.Entry<Integer, Double> entry : lsh.topRelated(id, topK)) {
+                    top.add(entry.getKey());
+                }
+                found.add(top);
+            }
+            lshTime += System.nanoTime() - start;
+
+            for (int i = 0; i < n; i++) {
+                Integer[] order = new Integer[n];
+                for (int j = 0; j < n; j++) {
+                    order[j] = j;
+                }
+                double[] row = exact[i];
+                Arrays.sort(order, (a, b) -> Double.compare(row[b], row[a]));
+                for (int r = 0, count = 0; r < n && count < topK; r++) {
+                    int j = order[r];
+                    if (j == i || row[j] == 0.0d) {
+                        continue;
+                    }
+                    count++;
+                    relevant++;
+                    retrieved += found.get(i).contains(ids[j]) ? 1 : 0;
+                }
+            }
+        }
+
+        System.out.println("Number of queries: " + entityRankings.size());
+        System.out.println("Number of pairs: " + numPairs);
+        System.out.println("Number of min-hashes: " + index.numHashes() + " (epsilon = " + index.getEpsilon() +
+                ", delta = " + index.getDelta() + ")");
+        System.out.printf("Mean absolute error: %.4f%n", numPairs > 0 ? sumError / numPairs : 0.0d);
+        System.out.printf("Max absolute error: %.4f%n", maxError);
+        System.out.printf("Pairs within error bound: %.4f%n", numPairs > 0 ? (double) withinBound / numPairs : 0.0d);
+        System.out.printf("Time (exact): %d ms%n", exactTime / 1_000_000);
+        System.out.printf("Time (estimate): %d ms%n", estimateTime / 1_000_000);
+        System.out.printf("Time (LSH top-%d): %d ms%n", topK, lshTime / 1_000_000);
+        System.out.printf("LSH recall@%d: %.4f%n", topK, relevant > 0 ? (double) retrieved / relevant : 0.0d);
+    }
+}
@@ -0,0 +1,471 @@
+package api;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate Jaccard relatedness over the outlinks of the pages, with MinHash signatures.
+ *
+ * The exact Jaccard measure of the {@link LinkGraph} intersects the two outlink lists, so its cost grows with the
+ * number of outlinks. Here, every page gets a fixed-width signature of k min-hashes of its outlink set, computed once
+ * with {@link #build(LinkGraph, double, double, double, String)}. The fraction of positions where two signatures agree
+ * is an unbiased estimate of the Jaccard measure, so the relatedness of two pages costs k short comparisons whatever
+ * the number of outlinks.
+ *
+ * Error bound: with k = ceil(ln(2 / delta) / (2 * epsilon^2)) min-hashes, the estimate is within epsilon of the exact
+ * value with probability at least 1 - delta (Hoeffding bound). Only the lowest 16 bits of every min-hash are kept
+ * (b-bit MinHash); the chance that two different min-hashes agree on these bits (1 / 65536) is corrected for.
+ * The defaults are epsilon = 0.05 and delta = 0.1, i.e., k = 600 min-hashes (1200 bytes per page). The Jaccard
+ * measure of most related pairs is well below 0.2, so the looser epsilon = 0.1 (k = 150) cannot rank them; halving
+ * epsilon multiplies k, the size of the signature file and the cost of a comparison by four.
+ *
+ * LSH: the signature is cut into bands of r rows; two pages whose Jaccard measure is above the threshold set when
+ * building share at least one band with high probability. {@link #lsh(int[])} indexes the bands of a set of pages (e.g.,
+ * the entities of a query) so that the top related pages of a target are found among the pages that share a band
+ * with it, instead of scoring every pair ({@link Lsh#topRelated(int, int)}).
+ *
+ * The ids are the ordinals of the {@link LinkGraph} the signatures were built from.
+ *
+ * Files:
+ * (1) file: int MAGIC, int VERSION, int numPages, int k, int rows, double epsilon, double delta, then for every page:
+ *     title (UTF) and the number of outlinks (int).
+ * (2) file.sig: numPages * k shorts.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class MinHashIndex implements Relatedness, IdResolver, Closeable {
+
+    private final static int MAGIC = 0x4D4E4853; // "MNHS"
+    private final static int VERSION = 1;
+    private final static long SEED = 0x5DEECE66DL;
+    private final static int BATCH_SIZE = 4096;
+    public final static double DEFAULT_EPSILON = 0.05;
+    public final static double DEFAULT_DELTA = 0.1;
+    public final static double DEFAULT_THRESHOLD = 0.2;
+    // Probability that two different min-hashes agree on their lowest 16 bits
+    private final static double COLLISION = 1.0d / 65536;
+
+    private final String[] titles;
+    private final int[] numLinks;
+    private final int k;
+    private final int rows;
+    private final double epsilon;
+    private final double delta;
+    private final ShortBuffer[] chunks;
+    private final int pagesPerChunk;
+    private final FileChannel channel;
+    private final TitleIndex titleIndex;
+    private final ThreadLocal<short[][]> buffers;
+
+    private MinHashIndex(@NotNull String[] titles, int[] numLinks, int k, int rows, double epsilon, double delta,
+                         ShortBuffer[] chunks, int pagesPerChunk, FileChannel channel) {
+        this.titles = titles;
+        this.numLinks = numLinks;
+        this.k = k;
+        this.rows = rows;
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.chunks = chunks;
+        this.pagesPerChunk = pagesPerChunk;
+        this.channel = channel;
+        this.titleIndex = TitleIndex.fromTitles(titles, TitleIndex.IdSpace.PAGE_INDEX);
+        this.buffers = ThreadLocal.withInitial(() -> new short[2][k]);
+    }
+
+    /**
+     * Check if a relatedness measure can be estimated from the signatures.
+     * @param relMeasure String Relatedness measure (as passed to WAT).
+     * @return Boolean True if the measure is supported, false otherwise.
+     */
+
+    public static boolean supports(String relMeasure) {
+        return "jaccard".equalsIgnoreCase(relMeasure);
+    }
+
+    /**
+     * Number of min-hashes needed for an error bound.
+     * @param epsilon Double Maximum error of the estimate.
+     * @param delta Double Probability that the error is larger than epsilon.
+     * @return Integer
+     */
+
+    public static int numHashes(double epsilon, double delta) {
+        return (int) Math.ceil(Math.log(2.0d / delta) / (2.0d * epsilon * epsilon));
+    }
+
+    /**
+     * Number of rows per LSH band for a Jaccard threshold: the band count b = k / r is chosen so that the point where
+     * the probability of sharing a band is steepest, (1 / b)^(1 / r), is closest to the threshold.
+     * @param k Integer Number of min-hashes.
+     * @param threshold Double Jaccard threshold.
+     * @return Integer
+     */
+
+    static int rowsPerBand(int k, double threshold) {
+        int best = 1;
+        double bestDiff = Double.MAX_VALUE;
+        for (int r = 1; r <= k; r++) {
+            double diff = Math.abs(Math.pow(1.0d / (k / r), 1.0d / r) - threshold);
+            if (diff < bestDiff) {
+                bestDiff = diff;
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the relatedness between every pair of entities provided as argument.
+     * Same contract as WATApi.EntityRelatedness.getRelatedness().
+     * @param relMeasure String Relatedness function to compute. Only "jaccard" is accepted.
+     * @param ids List of ordinals in the graph.
+     * @return List List of Pairs of entities with estimated relatedness score.
+     */
+
+    @NotNull
+    @Override
+    public List<WATApi.EntityRelatedness.Pair> getRelatedness(String relMeasure, @NotNull int ... ids) {
+        List<WATApi.EntityRelatedness.Pair> relatedPairsList = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = i + 1; j < ids.length; j++) {
+                WATApi.EntityRelatedness.Pair.Source source =
+                        new WATApi.EntityRelatedness.Pair.Source(ids[i], getName(ids[i]));
+                WATApi.EntityRelatedness.Pair.Destination destination =
+                        new WATApi.EntityRelatedness.Pair.Destination(ids[j], getName(ids[j]));
+                relatedPairsList.add(new WATApi.EntityRelatedness.Pair(source, destination, jaccard(ids[i], ids[j])));
+            }
+        }
+        return relatedPairsList;
+    }
+
+    /**
+     * Estimated Jaccard measure over the outlinks of the two pages.
+     * @param id1 Integer Ordinal of the first entity.
+     * @param id2 Integer Ordinal of the second entity.
+     * @return Double Estimate in [0,1]. Zero if either id is not in the index or has no outlinks.
+     */
+
+    public double jaccard(int id1, int id2) {
+        if (!contains(id1) || !contains(id2) || numLinks[id1] == 0 || numLinks[id2] == 0) {
+            return 0.0d;
+        }
+        if (id1 == id2) {
+            return 1.0d;
+        }
+        short[][] buffer = buffers.get();
+        getSignature(id1, buffer[0]);
+        getSignature(id2, buffer[1]);
+        return estimate(buffer[0], buffer[1]);
+    }
+
+    private double estimate(@NotNull short[] s1, @NotNull short[] s2) {
+        int matches = 0;
+        for (int i = 0; i < k; i++) {
+            matches += s1[i] == s2[i] ? 1 : 0;
+        }
+        double j = ((double) matches / k - COLLISION) / (1.0d - COLLISION);
+        return Math.max(0.0d, Math.min(1.0d, j));
+    }
+
+    private void getSignature(int id, @NotNull short[] dst) {
+        // Duplicate the buffer, since the position of a buffer is not thread-safe
+        ShortBuffer chunk = chunks[id / pagesPerChunk].duplicate();
+        chunk.position((id % pagesPerChunk) * k);
+        chunk.get(dst, 0, k);
+    }
+
+    /**
+     * Index the bands of the signatures of a set of pages.
+     * @param ids Ordinals of the pages.
+     * @return Lsh
+     */
+
+    @NotNull
+    public Lsh lsh(@NotNull int[] ids) {
+        return new Lsh(ids);
+    }
+
+    /**
+     * LSH index over the signatures of a set of pages. Not thread-safe.
+     */
+
+    public class Lsh {
+        private final Map<Long, List<Integer>> buckets = new HashMap<>();
+        private final Map<Integer, short[]> signatures = new HashMap<>();
+
+        private Lsh(@NotNull int[] ids) {
+            for (int id : ids) {
+                if (!contains(id) || numLinks[id] == 0 || signatures.containsKey(id)) {
+                    continue;
+                }
+                short[] signature = new short[k];
+                getSignature(id, signature);
+                signatures.put(id, signature);
+                for (int band = 0; band < k / rows; band++) {
+                    buckets.computeIfAbsent(bandKey(signature, band), b -> new ArrayList<>()).add(id);
+                }
+            }
+        }
+
+        /**
+         * Get the pages of the index that share at least one band with a target page.
+         * @param target Integer Ordinal of the target page.
+         * @return Set of ordinals, without the target.
+         */
+
+        @NotNull
+        public Set<Integer> getCandidates(int target) {
+            Set<Integer> candidates = new HashSet<>();
+            short[] signature = getOrLoad(target);
+            if (signature == null) {
+                return candidates;
+            }
+            for (int band = 0; band < k / rows; band++) {
+                List<Integer> bucket = buckets.get(bandKey(signature, band));
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+            candidates.remove(target);
+            return candidates;
+        }
+
+        /**
+         * Get the top related pages of the index for a target page, among the pages that share a band with it.
+         * @param target Integer Ordinal of the target page.
+         * @param n Integer Number of pages.
+         * @return List of (ordinal, estimated Jaccard) in decreasing order of relatedness.
+         */
+
+        @NotNull
+        public List<Map.Entry<Integer, Double>> topRelated(int target, int n) {
+            List<Map.Entry<Integer, Double>> related = new ArrayList<>();
+            short[] signature = getOrLoad(target);
+            if (signature == null) {
+                return related;
+            }
+            for (int id : getCandidates(target)) {
+                related.add(new AbstractMap.SimpleEntry<>(id, estimate(signature, signatures.get(id))));
+            }
+            related.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+            return related.subList(0, Math.min(n, related.size()));
+        }
+
+        private short[] getOrLoad(int id) {
+            short[] signature = signatures.get(id);
+            if (signature == null && contains(id) && numLinks[id] > 0) {
+                signature = new short[k];
+                getSignature(id, signature);
+            }
+            return signature;
+        }
+
+        private long bandKey(@NotNull short[] signature, int band) {
+            long h = band;
+            for (int i = band * rows; i < (band + 1) * rows; i++) {
+                h = h * 0x9E3779B97F4A7C15L + (signature[i] & 0xFFFF);
+            }
+            return h;
+        }
+    }
+
+    @Override
+    public int getId(@NotNull String title) {
+        return titleIndex.getId(title);
+    }
+
+    @Contract(pure = true)
+    private boolean contains(int id) {
+        return id >= 0 && id < titles.length;
+    }
+
+    public String getName(int id) {
+        return contains(id) ? titles[id] : "";
+    }
+
+    public int numPages() {
+        return titles.length;
+    }
+
+    public int numHashes() {
+        return k;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /////////////////////////////////// BUILDING THE SIGNATURES /////////////////////////////////////////
+
+    /**
+     * Compute the signatures of every page of a link graph and write them to disk.
+     * @param graph LinkGraph
+     * @param epsilon Double Maximum error of the estimate.
+     * @param delta Double Probability that the error is larger than epsilon.
+     * @param threshold Double Jaccard threshold for the LSH bands.
+     * @param file String Path to the index.
+     * @throws IOException
+     */
+
+    public static void build(@NotNull LinkGraph graph, double epsilon, double delta, double threshold, String file)
+            throws IOException {
+        int n = graph.numPages();
+        int k = numHashes(epsilon, delta);
+        int rows = rowsPerBand(k, threshold);
+        System.out.println("Number of min-hashes = " + k + ", rows per LSH band = " + rows);
+
+        // Hash functions h_i(x) = high 32 bits of (a_i * x + b_i), with a_i odd
+        Random random = new Random(SEED);
+        long[] a = new long[k], b = new long[k];
+        for (int i = 0; i < k; i++) {
+            a[i] = random.nextLong() | 1L;
+            b[i] = random.nextLong();
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(k);
+            out.writeInt(rows);
+            out.writeDouble(epsilon);
+            out.writeDouble(delta);
+            for (int id = 0; id < n; id++) {
+                out.writeUTF(graph.getName(id));
+                out.writeInt(graph.getOutlinks(id).length);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file + ".sig"),
+                1 << 16))) {
+            ProgressBar pb = new ProgressBar("Progress", n);
+            short[] batch = new short[BATCH_SIZE * k];
+            for (int from = 0; from < n; from += BATCH_SIZE) {
+                int start = from, end = Math.min(n, from + BATCH_SIZE);
+                IntStream.range(start, end).parallel().forEach(id -> {
+                    int[] outlinks = graph.getOutlinks(id);
+                    int offset = (id - start) * k;
+                    for (int i = 0; i < k; i++) {
+                        int min = Integer.MAX_VALUE;
+                        for (int x : outlinks) {
+                            // Compare as unsigned
+                            int h = (int) ((a[i] * x + b[i]) >>> 32) ^ Integer.MIN_VALUE;
+                            min = Math.min(min, h);
+                        }
+                        batch[offset + i] = (short) min;
+                    }
+                });
+                for (int i = 0; i < (end - start) * k; i++) {
+                    out.writeShort(batch[i]);
+                }
+                pb.stepBy(end - start);
+            }
+            pb.close();
+        }
+    }
+
+    /**
+     * Check if a file is a MinHash index written with {@link #build(LinkGraph, double, double, double, String)}.
+     * @param file String
+     * @return Boolean
+     */
+
+    public static boolean isIndexFile(String file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open an index written with {@link #build(LinkGraph, double, double, double, String)}.
+     * @param file String Path to the index.
+     * @return MinHashIndex
+     * @throws IOException
+     */
+
+    @NotNull
+    public static MinHashIndex load(String file) throws IOException {
+        String[] titles;
+        int[] numLinks;
+        int k, rows;
+        double epsilon, delta;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a MinHash index file: " + file);
+            }
+            int n = in.readInt();
+            k = in.readInt();
+            rows = in.readInt();
+            epsilon = in.readDouble();
+            delta = in.readDouble();
+            titles = new String[n];
+            numLinks = new int[n];
+            for (int i = 0; i < n; i++) {
+                titles[i] = in.readUTF();
+                numLinks[i] = in.readInt();
+            }
+        }
+
+        FileChannel channel = FileChannel.open(Paths.get(file + ".sig"), StandardOpenOption.READ);
+        try {
+            // A mapping is at most 2GB, so map the signatures in chunks of whole pages
+            int pagesPerChunk = Math.max(1, Integer.MAX_VALUE / (2 * k));
+            int numChunks = (titles.length + pagesPerChunk - 1) / pagesPerChunk;
+            ShortBuffer[] chunks = new ShortBuffer[numChunks];
+            for (int c = 0; c < numChunks; c++) {
+                long pages = Math.min(pagesPerChunk, titles.length - (long) c * pagesPerChunk);
+                long offset = (long) c * pagesPerChunk * k * 2;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset, pages * k * 2).asShortBuffer();
+            }
+            return new MinHashIndex(titles, numLinks, k, rows, epsilon, delta, chunks, pagesPerChunk, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Main method to build the index.
+     * @param args Command line arguments: linkGraphFile outputFile [epsilon] [delta] [threshold]
+     */
+
+    public static void main(@NotNull String[] args) {
+        String graphFile = args[0];
+        String outFile = args[1];
+        double epsilon = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_EPSILON;
+        double delta = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_DELTA;
+        double threshold = args.length > 4 ? Double.parseDouble(args[4]) : DEFAULT_THRESHOLD;
+        try {
+            System.out.print("Loading link graph...");
+            LinkGraph graph = LinkGraph.load(graphFile);
+            System.out.println("[Done].");
+            System.out.println("Building MinHash signatures with error bound " + epsilon + " (delta = " + delta + ")");
+            build(graph, epsilon, delta, threshold, outFile);
+            System.out.println("MinHash index written to: " + outFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Common interface for the entity relatedness systems.
+ * The remote WAT service and the local engines built from our own indexes all return relatedness scores as
+ * a list of WAT Pairs, so the experiments can switch between them without any other change.
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public interface Relatedness {
+
+    /**
+     * The WAT Entity Relatedness system.
+     */
+    Relatedness WAT = WATApi.EntityRelatedness::getRelatedness;
+
+    /**
+     * Get the relatedness measure between pairs of entities provided as argument.
+     * @param relMeasure String Relatedness function to compute (see WATApi.EntityRelatedness for accepted values).
+     * @param ids List of entity IDs.
+     * @return List List of Pairs of entities with relatedness score.
+     */
+
+    @NotNull
+    List<WATApi.EntityRelatedness.Pair> getRelatedness(String relMeasure, int ... ids);
+}
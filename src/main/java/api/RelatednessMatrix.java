@@ -0,0 +1,336 @@
+package api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Relatedness scores between the entities of one query.
+ *
+ * The relatedness-based experiments score, for every relevant entity of a query, the entities in its context
+ * (e.g., its entity context document). The context entities of the relevant entities of a query overlap a lot, so the
+ * same pairs come up once per target entity, and every pair used to cost a title lookup for both entities and a
+ * call to the relatedness system. Here, the pairs a query needs are collected first ({@link Builder#add}); every
+ * distinct pair is then computed once, in parallel, and the scores are kept in a sparse matrix over the union of the
+ * entities of the query. The title and the ID of every entity are also resolved once, the title with
+ * {@link IdResolver#getKey(String)} so that every resolver gets the spelling it expects.
+ *
+ * The score of a pair is, in order:
+ * (1) 1.0 if both entities have the same title, up to case ({@link TitleIndex#fold(String)});
+ * (2) the precomputed score, if any (e.g., read from the relatedness file);
+ * (3) the score from the relatedness system (WAT, a {@link LinkGraph} or {@link EntityEmbeddings}), if the pair was
+ *     added with remote = true. With embeddings, every target is scored against all its context entities in one
+ *     batch ({@link EntityEmbeddings#cosine(int, int[])}).
+ * Pairs with an entity that has no title or cannot be resolved, and pairs without a score, are not in the matrix.
+ *
+ * The matrix is symmetric, except for the measures that are not ("conditionalprobability").
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class RelatednessMatrix {
+
+    private final static long EMPTY = -1L;
+
+    private final Map<String, Integer> index;
+    private final boolean symmetric;
+
+    // Open addressing map of (pair --> relatedness)
+    private final long[] keys;
+    private final double[] values;
+
+    private RelatednessMatrix(Map<String, Integer> index, boolean symmetric, long[] pairs, double[] scores, int n) {
+        this.index = index;
+        this.symmetric = symmetric;
+        int capacity = Integer.highestOneBit(Math.max(4, 2 * n) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new double[capacity];
+        Arrays.fill(keys, EMPTY);
+        int mask = capacity - 1;
+        for (int p = 0; p < n; p++) {
+            int i = mix(pairs[p]) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = pairs[p];
+            values[i] = scores[p];
+        }
+    }
+
+    /**
+     * Number of pairs in the matrix.
+     * @return Integer
+     */
+
+    public int size() {
+        int size = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Is there a score for the pair?
+     * @param e1 String Target entity.
+     * @param e2 String Context entity.
+     * @return Boolean
+     */
+
+    public boolean contains(String e1, String e2) {
+        return find(e1, e2) >= 0;
+    }
+
+    /**
+     * Get the relatedness of a pair.
+     * @param e1 String Target entity.
+     * @param e2 String Context entity.
+     * @return Double Zero if the pair is not in the matrix.
+     */
+
+    public double get(String e1, String e2) {
+        int i = find(e1, e2);
+        return i >= 0 ? values[i] : 0.0d;
+    }
+
+    /**
+     * Get the relatedness of an entity with many entities.
+     * @param target String Target entity.
+     * @param entities Collection of context entities.
+     * @return Map of (context entity, relatedness), for the pairs in the matrix.
+     */
+
+    @NotNull
+    public Map<String, Double> getRow(String target, @NotNull Collection<String> entities) {
+        Map<String, Double> row = new HashMap<>();
+        for (String e : entities) {
+            int i = find(target, e);
+            if (i >= 0) {
+                row.put(e, values[i]);
+            }
+        }
+        return row;
+    }
+
+    private int find(String e1, String e2) {
+        Integer row = index.get(e1), col = index.get(e2);
+        if (row == null || col == null) {
+            return -1;
+        }
+        long key = pairKey(row, col, symmetric);
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static long pairKey(int row, int col, boolean symmetric) {
+        if (symmetric && col < row) {
+            int t = row;
+            row = col;
+            col = t;
+        }
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Collects the pairs needed for a query and computes them. Not thread-safe; use one builder per query.
+     */
+
+    public static class Builder {
+        private final String relType;
+        private final Relatedness relatedness;
+        private final IdResolver idResolver;
+        private final Map<String, Map<String, Double>> precomputed;
+        private final boolean symmetric;
+
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> entities = new ArrayList<>();
+        private final Map<Long, Boolean> pairs = new LinkedHashMap<>(); // pair --> remote
+
+        /**
+         * Constructor.
+         * @param relType String Relatedness measure (see WATApi.EntityRelatedness for accepted values).
+         * @param relatedness Relatedness System used to compute the scores not precomputed.
+         * @param idResolver IdResolver Resolves entities to the IDs used by the relatedness system.
+         * @param precomputed Map of precomputed scores (target entity --> (context entity --> score)). May be null.
+         */
+
+        public Builder(String relType,
+                       @NotNull Relatedness relatedness,
+                       @NotNull IdResolver idResolver,
+                       @Nullable Map<String, Map<String, Double>> precomputed) {
+            this.relType = relType;
+            this.relatedness = relatedness;
+            this.idResolver = idResolver;
+            this.precomputed = precomputed;
+            this.symmetric = !"conditionalprobability".equalsIgnoreCase(relType);
+        }
+
+        /**
+         * Add a pair. The relatedness system is queried for the pair if needed.
+         * @param target String Target entity.
+         * @param context String Context entity.
+         * @return This builder.
+         */
+
+        @NotNull
+        public Builder add(String target, String context) {
+            return add(target, context, true);
+        }
+
+        /**
+         * Add a pair.
+         * @param target String Target entity.
+         * @param context String Context entity.
+         * @param remote Boolean Whether to query the relatedness system for the pair if needed.
+         * @return This builder.
+         */
+
+        @NotNull
+        public Builder add(String target, String context, boolean remote) {
+            pairs.merge(pairKey(indexOf(target), indexOf(context), symmetric), remote, Boolean::logicalOr);
+            return this;
+        }
+
+        private int indexOf(String entity) {
+            Integer i = index.get(entity);
+            if (i == null) {
+                i = entities.size();
+                index.put(entity, i);
+                entities.add(entity);
+            }
+            return i;
+        }
+
+        /**
+         * Compute the scores of the pairs added.
+         * @return RelatednessMatrix
+         */
+
+        @NotNull
+        public RelatednessMatrix build() {
+            int numEntities = entities.size();
+            String[] titleOf = new String[numEntities];
+            IntStream.range(0, numEntities).parallel().forEach(i -> titleOf[i] = idResolver.getKey(entities.get(i)));
+
+            long[] keys = new long[pairs.size()];
+            boolean[] remote = new boolean[pairs.size()];
+            int n = 0;
+            for (Map.Entry<Long, Boolean> entry : pairs.entrySet()) {
+                keys[n] = entry.getKey();
+                remote[n++] = entry.getValue();
+            }
+
+            // IDs are resolved once per entity, and only for the entities of pairs that need the relatedness system
+            Map<Integer, Integer> ids = new ConcurrentHashMap<>();
+            double[] scores = new double[n];
+            boolean[] found = new boolean[n];
+            // Local embeddings score one target against all its context entities at once (see below)
+            boolean batched = relatedness instanceof EntityEmbeddings;
+            boolean[] pending = new boolean[n];
+            IntStream.range(0, n).parallel().forEach(p -> {
+                int row = (int) (keys[p] >>> 32), col = (int) keys[p];
+                String t1 = titleOf[row], t2 = titleOf[col];
+                if (t1 == null || t2 == null) {
+                    return;
+                }
+                Double score = null;
+                if (TitleIndex.fold(t1).equals(TitleIndex.fold(t2))) {
+                    score = 1.0d;
+                } else {
+                    score = lookup(entities.get(row), entities.get(col));
+                    if (score == null && symmetric) {
+                        score = lookup(entities.get(col), entities.get(row));
+                    }
+                    if (score == null && remote[p] && batched) {
+                        pending[p] = true;
+                        return;
+                    }
+                    if (score == null && remote[p]) {
+                        int id1 = ids.computeIfAbsent(row, i -> idResolver.getId(t1));
+                        int id2 = ids.computeIfAbsent(col, i -> idResolver.getId(t2));
+                        score = getRelatedness(id1, id2);
+                    }
+                }
+                if (score != null) {
+                    scores[p] = score;
+                    found[p] = true;
+                }
+            });
+
+            if (batched) {
+                Map<Integer, List<Integer>> rowToPairs = new LinkedHashMap<>();
+                for (int p = 0; p < n; p++) {
+                    if (pending[p]) {
+                        rowToPairs.computeIfAbsent((int) (keys[p] >>> 32), r -> new ArrayList<>()).add(p);
+                    }
+                }
+                EntityEmbeddings embeddings = (EntityEmbeddings) relatedness;
+                rowToPairs.entrySet().parallelStream().forEach(entry -> {
+                    int row = entry.getKey();
+                    List<Integer> rowPairs = entry.getValue();
+                    int target = ids.computeIfAbsent(row, i -> idResolver.getId(titleOf[row]));
+                    int[] others = new int[rowPairs.size()];
+                    for (int j = 0; j < others.length; j++) {
+                        int col = (int) keys[rowPairs.get(j)];
+                        others[j] = ids.computeIfAbsent(col, i -> idResolver.getId(titleOf[col]));
+                    }
+                    double[] cosines = embeddings.cosine(target, others);
+                    for (int j = 0; j < others.length; j++) {
+                        // Pairs with an entity that is not in the embeddings have no score
+                        if (target >= 0 && others[j] >= 0) {
+                            int p = rowPairs.get(j);
+                            scores[p] = cosines[j];
+                            found[p] = true;
+                        }
+                    }
+                });
+            }
+
+            // Keep the pairs with a score
+            int m = 0;
+            for (int p = 0; p < n; p++) {
+                if (found[p]) {
+                    keys[m] = keys[p];
+                    scores[m++] = scores[p];
+                }
+            }
+            return new RelatednessMatrix(new HashMap<>(index), symmetric, keys, scores, m);
+        }
+
+        @Nullable
+        private Double lookup(String e1, String e2) {
+            if (precomputed == null) {
+                return null;
+            }
+            Map<String, Double> row = precomputed.get(e1);
+            return row != null ? row.get(e2) : null;
+        }
+
+        @Nullable
+        private Double getRelatedness(int id1, int id2) {
+            if (id1 < 0 || id2 < 0) {
+                return null;
+            }
+            List<WATApi.EntityRelatedness.Pair> pair = relatedness.getRelatedness(relType, id1, id2);
+            return pair.isEmpty() ? null : pair.get(0).getRelatedness();
+        }
+    }
+}
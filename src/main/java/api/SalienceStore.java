@@ -0,0 +1,188 @@
+package api;
+
+import help.RecordLog;
+import help.RecordStore;
+import help.Utilities;
+import help.VInt;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Store of the SWAT annotations of the paragraphs in the corpus (paraId --> (entity, salience score)).
+ *
+ * While annotating, the annotations of every paragraph are appended to a {@link RecordLog} (file.log) as soon as
+ * SWAT returns them. The log is flushed to disk in batches, so if the job crashes, at most one batch is lost and the
+ * job can be restarted: paragraphs already in the store or the log are skipped.
+ * When the store is closed, the log is merged into a memory-mapped {@link RecordStore}, which is what
+ * the experiments read (see {@link #open(String)}).
+ *
+ * Value format (per paragraph): vint numEntities, then for every entity: UTF entity, double score.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class SalienceStore implements Closeable {
+
+    private final static int BATCH_SIZE = 1000;
+
+    private final String storeFile;
+    private final String logFile;
+    private final RecordStore store;
+    private final RecordLog log;
+    private final Map<String, Map<String, Double>> map;
+
+    /**
+     * Open the store for writing. Creates it if it does not exist.
+     * If a log from a crashed run exists, it is merged into the store first.
+     * @param file String Path to the store.
+     * @throws IOException
+     */
+
+    public SalienceStore(String file) throws IOException {
+        this.storeFile = file;
+        this.logFile = file + ".log";
+        this.map = null;
+
+        if (new File(logFile).exists()) {
+            System.out.print("Merging annotations from previous run into store...");
+            RecordStore.compact(storeFile, logFile);
+            System.out.println("[Done].");
+        }
+        this.store = new File(storeFile).exists() ? RecordStore.open(storeFile) : null;
+        this.log = new RecordLog(logFile, BATCH_SIZE);
+        if (store != null) {
+            System.out.println("Found annotations for " + store.size() + " paragraphs in " + storeFile);
+        }
+    }
+
+    @Contract(pure = true)
+    private SalienceStore(String file, @Nullable RecordStore store, @Nullable Map<String, Map<String, Double>> map) {
+        this.storeFile = file;
+        this.logFile = null;
+        this.store = store;
+        this.log = null;
+        this.map = map;
+    }
+
+    /**
+     * Open a store for reading.
+     * For backward compatibility, a file written with {@link Utilities#writeMap(Map, String)} is also accepted;
+     * in that case the whole map is read into memory.
+     * @param file String Path to the store.
+     * @return SalienceStore
+     * @throws IOException
+     */
+
+    @NotNull
+    public static SalienceStore open(String file) throws IOException {
+        if (RecordStore.isRecordStore(file)) {
+            return new SalienceStore(file, RecordStore.open(file), null);
+        }
+        try {
+            return new SalienceStore(file, null, Utilities.readMap(file));
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Not a SWAT annotation file: " + file, e);
+        }
+    }
+
+    /**
+     * Check if a paragraph has been annotated.
+     * @param paraId String ID of the paragraph.
+     * @return Boolean
+     */
+
+    public boolean containsKey(@NotNull String paraId) {
+        if (map != null) {
+            return map.containsKey(paraId);
+        }
+        return (log != null && log.contains(paraId)) || (store != null && store.contains(paraId));
+    }
+
+    /**
+     * Get the annotations of a paragraph.
+     * NOTE: Annotations added in the current run are not visible until the store is closed and opened again.
+     * @param paraId String ID of the paragraph.
+     * @return Map of (entity, salience score) or null if the paragraph is not in the store.
+     */
+
+    @Nullable
+    public Map<String, Double> get(@NotNull String paraId) {
+        if (map != null) {
+            return map.get(paraId);
+        }
+        if (store == null) {
+            return null;
+        }
+        byte[] value = store.get(paraId);
+        return value == null ? null : decode(value);
+    }
+
+    /**
+     * Add the annotations of a paragraph. Safe to call from multiple threads.
+     * @param paraId String ID of the paragraph.
+     * @param salMap Map of (entity, salience score).
+     * @throws IOException
+     */
+
+    public void put(@NotNull String paraId, @NotNull Map<String, Double> salMap) throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("Store was opened for reading: " + storeFile);
+        }
+        log.append(paraId, encode(salMap));
+    }
+
+    /**
+     * Close the store. If the store was opened for writing, the log is merged into the store.
+     * @throws IOException
+     */
+
+    @Override
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        if (log != null) {
+            log.close();
+            System.out.print("Writing annotations to: " + storeFile + "...");
+            RecordStore.compact(storeFile, logFile);
+            System.out.println("[Done].");
+        }
+    }
+
+    ///////////////////////////////////////// ENCODING ////////////////////////////////////////////////
+
+    @NotNull
+    private static byte[] encode(@NotNull Map<String, Double> salMap) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        VInt.write(out, salMap.size());
+        for (Map.Entry<String, Double> entry : salMap.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @NotNull
+    private static Map<String, Double> decode(@NotNull byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            int n = VInt.read(in);
+            Map<String, Double> salMap = new HashMap<>(2 * n);
+            for (int i = 0; i < n; i++) {
+                String entity = in.readUTF();
+                salMap.put(entity, in.readDouble());
+            }
+            return salMap;
+        } catch (IOException e) {
+            // Reading from a byte array does not do any I/O
+            throw new UncheckedIOException(e);
+        }
+    }
+}
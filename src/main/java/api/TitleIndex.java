@@ -0,0 +1,375 @@
+package api;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Local replacement for the WAT Title Resolver.
+ * Maps a normalized Wikipedia title to an integer id using a Lucene FST, so a lookup is a walk over a few
+ * bytes of a compact automaton held in memory (no network call).
+ *
+ * The index can be built from:
+ * (1) The PageIndex. The id of a page is its ordinal in the PageIndex, i.e., the same id used by the {@link LinkGraph}.
+ * (2) A title dump from WAT. The ids are the Wikipedia page IDs, i.e., the same ids returned by WAT.
+ *     The dump must have one entity per line in the format: title TAB id.
+ *
+ * The two kinds of ids are different id spaces, so the index file records which one it holds ({@link IdSpace}) and
+ * {@link #load(String, IdSpace)} rejects an index of the wrong kind (e.g., PageIndex docids where Wikipedia ids are
+ * written out).
+ *
+ * Titles are normalized with {@link #normalize(String)} before indexing and before lookup, so page ids
+ * ("enwiki:Albert%20Einstein") and titles with spaces or underscores all resolve to the same entry.
+ * Only the case of the first character is folded, as in Wikipedia, so titles that differ in case elsewhere stay
+ * distinct. If two titles still collide after normalization, the first one seen is kept (and the collisions counted).
+ * A title that is not found is looked up again fully case-folded ({@link #fold(String)}) in a second FST, so that
+ * the processed entity ids of the experiments ("albert_einstein") resolve too. Among titles that differ only in case,
+ * the folded key goes to the first one in byte order.
+ *
+ * File format: int MAGIC, int VERSION, int id space (ordinal of {@link IdSpace}), then the FST, then the folded FST.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class TitleIndex implements IdResolver {
+
+    private final static int MAGIC = 0x5449444E; // "TIDN"
+    private final static int VERSION = 2;
+
+    /**
+     * The ids held by an index.
+     */
+
+    public enum IdSpace {
+        /** Docids of the PageIndex, as used by the {@link LinkGraph}. */
+        PAGE_INDEX,
+        /** Wikipedia page ids, as returned by WAT. */
+        WIKIPEDIA,
+        /** Rows of a local engine with its own ordering (e.g., the {@link EntityEmbeddings}). */
+        LOCAL
+    }
+
+    private final FST<Long> fst;
+    private final FST<Long> foldedFst;
+    private final IdSpace idSpace;
+
+    @Contract(pure = true)
+    private TitleIndex(@Nullable FST<Long> fst, @Nullable FST<Long> foldedFst, @NotNull IdSpace idSpace) {
+        this.fst = fst;
+        this.foldedFst = foldedFst;
+        this.idSpace = idSpace;
+    }
+
+    /**
+     * Get the kind of ids held by the index.
+     * @return IdSpace
+     */
+
+    @NotNull
+    public IdSpace getIdSpace() {
+        return idSpace;
+    }
+
+    /**
+     * Get the ID of an entity.
+     * @param title String Title (or page id, or processed entity id) of the entity.
+     * @return Integer ID of the entity or -1 if the title is not in the index.
+     */
+
+    @Override
+    public int getId(@NotNull String title) {
+        if (fst == null) {
+            return -1;
+        }
+        try {
+            Long id = Util.get(fst, new BytesRef(normalize(title)));
+            if (id == null && foldedFst != null) {
+                id = Util.get(foldedFst, new BytesRef(fold(title)));
+            }
+            return id == null ? -1 : id.intValue();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Normalize a title so that "enwiki:Albert%20Einstein", "Albert_Einstein" and "albert Einstein" match.
+     * Wikipedia titles are case-sensitive except for the first character, so only the first character is folded.
+     * @param title String
+     * @return String
+     */
+
+    @NotNull
+    public static String normalize(@NotNull String title) {
+        if (title.startsWith("enwiki:")) {
+            title = title.substring(7);
+        }
+        title = title.replace("%20", " ")
+                .replace('_', ' ')
+                .trim();
+        if (title.isEmpty()) {
+            return title;
+        }
+        int first = title.codePointAt(0);
+        return new StringBuilder(title.length())
+                .appendCodePoint(Character.toUpperCase(first))
+                .append(title, Character.charCount(first), title.length())
+                .toString();
+    }
+
+    /**
+     * Normalize a title with {@link #normalize(String)} and fold all of it to lowercase.
+     * @param title String
+     * @return String
+     */
+
+    @NotNull
+    public static String fold(@NotNull String title) {
+        return normalize(title).toLowerCase(Locale.ROOT);
+    }
+
+    /////////////////////////////////// BUILDING THE INDEX //////////////////////////////////////////////
+
+    /**
+     * Build the index from a list of titles. The id of a title is its position in the array.
+     * Null entries are skipped.
+     * @param titles Array of titles.
+     * @param idSpace IdSpace Kind of ids (positions in the array).
+     * @return TitleIndex
+     */
+
+    @NotNull
+    public static TitleIndex fromTitles(@NotNull String[] titles, @NotNull IdSpace idSpace) {
+        List<Map.Entry<BytesRef, Integer>> entries = new ArrayList<>(titles.length);
+        for (int i = 0; i < titles.length; i++) {
+            if (titles[i] != null && !titles[i].isEmpty()) {
+                entries.add(new AbstractMap.SimpleEntry<>(new BytesRef(normalize(titles[i])), i));
+            }
+        }
+        return build(entries, idSpace);
+    }
+
+    /**
+     * Build the index from the "Name" field of the PageIndex.
+     * The id of a page is its docid in the index ({@link IdSpace#PAGE_INDEX}), not its Wikipedia id.
+     * @param pageIndexDir String Path to the PageIndex.
+     * @return TitleIndex
+     * @throws IOException
+     */
+
+    @NotNull
+    public static TitleIndex fromPageIndex(String pageIndexDir) throws IOException {
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(pageIndexDir).toPath()));
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Set<String> fields = Collections.singleton("Name");
+        String[] titles = new String[reader.maxDoc()];
+
+        ProgressBar pb = new ProgressBar("Progress", reader.maxDoc());
+        for (int docId = 0; docId < reader.maxDoc(); docId++) {
+            pb.step();
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+            Document doc = reader.document(docId, fields);
+            titles[docId] = doc.get("Name");
+        }
+        pb.close();
+        reader.close();
+        return fromTitles(titles, IdSpace.PAGE_INDEX);
+    }
+
+    /**
+     * Build the index from a title dump in the format: title TAB id.
+     * Malformed lines are skipped.
+     * @param dumpFile String Path to the title dump.
+     * @return TitleIndex
+     * @throws IOException
+     */
+
+    @NotNull
+    public static TitleIndex fromTitleDump(String dumpFile) throws IOException {
+        List<Map.Entry<BytesRef, Integer>> entries = new ArrayList<>();
+        String line;
+        try (BufferedReader br = new BufferedReader(new FileReader(dumpFile))) {
+            while ((line = br.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                try {
+                    int id = Integer.parseInt(line.substring(tab + 1).trim());
+                    if (id >= 0) {
+                        entries.add(new AbstractMap.SimpleEntry<>(new BytesRef(normalize(line.substring(0, tab))), id));
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("ERROR: Malformed line in title dump: " + line);
+                }
+            }
+        }
+        return build(entries, IdSpace.WIKIPEDIA);
+    }
+
+    @NotNull
+    private static TitleIndex build(@NotNull List<Map.Entry<BytesRef, Integer>> entries, @NotNull IdSpace idSpace) {
+        // The FST must be built from keys in sorted (unsigned byte) order
+        entries.sort(Map.Entry.comparingByKey());
+
+        // The folded keys, in the same order, so that the stable sort below keeps the first title in byte order
+        List<Map.Entry<BytesRef, Integer>> folded = new ArrayList<>(entries.size());
+        for (Map.Entry<BytesRef, Integer> entry : entries) {
+            String key = entry.getKey().utf8ToString().toLowerCase(Locale.ROOT);
+            folded.add(new AbstractMap.SimpleEntry<>(new BytesRef(key), entry.getValue()));
+        }
+        folded.sort(Map.Entry.comparingByKey());
+
+        try {
+            Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+            int collisions = addAll(builder, entries);
+            if (collisions > 0) {
+                System.err.println("WARNING: " + collisions + " titles collide with another title after " +
+                        "normalization. The first one is kept.");
+            }
+            Builder<Long> foldedBuilder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+            addAll(foldedBuilder, folded);
+            return new TitleIndex(builder.finish(), foldedBuilder.finish(), idSpace);
+        } catch (IOException e) {
+            // Building an on-heap FST does not do any I/O
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Add sorted entries to an FST builder, keeping the first of equal keys.
+     * @return Integer Number of entries left out.
+     */
+
+    private static int addAll(@NotNull Builder<Long> builder, @NotNull List<Map.Entry<BytesRef, Integer>> entries)
+            throws IOException {
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        BytesRef last = null;
+        int collisions = 0;
+        for (Map.Entry<BytesRef, Integer> entry : entries) {
+            if (entry.getKey().equals(last)) {
+                collisions++;
+                continue;
+            }
+            builder.add(Util.toIntsRef(entry.getKey(), scratch), (long) entry.getValue());
+            last = entry.getKey();
+        }
+        return collisions;
+    }
+
+    /////////////////////////////////// READING AND WRITING ////////////////////////////////////////////
+
+    /**
+     * Write the index to disk.
+     * @param file String Path to the output file.
+     * @throws IOException
+     */
+
+    public void write(String file) throws IOException {
+        if (fst == null) {
+            throw new IOException("Cannot write an empty title index.");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(idSpace.ordinal());
+            fst.save(new OutputStreamDataOutput(out));
+            foldedFst.save(new OutputStreamDataOutput(out));
+        }
+    }
+
+    /**
+     * Read an index written with {@link #write(String)}.
+     * @param file String Path to the file.
+     * @return TitleIndex
+     * @throws IOException
+     */
+
+    @NotNull
+    public static TitleIndex load(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a title index (or built by an older version; rebuild it): " + file);
+            }
+            int space = in.readInt();
+            if (space < 0 || space >= IdSpace.values().length) {
+                throw new IOException("Unknown id space in title index: " + file);
+            }
+            FST<Long> fst = new FST<>(new InputStreamDataInput(in), PositiveIntOutputs.getSingleton());
+            FST<Long> foldedFst = new FST<>(new InputStreamDataInput(in), PositiveIntOutputs.getSingleton());
+            return new TitleIndex(fst, foldedFst, IdSpace.values()[space]);
+        }
+    }
+
+    /**
+     * Read an index written with {@link #write(String)}, checking the kind of ids it holds.
+     * @param file String Path to the file.
+     * @param idSpace IdSpace Kind of ids expected by the caller.
+     * @return TitleIndex
+     * @throws IOException If the file is not a title index or holds another kind of ids.
+     */
+
+    @NotNull
+    public static TitleIndex load(String file, @NotNull IdSpace idSpace) throws IOException {
+        TitleIndex index = load(file);
+        if (index.getIdSpace() != idSpace) {
+            throw new IOException("Title index " + file + " holds " + index.getIdSpace() + " ids, but " + idSpace
+                    + " ids are needed. Build it from the " + (idSpace == IdSpace.WIKIPEDIA ? "title dump" : "page index")
+                    + " instead.");
+        }
+        return index;
+    }
+
+    /**
+     * Main method to build the index.
+     * @param args Command line arguments: (page|dump) input outputFile
+     */
+
+    public static void main(@NotNull String[] args) {
+        String type = args[0];
+        String input = args[1];
+        String outFile = args[2];
+
+        try {
+            TitleIndex index;
+            if (type.equalsIgnoreCase("page")) {
+                System.out.println("Building title index from page index: " + input);
+                index = fromPageIndex(input);
+            } else if (type.equalsIgnoreCase("dump")) {
+                System.out.println("Building title index from title dump: " + input);
+                index = fromTitleDump(input);
+            } else {
+                System.err.println("ERROR: Type can be either \"page\" or \"dump\".");
+                System.exit(-1);
+                return;
+            }
+            System.out.print("Writing title index to: " + outFile + "...");
+            index.write(outFile);
+            System.out.println("[Done].");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
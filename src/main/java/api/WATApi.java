@@ -2,6 +2,7 @@ package api;
 
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -29,7 +30,7 @@ public class WATApi {
 
     public static class Annotation {
 
-        String wikiTitle;
+        String wikiTitle, spot;
         int wikiId, start, end;
         double rho;
 
@@ -37,14 +38,16 @@ public class WATApi {
          * Constructor.
          * @param wikiId Integer Wikipedia ID of the page the entity links to.
          * @param wikiTitle String Wikipedia page title of the page the entity links to.
+         * @param spot String The annotated text (anchor text).
          * @param start Integer Character offset (included)
          * @param end Integer Character offset (not included)
          * @param rho Double Annotation accuracy
          */
 
-        private Annotation(int wikiId, String wikiTitle, int start, int end, double rho) {
+        public Annotation(int wikiId, String wikiTitle, String spot, int start, int end, double rho) {
             this.wikiId = wikiId;
             this.wikiTitle = wikiTitle;
+            this.spot = spot;
             this.start = start;
             this.end = end;
             this.rho = rho;
@@ -60,6 +63,10 @@ public class WATApi {
             return wikiTitle;
         }
 
+        public String getSpot() {
+            return spot;
+        }
+
         public int getStart() {
             return start;
         }
@@ -87,50 +94,81 @@ public class WATApi {
         /**
          * Method to return the annotations in the text.
          * @param data String The text to annotate.
-         * @return List List of annotations.
+         * @return List List of annotations. Empty if WAT could not be reached or returned an error.
          */
 
         @NotNull
         private static ArrayList<Annotation> getAnnotations(String data) {
-            ArrayList<Annotation> annotations = new ArrayList<>();
-            Document doc;
+            ArrayList<Annotation> annotations = tryGetAnnotations(data);
+            return annotations == null ? new ArrayList<>() : annotations;
+        }
 
-            try {
+        /**
+         * Method to return the annotations in the text, telling failures apart from texts without annotations.
+         * @param data String The text to annotate.
+         * @return List List of annotations, or null if WAT could not be reached or its response could not be parsed.
+         */
 
-                doc = getDocument(data);
+        @Nullable
+        private static ArrayList<Annotation> tryGetAnnotations(String data) {
+            ArrayList<Annotation> annotations = new ArrayList<>();
+            Document doc = getDocument(data);
+            if (doc == null || doc.text() == null) {
+                return null;
+            }
 
-                if (doc.text() != null) {
-                    JSONObject json = new JSONObject(doc.text());
-                    if (json.has("annotations")) {
-                        JSONArray jsonArray = json.getJSONArray("annotations");
-                        for (int i = 0; i < jsonArray.length(); i++) {
+            try {
+                JSONObject json = new JSONObject(doc.text());
+                if (json.has("annotations")) {
+                    JSONArray jsonArray = json.getJSONArray("annotations");
+                    for (int i = 0; i < jsonArray.length(); i++) {
 
-                            JSONObject jsonObject = jsonArray.getJSONObject(i);
+                        JSONObject jsonObject = jsonArray.getJSONObject(i);
 
-                            String wikiTitle = jsonObject.getString("title");
-                            int wikiId = jsonObject.getInt("id");
-                            int start = jsonObject.getInt("start");
-                            int end = jsonObject.getInt("end");
-                            double rho = jsonObject.getDouble("rho");
+                        String wikiTitle = jsonObject.getString("title");
+                        int wikiId = jsonObject.getInt("id");
+                        int start = jsonObject.getInt("start");
+                        int end = jsonObject.getInt("end");
+                        double rho = jsonObject.getDouble("rho");
+                        String spot = jsonObject.has("spot")
+                                ? jsonObject.getString("spot")
+                                : "";
 
-                            annotations.add(new Annotation(wikiId, wikiTitle, start, end, rho));
+                        annotations.add(new Annotation(wikiId, wikiTitle, spot, start, end, rho));
 
-                        }
-                    } else {
-                        System.err.println("ERROR: WAT could not find any annotations.");
                     }
+                } else {
+                    System.err.println("ERROR: WAT could not find any annotations.");
+                    return null;
                 }
             } catch (JSONException e) {
-                System.err.print("ERROR: JSONException");
-                return annotations;
+                System.err.println("ERROR: JSONException");
+                return null;
             }
             return annotations;
         }
 
         @NotNull
         public static ArrayList<Annotation> getAnnotations(String data, double rho) {
-            ArrayList<Annotation> allAnnotations = getAnnotations(data);
+            return filter(getAnnotations(data), rho);
+        }
+
+        /**
+         * Same as {@link #getAnnotations(String, double)}, but returns null if WAT failed, so that the caller can
+         * retry instead of keeping an empty result.
+         * @param data String The text to annotate.
+         * @param rho Double Only annotations with a rho of at least this value are returned.
+         * @return List List of annotations, or null if WAT failed.
+         */
+
+        @Nullable
+        public static ArrayList<Annotation> tryGetAnnotations(String data, double rho) {
+            ArrayList<Annotation> allAnnotations = tryGetAnnotations(data);
+            return allAnnotations == null ? null : filter(allAnnotations, rho);
+        }
 
+        @NotNull
+        private static ArrayList<Annotation> filter(@NotNull ArrayList<Annotation> allAnnotations, double rho) {
             if (rho == 0.0d) {
                 return allAnnotations;
             }
@@ -371,6 +409,28 @@ public class WATApi {
     public static class TitleResolver {
         private final static String URL = "https://wat.d4science.org/wat/title";
 
+        /**
+         * Convert an entity id (e.g., enwiki:Barack%20Obama) to the title spelling used with WAT ("Barack_obama").
+         * @param e String Entity id.
+         * @return String Title, or null if the id is malformed.
+         */
+
+        @Nullable
+        public static String toTitle(@NotNull String e) {
+            e = e.substring(e.indexOf(":") + 1).replaceAll("%20", "_");
+            try {
+                String[] parts = e.split("_");
+                parts[0] = parts[0].substring(0, 1).toUpperCase() + parts[0].substring(1);
+                for (int i = 1; i < parts.length; i++) {
+                    parts[i] = parts[i].substring(0, 1).toLowerCase() + parts[i].substring(1);
+                }
+                return String.join("_", parts);
+            } catch (StringIndexOutOfBoundsException ex) {
+                System.err.println("ERROR in toTitle(): " + ex.getMessage());
+                return null;
+            }
+        }
+
         public static int getId(String title) {
             Document doc;
             int id = 0;
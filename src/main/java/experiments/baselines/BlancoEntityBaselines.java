@@ -3,11 +3,12 @@ package experiments.baselines;
 import help.PseudoDocument;
 import help.Utilities;
 import lucene.Index;
+import lucene.ParagraphView;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.IndexSearcher;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.math.RoundingMode;
@@ -18,7 +19,7 @@ import java.util.concurrent.ForkJoinPool;
 
 public class BlancoEntityBaselines {
     private final IndexSearcher searcher;
-    private final IndexSearcher stanfordIndexSearcher;
+    private final ParagraphView paragraphView;
     private final HashMap<String, ArrayList<String>> paraRankings;
     private final HashMap<String,ArrayList<String>> entityRankings;
     private final HashMap<String, ArrayList<String>> entityQrels;
@@ -29,6 +30,7 @@ public class BlancoEntityBaselines {
     private final boolean parallel;
     private final DecimalFormat df;
     private final String rankingMethod, entityStat;
+    private Map<String, Double> rarityDistribution = null;
 
 
     public BlancoEntityBaselines(String indexDir,
@@ -45,7 +47,8 @@ public class BlancoEntityBaselines {
                                  String outFile,
                                  String rankingMethod,
                                  String entityStat,
-                                 boolean parallel) {
+                                 boolean parallel,
+                                 @Nullable String docMapFile) {
 
         String entityRunFilePath = mainDir + "/" + dataDir + "/" + entityRunFile;
         String passageRunFilePath = mainDir + "/" + dataDir + "/" + paraRunFile;
@@ -78,9 +81,12 @@ public class BlancoEntityBaselines {
         entityQrels = Utilities.getRankings(entityQrelFilePath);
         System.out.println("[Done].");
 
+        // Stat files written by EntityStat are in the compact format; older ones are serialized Maps
         System.out.print("Reading corpus stat file...");
         try {
-            corpusStats = Utilities.readMap(corpusStatFilePath);
+            corpusStats = EntityStatStore.isStatFile(corpusStatFilePath)
+                    ? EntityStatStore.readCorpus(corpusStatFilePath)
+                    : Utilities.readMap(corpusStatFilePath);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -88,7 +94,9 @@ public class BlancoEntityBaselines {
 
         System.out.print("Reading run stat file...");
         try {
-            runStats = Utilities.readMap(runStatFilePath);
+            runStats = EntityStatStore.isStatFile(runStatFilePath)
+                    ? EntityStatStore.readRun(runStatFilePath)
+                    : Utilities.readMap(runStatFilePath);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -99,9 +107,19 @@ public class BlancoEntityBaselines {
         System.out.println("[Done].");
 
         System.out.print("Setting up NER index for use...");
-        stanfordIndexSearcher = new Index.Setup(stanfordIndexDir).getSearcher();
+        IndexSearcher stanfordIndexSearcher = new Index.Setup(stanfordIndexDir).getSearcher();
         System.out.println("[Done].");
 
+        // One docid of the paragraph index gives both the paragraph and its NER entities
+        ParagraphView view = null;
+        try {
+            view = ParagraphView.open(searcher, "id", stanfordIndexSearcher, "Id", docMapFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        paragraphView = view;
+
         System.out.print("Reading entity pool file....");
         entityPool = readEntityPoolFile(entityPoolFilePath);
         System.out.print("Number of entities read = " + entityPool.size());
@@ -187,8 +205,6 @@ public class BlancoEntityBaselines {
     }
     private void doTask(String queryId) {
 
-        Map<String, Double> distribution = new HashMap<>();
-
         if (entityRankings.containsKey(queryId) && entityQrels.containsKey(queryId)) {
 
             // Get the set of entities retrieved for the query
@@ -202,7 +218,11 @@ public class BlancoEntityBaselines {
 
             retEntitySet.retainAll(relEntitySet);
 
-            Map<String, Integer> entityStatsForQuery = runStats.get(queryId);
+            if (retEntitySet.isEmpty()) {
+                return;
+            }
+
+            Map<String, Integer> entityStatsForQuery = runStats.getOrDefault(queryId, Collections.emptyMap());
 
             // Get the list of passages retrieved for the query
             ArrayList<String> allQueryParas = paraRankings.get(queryId);
@@ -211,31 +231,46 @@ public class BlancoEntityBaselines {
             // We use K = 1000 here
             ArrayList<String> topKQueryParas = new ArrayList<>(allQueryParas.subList(0, Math.min(1000, allQueryParas.size())));
 
-            // For every entity in this list of relevant entities do
-            for (String entityId : retEntitySet) {
+            // The distribution only depends on the query, so compute it once for all the entities of the query
+            Map<String, Double> distribution = getDistribution(entityStatsForQuery, topKQueryParas.size());
+
+            // The score by max (or min) does not depend on the paragraph either
+            double bound = 0.0d;
+            if (entityStat.equalsIgnoreCase("max")) {
+                bound = scoreDocByMax(distribution);
+            } else if (entityStat.equalsIgnoreCase("min")) {
+                bound = scoreDocByMin(distribution);
+            }
+
+            // Fetch the top-K passages once for all the entities of the query
+            Map<String, Integer> paraDocIds = new HashMap<>();
+            List<Document> paraDocs = new ArrayList<>();
+            try {
+                int[] docIds = paragraphView.getDocIds(topKQueryParas);
+                for (int i = 0; i < docIds.length; i++) {
+                    if (docIds[i] >= 0) {
+                        paraDocIds.put(topKQueryParas.get(i), docIds[i]);
+                        paraDocs.add(paragraphView.getParagraph(docIds[i]));
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
+            // Entities of the paragraphs (from the NER index), loaded once per paragraph for the query
+            Map<String, ArrayList<String>> paraEntities = new HashMap<>();
 
+            // For every entity in this list of relevant entities do
+            for (String entityId : retEntitySet) {
 
                 // Find all passages among the top-K passages, mentioning the entity
-                PseudoDocument d = Utilities.createPseudoDocument(entityId, "id", "entity",
-                        " ", topKQueryParas, searcher);
+                PseudoDocument d = Utilities.createPseudoDocument(entityId, "entity", " ", paraDocs);
 
                 if (d != null) {
 
-                    if (rankingMethod.equalsIgnoreCase("freq")) {
-                        distribution = EntityRanking.rankByFrequency(entityStatsForQuery, entityPool);
-                    } else if (rankingMethod.equalsIgnoreCase("rarity")) {
-                        distribution = EntityRanking.rankByRarity(corpusStats, entityPool);
-                    } else if (rankingMethod.equalsIgnoreCase("comb")) {
-                        distribution = EntityRanking.rankByComb(entityStatsForQuery, corpusStats, entityPool);
-                    } else if (rankingMethod.equalsIgnoreCase("kld")) {
-                        distribution = EntityRanking.rankByKLD(entityStatsForQuery, corpusStats, entityPool,
-                                topKQueryParas.size());
-                    }
-
                     // Score the passages in the pseudo-document for this entity using the frequency distribution of
                     // co-occurring entities
-                    scoreDoc(queryId, d, distribution);
+                    scoreDoc(queryId, d, distribution, bound, paraDocIds, paraEntities);
                 }
             }
             if (parallel) {
@@ -244,8 +279,40 @@ public class BlancoEntityBaselines {
         }
     }
 
+    @NotNull
+    private Map<String, Double> getDistribution(Map<String, Integer> entityStatsForQuery, int topK) {
+        if (rankingMethod.equalsIgnoreCase("freq")) {
+            return EntityRanking.rankByFrequency(entityStatsForQuery, entityPool);
+        } else if (rankingMethod.equalsIgnoreCase("rarity")) {
+            return getRarityDistribution();
+        } else if (rankingMethod.equalsIgnoreCase("comb")) {
+            return EntityRanking.rankByComb(entityStatsForQuery, corpusStats, entityPool);
+        } else if (rankingMethod.equalsIgnoreCase("kld")) {
+            return EntityRanking.rankByKLD(entityStatsForQuery, corpusStats, entityPool, topK);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * The distribution by rarity only depends on the corpus statistics, so it is the same for every query.
+     * @return Distribution over entities by rarity.
+     */
+
+    @NotNull
+    private synchronized Map<String, Double> getRarityDistribution() {
+        if (rarityDistribution == null) {
+            rarityDistribution = EntityRanking.rankByRarity(corpusStats, entityPool);
+        }
+        return rarityDistribution;
+    }
 
-    private void scoreDoc(String queryId, @NotNull PseudoDocument d, Map<String, Double> freqMap) {
+
+    private void scoreDoc(String queryId,
+                          @NotNull PseudoDocument d,
+                          Map<String, Double> freqMap,
+                          double bound,
+                          Map<String, Integer> paraDocIds,
+                          Map<String, ArrayList<String>> paraEntities) {
         // Get the entity corresponding to the pseudo-document
         String entityId = d.getEntity();
         HashMap<String, Double> scoreMap = new HashMap<>();
@@ -260,7 +327,9 @@ public class BlancoEntityBaselines {
             String paraId = doc.getField("id").stringValue();
 
             // Get the score of the document
-            double score = getParaScore(paraId, freqMap);
+            ArrayList<String> docEntities = paraEntities.computeIfAbsent(paraId,
+                    id -> getParaEntities(paraDocIds.get(id)));
+            double score = getParaScore(docEntities, freqMap, bound);
 
             // Store the paragraph id and score in a HashMap
             scoreMap.put(paraId, score);
@@ -270,65 +339,57 @@ public class BlancoEntityBaselines {
 
     }
 
+    /**
+     * Get the entities in a paragraph from the NER index.
+     * @param doc Integer Docid of the paragraph in the paragraph index.
+     * @return List of entities.
+     */
+
+    @NotNull
+    private ArrayList<String> getParaEntities(int doc) {
+        List<String> entities = new ArrayList<>();
+        try {
+            for (String e : paragraphView.getNerEntities(doc)) {
+                entities.add(e.split(":")[0]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return preProcess(String.join("\n", entities));
+    }
+
     /**
      * Method to find the score of a paragraph.
      * This method looks at all the entities in the paragraph and calculates the score from them.
      * For every entity in the paragraph, if the entity has a score from the entity context pseudo-document,
      * then sum over the entity scores and store the score in a HashMap.
      *
+     * @param docEntities List of entities in the paragraph.
      * @param freqMap HashMap where Key = entity id and Value = score
+     * @param bound Double Score of the paragraphs by max (or min).
      * @return Integer
      */
 
-    private double getParaScore(@NotNull String paraId, Map<String, Double> freqMap) {
+    private double getParaScore(@NotNull ArrayList<String> docEntities, Map<String, Double> freqMap, double bound) {
 
         double paraScore = 0.0d;
-        Document doc = null;
-        // Get the entities in the paragraph
-        // Search the paraId in the NER index
-        try {
-            doc = Index.Search.searchIndex("Id", paraId, stanfordIndexSearcher);
-        } catch (IOException | ParseException e) {
-            e.printStackTrace();
-        }
-        assert doc != null;
-        ArrayList<String> docEntities = preProcess(String.join("\n", getDocEntities(doc)));
 
         if (docEntities.isEmpty()) {
             return 0;
         }
 
-
-        // Make an ArrayList from the String array
-        //ArrayList<String> pEntList = new ArrayList<>(Arrays.asList(Utilities.clean(doc.getField(entityField).stringValue().split(delimiter))));
         /* For every entity in the paragraph do */
 
         if (entityStat.equalsIgnoreCase("sum")) {
             paraScore = scoreDocBySum(docEntities, freqMap);
         } else if (entityStat.equalsIgnoreCase("mean")) {
             paraScore = scoreDocByMean(docEntities, freqMap);
-        } else if (entityStat.equalsIgnoreCase("max")) {
-            paraScore = scoreDocByMax(freqMap);
-        } else if (entityStat.equalsIgnoreCase("min")) {
-            paraScore = scoreDocByMin(freqMap);
+        } else if (entityStat.equalsIgnoreCase("max") || entityStat.equalsIgnoreCase("min")) {
+            paraScore = bound;
         }
         return paraScore;
     }
 
-    @NotNull
-    private List<String> getDocEntities(@NotNull Document document) {
-        List<String> entities = new ArrayList<>();
-        String[] docEntities = document.get("Entity").split("\n");
-
-        for (String e : docEntities) {
-            if (!e.equals("")) {
-                String s = e.split(":")[0];
-                entities.add(s);
-            }
-        }
-        return entities;
-    }
-
     @NotNull
     private ArrayList<String> preProcess(String text) {
 
@@ -347,13 +408,38 @@ public class BlancoEntityBaselines {
     }
 
     private double scoreDocByMin(@NotNull Map<String, Double> freqMap) {
-        Map.Entry<String, Double> minEntry = Collections.min(freqMap.entrySet(), Map.Entry.comparingByValue());
-        return minEntry.getValue();
+        // No entity of the pool in the distribution: every entity has a score of zero
+        if (freqMap.isEmpty()) {
+            return 0.0d;
+        }
+        double min = hasImplicitZeros(freqMap) ? 0.0d : Double.POSITIVE_INFINITY;
+        for (double score : freqMap.values()) {
+            min = Math.min(min, score);
+        }
+        return min;
     }
 
     private double scoreDocByMax(@NotNull Map<String, Double> freqMap) {
-        Map.Entry<String, Double> maxEntry = Collections.max(freqMap.entrySet(), Map.Entry.comparingByValue());
-        return maxEntry.getValue();
+        // No entity of the pool in the distribution: every entity has a score of zero
+        if (freqMap.isEmpty()) {
+            return 0.0d;
+        }
+        double max = hasImplicitZeros(freqMap) ? 0.0d : Double.NEGATIVE_INFINITY;
+        for (double score : freqMap.values()) {
+            max = Math.max(max, score);
+        }
+        return max;
+    }
+
+    /**
+     * The sparse distributions by KLD and rarity leave out the entities of the pool with a score of zero.
+     * @param freqMap Distribution over entities.
+     * @return Boolean True if some entities of the pool have an implicit score of zero.
+     */
+
+    private boolean hasImplicitZeros(@NotNull Map<String, Double> freqMap) {
+        return (rankingMethod.equalsIgnoreCase("kld") || rankingMethod.equalsIgnoreCase("rarity")) &&
+                freqMap.size() < entityPool.size();
     }
 
     private double scoreDocByMean(ArrayList<String> pEntList, Map<String, Double> freqMap) {
@@ -419,6 +505,7 @@ public class BlancoEntityBaselines {
         String rankingMethod = args[11];
         String entityStat = args[12];
         boolean parallel = args[13].equalsIgnoreCase("true");
+        String docMapFile = args.length > 14 ? args[14] : null;
 
         if (!rankingMethod.equalsIgnoreCase("freq") &&
                 !rankingMethod.equalsIgnoreCase("rarity") &&
@@ -439,7 +526,7 @@ public class BlancoEntityBaselines {
         String outFile = "BlancoEntityBaselines-" + rankingMethod + "-" + entityStat + ".run";
 
         new BlancoEntityBaselines(indexDir, stanfordIndexDir, mainDir, dataDir, outputDir, paraRunFile, entityRunFile, entityQrelFile,
-                corpusStatFile, runStatFile, entityPoolFile, outFile, rankingMethod, entityStat, parallel);
+                corpusStatFile, runStatFile, entityPoolFile, outFile, rankingMethod, entityStat, parallel, docMapFile);
     }
 
 }
@@ -1,13 +1,10 @@
 package experiments.baselines;
 
+import help.QueryAnalysis;
 import help.Utilities;
+import lucene.BatchSearch;
 import lucene.Index;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
@@ -17,8 +14,8 @@ import org.apache.lucene.search.similarities.Similarity;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class makes a baseline for support passage retrieval.
@@ -44,9 +41,9 @@ public class CompoundQuery {
     // Fields to search
     private final List<String> searchFields;
 
-    // List of paragraphs already retrieved.
-    // Only paragraphs not in this list are added to the runfile.
-    private final ArrayList<String> paraID;
+    // Set of paragraphs already retrieved.
+    // Only paragraphs not in this set are added to the runfile.
+    private final Set<String> paraID;
 
     /**
      * Constructor.
@@ -75,7 +72,7 @@ public class CompoundQuery {
         String entityRunFilePath = trecCarDir + "/" + dataDir + "/" + entityRunFile;
         String outFilePath = trecCarDir + "/" + outputDir + "/" + outFile;
         this.runStrings = new ArrayList<>();
-        this.paraID = new ArrayList<>();
+        this.paraID = new HashSet<>();
         this.searchFields = searchFields;
 
         System.out.print("Setting up Index for use....");
@@ -97,13 +94,25 @@ public class CompoundQuery {
 
     /**
      * Do the baseline.
+     * The queries of all (query, entity) pairs are searched as one batch, in parallel. The results come back in the
+     * order of the pairs, so the run file is made sequentially.
      * @param outFilePath String Path to the output file.
      * @throws IOException Exception
      */
 
     private void makeBaseline(String outFilePath) throws IOException {
-        //Do in parallel
-        queryList.parallelStream().forEach(this::doTask);
+        List<Map.Entry<String, Query>> queries = new ArrayList<>();
+        for (String queryID : queryList) {
+            queries.addAll(getQueries(queryID));
+        }
+
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        System.out.println("Searching " + queries.size() + " queries with " + parallelism + " threads.");
+        try (BatchSearch batchSearch = new BatchSearch(searcher, parallelism)) {
+            for (BatchSearch.Result<String> result : batchSearch.search(queries, 100, "Id")) {
+                createRunFile(result.getId(), result.getScoreDocs(), result.getDocIds());
+            }
+        }
 
         // Create the run file
         System.out.print("Writing to run file...");
@@ -113,14 +122,18 @@ public class CompoundQuery {
     }
 
     /**
-     * Do the actual work.
+     * Make the queries for a query.
      * @param queryID String Query
+     * @return List of (QueryID+EntityID, Query = QueryID + EntityID) for the relevant entities retrieved for the query.
      */
-    private void doTask(String queryID) {
+
+    @NotNull
+    private List<Map.Entry<String, Query>> getQueries(String queryID) {
+        List<Map.Entry<String, Query>> queries = new ArrayList<>();
 
         if (entityRankings.containsKey(queryID) && entityQrels.containsKey(queryID)) {
             // Get the set of entities retrieved for the query
-            Set<String> retEntitySet = new HashSet<>(entityRankings.get(queryID));
+            Set<String> retEntitySet = new LinkedHashSet<>(entityRankings.get(queryID));
 
             // Get the set of entities relevant for the query
             Set<String> relEntitySet = new HashSet<>(entityQrels.get(queryID));
@@ -130,59 +143,36 @@ public class CompoundQuery {
 
             retEntitySet.retainAll(relEntitySet);
 
+            String query = QueryAnalysis.getQueryString(queryID);
             for (String entityID : retEntitySet) {
-                try {
-                    search(queryID, entityID);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                String entity = QueryAnalysis.getQueryString(entityID);
+                queries.add(new AbstractMap.SimpleEntry<>(queryID + "+" + entityID, toQuery(query, entity)));
             }
-            System.out.println(queryID);
         }
-    }
-
-    /**
-     * Search the Lucene index for Query = QueryID + EntityID
-     * @param queryID String
-     * @param entityID String
-     * @throws IOException Exception
-     */
-    private void search(@NotNull String queryID,
-                        @NotNull String entityID) throws IOException {
-        String query = queryID.substring(queryID.indexOf(":")+1).replaceAll("%20"," ");
-        String entity = entityID.substring(entityID.indexOf(":")+1).replaceAll("%20"," ");
-
-        BooleanQuery booleanQuery = toQuery(query, entity);
-        TopDocs topDocs = Index.Search.searchIndex(booleanQuery,100);
-
-        //System.out.println(topDocs.totalHits);
-        createRunFile(queryID + "+" + entityID, topDocs);
+        return queries;
     }
 
     /**
      * Create a run file
      * Run file string format: $queryId Q0 $paragraphId $rank $score $name
      * @param queryID String ID of the query
-     * @param topDocs TopDocs Top hits for the query
-     * @throws IOException Exception
+     * @param scoreDocs Top hits for the query
+     * @param paraIds Paragraph ids of the top hits
      */
     private void createRunFile(String queryID,
-                               @NotNull TopDocs topDocs) throws IOException {
-        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+                               @NotNull ScoreDoc[] scoreDocs,
+                               String[] paraIds) {
         if (scoreDocs.length == 0) {
             System.out.println("Got nothing for: " + queryID);
             return;
         }
-        Document d;
         String runFileString;
 
         for (int i = 0; i < scoreDocs.length; i++) {
-            d = searcher.doc(scoreDocs[i].doc);
-            String pID = d.getField("Id").stringValue();
+            String pID = paraIds[i];
 
-            runFileString = queryID + " Q0 " + pID + " " + (i + 1) + " " + topDocs.scoreDocs[i].score + " " + "Baseline2";
-            if(!paraID.contains(pID)) {
-                paraID.add(pID);
+            runFileString = queryID + " Q0 " + pID + " " + (i + 1) + " " + scoreDocs[i].score + " " + "Baseline2";
+            if (paraID.add(pID)) {
                 runStrings.add(runFileString);
                 //System.out.println(runFileString);
             }
@@ -194,49 +184,25 @@ public class CompoundQuery {
      * @param query String  query
      * @param entity String entity
      * @return BooleanQuery A boolean query representing the terms in the original query
-     * @throws IOException Exception
      */
+    @NotNull
     private BooleanQuery toQuery(String query,
-                                 String entity) throws IOException {
+                                 String entity) {
 
-        List<String> tokens = new ArrayList<>(128);
-        List<String> entTokens = new ArrayList<>(128);
         BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
-        tokenizeQuery(query,"Text",tokens, new EnglishAnalyzer());
+        List<String> tokens = QueryAnalysis.analyze(query, "Text", QueryAnalysis.english(), 64);
         for (String searchField : searchFields) {
             for (String token : tokens) {
                 booleanQuery.add(new TermQuery(new Term(searchField, token)), BooleanClause.Occur.SHOULD);
             }
         }
-        tokenizeQuery(entity, "EntityLinks",entTokens, new EnglishAnalyzer());
+        List<String> entTokens = QueryAnalysis.analyze(entity, "EntityLinks", QueryAnalysis.english(), 64);
         for (String token : entTokens) {
             booleanQuery.add(new TermQuery(new Term("EntityLinks", token)), BooleanClause.Occur.SHOULD);
         }
         return booleanQuery.build();
     }
 
-    /**
-     * Tokenizes the query and stores results in (the passed in) `tokens` -- Not thread safe!
-     * @param stringToTokenize String
-     * @param field String
-     * @param tokens List
-     * @throws IOException Exception
-     */
-    private void tokenizeQuery(String stringToTokenize,
-                               String field,
-                               @NotNull List<String> tokens,
-                               @NotNull Analyzer analyzer) throws IOException {
-        TokenStream tokenStream = analyzer.tokenStream(field, new StringReader(stringToTokenize));
-        tokenStream.reset();
-        tokens.clear();
-        while (tokenStream.incrementToken() && tokens.size() < 64) {
-            final String token = tokenStream.getAttribute(CharTermAttribute.class).toString();
-            tokens.add(token);
-        }
-        tokenStream.end();
-        tokenStream.close();
-    }
-
     /**
      * Main method.
      * @param args command line arguments
@@ -265,11 +231,11 @@ public class CompoundQuery {
         switch (a) {
             case "eng":
                 System.out.println("Using English analyzer.");
-                analyzer = new EnglishAnalyzer();
+                analyzer = QueryAnalysis.english();
                 break;
             case "std":
                 System.out.println("Using Standard analyzer.");
-                analyzer = new StandardAnalyzer();
+                analyzer = QueryAnalysis.standard();
                 break;
             default:
                 System.out.println("Wrong analyzer choice! Can be either English(eng) or Standard(std)");
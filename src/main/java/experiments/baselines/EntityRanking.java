@@ -8,6 +8,12 @@ import java.util.*;
 
 /**
  * Various entity based support passage ranking methods described in Blanco et al.
+ *
+ * The distributions are sparse: only the entities of the pool with non-zero statistics are visited and put in the
+ * distribution, so the cost is the number of entities with statistics (for a query: the entities of its top-K
+ * passages) and not the size of the pool. Entities of the pool that are not in a distribution by KLD or rarity have
+ * a score of zero; the distributions by frequency and combination are only defined for the entities with statistics.
+ *
  * @author Shubham Chatterjee
  * @version 6/30/2020
  */
@@ -25,29 +31,28 @@ public class EntityRanking {
      */
 
     @NotNull
-    public static Map<String, Double> rankByKLD(Map<String, Integer> runStats,
+    public static Map<String, Double> rankByKLD(@NotNull Map<String, Integer> runStats,
                                                 Map<String, Integer> corpusStats,
                                                 @NotNull Set<String> entityPool,
                                                 int topKPassages) {
 
         Map<String, Double> distribution = new HashMap<>();
 
-        for (String entity : entityPool) {
-
-            double probabilityOfEntityGivenQueryModel = findProbabilityOfEntityGivenQueryModel(entity, runStats, topKPassages);
+        for (Map.Entry<String, Integer> entry : runStats.entrySet()) {
+            String entity = entry.getKey();
+            if (entry.getValue() == 0 || !entityPool.contains(entity)) {
+                continue;
+            }
 
-            if (probabilityOfEntityGivenQueryModel == 0.0d) {
-                distribution.put(entity, 0.0d);
-            } else {
+            double probabilityOfEntityGivenQueryModel = (double) entry.getValue() / topKPassages;
 
-                double probabilityOfEntityGivenPassageModel = findProbabilityOfEntityGivenPassageModel(entity,
-                        corpusStats);
+            double probabilityOfEntityGivenPassageModel = findProbabilityOfEntityGivenPassageModel(entity,
+                    corpusStats);
 
-                double entityScore = probabilityOfEntityGivenQueryModel *
-                        Math.log(probabilityOfEntityGivenQueryModel / probabilityOfEntityGivenPassageModel);
+            double entityScore = probabilityOfEntityGivenQueryModel *
+                    Math.log(probabilityOfEntityGivenQueryModel / probabilityOfEntityGivenPassageModel);
 
-                distribution.put(entity, entityScore);
-            }
+            distribution.put(entity, entityScore);
         }
 
         return distribution;
@@ -59,14 +64,6 @@ public class EntityRanking {
         return ((double) numOfPassagesContainingEntity / paragraphCorpusSize);
     }
 
-    private static double findProbabilityOfEntityGivenQueryModel(String entity,
-                                                                 @NotNull Map<String, Integer> runStats,
-                                                                 int topKPassages) {
-        int stat = runStats.getOrDefault(entity, 0);
-        return  (double) stat / topKPassages;
-
-    }
-
     /**
      * Rank by rarity.
      * @param entityStatMap Map of entity to number of passages in entire corpus mentioning the entity.
@@ -79,16 +76,12 @@ public class EntityRanking {
                                                    @NotNull Set<String> entityPool) {
 
         Map<String, Double> distribution = new HashMap<>();
-        int numOfPassagesContainingEntity;
-
 
-        for (String entity : entityPool) {
-            numOfPassagesContainingEntity = entityStatMap.getOrDefault(entity, 0);
-
-            double entityScore = numOfPassagesContainingEntity == 0
-                    ? 0.0d
-                    :(double) paragraphCorpusSize / numOfPassagesContainingEntity;
-            distribution.put(entity, entityScore);
+        for (Map.Entry<String, Integer> entry : entityStatMap.entrySet()) {
+            int numOfPassagesContainingEntity = entry.getValue();
+            if (numOfPassagesContainingEntity != 0 && entityPool.contains(entry.getKey())) {
+                distribution.put(entry.getKey(), (double) paragraphCorpusSize / numOfPassagesContainingEntity);
+            }
         }
 
         return distribution;
@@ -102,14 +95,13 @@ public class EntityRanking {
      */
 
     @NotNull
-    public static Map<String, Double> rankByFrequency(Map<String, Integer> runStats, @NotNull Set<String> entityPool) {
+    public static Map<String, Double> rankByFrequency(@NotNull Map<String, Integer> runStats,
+                                                      @NotNull Set<String> entityPool) {
         Map<String, Integer> ranking = new HashMap<>();
 
-        for (String entity : entityPool) {
-            if (runStats.containsKey(entity)) {
-                ranking.put(entity, runStats.get(entity));
-            } else {
-                runStats.put(entity, 0);
+        for (Map.Entry<String, Integer> entry : runStats.entrySet()) {
+            if (entityPool.contains(entry.getKey())) {
+                ranking.put(entry.getKey(), entry.getValue());
             }
         }
 
@@ -147,21 +139,22 @@ public class EntityRanking {
      */
 
     @NotNull
-    public static Map<String, Double> rankByComb(Map<String, Integer> runStats,
+    public static Map<String, Double> rankByComb(@NotNull Map<String, Integer> runStats,
                                                  Map<String, Integer> corpusStats,
                                                  Set<String> entityPool) {
 
         Map<String, Double> distribution = new HashMap<>();
         Map<String, Double> rankByFreqMap = rankByFrequency(runStats, entityPool);
-        Map<String, Double> rankByRarityMap = rankByRarity(corpusStats,entityPool);
-
-        for (String entity: entityPool) {
-            if (rankByFreqMap.containsKey(entity) && rankByRarityMap.containsKey(entity)) {
-                double s1 = Math.exp(rankByFreqMap.get(entity));
-                double s2 = rankByRarityMap.get(entity);
-                double entityScore = s1 * s2;
-                distribution.put(entity, entityScore);
-            }
+
+        for (Map.Entry<String, Double> entry : rankByFreqMap.entrySet()) {
+            String entity = entry.getKey();
+            int numOfPassagesContainingEntity = corpusStats.getOrDefault(entity, 0);
+            double s1 = Math.exp(entry.getValue());
+            double s2 = numOfPassagesContainingEntity == 0
+                    ? 0.0d
+                    : (double) paragraphCorpusSize / numOfPassagesContainingEntity;
+            double entityScore = s1 * s2;
+            distribution.put(entity, entityScore);
         }
 
         return distribution;
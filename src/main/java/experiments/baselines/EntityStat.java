@@ -1,12 +1,15 @@
 package experiments.baselines;
 
-import edu.unh.cs.treccar_v2.Data;
-import edu.unh.cs.treccar_v2.read_data.DeserializeData;
 import help.Utilities;
 import lucene.Index;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
@@ -19,9 +22,18 @@ import java.util.stream.StreamSupport;
 /**
  * Helper class for BlancoEntityBaseline.
  * Finds the number of passages in the TREC-CAR paragraphCorpus which contains an entity.
- * Stores the results in a HashMap and serializes the Map to disk for future usage.
+ * Stores the results in the compact format of {@link EntityStatStore} for future usage.
  * Source of entities: Entity pool created from all entities in a passage ranking.
  *
+ * Corpus statistics are read from the term dictionary of the entity field instead of fetching every paragraph of the
+ * corpus: every term of the field is parsed once into its entities, and the number of paragraphs mentioning an entity
+ * is the document frequency of its term (or the size of the union of the postings of its terms, if the entity occurs
+ * in more than one term). Run statistics count, for every top-K paragraph of a query, the entities of the paragraph
+ * that are in the (hashed) entity pool, without copying the pool for every paragraph.
+ * NOTE: The corpus statistics need the entity list of a paragraph to be indexed as a single untokenized term of
+ * newline-separated "entity:TAG" lines, as in the "Entity" field of the {@link lucene.StanfordNERIndex}. The field
+ * is checked before it is used, and any other field is rejected.
+ *
  * @author Shubham Chatterjee
  * @version 6/30/2020
  */
@@ -32,9 +44,9 @@ public class EntityStat {
     private HashMap<String, ArrayList<String>> paraRankings;
     private final AtomicInteger count = new AtomicInteger();
 
-    public EntityStat(String indexDir, String idField, String entityField, String entityPoolFile, String outputFile, String cborFile, String passageRunFile, boolean parallel) {
+    public EntityStat(String indexDir, String entityField, String entityPoolFile, String outputFile, String passageRunFile, boolean parallel) {
         setUp(indexDir, passageRunFile, entityPoolFile, parallel);
-        findStat(cborFile, outputFile, idField, entityField, parallel);
+        findStat(outputFile, entityField, parallel);
     }
 
     public EntityStat(String indexDir, String idField, String entityField, String entityPoolFile, String outputFile, String passageRunFile, boolean parallel) {
@@ -107,19 +119,18 @@ public class EntityStat {
         Set<String> querySet = paraRankings.keySet();
         StreamSupport.stream(querySet.spliterator(), parallel)
                 .forEach(query -> {
-                    ArrayList<String> topKQueryParas = new ArrayList<>(paraRankings.get(query).subList(0, Math.min(1000, paraRankings.get(query).size())));
-                    Map<String, Integer> statsInner = new ConcurrentHashMap<>();
+                    List<String> topKQueryParas = paraRankings.get(query).subList(0, Math.min(1000, paraRankings.get(query).size()));
+                    Map<String, Integer> statsInner = new HashMap<>();
                     for (String paraId : topKQueryParas) {
-                        Set<String> entitySet = new HashSet<>(entityPool);
                         Document doc;
                         try {
                             doc = Index.Search.searchIndex(idField, paraId, searcher);
                             assert doc != null;
-                            //Set<String> docEntities = new HashSet<>(Arrays.asList(doc.get(entityField).split("\n")));
-                            Set<String> docEntities = preProcess(String.join("\n", getDocEntities(doc, entityField)));
-                            entitySet.retainAll(docEntities);
-                            for (String e : entitySet) {
-                                statsInner.compute(e, (t, oldV) -> (oldV == null) ? 1 : oldV + 1);
+                            // Probe the pool with the entities of the paragraph
+                            for (String e : parseEntities(doc.get(entityField))) {
+                                if (entityPool.contains(e)) {
+                                    statsInner.merge(e, 1, Integer::sum);
+                                }
                             }
                         } catch (IOException | ParseException | NullPointerException e) {
                             e.printStackTrace();
@@ -132,7 +143,7 @@ public class EntityStat {
 
         System.out.print("Writing to file.....");
         try {
-            Utilities.writeMap(stats, outputFile);
+            EntityStatStore.writeRun(stats, outputFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -141,46 +152,70 @@ public class EntityStat {
     }
 
 
-    private  void findStat(String cborFile, String outputFile,  String idField, String entityField, boolean parallel) {
+    private void findStat(String outputFile, String entityField, boolean parallel) {
         Map<String, Integer> stats = new ConcurrentHashMap<>();
+        IndexReader reader = searcher.getIndexReader();
 
-
-        BufferedInputStream bis = null;
         try {
-            bis = new BufferedInputStream(new FileInputStream(new File(cborFile)));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+            Terms terms = MultiFields.getTerms(reader, entityField);
+            if (terms == null) {
+                System.err.println("ERROR: Field " + entityField + " is not indexed.");
+                return;
+            }
+            if (!isUntokenized(reader, entityField)) {
+                System.err.println("ERROR: Field " + entityField + " is tokenized. The entity list of a paragraph " +
+                        "must be indexed as one untokenized term (as the \"Entity\" field of the StanfordNERIndex).");
+                return;
+            }
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+            // If every paragraph has exactly one term in the field (e.g., the entity list indexed as a StringField),
+            // the document frequencies of the terms can be added up: no paragraph is counted twice for an entity.
+            // Otherwise, an entity that occurs in more than one term is counted from the union of their postings.
+            boolean oneTermPerDoc = terms.getSumDocFreq() == terms.getDocCount() && liveDocs == null;
+            Map<String, List<BytesRef>> entityTerms = new HashMap<>();
+
+            System.out.print("Reading terms of field " + entityField + "...");
+            TermsEnum termsEnum = terms.iterator();
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                int docFreq = termsEnum.docFreq();
+                String value = term.utf8ToString();
+                if (!isEntityList(value)) {
+                    System.out.println();
+                    System.err.println("ERROR: Term \"" + value + "\" of field " + entityField + " is not a list " +
+                            "of \"entity:TAG\" lines.");
+                    return;
+                }
+                for (String e : parseEntities(value)) {
+                    if (!entityPool.contains(e)) {
+                        continue;
+                    }
+                    if (oneTermPerDoc) {
+                        stats.merge(e, docFreq, Integer::sum);
+                    } else {
+                        entityTerms.computeIfAbsent(e, k -> new ArrayList<>()).add(BytesRef.deepCopyOf(term));
+                    }
+                }
+            }
+            System.out.println("[Done].");
 
-        final Iterable<Data.Paragraph> paragraphIterable = DeserializeData.iterableParagraphs(bis);
-        StreamSupport.stream(paragraphIterable.spliterator(), parallel)
-                .forEach(paragraph -> {
-                    String paraId = paragraph.getParaId();
-                    Set<String> entitySet = new HashSet<>(entityPool);
-                    Document doc;
-                    try {
-                        doc = Index.Search.searchIndex(idField, paraId, searcher);
-                        if (doc != null) {
-                            //Set<String> docEntities = new HashSet<>(Arrays.asList(doc.get(entityField).split("\n")));
-                            Set<String> docEntities = preProcess(String.join("\n", getDocEntities(doc, entityField)));
-                            entitySet.retainAll(docEntities);
-                            for (String e : entitySet) {
-                                stats.compute(e, (t, oldV) -> (oldV == null) ? 1 : oldV + 1);
-                            }
-                            count.getAndIncrement();
-                            if (count.get() % 1000 == 0) {
-                                System.out.println("Progress: " + count.get() + " of 29,794,697.");
-                            }
+            StreamSupport.stream(entityTerms.entrySet().spliterator(), parallel)
+                    .forEach(entry -> {
+                        try {
+                            stats.put(entry.getKey(), countDocs(reader, entityField, entry.getValue(), liveDocs));
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
-
-                    } catch (IOException | ParseException | NullPointerException e) {
-                        e.printStackTrace();
-                    }
-                });
+                    });
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
         System.out.print("Writing to file.....");
         try {
-            Utilities.writeMap(stats, outputFile);
+            EntityStatStore.writeCorpus(stats, outputFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -190,10 +225,81 @@ public class EntityStat {
 
     }
 
+    /**
+     * Number of live documents matching any of the terms.
+     * @param reader IndexReader
+     * @param field String Field of the terms.
+     * @param terms List of terms.
+     * @param liveDocs Bits Live documents. May be null (no deletions).
+     * @return Integer
+     * @throws IOException
+     */
+
+    private int countDocs(@NotNull IndexReader reader,
+                          String field,
+                          @NotNull List<BytesRef> terms,
+                          Bits liveDocs) throws IOException {
+        if (terms.size() == 1 && liveDocs == null) {
+            return reader.docFreq(new Term(field, terms.get(0)));
+        }
+        FixedBitSet docs = new FixedBitSet(reader.maxDoc());
+        for (BytesRef term : terms) {
+            PostingsEnum postings = MultiFields.getTermDocsEnum(reader, field, term, PostingsEnum.NONE);
+            if (postings == null) {
+                continue;
+            }
+            for (int d = postings.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS; d = postings.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(d)) {
+                    docs.set(d);
+                }
+            }
+        }
+        return docs.cardinality();
+    }
+
+    /**
+     * Check if a field is indexed untokenized, i.e., with docs only and no norms, as a StringField is.
+     * @param reader IndexReader
+     * @param field String Name of the field.
+     * @return Boolean
+     */
+
+    private static boolean isUntokenized(@NotNull IndexReader reader, String field) {
+        FieldInfo info = MultiFields.getMergedFieldInfos(reader).fieldInfo(field);
+        return info != null && info.getIndexOptions() == IndexOptions.DOCS && info.omitsNorms();
+    }
+
+    /**
+     * Check if a value of the entity field has the expected form: non-empty lines, each as "entity:TAG".
+     * @param value String
+     * @return Boolean
+     */
+
+    private static boolean isEntityList(@NotNull String value) {
+        for (String line : value.split("\n")) {
+            int pos = line.lastIndexOf(':');
+            if (!line.isEmpty() && (pos <= 0 || pos == line.length() - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the entities of a value of the entity field, normalized like the entities of the pool.
+     * @param value String Entities separated by newlines, each as "entity:type".
+     * @return Set of entities.
+     */
+
+    @NotNull
+    private Set<String> parseEntities(@NotNull String value) {
+        return preProcess(String.join("\n", getDocEntities(value)));
+    }
+
     @NotNull
-    private Set<String> getDocEntities(@NotNull Document document, String entityField) {
+    private Set<String> getDocEntities(@NotNull String value) {
         Set<String> entities = new HashSet<>();
-        String[] docEntities = document.get(entityField).split("\n");
+        String[] docEntities = value.split("\n");
 
         for (String e : docEntities) {
             if (!e.equals("")) {
@@ -223,7 +329,7 @@ public class EntityStat {
 
     public static void main(@NotNull String[] args) {
 
-        String cbor, passageRunFile;
+        String passageRunFile;
         boolean parallel;
 
         String indexDir = args[0];
@@ -233,10 +339,10 @@ public class EntityStat {
         String outputFile = args[4];
         String type = args[5];
         if (type.equalsIgnoreCase("corpus")) {
-            cbor = args[6];
+            // args[6] (the paragraph corpus) is not read anymore: the counts come from the index
             passageRunFile = args[7];
             parallel = args[8].equalsIgnoreCase("true");
-            new EntityStat(indexDir, idField, entityField, entityPoolFile, outputFile, cbor, passageRunFile, parallel);
+            new EntityStat(indexDir, entityField, entityPoolFile, outputFile, passageRunFile, parallel);
         } else if (type.equalsIgnoreCase("run")) {
             passageRunFile = args[6];
             parallel = args[7].equalsIgnoreCase("true");
@@ -0,0 +1,163 @@
+package experiments.baselines;
+
+import help.VInt;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compact file format for the entity statistics written by {@link EntityStat}.
+ *
+ * Both kinds of statistics are sparse counts over the entity pool:
+ * (1) corpus statistics: entity --> number of paragraphs in the corpus mentioning the entity;
+ * (2) run statistics: query --> (entity --> number of top-K paragraphs of the query mentioning the entity).
+ * The serialized ConcurrentHashMaps used before stored every entity name once per query, as a Java object with its
+ * boxed count. Here, the entity names are stored once, in a sorted dictionary, and every section (one for the corpus,
+ * one per query) is a list of (entity ordinal, count) pairs with the ordinals delta-coded and all integers
+ * variable-length coded.
+ *
+ * File format:
+ * int MAGIC, int VERSION, int numEntities, the entity names (UTF) in sorted order, int numSections, then for every
+ * section: key (UTF; empty for the corpus statistics), VInt numEntries, numEntries * (VInt ordinal delta, VInt count).
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class EntityStatStore {
+
+    private final static int MAGIC = 0x454E5453; // "ENTS"
+    private final static int VERSION = 1;
+    private final static String CORPUS = "";
+
+    private EntityStatStore() {
+    }
+
+    /**
+     * Write corpus statistics.
+     * @param stats Map of (entity, count).
+     * @param file String Path to the file.
+     * @throws IOException
+     */
+
+    public static void writeCorpus(@NotNull Map<String, Integer> stats, String file) throws IOException {
+        write(Collections.singletonMap(CORPUS, stats), file);
+    }
+
+    /**
+     * Write run statistics.
+     * @param stats Map of (query, (entity, count)).
+     * @param file String Path to the file.
+     * @throws IOException
+     */
+
+    public static void writeRun(@NotNull Map<String, ? extends Map<String, Integer>> stats, String file)
+            throws IOException {
+        write(stats, file);
+    }
+
+    /**
+     * Read corpus statistics.
+     * @param file String Path to the file.
+     * @return Map of (entity, count).
+     * @throws IOException
+     */
+
+    @NotNull
+    public static Map<String, Integer> readCorpus(String file) throws IOException {
+        return read(file).getOrDefault(CORPUS, new HashMap<>());
+    }
+
+    /**
+     * Read run statistics.
+     * @param file String Path to the file.
+     * @return Map of (query, (entity, count)).
+     * @throws IOException
+     */
+
+    @NotNull
+    public static Map<String, Map<String, Integer>> readRun(String file) throws IOException {
+        return read(file);
+    }
+
+    /**
+     * Check if a file is in this format (and not a serialized Map).
+     * @param file String Path to the file.
+     * @return Boolean
+     */
+
+    public static boolean isStatFile(String file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void write(@NotNull Map<String, ? extends Map<String, Integer>> sections, String file)
+            throws IOException {
+        // Dictionary of all entities with a count
+        TreeSet<String> entities = new TreeSet<>();
+        for (Map<String, Integer> section : sections.values()) {
+            entities.addAll(section.keySet());
+        }
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (String entity : entities) {
+            ordinals.put(entity, ordinals.size());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entities.size());
+            for (String entity : entities) {
+                out.writeUTF(entity);
+            }
+            out.writeInt(sections.size());
+            for (Map.Entry<String, ? extends Map<String, Integer>> section : sections.entrySet()) {
+                out.writeUTF(section.getKey());
+                int[][] entries = new int[section.getValue().size()][];
+                int n = 0;
+                for (Map.Entry<String, Integer> entry : section.getValue().entrySet()) {
+                    entries[n++] = new int[]{ordinals.get(entry.getKey()), entry.getValue()};
+                }
+                Arrays.sort(entries, Comparator.comparingInt(e -> e[0]));
+                VInt.write(out, n);
+                int previous = 0;
+                for (int[] entry : entries) {
+                    VInt.write(out, entry[0] - previous);
+                    VInt.write(out, entry[1]);
+                    previous = entry[0];
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private static Map<String, Map<String, Integer>> read(String file) throws IOException {
+        Map<String, Map<String, Integer>> sections = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an entity statistics file: " + file);
+            }
+            String[] entities = new String[in.readInt()];
+            for (int i = 0; i < entities.length; i++) {
+                entities[i] = in.readUTF();
+            }
+            int numSections = in.readInt();
+            for (int s = 0; s < numSections; s++) {
+                String key = in.readUTF();
+                int n = VInt.read(in);
+                Map<String, Integer> section = new HashMap<>(Math.max(4, 2 * n));
+                int ordinal = 0;
+                for (int i = 0; i < n; i++) {
+                    ordinal += VInt.read(in);
+                    section.put(entities[ordinal], VInt.read(in));
+                }
+                sections.put(key, section);
+            }
+        }
+        return sections;
+    }
+}
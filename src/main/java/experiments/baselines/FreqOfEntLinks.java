@@ -1,5 +1,6 @@
 package experiments.baselines;
 
+import help.EntityOverlap;
 import help.Utilities;
 import lucene.Index;
 import org.apache.lucene.document.Document;
@@ -108,18 +109,17 @@ public class FreqOfEntLinks {
         if (entityRankings.containsKey(queryId) && entityQrels.containsKey(queryId)) {
             // Get the list of entities retrieved for the query
             ArrayList<String> retEntityList = entityRankings.get(queryId);
-            ArrayList<String> processedRetEntityList = Utilities.process(retEntityList);
 
             // Get the list of entities relevant for the query
-            ArrayList<String> relEntityList = entityQrels.get(queryId);
+            Set<String> relEntitySet = new HashSet<>(entityQrels.get(queryId));
 
             //Get the list of paragraphs retrieved for the query
             ArrayList<String> paraList = paraRankings.get(queryId);
 
-
-            HashMap<String, HashMap<String, Integer>> scoreMap = new HashMap<>();
-            Document doc = null;
-            int score;
+            // Encode the retrieved entities and the paragraphs as bitmaps over the retrieved entities
+            EntityOverlap overlap = new EntityOverlap(retEntityList, relEntitySet);
+            List<String> paraIds = new ArrayList<>();
+            Document doc;
 
             // For every paragraph retrieved for the query do
             for (String paraId : paraList) {
@@ -129,34 +129,39 @@ public class FreqOfEntLinks {
                     doc = Index.Search.searchIndex("id", paraId, searcher);
                 } catch (IOException | ParseException e) {
                     e.printStackTrace();
+                    continue;
+                }
+
+                if (doc == null) {
+                    continue;
                 }
 
                 // Get the entities in the paragraph
-                // Make an ArrayList from the String array
-                assert doc != null;
                 List<String> pEntList = Arrays.asList(
                         Utilities.clean(doc.getField("entity").stringValue().split(" ")));
-                /*
-                 * The feature value for a query-entity pair and the paragraph is the number of links
-                 * a paragraph has to an entity in the list entityList. This is basically an intersection
-                 * operation on the two lists :
-                 * list1 = list of entities retrieved for the query
-                 * list2 = list of entities in the paragraph
-                 */
-                score = Utilities.intersection(processedRetEntityList, pEntList).size();
-                ArrayList<String> paraEntities = Utilities.unprocess(pEntList, retEntityList);
-
-                // Only do for relevant entities
-                paraEntities.retainAll(relEntityList);
-
-                HashMap<String, Integer> map = new HashMap<>();
-                for (String e : paraEntities) {
-                    String query = queryId + "+" + e;
-                    if (scoreMap.containsKey(query)) {
-                        map = scoreMap.get(query);
+                overlap.addParagraph(pEntList);
+                paraIds.add(paraId);
+            }
+
+            HashMap<String, HashMap<String, Integer>> scoreMap = new HashMap<>();
+
+            // For every relevant entity, score the paragraphs linking to it
+            BitSet relevant = overlap.getRelevantEntities();
+            for (int e = relevant.nextSetBit(0); e >= 0; e = relevant.nextSetBit(e + 1)) {
+                BitSet paragraphs = overlap.getParagraphs(e);
+                for (String entityId : overlap.getEntityIds(e)) {
+                    if (!relEntitySet.contains(entityId)) {
+                        continue;
+                    }
+                    HashMap<String, Integer> map = scoreMap.computeIfAbsent(queryId + "+" + entityId,
+                            k -> new HashMap<>());
+                    for (int p = paragraphs.nextSetBit(0); p >= 0; p = paragraphs.nextSetBit(p + 1)) {
+                        /*
+                         * The feature value for a query-entity pair and the paragraph is the number of links
+                         * a paragraph has to an entity in the list of entities retrieved for the query.
+                         */
+                        map.put(paraIds.get(p), overlap.overlap(p));
                     }
-                    map.put(paraId, score);
-                    scoreMap.put(query, map);
                 }
             }
             makeRunStrings(scoreMap);
@@ -171,6 +176,7 @@ public class FreqOfEntLinks {
 
     private void makeRunStrings(@NotNull HashMap<String,
                                 HashMap<String, Integer>> scoreMap) {
+        List<String> runStrings = new ArrayList<>();
         String runFileString;
         int rank , score;
         for (String queryId : scoreMap.keySet()) {
@@ -187,6 +193,10 @@ public class FreqOfEntLinks {
                 }
             }
         }
+        // Queries are done in parallel
+        synchronized (this.runStrings) {
+            this.runStrings.addAll(runStrings);
+        }
     }
 
     /**
@@ -1,15 +1,13 @@
 package experiments.ecd;
 
 import help.PseudoDocument;
+import help.QueryAnalysis;
 import help.Utilities;
 import lucene.Index;
 import lucene.RAMIndex;
 import me.tongfei.progressbar.ProgressBar;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -182,20 +180,16 @@ public class ECDRetScore {
 
             // Build the index
             // First create the IndexWriter
-            IndexWriter iw = RAMIndex.createWriter(new EnglishAnalyzer());
+            IndexWriter iw = RAMIndex.createWriter(QueryAnalysis.english());
             // Now create the index
             RAMIndex.createIndex(queryDocs, iw);
-            // Create the IndexSearcher and QueryParser
+            // Create the IndexSearcher
             IndexSearcher is = RAMIndex.createSearcher(new BM25Similarity(), iw);
-            QueryParser qp = RAMIndex.createParser("text", new EnglishAnalyzer());
             // Search the index for the query
-            // But first process the query
-            String query = queryId
-                    .substring(queryId.indexOf(":") + 1)          // remove enwiki: from query
-                    .replaceAll("%20", " ")     // replace %20 with whitespace
-                    .toLowerCase();                            //  convert query to lowercase
+            // But first make the query from the (cached) tokens of the query string
+            Query query = QueryAnalysis.toQuery(QueryAnalysis.analyzeQuery(queryId, "text", QueryAnalysis.english()), "text");
             // Now search the query
-            LinkedHashMap<Document, Float> results = Utilities.sortByValueDescending(searchIndex(query, 100, is, qp));
+            LinkedHashMap<Document, Float> results = Utilities.sortByValueDescending(searchIndex(query, 100, is));
             if (!results.isEmpty()) {
                 documentScore = Utilities.sortByValueDescending(scoreParas(results, documentScore, entityToPseudoDocMap));
                 makeRunStrings(queryId, documentScore, entityToPseudoDocMap);
@@ -209,19 +203,12 @@ public class ECDRetScore {
         }
     }
     @NotNull
-    private Map<Document, Float> searchIndex(String query, int n, IndexSearcher is, @NotNull QueryParser qp) {
+    private Map<Document, Float> searchIndex(Query query, int n, @NotNull IndexSearcher is) {
         HashMap<Document,Float> results = new HashMap<>();
-        // Parse the query
-        Query q = null;
-        try {
-            q = qp.parse(query);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
         // Search the query
         TopDocs tds = null;
         try {
-            tds = is.search(q,n);
+            tds = is.search(query,n);
         } catch (IOException e) {
             e.printStackTrace();
         }
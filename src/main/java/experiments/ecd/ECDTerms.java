@@ -1,14 +1,17 @@
 package experiments.ecd;
 
+import help.AnalyzedTextCache;
 import help.PseudoDocument;
+import help.SparseVector;
+import help.TextPreprocessor;
 import help.Utilities;
 import lucene.Index;
+import lucene.TermVectors;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
@@ -47,6 +50,8 @@ public class ECDTerms {
     private final List<String> stopWords;
     private final boolean parallel;
     private final DecimalFormat df;
+    private final TermVectors termVectors;
+    private final TextPreprocessor preprocessor;
 
     /**
      * Constructor.
@@ -107,6 +112,10 @@ public class ECDTerms {
 
         System.out.print("Setting up paragraph index for use...");
         paraSearcher = new Index.Setup(paraIndexDir, "text", analyzer, similarity).getSearcher();
+        // The features are over the words of the text (see TextPreprocessor), not the analyzed terms of the index
+        preprocessor = new TextPreprocessor(stopWords, AnalyzedTextCache.getInstance().getDictionary());
+        termVectors = new TermVectors(paraSearcher, "id", "text", preprocessor::getWords,
+                AnalyzedTextCache.getInstance());
         System.out.println("[Done].");
 
         feature(outFilePath);
@@ -182,6 +191,7 @@ public class ECDTerms {
         Utilities.writeFile(runStrings, outputFilePath);
         System.out.println("[Done].");
         System.out.println("Run file written at: " + outputFilePath);
+        System.out.println("Analyzed text cache: " + AnalyzedTextCache.getInstance().getStats());
     }
 
     /**
@@ -224,7 +234,7 @@ public class ECDTerms {
                     Map<String, Double> candidatePsgScoreMap = getCandidatePsgScores(paraScoreMap, candidatePassages);
 
                     // Get distribution over the terms from the Wikipedia article
-                    Map<String, Double> freqDist = getEcdTermDistribution(candidatePsgScoreMap);
+                    SparseVector freqDist = termVectors.getDistribution(candidatePsgScoreMap);
 
                     // Score the candidate passages
                     Map<String, Double> paraScores = score(candidatePassages, freqDist);
@@ -272,14 +282,12 @@ public class ECDTerms {
 
     @NotNull
     private Map<String, Double> score(@NotNull List<Document> candidatePassages,
-                                      Map<String, Double> freqDist) {
+                                      SparseVector freqDist) {
         Map<String, Double> paraScores = new HashMap<>();
 
         for (Document d : candidatePassages) {
-            String text = d.get("text");
             String id = d.get("id");
-            List<String> textWords = preProcess(text);
-            double score = scorePara(textWords, freqDist);
+            double score = scorePara(termVectors.get(id), freqDist);
             paraScores.put(id, score);
         }
         return paraScores;
@@ -287,76 +295,18 @@ public class ECDTerms {
 
     /**
      * Scores a single passage.
-     * @param textWords List of words in the paragraph.
+     * The score is the sum of the frequencies (from the distribution) of the words in the passage,
+     * i.e., the dot product of the term vector of the passage with the distribution.
+     * @param termVector Term vector of the paragraph.
      * @param freqDist Frequency distribution over terms from the Wiki article.
      * @return Double Paragrapgh score.
      */
 
-    private double scorePara(@NotNull List<String> textWords, Map<String, Double> freqDist) {
-        double score = 0.0d;
-
-        for (String word : textWords) {
-            if (freqDist.containsKey(word)) {
-                score += freqDist.get(word);
-            }
-        }
+    private double scorePara(@NotNull SparseVector termVector, SparseVector freqDist) {
+        double score = termVector.dot(freqDist);
         return Double.parseDouble(df.format(score));
     }
 
-    /**
-     * Helper method.
-     * Finds the distribution over terms in the ECD.
-     * Incorporates the retrieval score of the passage.
-     * Frequency of term = Number of times term appears in text * retrieval score of passage.
-     * @param candidatePsgScoreMap Map of (ParaID, Score).
-     * @return A distribution over terms.
-     */
-
-
-    @NotNull
-    private Map<String, Double> getEcdTermDistribution(@NotNull Map<String, Double> candidatePsgScoreMap) {
-        Map<String, Double> freqDist = new HashMap<>();
-
-        // compute score normalizer
-        double normalizer = 0.0;
-        for (String pid : candidatePsgScoreMap.keySet()) {
-            normalizer += candidatePsgScoreMap.get(pid);
-        }
-
-
-        for (String pid : candidatePsgScoreMap.keySet()) {
-
-            double weight = candidatePsgScoreMap.get(pid) / normalizer;
-            List<String> words = getPsgWords(pid);
-
-            for (String w : words) {
-                freqDist.compute(w, (t, oldV) -> (oldV == null) ? weight : oldV + weight);
-            }
-        }
-        return Utilities.sortByValueDescending(freqDist);
-    }
-
-    /**
-     * Helper method.
-     * Takes a ParaID and returns the list of words in the paragraph after preprocessing.
-     * @param pid String ParaID
-     * @return List of words in the paragraph.
-     */
-
-    @NotNull
-    private List<String> getPsgWords(String pid) {
-        // Get the document corresponding to the paragraph from the lucene index
-        String docContents = "";
-        try {
-            Document doc = Index.Search.searchIndex("id", pid, paraSearcher);
-            assert doc != null;
-            docContents = doc.get("text");
-        } catch (IOException | ParseException e) {
-            e.printStackTrace();
-        }
-        return preProcess(docContents);
-    }
-
     /**
      * Helper method.
      * Finds the passage scores corresponding to the list of Lucene Documents passed in.
@@ -381,39 +331,6 @@ public class ECDTerms {
 
     }
 
-    /**
-     * Pre-process the text.
-     * (1) Lowercase words.
-     * (2) Remove all spaces.
-     * (3) Remove special characters.
-     * (4) Remove stop words.
-     * @param text String Text to pre-process
-     * @return List of words from the text after pre-processing.
-     */
-
-    @NotNull
-    private List<String> preProcess(String text) {
-
-        // Convert all words to lowercase
-        text = text.toLowerCase();
-
-        // Remove all spaces
-        text = text.replace("\n", " ").replace("\r", " ");
-
-        // Remove all special characters such as - + ^ . : , ( )
-        text = text.replaceAll("[\\-+.^*:,;=(){}\\[\\]\"]","");
-
-        // Get all words
-        List<String> words = new ArrayList<>(Arrays.asList(text.split(" ")));
-        words.removeAll(Collections.singleton(null));
-        words.removeAll(Collections.singleton(""));
-
-        // Remove all stop words
-        words.removeIf(stopWords::contains);
-
-        return words;
-    }
-
     /**
      * Main method.
      * @param args Command line arguments.
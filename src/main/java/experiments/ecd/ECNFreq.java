@@ -1,15 +1,15 @@
 package experiments.ecd;
 
-import help.PseudoDocument;
+import help.EntityIncidence;
 import help.Utilities;
 import lucene.Index;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.IndexSearcher;
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
+
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
 
@@ -33,7 +33,6 @@ public class ECNFreq {
     // ArrayList of run strings
     private final ArrayList<String> runStrings;
     private final boolean parallel;
-    private final DecimalFormat df;
 
     /**
      * Constructor.
@@ -66,9 +65,6 @@ public class ECNFreq {
         this.runStrings = new ArrayList<>();
         this.parallel = parallel;
 
-        df = new DecimalFormat("#.####");
-        df.setRoundingMode(RoundingMode.CEILING);
-
         System.out.print("Reading entity rankings...");
         entityRankings = Utilities.getRankings(entityRunFilePath);
         System.out.println("[Done].");
@@ -141,12 +137,16 @@ public class ECNFreq {
      * For every co-occurring entity in the pseudo-document, if the entity is also relevant for the query,
      * then find the frequency of this entity in the pseudo-document and score the passages using this frequency information.
      *
+     * The (paragraph x entity) incidence of the passages retrieved for the query is built once per query, so that the
+     * paragraphs are fetched from the index once (and not once per pseudo-document), and a pseudo-document is a
+     * column of the incidence.
+     *
      * @param queryId String
      */
 
     private void doTask(String queryId) {
-        ArrayList<String> pseudoDocEntityList;
-        Map<String, Double> freqDist;
+        int[] pseudoDoc;
+        double[] freqDist;
 
         if (entityRankings.containsKey(queryId) && entityQrels.containsKey(queryId)) {
 
@@ -163,142 +163,104 @@ public class ECNFreq {
 
             // Get the list of passages retrieved for the query
             ArrayList<String> paraList = new ArrayList<>(paraRankings.get(queryId).keySet());
+
+            // Get the entities in the passages
+            EntityIncidence incidence = getIncidence(paraList);
+
+            // Get the ordinals of the entities to count in the pseudo-documents
+            boolean[] retEntities = new boolean[incidence.numEntities()];
+            for (String e : Utilities.process(new ArrayList<>(retEntitySet))) {
+                int ordinal = incidence.getOrdinal(e);
+                if (ordinal >= 0) {
+                    retEntities[ordinal] = true;
+                }
+            }
+
+            List<String> queryRunStrings = new ArrayList<>();
+
             // For every entity in this list of relevant entities do
             for (String entityId : retEntitySet) {
 
-
                 // Create a pseudo-document for the entity
-                PseudoDocument d = Utilities.createPseudoDocument(entityId, "id", "entity",
-                        " ", paraList, searcher);
+                pseudoDoc = incidence.getParagraphs(incidence.getOrdinal(Utilities.process(entityId)));
 
-                if (d != null) {
-
-                    // Get the list of entities that co-occur with this entity in the pseudo-document
-                    pseudoDocEntityList = d.getEntityList();
+                if (pseudoDoc.length > 0) {
 
                     // Find the frequency distribution over the co-occurring entities
-                    freqDist = getDistribution(pseudoDocEntityList, retEntitySet);
+                    freqDist = incidence.frequencyDistribution(pseudoDoc, retEntities);
 
                     // Score the passages in the pseudo-document for this entity using the frequency distribution of
                     // co-occurring entities
-                    scoreDoc(queryId, d, freqDist);
+                    scoreDoc(queryId, entityId, incidence, pseudoDoc, freqDist, queryRunStrings);
                 }
             }
+            synchronized (runStrings) {
+                runStrings.addAll(queryRunStrings);
+            }
             if (parallel) {
                 System.out.println("Done query: " + queryId);
             }
         }
     }
 
-    @NotNull
-    private Map<String, Double> getDistribution(@NotNull ArrayList<String> pseudoDocEntityList,
-                                                Set<String> retEntitySet) {
-
-        HashMap<String, Integer> freqMap = new HashMap<>();
-        Set<String> processedRetEntitySet = new HashSet<>(Utilities.process(new ArrayList<>(retEntitySet)));
-
-
-        // For every co-occurring entity do
-        for (String e : pseudoDocEntityList) {
-            // If the entity also occurs in the list of entities relevant for the query then
-            if ( processedRetEntitySet.contains(e)) {
-
-                // Find the frequency of this entity in the pseudo-document and store it
-                //freqMap.put(e, Utilities.frequency(e, pseudoDocEntityList));
-                freqMap.compute(e, (t, oldV) -> (oldV == null) ? 1 : oldV + 1);
-            }
-        }
-        return  toDistribution(freqMap);
-    }
+    /**
+     * Get the (processed) entities in the passages retrieved for a query.
+     * Passages not in the index or without entities are left out, as for a pseudo-document.
+     * @param paraList List of passages.
+     * @return EntityIncidence
+     */
 
     @NotNull
-    private Map<String, Double> toDistribution (@NotNull Map<String, Integer> freqMap) {
-        Map<String, Double> dist = new HashMap<>();
-
-        // Calculate the normalizer
-        int norm = 0;
-        for (int val : freqMap.values()) {
-            norm += val;
-        }
-
-        // Normalize the map
-        for (String word: freqMap.keySet()) {
-            int freq = freqMap.get(word);
-            double normFreq = (double) freq / norm;
-            normFreq = Double.parseDouble(df.format(normFreq));
-            if (! (normFreq < 0.0d) ) {
-                dist.put(word, normFreq);
+    private EntityIncidence getIncidence(@NotNull List<String> paraList) {
+        EntityIncidence.Builder builder = new EntityIncidence.Builder();
+        for (String paraId : paraList) {
+            try {
+                Document doc = Index.Search.searchIndex("id", paraId, searcher);
+                if (doc != null) {
+                    List<String> pEntList = Utilities.process(Utilities.getEntities(doc));
+                    if (!pEntList.isEmpty()) {
+                        builder.addParagraph(paraId, pEntList);
+                    }
+                }
+            } catch (IOException | ParseException e) {
+                e.printStackTrace();
             }
         }
-        return dist;
+        return builder.build();
     }
 
-    private void scoreDoc(String queryId, @NotNull PseudoDocument d, Map<String, Double> freqMap) {
-        // Get the entity corresponding to the pseudo-document
-        String entityId = d.getEntity();
+    private void scoreDoc(String queryId,
+                          String entityId,
+                          @NotNull EntityIncidence incidence,
+                          @NotNull int[] pseudoDoc,
+                          double[] freqDist,
+                          List<String> queryRunStrings) {
         HashMap<String, Double> scoreMap = new HashMap<>();
 
-        // Get the list of documents in the pseudo-document corresponding to the entity
-        ArrayList<Document> documents = d.getDocumentList();
-
-        // For every document do
-        for (Document doc : documents) {
-
-            // Get the paragraph id of the document
-            String paraId = doc.getField("id").stringValue();
-
-            // Get the score of the document
-            double score = getParaScore(doc, freqMap);
+        // The score of a passage is the sum of the scores of the entities in the passage
+        double[] scores = incidence.rowSums(pseudoDoc, freqDist);
 
-            // Store the paragraph id and score in a HashMap
-            scoreMap.put(paraId, score);
+        // For every document in the pseudo-document do
+        for (int i = 0; i < pseudoDoc.length; i++) {
+            scoreMap.put(incidence.getParaId(pseudoDoc[i]), scores[i]);
         }
 
-        makeRunStrings(queryId, entityId, scoreMap);
+        makeRunStrings(queryId, entityId, scoreMap, queryRunStrings);
 
     }
 
-    /**
-     * Method to find the score of a paragraph.
-     * This method looks at all the entities in the paragraph and calculates the score from them.
-     * For every entity in the paragraph, if the entity has a score from the entity context pseudo-document,
-     * then sum over the entity scores and store the score in a HashMap.
-     *
-     * @param doc  Document
-     * @param freqMap HashMap where Key = entity id and Value = score
-     * @return Integer
-     */
-
-    @Contract("null, _ -> fail")
-    private double getParaScore(Document doc, Map<String, Double> freqMap) {
-
-        double entityScore, paraScore = 0;
-        // Get the entities in the paragraph
-        // Make an ArrayList from the String array
-        assert doc != null;
-        ArrayList<String> pEntList = Utilities.getEntities(doc);
-        /* For every entity in the paragraph do */
-        for (String e : pEntList) {
-            // Lookup this entity in the HashMap of frequencies for the entities
-            // Sum over the scores of the entities to get the score for the passage
-            // Store the passage score in the HashMap
-            if (freqMap.containsKey(e)) {
-                entityScore = freqMap.get(e);
-                paraScore += entityScore;
-            }
-
-        }
-        return paraScore;
-    }
-
     /**
      * Method to make the run file strings.
      *
      * @param queryId  Query ID
      * @param scoreMap HashMap of the scores for each paragraph
+     * @param queryRunStrings List to add the run strings to
      */
 
-    private void makeRunStrings(String queryId, String entityId, HashMap<String, Double> scoreMap) {
+    private void makeRunStrings(String queryId,
+                                String entityId,
+                                HashMap<String, Double> scoreMap,
+                                List<String> queryRunStrings) {
         LinkedHashMap<String, Double> paraScore = Utilities.sortByValueDescending(scoreMap);
         String runFileString;
         int rank = 1;
@@ -307,7 +269,7 @@ public class ECNFreq {
             double score = paraScore.get(paraId);
             if (score > 0) {
                 runFileString = queryId + "+" +entityId + " Q0 " + paraId + " " + rank + " " + score + " " + "ECN";
-                runStrings.add(runFileString);
+                queryRunStrings.add(runFileString);
                 rank++;
             }
 
@@ -2,8 +2,10 @@ package experiments.ecd;
 
 import help.EntityRMExpand;
 import help.PseudoDocument;
+import help.QueryAnalysis;
 import help.Utilities;
 import lucene.Index;
+import lucene.MultiQueryScorer;
 import lucene.RAMIndex;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.analysis.Analyzer;
@@ -13,8 +15,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
@@ -185,10 +186,7 @@ public class QEECDEntities {
         List<Map.Entry<String, Double>> expansionEntities;
         Map<String, Float> results;
         // Process the query
-        String queryStr = queryId
-                .substring(queryId.indexOf(":") + 1)          // remove enwiki: from query
-                .replaceAll("%20", " ")     // replace %20 with whitespace
-                .toLowerCase();                            //  convert query to lowercase
+        String queryStr = QueryAnalysis.getQueryString(queryId);
 
         if (entityQrels.containsKey(queryId) && entityQrels.containsKey(queryId)) {
 
@@ -208,6 +206,9 @@ public class QEECDEntities {
             ArrayList<String> paraList = paraRankings.get(queryId);
 
 
+            // Expanded queries of the entities, to search the paragraph index with
+            Map<String, Query> entityQueries = new LinkedHashMap<>();
+
             // For every entity in this set of relevant retrieved  entities do
             for (String entityId : retEntitySet) {
 
@@ -244,19 +245,32 @@ public class QEECDEntities {
 
                         results = searchIndex(booleanQuery, candidatePassages);
 
+                        // Make the run file strings for the query-entity pair
+                        if (!results.isEmpty()) {
+                            makeRunStrings(queryId, entityId, results);
+                        }
+
                     } else {
                         ////////////////////////////////////////////////////////////////////
                         /////////////////////Searching the Paragraph Index//////////////////
                         ////////////////////////////////////////////////////////////////////
 
-                        results = searchIndex(booleanQuery);
-                    }
-
-                    // Make the run file strings for the query-entity pair
-                    if (!results.isEmpty()) {
-                        makeRunStrings(queryId, entityId, results);
+                        // Searched below, together with the queries of the other entities
+                        entityQueries.put(entityId, booleanQuery);
                     }
+                }
+            }
 
+            // Search the paragraph index with the expanded queries of all entities in one pass
+            Map<String, Map<String, Float>> entityResults = new LinkedHashMap<>();
+            try {
+                entityResults = MultiQueryScorer.searchParagraphs(searcher, entityQueries, takeKDocs, "id");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Map.Entry<String, Map<String, Float>> entry : entityResults.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    makeRunStrings(queryId, entry.getKey(), entry.getValue());
                 }
             }
             if (parallel) {
@@ -299,34 +313,6 @@ public class QEECDEntities {
         return results;
     }
 
-    @NotNull
-    private Map<String, Float> searchIndex(BooleanQuery booleanQuery) {
-
-        Map<String, Float> results = new HashMap<>();
-
-        TopDocs topDocs = null;
-        try {
-            topDocs = Index.Search.searchIndex(booleanQuery, takeKDocs, searcher);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        assert topDocs != null;
-        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-        for (int i = 0; i < scoreDocs.length; i++) {
-            Document d = null;
-            try {
-                d = searcher.doc(scoreDocs[i].doc);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            assert d != null;
-            String pID = d.getField("id").stringValue();
-            float score = topDocs.scoreDocs[i].score;
-            results.put(pID, score);
-        }
-        return results;
-    }
-
     @NotNull
     private List<Map.Entry<String, Double>> getContextEntities(List<String> entityList,
                                                                 PseudoDocument d) {
@@ -1,19 +1,20 @@
 package experiments.ecd;
 
+import help.AnalyzedTextCache;
 import help.PseudoDocument;
+import help.QueryAnalysis;
 import help.RM3Expand;
 import help.Utilities;
 import lucene.Index;
+import lucene.MultiQueryScorer;
 import lucene.RAMIndex;
+import lucene.TermVectors;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
@@ -55,6 +56,7 @@ public class QEECDTerms {
     private final boolean omitQueryTerms; // Omit query terms or not when calculating expansion terms
     private  final Analyzer analyzer; // Analyzer to use
     private final Similarity similarity;
+    private final TermVectors termVectors;
 
     /**
      * Constructor.
@@ -130,6 +132,8 @@ public class QEECDTerms {
 
         System.out.print("Setting up paragraph index for use...");
         paraSearcher = new Index.Setup(paraIndexDir, "text", analyzer, similarity).getSearcher();
+        termVectors = new TermVectors(paraSearcher, "id", "text", analyzer, AnalyzedTextCache.getInstance());
+        termVectors.setStopWords(stopWords);
         System.out.println("[Done].");
 
         feature(outFilePath);
@@ -205,6 +209,7 @@ public class QEECDTerms {
         Utilities.writeFile(runStrings, outputFilePath);
         System.out.println("[Done].");
         System.out.println("Run file written at: " + outputFilePath);
+        System.out.println("Analyzed text cache: " + AnalyzedTextCache.getInstance().getStats());
     }
 
     /**
@@ -215,10 +220,7 @@ public class QEECDTerms {
 
     private void doTask(@NotNull String queryId) {
 
-        String queryStr = queryId
-                .substring(queryId.indexOf(":")+1)          // remove enwiki: from query
-                .replaceAll("%20", " ")     // replace %20 with whitespace
-                .toLowerCase();                            //  convert query to lowercase
+        String queryStr = QueryAnalysis.getQueryString(queryId);
 
         Map<String, Float> results;
 
@@ -239,6 +241,9 @@ public class QEECDTerms {
             Map<String, Float> paraScoreMap = paraRankings.get(queryId);
             ArrayList<String> paraList = new ArrayList<>(paraScoreMap.keySet());
 
+            // Expanded queries of the entities, to search the paragraph index with
+            Map<String, Query> entityQueries = new LinkedHashMap<>();
+
             // For every entity in this set of relevant (retrieved) entities do
             for (String entityId : retEntitySet) {
 
@@ -259,27 +264,41 @@ public class QEECDTerms {
                     Map<String, Float> freqDist = getEcdTermDistribution(candidatePsgScoreMap);
 
                     // Expand the query
-                    BooleanQuery booleanQuery = toBooleanQuery(queryStr, freqDist);
+                    Query expandedQuery = toExpandedQuery(queryStr, freqDist);
 
                     if (useECD) {
                         ////////////////////////////////////////////////////////////////////
                         /////////////////////Searching the Index of ECD passages////////////
                         ////////////////////////////////////////////////////////////////////
 
-                        results = searchIndex(booleanQuery, candidatePassages);
+                        results = searchIndex(expandedQuery, candidatePassages);
+
+                        // Make the run file strings for the query-entity pair
+                        if (!results.isEmpty()) {
+                            makeRunStrings(queryId, entityId, results);
+                        }
 
                     } else {
                         ////////////////////////////////////////////////////////////////////
                         /////////////////////Searching the Paragraph Index//////////////////
                         ////////////////////////////////////////////////////////////////////
 
-                        results = searchIndex(booleanQuery);
+                        // Searched below, together with the queries of the other entities
+                        entityQueries.put(entityId, expandedQuery);
                     }
+                }
+            }
 
-                    // Make the run file strings for the query-entity pair
-                    if (!results.isEmpty()) {
-                        makeRunStrings(queryId, entityId, results);
-                    }
+            // Search the paragraph index with the expanded queries of all entities in one pass
+            Map<String, Map<String, Float>> entityResults = new LinkedHashMap<>();
+            try {
+                entityResults = MultiQueryScorer.searchParagraphs(paraSearcher, entityQueries, takeKDocs, "id");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Map.Entry<String, Map<String, Float>> entry : entityResults.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    makeRunStrings(queryId, entry.getKey(), entry.getValue());
                 }
             }
         }
@@ -327,6 +346,7 @@ public class QEECDTerms {
      * Finds the distribution over terms in the ECD.
      * Incorporates the retrieval score of the passage.
      * Frequency of term = Number of times term appears in text * retrieval score of passage.
+     * The term frequencies are read from the term vectors of the passages.
      * @param candidatePsgScoreMap Map of (ParaID, Score).
      * @return A distribution over terms.
      */
@@ -334,63 +354,7 @@ public class QEECDTerms {
 
     @NotNull
     private Map<String, Float> getEcdTermDistribution(@NotNull Map<String, Float> candidatePsgScoreMap) {
-        Map<String, Float> freqDist = new HashMap<>();
-
-        // compute score normalizer
-        float normalizer = 0.0f;
-        for (String pid : candidatePsgScoreMap.keySet()) {
-            normalizer += candidatePsgScoreMap.get(pid);
-        }
-
-
-        for (String pid : candidatePsgScoreMap.keySet()) {
-
-            float weight = candidatePsgScoreMap.get(pid) / normalizer;
-            String processedDocText = getProcessedDocText(pid);
-            try {
-                addTokens(processedDocText, weight, freqDist, analyzer);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return Utilities.sortByValueDescending(freqDist);
-    }
-
-    private  void addTokens(String content,
-                            float weight,
-                            Map<String,Float> wordFreq,
-                            @NotNull Analyzer analyzer) throws IOException {
-
-        TokenStream tokenStream = analyzer.tokenStream("text", new StringReader(content));
-        tokenStream.reset();
-        while (tokenStream.incrementToken()) {
-            final String token = tokenStream.getAttribute(CharTermAttribute.class).toString();
-            wordFreq.compute(token, (t, oldV) -> (oldV == null) ? weight : oldV + weight);
-        }
-        tokenStream.end();
-        tokenStream.close();
-    }
-
-    /**
-     * Helper method.
-     * Takes a ParaID and returns the list of words in the paragraph after preprocessing.
-     * @param pid String ParaID
-     * @return List of words in the paragraph.
-     */
-
-    @NotNull
-    private String getProcessedDocText(String pid) {
-        // Get the document corresponding to the paragraph from the lucene index
-        String docContents = "";
-        try {
-            Document doc = Index.Search.searchIndex("id", pid, paraSearcher);
-            assert doc != null;
-            docContents = doc.get("text");
-        } catch (IOException | ParseException e) {
-            e.printStackTrace();
-        }
-        List<String> words = preProcess(docContents);
-        return String.join(" ", words);
+        return termVectors.getDistribution(candidatePsgScoreMap).toMap(termVectors.getDictionary());
     }
 
     /**
@@ -417,22 +381,22 @@ public class QEECDTerms {
 
     }
 
-    private BooleanQuery toBooleanQuery(String queryStr, @NotNull Map<String, Float> freqDist) {
-        // Convert the query to an expanded BooleanQuery
-        BooleanQuery booleanQuery = null;
+    private Query toExpandedQuery(String queryStr, @NotNull Map<String, Float> freqDist) {
+        // Convert the query to an expanded query (RM3)
+        Query expandedQuery = null;
         List<Map.Entry<String, Float>> allWordFreqList = new ArrayList<>(freqDist.entrySet());
         List<Map.Entry<String, Float>> expansionTerms = allWordFreqList.subList(0,
                 Math.min(takeKTerms, allWordFreqList.size()));
         try {
-            booleanQuery = RM3Expand.toRm3Query(queryStr, expansionTerms, omitQueryTerms, "text", analyzer);
+            expandedQuery = RM3Expand.toWeightedRm3Query(queryStr, expansionTerms, omitQueryTerms, "text", analyzer);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return booleanQuery;
+        return expandedQuery;
     }
 
     @NotNull
-    private Map<String, Float> searchIndex(BooleanQuery booleanQuery, List<Document> documents) {
+    private Map<String, Float> searchIndex(Query expandedQuery, List<Document> documents) {
 
         Map<String, Float> results;
         // Get the top documents for this query-entity pair
@@ -460,36 +424,8 @@ public class QEECDTerms {
 
         // Search the index
         assert is != null;
-        results = RAMIndex.searchIndex(booleanQuery, takeKDocs, is);
-
-        return results;
-    }
-
-    @NotNull
-    private Map<String, Float> searchIndex(BooleanQuery booleanQuery) {
-
-        Map<String, Float> results = new HashMap<>();
+        results = RAMIndex.searchIndex(expandedQuery, takeKDocs, is);
 
-        TopDocs topDocs = null;
-        try {
-            topDocs = Index.Search.searchIndex(booleanQuery, takeKDocs, paraSearcher);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        assert topDocs != null;
-        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-        for (int i = 0; i < scoreDocs.length; i++) {
-            Document d = null;
-            try {
-                d = paraSearcher.doc(scoreDocs[i].doc);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            assert d != null;
-            String pID = d.getField("id").stringValue();
-            float score = topDocs.scoreDocs[i].score;
-            results.put(pID, score);
-        }
         return results;
     }
 
@@ -518,39 +454,6 @@ public class QEECDTerms {
         }
     }
 
-    /**
-     * Pre-process the text.
-     * (1) Lowercase words.
-     * (2) Remove all spaces.
-     * (3) Remove special characters.
-     * (4) Remove stop words.
-     * @param text String Text to pre-process
-     * @return List of words from the text after pre-processing.
-     */
-
-    @NotNull
-    private List<String> preProcess(String text) {
-
-        // Convert all words to lowercase
-        text = text.toLowerCase();
-
-        // Remove all spaces
-        text = text.replace("\n", " ").replace("\r", " ");
-
-        // Remove all special characters such as - + ^ . : , ( )
-        text = text.replaceAll("[\\-+.^*:,;=(){}\\[\\]\"]","");
-
-        // Get all words
-        List<String> words = new ArrayList<>(Arrays.asList(text.split(" ")));
-        words.removeAll(Collections.singleton(null));
-        words.removeAll(Collections.singleton(""));
-
-        // Remove all stop words
-        words.removeIf(stopWords::contains);
-
-        return words;
-    }
-
     /**
      * Main method.
      * @param args Command line arguments.
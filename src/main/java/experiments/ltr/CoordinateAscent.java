@@ -0,0 +1,412 @@
+package experiments.ltr;
+
+import help.Utilities;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Learning-to-rank with coordinate ascent (Metzler and Croft, 2007) over a {@link FeatureStore}, in process.
+ *
+ * A ranking is a linear combination of the features. Starting from uniform weights (and from random weights for
+ * every restart), the weight of one feature at a time is changed by the step which most improves the metric on the
+ * training groups, until a sweep over all features no longer improves it. Steps grow geometrically in both
+ * directions, and all the steps of a feature are evaluated in parallel (ForkJoinPool.commonPool()). The scores of
+ * the current weights are kept for every row, so evaluating a step only adds (step * feature) to them; the metric
+ * of a group only needs the ranks of its relevant rows, so nothing is sorted during training.
+ *
+ * Cross-validation splits the queries (not the query+entity groups) into folds, trains on all folds but one and
+ * ranks the held-out fold with the learned weights; the rankings of all folds make up one run file.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class CoordinateAscent {
+
+    private final static double STEP_BASE = 0.05;
+    private final static double STEP_SCALE = 2.0;
+    private final static int NUM_STEPS = 10;
+    private final static int MAX_SWEEPS = 25;
+    private final static double TOLERANCE = 0.001;
+
+    /**
+     * Metric to optimize.
+     */
+
+    public enum Metric {
+        MAP, P1;
+
+        @NotNull
+        public static Metric forName(@NotNull String name) {
+            switch (name.toLowerCase()) {
+                case "map":
+                    return MAP;
+                case "p@1":
+                case "p1":
+                    return P1;
+                default:
+                    throw new IllegalArgumentException("Unknown metric: " + name + ". Use MAP or P@1.");
+            }
+        }
+    }
+
+    private final FeatureStore store;
+    private final float[][] columns;
+    private final int[][] relRows;
+    private final Metric metric;
+    private final int numRestarts;
+    private final Random random;
+
+    /**
+     * Constructor.
+     * @param store FeatureStore Features to learn from.
+     * @param metric Metric Metric to optimize.
+     * @param numRestarts Integer Number of random restarts (0 = start from uniform weights only).
+     * @param normalize Boolean Whether to z-score normalize every feature within every group.
+     * @param seed Long Seed for the restarts and the order of the features.
+     */
+
+    public CoordinateAscent(@NotNull FeatureStore store, Metric metric, int numRestarts, boolean normalize, long seed) {
+        this.store = store;
+        this.metric = metric;
+        this.numRestarts = numRestarts;
+        this.random = new Random(seed);
+
+        // The columns are read once from the store
+        columns = new float[store.numFeatures()][];
+        for (int f = 0; f < columns.length; f++) {
+            columns[f] = store.getColumn(f);
+            if (normalize) {
+                normalize(columns[f]);
+            }
+        }
+
+        relRows = new int[store.numGroups()][];
+        for (int g = 0; g < relRows.length; g++) {
+            relRows[g] = IntStream.range(store.getGroupStart(g), store.getGroupEnd(g))
+                    .filter(r -> store.getLabel(r) > 0)
+                    .toArray();
+        }
+    }
+
+    private void normalize(@NotNull float[] column) {
+        for (int g = 0; g < store.numGroups(); g++) {
+            int start = store.getGroupStart(g), end = store.getGroupEnd(g);
+            if (end - start == 0) {
+                continue;
+            }
+            double mean = 0.0d, var = 0.0d;
+            for (int r = start; r < end; r++) {
+                mean += column[r];
+            }
+            mean /= (end - start);
+            for (int r = start; r < end; r++) {
+                var += (column[r] - mean) * (column[r] - mean);
+            }
+            double sd = Math.sqrt(var / (end - start));
+            for (int r = start; r < end; r++) {
+                column[r] = sd > 0 ? (float) ((column[r] - mean) / sd) : 0.0f;
+            }
+        }
+    }
+
+    /**
+     * Learn the weights of the features.
+     * @param groups Training groups.
+     * @return Array of weights, indexed by feature.
+     */
+
+    @NotNull
+    public double[] train(@NotNull int[] groups) {
+        int n = columns.length;
+        double[] bestWeights = null;
+        double bestScore = -1.0d;
+
+        for (int restart = 0; restart <= numRestarts; restart++) {
+            double[] weights = new double[n];
+            for (int f = 0; f < n; f++) {
+                weights[f] = restart == 0 ? 1.0d / n : random.nextDouble();
+            }
+            normalizeWeights(weights, null);
+            double[] scores = score(weights);
+            double current = evaluate(groups, scores, -1, 0.0d);
+
+            for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+                double start = current;
+                for (int f : shuffledFeatures()) {
+                    double[] steps = getSteps();
+                    int feature = f;
+                    double[] values = IntStream.range(0, steps.length)
+                            .parallel()
+                            .mapToDouble(i -> evaluate(groups, scores, feature, steps[i]))
+                            .toArray();
+                    int best = -1;
+                    for (int i = 0; i < steps.length; i++) {
+                        if (values[i] > current && (best < 0 || values[i] > values[best])) {
+                            best = i;
+                        }
+                    }
+                    if (best >= 0) {
+                        weights[f] += steps[best];
+                        float[] column = columns[f];
+                        for (int r = 0; r < scores.length; r++) {
+                            scores[r] += steps[best] * column[r];
+                        }
+                        current = values[best];
+                    }
+                }
+                normalizeWeights(weights, scores);
+                if (current - start < TOLERANCE) {
+                    break;
+                }
+            }
+            System.out.println("Restart " + restart + ": " + metric + " = " + current);
+            if (current > bestScore) {
+                bestScore = current;
+                bestWeights = weights.clone();
+            }
+        }
+        return bestWeights;
+    }
+
+    /**
+     * Evaluate weights.
+     * @param weights Array of weights, indexed by feature.
+     * @param groups Groups to evaluate on.
+     * @return Double Mean of the metric over the groups.
+     */
+
+    public double evaluate(@NotNull double[] weights, @NotNull int[] groups) {
+        return evaluate(groups, score(weights), -1, 0.0d);
+    }
+
+    /**
+     * Rank the rows of some groups with the learned weights.
+     * @param weights Array of weights, indexed by feature.
+     * @param groups Groups to rank.
+     * @param name String Name of the run.
+     * @return List of run file strings (group key Q0 passage rank score name).
+     */
+
+    @NotNull
+    public List<String> rank(@NotNull double[] weights, @NotNull int[] groups, String name) {
+        double[] scores = score(weights);
+        List<String> runStrings = new ArrayList<>();
+        for (int g : groups) {
+            Integer[] rows = new Integer[store.getGroupEnd(g) - store.getGroupStart(g)];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = store.getGroupStart(g) + i;
+            }
+            Arrays.sort(rows, (r1, r2) -> Double.compare(scores[r2], scores[r1]));
+            int rank = 1;
+            for (int r : rows) {
+                runStrings.add(store.getGroupKey(g) + " Q0 " + store.getDocId(r) + " " + rank++ + " " + scores[r]
+                        + " " + name);
+            }
+        }
+        return runStrings;
+    }
+
+    /**
+     * Cross-validate: learn on all folds but one and rank the held-out fold, for every fold.
+     * @param numFolds Integer Number of folds. With 1 fold, learn and rank on all groups.
+     * @param seed Long Seed for the assignment of the queries to the folds.
+     * @return List of run file strings of the held-out folds.
+     * @throws IllegalArgumentException If the number of folds is not between 1 and the number of queries.
+     */
+
+    @NotNull
+    public List<String> crossValidate(int numFolds, long seed) {
+        // Groups are "query+entity": split by query so that no query is in training and test
+        Map<String, List<Integer>> queryGroups = new TreeMap<>();
+        for (int g = 0; g < store.numGroups(); g++) {
+            String key = store.getGroupKey(g);
+            int i = key.indexOf('+');
+            queryGroups.computeIfAbsent(i >= 0 ? key.substring(0, i) : key, k -> new ArrayList<>()).add(g);
+        }
+        List<String> queries = new ArrayList<>(queryGroups.keySet());
+        Collections.shuffle(queries, new Random(seed));
+
+        // Every fold needs at least one test query, or it is averaged in with a value of 0
+        if (numFolds < 1 || numFolds > queries.size()) {
+            throw new IllegalArgumentException("Number of folds must be between 1 and the number of queries ("
+                    + queries.size() + "): " + numFolds);
+        }
+
+        List<String> runStrings = new ArrayList<>();
+        double total = 0.0d;
+        for (int fold = 0; fold < numFolds; fold++) {
+            List<Integer> train = new ArrayList<>(), test = new ArrayList<>();
+            for (int q = 0; q < queries.size(); q++) {
+                List<Integer> groups = queryGroups.get(queries.get(q));
+                if (numFolds > 1 && q % numFolds != fold) {
+                    train.addAll(groups);
+                } else {
+                    test.addAll(groups);
+                    if (numFolds == 1) {
+                        train.addAll(groups);
+                    }
+                }
+            }
+            int[] trainGroups = train.stream().mapToInt(Integer::intValue).toArray();
+            int[] testGroups = test.stream().mapToInt(Integer::intValue).toArray();
+
+            System.out.println("Fold " + (fold + 1) + ": " + trainGroups.length + " training groups, "
+                    + testGroups.length + " test groups.");
+            double[] weights = train(trainGroups);
+            double value = evaluate(weights, testGroups);
+            total += value;
+            System.out.println("Fold " + (fold + 1) + ": test " + metric + " = " + value);
+            for (int f = 0; f < weights.length; f++) {
+                System.out.println("    " + store.getFeatureName(f) + " = " + weights[f]);
+            }
+            runStrings.addAll(rank(weights, testGroups, "CoordinateAscent"));
+        }
+        System.out.println("Mean test " + metric + " = " + (total / numFolds));
+        return runStrings;
+    }
+
+    @NotNull
+    private double[] score(@NotNull double[] weights) {
+        double[] scores = new double[store.numRows()];
+        for (int f = 0; f < weights.length; f++) {
+            float[] column = columns[f];
+            for (int r = 0; r < scores.length; r++) {
+                scores[r] += weights[f] * column[r];
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Mean of the metric over some groups, with the scores (scores + step * feature).
+     */
+
+    private double evaluate(@NotNull int[] groups, @NotNull double[] scores, int feature, double step) {
+        if (groups.length == 0) {
+            return 0.0d;
+        }
+        float[] column = feature >= 0 ? columns[feature] : null;
+        double sum = 0.0d;
+        for (int g : groups) {
+            sum += evaluateGroup(g, scores, column, step);
+        }
+        return sum / groups.length;
+    }
+
+    private double evaluateGroup(int g, @NotNull double[] scores, float[] column, double step) {
+        int[] rel = relRows[g];
+        if (rel.length == 0) {
+            return 0.0d;
+        }
+        int start = store.getGroupStart(g), end = store.getGroupEnd(g);
+
+        // Rank of every relevant row: rows ranked higher, ties broken by the order of the rows in the group
+        int[] ranks = new int[rel.length];
+        for (int i = 0; i < rel.length; i++) {
+            double s = score(scores, column, step, rel[i]);
+            int rank = 1;
+            for (int r = start; r < end; r++) {
+                double t = score(scores, column, step, r);
+                if (t > s || (t == s && r < rel[i])) {
+                    rank++;
+                }
+            }
+            ranks[i] = rank;
+        }
+
+        if (metric == Metric.P1) {
+            for (int rank : ranks) {
+                if (rank == 1) {
+                    return 1.0d;
+                }
+            }
+            return 0.0d;
+        }
+        Arrays.sort(ranks);
+        double ap = 0.0d;
+        for (int i = 0; i < ranks.length; i++) {
+            ap += (double) (i + 1) / ranks[i];
+        }
+        return ap / ranks.length;
+    }
+
+    private static double score(@NotNull double[] scores, float[] column, double step, int row) {
+        return column != null ? scores[row] + step * column[row] : scores[row];
+    }
+
+    @NotNull
+    private double[] getSteps() {
+        double[] steps = new double[2 * NUM_STEPS];
+        double step = STEP_BASE;
+        for (int k = 0; k < NUM_STEPS; k++) {
+            steps[2 * k] = step;
+            steps[2 * k + 1] = -step;
+            step *= STEP_SCALE;
+        }
+        return steps;
+    }
+
+    @NotNull
+    private List<Integer> shuffledFeatures() {
+        List<Integer> features = new ArrayList<>();
+        for (int f = 0; f < columns.length; f++) {
+            features.add(f);
+        }
+        Collections.shuffle(features, random);
+        return features;
+    }
+
+    /**
+     * Scale the weights (and the scores) to unit L1 norm. The ranking does not change.
+     */
+
+    private static void normalizeWeights(@NotNull double[] weights, double[] scores) {
+        double norm = 0.0d;
+        for (double w : weights) {
+            norm += Math.abs(w);
+        }
+        if (norm == 0.0d) {
+            return;
+        }
+        for (int f = 0; f < weights.length; f++) {
+            weights[f] /= norm;
+        }
+        if (scores != null) {
+            for (int r = 0; r < scores.length; r++) {
+                scores[r] /= norm;
+            }
+        }
+    }
+
+    /**
+     * Main method.
+     * @param args Command line arguments: featureStoreFile metric numFolds numRestarts outRunFile [normalize] [seed]
+     */
+
+    public static void main(@NotNull String[] args) {
+        String storeFile = args[0];
+        Metric metric = Metric.forName(args[1]);
+        int numFolds = Integer.parseInt(args[2]);
+        int numRestarts = Integer.parseInt(args[3]);
+        String outRunFile = args[4];
+        boolean normalize = args.length <= 5 || args[5].equalsIgnoreCase("true");
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 42L;
+
+        try (FeatureStore store = FeatureStore.open(storeFile)) {
+            System.out.println("Features: " + store.numFeatures() + ", groups: " + store.numGroups()
+                    + ", rows: " + store.numRows());
+            CoordinateAscent ca = new CoordinateAscent(store, metric, numRestarts, normalize, seed);
+            List<String> runStrings = ca.crossValidate(numFolds, seed);
+            System.out.print("Writing to run file.....");
+            Utilities.writeFile(runStrings, outRunFile);
+            System.out.println("[Done].");
+            System.out.println("Run file written at: " + outRunFile);
+        } catch (IllegalArgumentException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
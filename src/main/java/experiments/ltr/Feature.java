@@ -0,0 +1,31 @@
+package experiments.ltr;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A support passage feature, computed by {@link FeatureExtractor} for all the candidates of a query at once.
+ * Implementations must be stateless (or thread-safe): queries are processed in parallel.
+ * The available features are listed in {@link Features}.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public interface Feature {
+
+    /**
+     * Name of the feature, as given on the command line and stored in the feature store.
+     * @return String
+     */
+
+    @NotNull
+    String getName();
+
+    /**
+     * Compute the feature for all candidates of a query.
+     * @param context QueryContext Shared data of the query.
+     * @param column Array to fill, indexed by candidate (see {@link QueryContext#numCandidates()}).
+     */
+
+    void compute(@NotNull QueryContext context, @NotNull float[] column);
+}
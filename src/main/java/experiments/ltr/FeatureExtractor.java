@@ -0,0 +1,207 @@
+package experiments.ltr;
+
+import help.EntityIncidence;
+import help.Utilities;
+import lucene.Index;
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Extracts many support passage features in one pass and writes them to a {@link FeatureStore}.
+ *
+ * Every feature used to be a separate program (PassageScores, ECNFreq, ...) which read the runs and the ground
+ * truth, opened the index, built the pseudo-documents of every (query, entity) pair and wrote its own run file;
+ * the run files were then merged into a feature file for learning-to-rank. Here the shared resources are loaded
+ * once, the passages of a query are fetched from the index once (into an {@link EntityIncidence}), and all the
+ * requested features are computed from the same {@link QueryContext}, one column per feature.
+ *
+ * Labels come from the support passage ground truth (query+entity Q0 passage 1), if given; otherwise all labels
+ * are 0 (e.g., for a test set).
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class FeatureExtractor {
+    private final IndexSearcher searcher;
+    private final HashMap<String, LinkedHashMap<String, Double>> paraRankings = new HashMap<>();
+    private final HashMap<String, ArrayList<String>> entityRankings;
+    private final HashMap<String, ArrayList<String>> entityQrels;
+    private final HashMap<String, ArrayList<String>> supportPsgQrels;
+    private final List<Feature> features;
+    private final Map<String, List<FeatureStore.Group>> groups = new ConcurrentHashMap<>();
+    private final boolean parallel;
+
+    /**
+     * Constructor.
+     * @param indexDir String Path to the paragraph index directory.
+     * @param passageRunFile String Path to the passage run file.
+     * @param entityRunFile String Path to the entity run file.
+     * @param entityQrelFile String Path to the entity ground truth file.
+     * @param supportPsgQrelFile String Path to the support passage ground truth file. May be null.
+     * @param features List of features to extract.
+     * @param parallel Boolean Whether to run code in parallel or not.
+     */
+
+    public FeatureExtractor(String indexDir,
+                            String passageRunFile,
+                            String entityRunFile,
+                            String entityQrelFile,
+                            @Nullable String supportPsgQrelFile,
+                            @NotNull List<Feature> features,
+                            boolean parallel) {
+        this.features = features;
+        this.parallel = parallel;
+
+        System.out.print("Reading entity rankings...");
+        entityRankings = Utilities.getRankings(entityRunFile);
+        System.out.println("[Done].");
+
+        System.out.print("Reading passage rankings...");
+        Utilities.getRankings(passageRunFile, paraRankings);
+        System.out.println("[Done].");
+
+        System.out.print("Reading entity ground truth...");
+        entityQrels = Utilities.getRankings(entityQrelFile);
+        System.out.println("[Done].");
+
+        if (supportPsgQrelFile != null) {
+            System.out.print("Reading support passage ground truth...");
+            supportPsgQrels = Utilities.getRankings(supportPsgQrelFile);
+            System.out.println("[Done].");
+        } else {
+            supportPsgQrels = new HashMap<>();
+        }
+
+        System.out.print("Setting up index for use...");
+        searcher = new Index.Setup(indexDir).getSearcher();
+        System.out.println("[Done].");
+    }
+
+    /**
+     * Extract the features for all queries.
+     * Works in parallel using Java 8 parallelStreams.
+     * USE : System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "N") to set the thread pool size
+     * @param outFile String Path to the feature store.
+     * @param svmRankFile String Path to a SVMrank/RankLib file to export the features to. May be null.
+     * @throws IOException
+     */
+
+    public void extract(String outFile, @Nullable String svmRankFile) throws IOException {
+        Set<String> querySet = entityRankings.keySet();
+        if (parallel) {
+            System.out.println("Using Parallel Streams.");
+            System.out.println("Number of threads generated = " + ForkJoinPool.commonPool().getParallelism());
+            querySet.parallelStream().forEach(this::doTask);
+        } else {
+            System.out.println("Using Sequential Streams.");
+            ProgressBar pb = new ProgressBar("Progress", querySet.size());
+            for (String q : querySet) {
+                doTask(q);
+                pb.step();
+            }
+            pb.close();
+        }
+
+        // Queries in sorted order, so that the store is the same on every run
+        List<FeatureStore.Group> allGroups = new ArrayList<>();
+        for (String queryId : new TreeSet<>(groups.keySet())) {
+            allGroups.addAll(groups.get(queryId));
+        }
+        List<String> names = new ArrayList<>();
+        for (Feature feature : features) {
+            names.add(feature.getName());
+        }
+
+        System.out.print("Writing feature store...");
+        FeatureStore.write(names, allGroups, outFile);
+        System.out.println("[Done].");
+        System.out.println("Feature store written at: " + outFile);
+
+        if (svmRankFile != null) {
+            System.out.print("Exporting features...");
+            try (FeatureStore store = FeatureStore.open(outFile)) {
+                store.exportSvmRank(svmRankFile);
+            }
+            System.out.println("[Done].");
+            System.out.println("Feature file written at: " + svmRankFile);
+        }
+    }
+
+    private void doTask(String queryId) {
+        if (!entityRankings.containsKey(queryId) || !entityQrels.containsKey(queryId)
+                || !paraRankings.containsKey(queryId)) {
+            return;
+        }
+        LinkedHashMap<String, Double> paraRanking = paraRankings.get(queryId);
+        QueryContext context = new QueryContext(queryId, paraRanking, entityRankings.get(queryId),
+                entityQrels.get(queryId), getIncidence(paraRanking.keySet()));
+
+        // One column per feature over all the candidates of the query
+        float[][] columns = new float[features.size()][];
+        for (int f = 0; f < columns.length; f++) {
+            columns[f] = new float[context.numCandidates()];
+            features.get(f).compute(context, columns[f]);
+        }
+
+        // Split the columns by query+entity
+        List<FeatureStore.Group> queryGroups = new ArrayList<>();
+        int start = 0;
+        for (int e = 0; e < context.numEntities(); e++) {
+            String key = queryId + "+" + context.getEntity(e);
+            int[] pseudoDoc = context.getPseudoDocument(e);
+            Set<String> relParas = new HashSet<>(supportPsgQrels.getOrDefault(key, new ArrayList<>()));
+            String[] docIds = new String[pseudoDoc.length];
+            int[] labels = new int[pseudoDoc.length];
+            for (int i = 0; i < pseudoDoc.length; i++) {
+                docIds[i] = context.getIncidence().getParaId(pseudoDoc[i]);
+                labels[i] = relParas.contains(docIds[i]) ? 1 : 0;
+            }
+            float[][] groupColumns = new float[columns.length][];
+            for (int f = 0; f < columns.length; f++) {
+                groupColumns[f] = Arrays.copyOfRange(columns[f], start, start + pseudoDoc.length);
+            }
+            queryGroups.add(new FeatureStore.Group(key, docIds, labels, groupColumns));
+            start += pseudoDoc.length;
+        }
+        groups.put(queryId, queryGroups);
+        if (parallel) {
+            System.out.println("Done query: " + queryId);
+        }
+    }
+
+    /**
+     * Get the (processed) entities in the passages retrieved for a query.
+     * Passages not in the index or without entities are left out, as for a pseudo-document.
+     * @param paraList Passages.
+     * @return EntityIncidence
+     */
+
+    @NotNull
+    private EntityIncidence getIncidence(@NotNull Collection<String> paraList) {
+        EntityIncidence.Builder builder = new EntityIncidence.Builder();
+        for (String paraId : paraList) {
+            try {
+                Document doc = Index.Search.searchIndex("id", paraId, searcher);
+                if (doc != null) {
+                    List<String> pEntList = Utilities.process(Utilities.getEntities(doc));
+                    if (!pEntList.isEmpty()) {
+                        builder.addParagraph(paraId, pEntList);
+                    }
+                }
+            } catch (IOException | ParseException e) {
+                e.printStackTrace();
+            }
+        }
+        return builder.build();
+    }
+}
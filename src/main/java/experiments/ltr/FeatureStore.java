@@ -0,0 +1,289 @@
+package experiments.ltr;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Columnar store of support passage features, written by {@link FeatureExtractor}.
+ *
+ * Rows are the candidates (one per (query+entity, passage) pair), grouped by ranking (query+entity) as for
+ * learning-to-rank, and every feature is one column of floats. The row metadata (groups, passage ids and labels)
+ * is loaded on the heap when the store is opened; the columns are memory-mapped, one buffer per column, so that
+ * a learner can scan one feature over all rows without reading the others.
+ * The store can be exported to the SVMrank/RankLib text format with {@link #exportSvmRank(String)}.
+ *
+ * File format:
+ * (1) Header: int MAGIC, int VERSION, int numFeatures, int numRows, int numGroups, int metadataLength.
+ * (2) Metadata: the feature names (UTF), then for every group: key (UTF), int numRows; then for every row:
+ *     passage id (UTF), int label.
+ * (3) Columns: numFeatures * numRows floats, one column after the other.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class FeatureStore implements Closeable {
+
+    private final static int MAGIC = 0x4C545246; // "LTRF"
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 24;
+
+    private final FileChannel channel;
+    private final String[] featureNames;
+    private final String[] groupKeys;
+    private final int[] groupStarts;
+    private final String[] docIds;
+    private final int[] labels;
+    private final FloatBuffer[] columns;
+
+    /**
+     * The features of the candidates of one group (e.g., one query+entity).
+     */
+
+    public static class Group {
+        private final String key;
+        private final String[] docIds;
+        private final int[] labels;
+        private final float[][] columns;
+
+        /**
+         * Constructor.
+         * @param key String Group key (e.g., "query+entity").
+         * @param docIds Passage ids of the rows.
+         * @param labels Relevance labels of the rows.
+         * @param columns One column per feature, each with one value per row.
+         */
+
+        public Group(String key, @NotNull String[] docIds, @NotNull int[] labels, @NotNull float[][] columns) {
+            this.key = key;
+            this.docIds = docIds;
+            this.labels = labels;
+            this.columns = columns;
+        }
+
+        public int size() {
+            return docIds.length;
+        }
+    }
+
+    private FeatureStore(String file) throws IOException {
+        int metadataLength;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a feature store: " + file);
+            }
+            featureNames = new String[in.readInt()];
+            int numRows = in.readInt();
+            int numGroups = in.readInt();
+            metadataLength = in.readInt();
+            for (int f = 0; f < featureNames.length; f++) {
+                featureNames[f] = in.readUTF();
+            }
+            groupKeys = new String[numGroups];
+            groupStarts = new int[numGroups + 1];
+            for (int g = 0; g < numGroups; g++) {
+                groupKeys[g] = in.readUTF();
+                groupStarts[g + 1] = groupStarts[g] + in.readInt();
+            }
+            docIds = new String[numRows];
+            labels = new int[numRows];
+            for (int r = 0; r < numRows; r++) {
+                docIds[r] = in.readUTF();
+                labels[r] = in.readInt();
+            }
+        }
+
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        long offset = HEADER_SIZE + metadataLength;
+        long columnSize = 4L * docIds.length;
+        columns = new FloatBuffer[featureNames.length];
+        for (int f = 0; f < columns.length; f++) {
+            columns[f] = channel.map(FileChannel.MapMode.READ_ONLY, offset + f * columnSize, columnSize)
+                    .order(ByteOrder.BIG_ENDIAN)
+                    .asFloatBuffer();
+        }
+    }
+
+    /**
+     * Open a store for reading.
+     * @param file String Path to the store.
+     * @return FeatureStore
+     * @throws IOException
+     */
+
+    @NotNull
+    public static FeatureStore open(String file) throws IOException {
+        return new FeatureStore(file);
+    }
+
+    /**
+     * Write a store.
+     * @param featureNames List of feature names, in the order of the columns of the groups.
+     * @param groups List of groups, in the order in which they are stored.
+     * @param file String Path to the store.
+     * @throws IOException
+     */
+
+    public static void write(@NotNull List<String> featureNames,
+                             @NotNull List<Group> groups,
+                             String file) throws IOException {
+        ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+        int numRows = 0;
+        try (DataOutputStream out = new DataOutputStream(metadata)) {
+            for (String name : featureNames) {
+                out.writeUTF(name);
+            }
+            for (Group group : groups) {
+                out.writeUTF(group.key);
+                out.writeInt(group.size());
+                numRows += group.size();
+            }
+            for (Group group : groups) {
+                for (int r = 0; r < group.size(); r++) {
+                    out.writeUTF(group.docIds[r]);
+                    out.writeInt(group.labels[r]);
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(featureNames.size());
+            out.writeInt(numRows);
+            out.writeInt(groups.size());
+            out.writeInt(metadata.size());
+            metadata.writeTo(out);
+            for (int f = 0; f < featureNames.size(); f++) {
+                for (Group group : groups) {
+                    for (float value : group.columns[f]) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a file is a feature store.
+     * @param file String Path to the file.
+     * @return Boolean
+     */
+
+    public static boolean isFeatureStore(String file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int numFeatures() {
+        return featureNames.length;
+    }
+
+    public String getFeatureName(int feature) {
+        return featureNames[feature];
+    }
+
+    public int numRows() {
+        return docIds.length;
+    }
+
+    public int numGroups() {
+        return groupKeys.length;
+    }
+
+    public String getGroupKey(int group) {
+        return groupKeys[group];
+    }
+
+    /**
+     * Get the first row of a group.
+     * @param group Integer
+     * @return Integer
+     */
+
+    public int getGroupStart(int group) {
+        return groupStarts[group];
+    }
+
+    /**
+     * Get the row after the last row of a group.
+     * @param group Integer
+     * @return Integer
+     */
+
+    public int getGroupEnd(int group) {
+        return groupStarts[group + 1];
+    }
+
+    public String getDocId(int row) {
+        return docIds[row];
+    }
+
+    public int getLabel(int row) {
+        return labels[row];
+    }
+
+    /**
+     * Get the value of a feature for a row. Thread-safe.
+     * @param feature Integer Column of the feature.
+     * @param row Integer
+     * @return Float
+     */
+
+    public float get(int feature, int row) {
+        return columns[feature].get(row);
+    }
+
+    /**
+     * Copy a column to the heap.
+     * @param feature Integer Column of the feature.
+     * @return Array of values, indexed by row.
+     */
+
+    @NotNull
+    public float[] getColumn(int feature) {
+        float[] column = new float[docIds.length];
+        columns[feature].duplicate().get(column);
+        return column;
+    }
+
+    /**
+     * Export the store to the SVMrank/RankLib text format:
+     *      label qid:N 1:v1 2:v2 ... # groupKey docId
+     * Groups are numbered from 1 in the order of the store (both tools need numeric query ids).
+     * @param file String Path to the output file.
+     * @throws IOException
+     */
+
+    public void exportSvmRank(String file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int g = 0; g < groupKeys.length; g++) {
+                for (int r = groupStarts[g]; r < groupStarts[g + 1]; r++) {
+                    StringBuilder line = new StringBuilder();
+                    line.append(labels[r]).append(" qid:").append(g + 1);
+                    for (int f = 0; f < columns.length; f++) {
+                        line.append(' ').append(f + 1).append(':').append(get(f, r));
+                    }
+                    line.append(" # ").append(groupKeys[g]).append(' ').append(docIds[r]);
+                    out.write(line.toString());
+                    out.newLine();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,394 @@
+package experiments.ltr;
+
+import api.IdResolver;
+import api.Relatedness;
+import api.RelatednessMatrix;
+import help.EntityIncidence;
+import help.QueryAnalysis;
+import help.RM3Expand;
+import help.Utilities;
+import lucene.TermVectors;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The support passage features available to {@link FeatureExtractor}, by name.
+ *
+ * psg-score    Score of the passage in the passage ranking of the query (as PassageScores).
+ * psg-rrank    Reciprocal rank of the passage in the passage ranking of the query.
+ * psg-num-ent  Number of entity mentions in the passage.
+ * ent-freq     Number of mentions of the entity in the passage.
+ * ent-rrank    Reciprocal rank of the entity in the entity ranking of the query.
+ * ecn-freq     Sum of the frequencies of the co-occurring entities in the pseudo-document of the entity (as ECNFreq).
+ *
+ * Features which need resources besides the query (a relatedness system, an index) are made with a factory method
+ * and passed to {@link #forNames(String, Feature...)}:
+ * ecn-rel      Sum of the relatedness of the entities in the passage with the entity (as ECNRel), see
+ *              {@link #ecnRelatedness(String, Relatedness, IdResolver, Map)}.
+ * qe-ecd-terms Score of the passage for the query expanded with the terms of the pseudo-document of the entity
+ *              (as QEECDTerms), see {@link #qeEcdTerms(IndexSearcher, TermVectors, Analyzer, int, boolean)}.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class Features {
+
+    private final static Map<String, Feature> FEATURES = new LinkedHashMap<>();
+
+    static {
+        register(new PassageScore());
+        register(new PassageReciprocalRank());
+        register(new PassageNumEntities());
+        register(new EntityFrequency());
+        register(new EntityReciprocalRank());
+        register(new ECNFrequency());
+    }
+
+    private Features() {
+    }
+
+    private static void register(@NotNull Feature feature) {
+        FEATURES.put(feature.getName(), feature);
+    }
+
+    /**
+     * Get the names of all available features.
+     * @return List of names.
+     */
+
+    @NotNull
+    public static List<String> names() {
+        return new ArrayList<>(FEATURES.keySet());
+    }
+
+    /**
+     * Get the features with some names.
+     * @param names String Comma-separated names of the features, or "all".
+     * @return List of features, in the order of the names.
+     * @throws IllegalArgumentException If a name is not a known feature.
+     */
+
+    @NotNull
+    public static List<Feature> forNames(@NotNull String names) {
+        return forNames(names, new Feature[0]);
+    }
+
+    /**
+     * Get the features with some names, among the available features and the given ones.
+     * @param names String Comma-separated names of the features, or "all" (the available and the given features).
+     * @param configured Features made with a factory method (e.g., {@link #ecnRelatedness}).
+     * @return List of features, in the order of the names.
+     * @throws IllegalArgumentException If a name is not a known feature.
+     */
+
+    @NotNull
+    public static List<Feature> forNames(@NotNull String names, @NotNull Feature... configured) {
+        Map<String, Feature> available = new LinkedHashMap<>(FEATURES);
+        for (Feature feature : configured) {
+            available.put(feature.getName(), feature);
+        }
+        if (names.equalsIgnoreCase("all")) {
+            return new ArrayList<>(available.values());
+        }
+        List<Feature> features = new ArrayList<>();
+        for (String name : names.split(",")) {
+            Feature feature = available.get(name.trim().toLowerCase());
+            if (feature == null) {
+                throw new IllegalArgumentException("Unknown feature: " + name + ". Available: " + available.keySet());
+            }
+            features.add(feature);
+        }
+        return features;
+    }
+
+    /**
+     * Make the ecn-rel feature.
+     * @param relType String Relatedness measure (see WATApi.EntityRelatedness for accepted values).
+     * @param relatedness Relatedness System used to compute the scores not precomputed.
+     * @param idResolver IdResolver Resolves titles to the IDs used by the relatedness system.
+     * @param precomputed Map of precomputed scores (target entity --> (context entity --> score)). May be null.
+     * @return Feature
+     */
+
+    @NotNull
+    public static Feature ecnRelatedness(String relType,
+                                         @NotNull Relatedness relatedness,
+                                         @NotNull IdResolver idResolver,
+                                         @Nullable Map<String, Map<String, Double>> precomputed) {
+        return new ECNRelatedness(relType, relatedness, idResolver, precomputed);
+    }
+
+    /**
+     * Make the qe-ecd-terms feature.
+     * @param searcher IndexSearcher Searcher for the paragraph index, with the similarity to score the passages with.
+     * @param termVectors TermVectors Term vectors of the passages (with the stop words set, if any).
+     * @param analyzer Analyzer Analyzer used to build the index.
+     * @param takeKTerms Integer Top K terms for query expansion.
+     * @param omitQueryTerms Boolean Whether or not to omit query terms during expansion (RM1 instead of RM3).
+     * @return Feature
+     */
+
+    @NotNull
+    public static Feature qeEcdTerms(@NotNull IndexSearcher searcher,
+                                     @NotNull TermVectors termVectors,
+                                     @NotNull Analyzer analyzer,
+                                     int takeKTerms,
+                                     boolean omitQueryTerms) {
+        return new QEECDTerms(searcher, termVectors, analyzer, takeKTerms, omitQueryTerms);
+    }
+
+    private static class PassageScore implements Feature {
+        @NotNull
+        @Override
+        public String getName() {
+            return "psg-score";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            for (int c = 0; c < column.length; c++) {
+                column[c] = (float) context.getParaScore(context.getCandidatePassage(c));
+            }
+        }
+    }
+
+    private static class PassageReciprocalRank implements Feature {
+        @NotNull
+        @Override
+        public String getName() {
+            return "psg-rrank";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            for (int c = 0; c < column.length; c++) {
+                int rank = context.getParaRank(context.getCandidatePassage(c));
+                column[c] = rank > 0 ? 1.0f / rank : 0.0f;
+            }
+        }
+    }
+
+    private static class PassageNumEntities implements Feature {
+        @NotNull
+        @Override
+        public String getName() {
+            return "psg-num-ent";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            EntityIncidence incidence = context.getIncidence();
+            double[] ones = new double[incidence.numEntities()];
+            Arrays.fill(ones, 1.0d);
+            for (int c = 0; c < column.length; c++) {
+                column[c] = (float) incidence.rowSum(context.getCandidatePassage(c), ones);
+            }
+        }
+    }
+
+    private static class EntityFrequency implements Feature {
+        @NotNull
+        @Override
+        public String getName() {
+            return "ent-freq";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            EntityIncidence incidence = context.getIncidence();
+            int[] ordinals = new int[context.numEntities()];
+            for (int e = 0; e < ordinals.length; e++) {
+                ordinals[e] = incidence.getOrdinal(Utilities.process(context.getEntity(e)));
+            }
+            for (int c = 0; c < column.length; c++) {
+                column[c] = incidence.getFrequency(context.getCandidatePassage(c),
+                        ordinals[context.getCandidateEntity(c)]);
+            }
+        }
+    }
+
+    private static class EntityReciprocalRank implements Feature {
+        @NotNull
+        @Override
+        public String getName() {
+            return "ent-rrank";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            for (int c = 0; c < column.length; c++) {
+                int rank = context.getEntityRank(context.getEntity(context.getCandidateEntity(c)));
+                column[c] = rank > 0 ? 1.0f / rank : 0.0f;
+            }
+        }
+    }
+
+    private static class ECNFrequency implements Feature {
+        @NotNull
+        @Override
+        public String getName() {
+            return "ecn-freq";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            EntityIncidence incidence = context.getIncidence();
+            boolean[] candidateEntities = context.getCandidateEntities();
+            int c = 0;
+            for (int e = 0; e < context.numEntities(); e++) {
+                int[] pseudoDoc = context.getPseudoDocument(e);
+
+                // Frequency distribution over the co-occurring entities which are also relevant for the query
+                double[] dist = incidence.frequencyDistribution(pseudoDoc, candidateEntities);
+
+                // Candidates of an entity are contiguous, in the order of its pseudo-document
+                for (double score : incidence.rowSums(pseudoDoc, dist)) {
+                    column[c++] = (float) score;
+                }
+            }
+        }
+    }
+
+    private static class ECNRelatedness implements Feature {
+        private final String relType;
+        private final Relatedness relatedness;
+        private final IdResolver idResolver;
+        private final Map<String, Map<String, Double>> precomputed;
+
+        private ECNRelatedness(String relType,
+                               @NotNull Relatedness relatedness,
+                               @NotNull IdResolver idResolver,
+                               @Nullable Map<String, Map<String, Double>> precomputed) {
+            this.relType = relType;
+            this.relatedness = relatedness;
+            this.idResolver = idResolver;
+            this.precomputed = precomputed;
+        }
+
+        @NotNull
+        @Override
+        public String getName() {
+            return "ecn-rel";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            EntityIncidence incidence = context.getIncidence();
+            boolean[] retrievedEntities = context.getRetrievedEntities();
+
+            // The relatedness with every co-occurring entity is needed.
+            // Only the entities retrieved for the query are looked up in the relatedness system.
+            RelatednessMatrix.Builder builder = new RelatednessMatrix.Builder(relType, relatedness, idResolver,
+                    precomputed);
+            List<Set<String>> coEntities = new ArrayList<>();
+            for (int e = 0; e < context.numEntities(); e++) {
+                int[] freq = incidence.entityFrequencies(context.getPseudoDocument(e));
+                Set<String> entities = new HashSet<>();
+                for (int o = 0; o < freq.length; o++) {
+                    if (freq[o] > 0) {
+                        entities.add(incidence.getEntity(o));
+                        builder.add(context.getEntity(e), incidence.getEntity(o), retrievedEntities[o]);
+                    }
+                }
+                coEntities.add(entities);
+            }
+
+            // Compute the relatedness of all pairs of the query at once
+            RelatednessMatrix relMatrix = builder.build();
+
+            int c = 0;
+            for (int e = 0; e < context.numEntities(); e++) {
+                int[] pseudoDoc = context.getPseudoDocument(e);
+
+                // Relatedness distribution over the co-occurring entities
+                Map<String, Double> relDist = relMatrix.getRow(context.getEntity(e), coEntities.get(e));
+                double[] dist = new double[incidence.numEntities()];
+                for (Map.Entry<String, Double> entry : relDist.entrySet()) {
+                    dist[incidence.getOrdinal(entry.getKey())] = entry.getValue();
+                }
+
+                // Candidates of an entity are contiguous, in the order of its pseudo-document
+                for (double score : incidence.rowSums(pseudoDoc, dist)) {
+                    column[c++] = (float) score;
+                }
+            }
+        }
+    }
+
+    private static class QEECDTerms implements Feature {
+        private final IndexSearcher searcher;
+        private final TermVectors termVectors;
+        private final Analyzer analyzer;
+        private final int takeKTerms;
+        private final boolean omitQueryTerms;
+
+        private QEECDTerms(@NotNull IndexSearcher searcher,
+                           @NotNull TermVectors termVectors,
+                           @NotNull Analyzer analyzer,
+                           int takeKTerms,
+                           boolean omitQueryTerms) {
+            this.searcher = searcher;
+            this.termVectors = termVectors;
+            this.analyzer = analyzer;
+            this.takeKTerms = takeKTerms;
+            this.omitQueryTerms = omitQueryTerms;
+        }
+
+        @NotNull
+        @Override
+        public String getName() {
+            return "qe-ecd-terms";
+        }
+
+        @Override
+        public void compute(@NotNull QueryContext context, @NotNull float[] column) {
+            EntityIncidence incidence = context.getIncidence();
+            String queryStr = QueryAnalysis.getQueryString(context.getQueryId());
+            int c = 0;
+            for (int e = 0; e < context.numEntities(); e++) {
+                int[] pseudoDoc = context.getPseudoDocument(e);
+
+                // Distribution over the terms of the pseudo-document, weighted by the scores of the passages
+                Map<String, Double> candidatePsgScoreMap = new HashMap<>();
+                List<BytesRef> paraIds = new ArrayList<>();
+                for (int row : pseudoDoc) {
+                    candidatePsgScoreMap.put(incidence.getParaId(row), context.getParaScore(row));
+                    paraIds.add(new BytesRef(incidence.getParaId(row)));
+                }
+                List<Map.Entry<String, Float>> expansionTerms = new ArrayList<>(termVectors
+                        .getDistribution(candidatePsgScoreMap)
+                        .toMap(termVectors.getDictionary())
+                        .entrySet());
+                expansionTerms = expansionTerms.subList(0, Math.min(takeKTerms, expansionTerms.size()));
+
+                // Score the passages of the pseudo-document with the expanded query
+                Map<String, Float> results = new HashMap<>();
+                try {
+                    Query expandedQuery = RM3Expand.toWeightedRm3Query(queryStr, expansionTerms, omitQueryTerms,
+                            "text", analyzer);
+                    Query query = new BooleanQuery.Builder()
+                            .add(expandedQuery, BooleanClause.Occur.MUST)
+                            .add(new TermInSetQuery("id", paraIds), BooleanClause.Occur.FILTER)
+                            .build();
+                    for (ScoreDoc scoreDoc : searcher.search(query, Math.max(1, pseudoDoc.length)).scoreDocs) {
+                        results.put(searcher.doc(scoreDoc.doc).get("id"), scoreDoc.score);
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+
+                // Candidates of an entity are contiguous, in the order of its pseudo-document
+                for (int row : pseudoDoc) {
+                    column[c++] = results.getOrDefault(incidence.getParaId(row), 0.0f);
+                }
+            }
+        }
+    }
+}
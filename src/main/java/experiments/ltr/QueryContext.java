@@ -0,0 +1,215 @@
+package experiments.ltr;
+
+import help.EntityIncidence;
+import help.Utilities;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Everything the support passage features of one query are computed from, built once per query and shared by all
+ * features: the passage and entity rankings of the query, the (paragraph x entity) incidence of the retrieved
+ * passages, and the candidates.
+ *
+ * The candidates are (entity, passage) pairs: for every entity retrieved for the query and relevant for it, the
+ * passages of its pseudo-document (the retrieved passages mentioning the entity), in order of the passage ranking.
+ * Candidates are numbered in order of the entity ranking, then of the passage ranking, and every feature is
+ * computed as one column over the candidates.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class QueryContext {
+
+    private final String queryId;
+    private final LinkedHashMap<String, Double> paraRanking;
+    private final Map<String, Integer> entityRanks = new HashMap<>();
+    private final EntityIncidence incidence;
+    private final boolean[] candidateEntities;
+    private final boolean[] retrievedEntities;
+    private final List<String> entities = new ArrayList<>();
+    private final List<int[]> pseudoDocs = new ArrayList<>();
+    private final int[] paraRanks;
+    private final int[] rowEntity;
+    private final int[] rowPara;
+
+    /**
+     * Constructor.
+     * @param queryId String Query.
+     * @param paraRanking Map of (passage, score) retrieved for the query, in order of rank.
+     * @param entityRanking List of entities retrieved for the query, in order of rank.
+     * @param relEntities Collection of entities relevant for the query.
+     * @param incidence EntityIncidence Entities in the passages retrieved for the query (processed ids).
+     */
+
+    public QueryContext(String queryId,
+                        @NotNull LinkedHashMap<String, Double> paraRanking,
+                        @NotNull List<String> entityRanking,
+                        @NotNull Collection<String> relEntities,
+                        @NotNull EntityIncidence incidence) {
+        this.queryId = queryId;
+        this.paraRanking = paraRanking;
+        this.incidence = incidence;
+        this.candidateEntities = new boolean[incidence.numEntities()];
+        this.retrievedEntities = new boolean[incidence.numEntities()];
+
+        for (int i = 0; i < entityRanking.size(); i++) {
+            entityRanks.putIfAbsent(entityRanking.get(i), i + 1);
+            int ordinal = incidence.getOrdinal(Utilities.process(entityRanking.get(i)));
+            if (ordinal >= 0) {
+                retrievedEntities[ordinal] = true;
+            }
+        }
+
+        Map<String, Integer> paraRankMap = new HashMap<>();
+        int rank = 1;
+        for (String paraId : paraRanking.keySet()) {
+            paraRankMap.put(paraId, rank++);
+        }
+        paraRanks = new int[incidence.numParagraphs()];
+        for (int row = 0; row < paraRanks.length; row++) {
+            paraRanks[row] = paraRankMap.getOrDefault(incidence.getParaId(row), 0);
+        }
+
+        // Finding support passage for non-relevant entities makes no sense!!
+        Set<String> relEntitySet = new HashSet<>(relEntities);
+        int numRows = 0;
+        for (String entityId : new LinkedHashSet<>(entityRanking)) {
+            if (relEntitySet.contains(entityId)) {
+                int ordinal = incidence.getOrdinal(Utilities.process(entityId));
+                if (ordinal >= 0) {
+                    candidateEntities[ordinal] = true;
+                }
+                int[] pseudoDoc = incidence.getParagraphs(ordinal);
+                if (pseudoDoc.length > 0) {
+                    entities.add(entityId);
+                    pseudoDocs.add(pseudoDoc);
+                    numRows += pseudoDoc.length;
+                }
+            }
+        }
+
+        rowEntity = new int[numRows];
+        rowPara = new int[numRows];
+        int row = 0;
+        for (int e = 0; e < entities.size(); e++) {
+            for (int p : pseudoDocs.get(e)) {
+                rowEntity[row] = e;
+                rowPara[row++] = p;
+            }
+        }
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    @NotNull
+    public EntityIncidence getIncidence() {
+        return incidence;
+    }
+
+    /**
+     * Get the ordinals (in the incidence) of the entities retrieved for the query and relevant for it.
+     * @return Array of flags, indexed by entity ordinal. Do not modify.
+     */
+
+    @NotNull
+    public boolean[] getCandidateEntities() {
+        return candidateEntities;
+    }
+
+    /**
+     * Get the ordinals (in the incidence) of the entities retrieved for the query, relevant or not.
+     * @return Array of flags, indexed by entity ordinal. Do not modify.
+     */
+
+    @NotNull
+    public boolean[] getRetrievedEntities() {
+        return retrievedEntities;
+    }
+
+    /**
+     * Number of candidate entities (entities with a non-empty pseudo-document).
+     * @return Integer
+     */
+
+    public int numEntities() {
+        return entities.size();
+    }
+
+    public String getEntity(int e) {
+        return entities.get(e);
+    }
+
+    /**
+     * Get the pseudo-document of a candidate entity.
+     * @param e Integer Index of the candidate entity.
+     * @return Rows (in the incidence) of the passages of the pseudo-document. Do not modify.
+     */
+
+    @NotNull
+    public int[] getPseudoDocument(int e) {
+        return pseudoDocs.get(e);
+    }
+
+    /**
+     * Number of candidate (entity, passage) pairs.
+     * @return Integer
+     */
+
+    public int numCandidates() {
+        return rowEntity.length;
+    }
+
+    /**
+     * Get the entity of a candidate.
+     * @param candidate Integer
+     * @return Integer Index of the candidate entity.
+     */
+
+    public int getCandidateEntity(int candidate) {
+        return rowEntity[candidate];
+    }
+
+    /**
+     * Get the passage of a candidate.
+     * @param candidate Integer
+     * @return Integer Row of the passage in the incidence.
+     */
+
+    public int getCandidatePassage(int candidate) {
+        return rowPara[candidate];
+    }
+
+    /**
+     * Get the score of a passage in the passage ranking of the query.
+     * @param row Integer Row of the passage in the incidence.
+     * @return Double
+     */
+
+    public double getParaScore(int row) {
+        return paraRanking.getOrDefault(incidence.getParaId(row), 0.0d);
+    }
+
+    /**
+     * Get the rank of a passage in the passage ranking of the query.
+     * @param row Integer Row of the passage in the incidence.
+     * @return Integer Rank (from 1).
+     */
+
+    public int getParaRank(int row) {
+        return paraRanks[row];
+    }
+
+    /**
+     * Get the rank of an entity in the entity ranking of the query.
+     * @param entityId String
+     * @return Integer Rank (from 1), or 0 if the entity was not retrieved.
+     */
+
+    public int getEntityRank(String entityId) {
+        return entityRanks.getOrDefault(entityId, 0);
+    }
+}
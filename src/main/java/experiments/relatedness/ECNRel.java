@@ -1,7 +1,15 @@
 package experiments.relatedness;
 
-import api.WATApi;
+import api.EntityEmbeddings;
+import api.IdResolver;
+import api.LinkGraph;
+import api.MinHashIndex;
+import api.Relatedness;
+import api.RelatednessMatrix;
+import help.AnalyzedTextCache;
 import help.PseudoDocument;
+import help.ScoringKernel;
+import help.SparseVector;
 
 import help.Utilities;
 import lucene.Index;
@@ -51,6 +59,8 @@ public class ECNRel {
     private final ArrayList<String> runStrings;
     private Map<String, Map<String, Double>> entRelMap = new ConcurrentHashMap<>();
     private String relType;
+    private final Relatedness relatedness;
+    private final IdResolver idResolver;
     private final boolean parallel;
     private final AtomicInteger count = new AtomicInteger(0);
     private int N;
@@ -68,6 +78,31 @@ public class ECNRel {
                   boolean parallel,
                   Analyzer analyzer,
                   Similarity similarity) {
+        this(indexDir, mainDir, outputDir, dataDir, passageRunFile, entityRunFile, relFile, outFile, entityQrel,
+                relType, parallel, analyzer, similarity, null);
+    }
+
+    /**
+     * Constructor.
+     * If a local relatedness engine is given, then the relatedness scores (and the ids of the entities) are computed
+     * locally instead of querying the WAT server: either a link graph ("mw" and "jaccard") or entity embeddings
+     * ("w2v").
+     */
+
+    public <T extends Relatedness & IdResolver> ECNRel(String indexDir,
+                  String mainDir,
+                  String outputDir,
+                  String dataDir,
+                  String passageRunFile,
+                  String entityRunFile,
+                  String relFile,
+                  String outFile,
+                  String entityQrel,
+                  @NotNull String relType,
+                  boolean parallel,
+                  Analyzer analyzer,
+                  Similarity similarity,
+                  @Nullable T localRelatedness) {
 
 
         String entityRunFilePath = mainDir + "/" + dataDir + "/" + entityRunFile;
@@ -101,6 +136,35 @@ public class ECNRel {
             this.relType = "pmi";
         }
 
+        if (localRelatedness instanceof LinkGraph) {
+            if (!LinkGraph.supports(this.relType)) {
+                System.err.println("ERROR: Relatedness measure " + this.relType + " cannot be computed from the link graph.");
+                System.exit(-1);
+            }
+            System.out.println("Using local link graph for entity relatedness.");
+            this.relatedness = localRelatedness;
+            this.idResolver = localRelatedness;
+        } else if (localRelatedness instanceof EntityEmbeddings) {
+            if (!EntityEmbeddings.supports(this.relType)) {
+                System.err.println("ERROR: Relatedness measure " + this.relType + " cannot be computed from the entity embeddings.");
+                System.exit(-1);
+            }
+            System.out.println("Using local entity embeddings for entity relatedness.");
+            this.relatedness = localRelatedness;
+            this.idResolver = localRelatedness;
+        } else if (localRelatedness instanceof MinHashIndex) {
+            if (!MinHashIndex.supports(this.relType)) {
+                System.err.println("ERROR: Relatedness measure " + this.relType + " cannot be estimated from MinHash signatures.");
+                System.exit(-1);
+            }
+            System.out.println("Using MinHash signatures for approximate entity relatedness.");
+            this.relatedness = localRelatedness;
+            this.idResolver = localRelatedness;
+        } else {
+            this.relatedness = Relatedness.WAT;
+            this.idResolver = IdResolver.WAT;
+        }
+
         System.out.print("Reading entity rankings...");
         entityRankings = Utilities.getRankings(entityRunFilePath);
         System.out.println("[Done].");
@@ -187,7 +251,6 @@ public class ECNRel {
      */
 
     private void doTask(String queryId) {
-        List<String> pseudoDocEntityList;
         Map<String, Double> relDist;
 
         if (entityRankings.containsKey(queryId) && entityQrels.containsKey(queryId)) {
@@ -208,6 +271,11 @@ public class ECNRel {
             ArrayList<String> paraList = paraRankings.get(queryId);
 
 
+            Set<String> processedEntitySet = new HashSet<>(processedEntityList);
+            Map<String, PseudoDocument> entityToPseudoDocMap = new LinkedHashMap<>();
+            RelatednessMatrix.Builder builder = new RelatednessMatrix.Builder(relType, relatedness, idResolver,
+                    entRelMap);
+
             // For every entity in this list of relevant entities do
             for (String entityId : retEntitySet) {
 
@@ -218,17 +286,28 @@ public class ECNRel {
 
                 // Get the list of entities that co-occur with this entity in the pseudo-document
                 if (d != null) {
+                    entityToPseudoDocMap.put(entityId, d);
 
-                    // Get the list of co-occurring entities
-                    pseudoDocEntityList = d.getEntityList();
+                    // The relatedness with every co-occurring entity is needed.
+                    // Only the entities retrieved for the query are looked up in the relatedness system.
+                    for (String e : new HashSet<>(d.getEntityList())) {
+                        builder.add(entityId, e, processedEntitySet.contains(e));
+                    }
+                }
+            }
 
-                    // Get the relatedness distribution over the co-occurring entities
-                    relDist = getDistribution(entityId, pseudoDocEntityList, processedEntityList);
+            // Compute the relatedness of all pairs of the query at once
+            RelatednessMatrix relMatrix = builder.build();
 
-                    // Score the passages in the pseudo-document for this entity using the frequency distribution of
-                    // co-occurring entities
-                    scoreDoc(queryId, d, relDist);
-                }
+            for (Map.Entry<String, PseudoDocument> entry : entityToPseudoDocMap.entrySet()) {
+                PseudoDocument d = entry.getValue();
+
+                // Get the relatedness distribution over the co-occurring entities
+                relDist = relMatrix.getRow(entry.getKey(), new HashSet<>(d.getEntityList()));
+
+                // Score the passages in the pseudo-document for this entity using the frequency distribution of
+                // co-occurring entities
+                scoreDoc(queryId, d, relDist);
             }
             if (parallel) {
                 count.getAndIncrement();
@@ -247,6 +326,10 @@ public class ECNRel {
 
         // Get the list of documents in the pseudo-document corresponding to the entity
         ArrayList<Document> documents = d.getDocumentList();
+
+        // Load the entity scores once for all documents in the pseudo-document
+        AnalyzedTextCache cache = AnalyzedTextCache.getInstance();
+        ScoringKernel kernel = ScoringKernel.get().load(freqMap, cache.getDictionary());
         // For every document do
         for (Document doc : documents) {
 
@@ -254,7 +337,7 @@ public class ECNRel {
             String paraId = doc.getField("id").stringValue();
 
             // Get the score of the document
-            double score = getParaScore(doc, freqMap);
+            double score = getParaScore(doc, kernel);
 
             // Store the paragraph id and score in a HashMap
             scoreMap.put(paraId, score);
@@ -263,99 +346,28 @@ public class ECNRel {
 
     }
 
-
-    @NotNull
-    private Map<String, Double> getDistribution(String entityId,
-                                                @NotNull List<String> pseudoDocEntityList,
-                                                ArrayList<String> processedEntityList) {
-
-        Map<String, Double> relMap = new HashMap<>();
-        String processedEntity1 = processString(entityId);
-        double relatedness = 0;
-        Set<String> pseudoDocEntitySet = new HashSet<>(pseudoDocEntityList);
-        Set<String> processedEntitySet = new HashSet<>(processedEntityList);
-        if (processedEntity1 != null) {
-            // For every co-occurring entity do
-            for (String e : pseudoDocEntitySet) {
-                String processedEntity2 = processString(e);
-                if (processedEntity2 == null) {
-                    continue;
-                }
-                if (processedEntity1.equalsIgnoreCase(processedEntity2)) {
-                    relatedness = 1.0;
-                } else if (entRelMap.get(entityId).containsKey(e)) {
-                    relatedness = entRelMap.get(entityId).get(e);
-                } else if (processedEntitySet.contains(e)) {
-                    int id1 = WATApi.TitleResolver.getId(processedEntity1);
-                    int id2 = WATApi.TitleResolver.getId(processedEntity2);
-                    relatedness = getRelatedness(id1, id2);
-                }
-                relMap.put(e, relatedness);
-            }
-        }
-        return relMap;
-    }
-
-    @NotNull
-    private Double getRelatedness(int id1, int id2) {
-        if (id1 < 0 || id2 < 0) {
-            return 0.0d;
-        }
-
-        List<WATApi.EntityRelatedness.Pair> pair = WATApi.EntityRelatedness.getRelatedness(relType,id1, id2);
-        if (!pair.isEmpty()) {
-            return pair.get(0).getRelatedness();
-        } else {
-            return 0.0d;
-        }
-    }
-
-    @Nullable
-    private String processString(@NotNull String e) {
-        e = e.substring(e.indexOf(":") + 1).replaceAll("%20", "_");
-        try {
-            String[] parts = e.split("_");
-            parts[0] = parts[0].substring(0, 1).toUpperCase() + parts[0].substring(1);
-            for (int i = 1; i < parts.length; i++) {
-                parts[i] = parts[i].substring(0, 1).toLowerCase() + parts[i].substring(1);
-            }
-            return String.join("_", parts);
-        } catch (StringIndexOutOfBoundsException ex) {
-            System.err.println("ERROR in preprocessString(): " + ex.getMessage());
-            return null;
-        }
-    }
-
     /**
      * Method to find the score of a paragraph.
      * This method looks at all the entities in the paragraph and calculates the score from them.
      * For every entity in the paragraph, if the entity has a score from the entity context pseudo-document,
      * then sum over the entity scores and store the score in a HashMap.
      * @param doc  Document
-     * @param relMap HashMap where Key = entity id and Value = score
+     * @param kernel ScoringKernel Loaded with the scores of the entities (entity id, score)
      * @return Integer
      */
 
     @Contract("null, _ -> fail")
-    private double getParaScore(Document doc, Map<String, Double> relMap) {
+    private double getParaScore(Document doc, @NotNull ScoringKernel kernel) {
 
-        double entityScore, paraScore = 0;
-        // Get the entities in the paragraph
-        // Make an ArrayList from the String array
+        // Get the entities in the paragraph (as a vector of entity ids with counts)
+        // The entities of a paragraph are shared by all pseudo-documents it is part of, so they come from the cache
         assert doc != null;
-        ArrayList<String> pEntList = Utilities.getEntities(doc);
-        /* For every entity in the paragraph do */
-        for (String e : pEntList) {
-            // Lookup this entity in the HashMap of scores for the entities
-            // Sum over the scores of the entities to get the score for the passage
-            // Store the passage score in the HashMap
-            if (relMap.containsKey(e)) {
-                entityScore = relMap.get(e);
-                paraScore += entityScore;
-            }
+        AnalyzedTextCache cache = AnalyzedTextCache.getInstance();
+        String paraId = doc.getField("id").stringValue();
+        SparseVector pEntVector = cache.get(paraId, "entity", () -> cache.toVector(Utilities.getEntities(doc)));
 
-        }
-        return paraScore;
+        // Sum over the scores of the entities to get the score for the passage
+        return kernel.sum(pEntVector);
     }
 
     /**
@@ -1,6 +1,9 @@
 package experiments.relatedness;
 
-import api.WATApi;
+import api.EntityEmbeddings;
+import api.IdResolver;
+import api.Relatedness;
+import api.RelatednessMatrix;
 import help.PseudoDocument;
 import help.Utilities;
 import lucene.Index;
@@ -51,6 +54,8 @@ public class ECNWeighted {
     private final DecimalFormat df;
     private Map<String, Map<String, Double>> entRelMap = new ConcurrentHashMap<>();
     private String relType;
+    private final Relatedness relatedness;
+    private final IdResolver idResolver;
     private final AtomicInteger count = new AtomicInteger(0);
     private int N;
 
@@ -67,6 +72,30 @@ public class ECNWeighted {
                        boolean parallel,
                        Analyzer analyzer,
                        Similarity similarity) {
+        this(indexDir, mainDir, outputDir, dataDir, passageRunFile, entityRunFile, relFile, outFile, entityQrelFile,
+                relType, parallel, analyzer, similarity, null);
+    }
+
+    /**
+     * Constructor.
+     * If entity embeddings are given, then the "w2v" relatedness scores (and the ids of the entities) are computed
+     * locally from the embeddings instead of querying the WAT server.
+     */
+
+    public ECNWeighted(String indexDir,
+                       String mainDir,
+                       String outputDir,
+                       String dataDir,
+                       String passageRunFile,
+                       String entityRunFile,
+                       String relFile,
+                       String outFile,
+                       String entityQrelFile,
+                       @NotNull String relType,
+                       boolean parallel,
+                       Analyzer analyzer,
+                       Similarity similarity,
+                       @Nullable EntityEmbeddings embeddings) {
 
 
         String entityRunFilePath = mainDir + "/" + dataDir + "/" + entityRunFile;
@@ -103,6 +132,19 @@ public class ECNWeighted {
             this.relType = "pmi";
         }
 
+        if (embeddings != null) {
+            if (!EntityEmbeddings.supports(this.relType)) {
+                System.err.println("ERROR: Relatedness measure " + this.relType + " cannot be computed from the entity embeddings.");
+                System.exit(-1);
+            }
+            System.out.println("Using local entity embeddings for entity relatedness.");
+            this.relatedness = embeddings;
+            this.idResolver = embeddings;
+        } else {
+            this.relatedness = Relatedness.WAT;
+            this.idResolver = IdResolver.WAT;
+        }
+
         System.out.print("Reading entity rankings...");
         entityRankings = Utilities.getRankings(entityRunFilePath);
         System.out.println("[Done].");
@@ -207,6 +249,10 @@ public class ECNWeighted {
 
             // Get the list of passages retrieved for the query
             ArrayList<String> paraList = paraRankings.get(queryId);
+            Map<PseudoDocument, Map<String, Integer>> pseudoDocToFreqDistMap = new LinkedHashMap<>();
+            RelatednessMatrix.Builder builder = new RelatednessMatrix.Builder(relType, relatedness, idResolver,
+                    entRelMap);
+
             // For every entity in this list of relevant entities do
             for (String entityId : retEntitySet) {
                 //if (! entityId.equalsIgnoreCase("enwiki:Genetic%20disorder")) continue;
@@ -227,12 +273,23 @@ public class ECNWeighted {
                     if (freqDist.isEmpty()) {
                         continue;
                     }
+                    pseudoDocToFreqDistMap.put(d, freqDist);
 
-                    // Score the passages in the pseudo-document for this entity using the frequency distribution of
-                    // co-occurring entities
-                    scoreDoc(queryId, d, freqDist);
+                    // The passages are weighed by the relatedness of these entities with the target entity
+                    for (String e : freqDist.keySet()) {
+                        builder.add(entityId, e);
+                    }
                 }
             }
+
+            // Compute the relatedness of all pairs of the query at once
+            RelatednessMatrix relMatrix = builder.build();
+
+            for (Map.Entry<PseudoDocument, Map<String, Integer>> entry : pseudoDocToFreqDistMap.entrySet()) {
+                // Score the passages in the pseudo-document for this entity using the frequency distribution of
+                // co-occurring entities
+                scoreDoc(queryId, entry.getKey(), entry.getValue(), relMatrix);
+            }
             if (parallel) {
                 count.getAndIncrement();
                 System.out.println("Progress: " + count + " of " + N);
@@ -262,7 +319,10 @@ public class ECNWeighted {
         return freqMap;
     }
 
-    private void scoreDoc(String queryId, @NotNull PseudoDocument d, Map<String, Integer> freqMap) {
+    private void scoreDoc(String queryId,
+                          @NotNull PseudoDocument d,
+                          Map<String, Integer> freqMap,
+                          RelatednessMatrix relMatrix) {
         // Get the entity corresponding to the pseudo-document
         String entityId = d.getEntity();
         HashMap<String, Double> scoreMap = new HashMap<>();
@@ -278,7 +338,7 @@ public class ECNWeighted {
             String paraId = doc.getField("id").stringValue();
 
             // Get the score of the document
-            double score = getParaScore(entity,doc, freqMap);
+            double score = getParaScore(entity,doc, freqMap, relMatrix);
 
             // Store the paragraph id and score in a HashMap
             scoreMap.put(paraId, score);
@@ -298,79 +358,32 @@ public class ECNWeighted {
      * @param entity String
      * @param doc  Document
      * @param freqMap HashMap where Key = entity id and Value = score
+     * @param relMatrix RelatednessMatrix Relatedness of the entities of the query.
      * @return Integer
      */
 
-    @Contract("_, null, _ -> fail")
-    private double getParaScore(String entity, Document doc, Map<String, Integer> freqMap) {
-        String processedEntity1 = processString(entity);
+    @Contract("_, null, _, _ -> fail")
+    private double getParaScore(String entity, Document doc, Map<String, Integer> freqMap, RelatednessMatrix relMatrix) {
         double entityScore, paraScore = 0, relatedness;
-        if (processedEntity1 != null) {
-
-            // Get the entities in the paragraph
-            // Make an ArrayList from the String array
-            assert doc != null;
-            Set<String> passageEntitySet = new HashSet<>(Utilities.getEntities(doc));
-            /* For every entity in the paragraph do */
-            for (String e : passageEntitySet) {
-                String processedEntity2 = processString(e);
-                if (processedEntity2 == null) {
-                    continue;
-                }
-                // Lookup this entity in the HashMap of frequencies for the entities
-                // Sum over the scores of the entities to get the score for the passage
-                // Store the passage score in the HashMap
-                if (freqMap.containsKey(e)) {
-                    entityScore = freqMap.get(e);
-                    if (processedEntity1.equalsIgnoreCase(processedEntity2)) {
-                        // If both  are same
-                        relatedness = 1.0;
-                    } else if (entRelMap.get(entity).containsKey(e)) {
-                        // If relatedness can be found in the Map
-                        relatedness = entRelMap.get(entity).get(e);
-                    } else {
-                        // Otherwise query the WAT server
-                        int id1 = WATApi.TitleResolver.getId(processedEntity1);
-                        int id2 = WATApi.TitleResolver.getId(processedEntity2);
-                        relatedness = getRelatedness(id1, id2);
-                    }
-                    paraScore += (relatedness + entityScore);
-                }
 
+        // Get the entities in the paragraph
+        // Make an ArrayList from the String array
+        assert doc != null;
+        Set<String> passageEntitySet = new HashSet<>(Utilities.getEntities(doc));
+        /* For every entity in the paragraph do */
+        for (String e : passageEntitySet) {
+            // Lookup this entity in the HashMap of frequencies for the entities
+            // Sum over the scores of the entities to get the score for the passage
+            // Store the passage score in the HashMap
+            // Entities without a title (not in the relatedness matrix) are skipped
+            if (freqMap.containsKey(e) && relMatrix.contains(entity, e)) {
+                entityScore = freqMap.get(e);
+                relatedness = relMatrix.get(entity, e);
+                paraScore += (relatedness + entityScore);
             }
-        }
-        return paraScore;
-    }
-
 
-
-    private double getRelatedness(int id1, int id2) {
-        if (id1 < 0 || id2 < 0) {
-            return 0.0d;
-        }
-
-        List<WATApi.EntityRelatedness.Pair> pair = WATApi.EntityRelatedness.getRelatedness(relType,id1, id2);
-        if (!pair.isEmpty()) {
-            return pair.get(0).getRelatedness();
-        } else {
-            return 0.0d;
-        }
-    }
-
-    @Nullable
-    private String processString(@NotNull String e) {
-        e = e.substring(e.indexOf(":") + 1).replaceAll("%20", "_");
-        try {
-            String[] parts = e.split("_");
-            parts[0] = parts[0].substring(0, 1).toUpperCase() + parts[0].substring(1);
-            for (int i = 1; i < parts.length; i++) {
-                parts[i] = parts[i].substring(0, 1).toLowerCase() + parts[i].substring(1);
-            }
-            return String.join("_", parts);
-        } catch (StringIndexOutOfBoundsException ex) {
-            System.err.println("ERROR in preprocessString(): " + ex.getMessage());
-            return null;
         }
+        return paraScore;
     }
 
     /**
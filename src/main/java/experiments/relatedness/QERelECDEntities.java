@@ -1,10 +1,15 @@
 package experiments.relatedness;
 
-import api.WATApi;
+import api.IdResolver;
+import api.MinHashIndex;
+import api.Relatedness;
+import api.RelatednessMatrix;
 import help.EntityRMExpand;
 import help.PseudoDocument;
+import help.QueryAnalysis;
 import help.Utilities;
 import lucene.Index;
+import lucene.MultiQueryScorer;
 import lucene.RAMIndex;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.analysis.Analyzer;
@@ -14,8 +19,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
@@ -57,6 +61,7 @@ public class QERelECDEntities {
     private final Similarity similarity;
     private String relType;
     private final DecimalFormat df;
+    private final MinHashIndex minHashIndex;
     AtomicInteger count = new AtomicInteger(0);
     private int N;
 
@@ -93,8 +98,39 @@ public class QERelECDEntities {
                             @NotNull String relType,
                             Analyzer analyzer,
                             Similarity similarity) {
+        this(indexDir, mainDir, outputDir, dataDir, relFile, paraRunFile, entityRunFile, outFile, entityQrelFile,
+                takeKEntities, takeKDocs, omitQueryTerms, parallel, useEcd, relType, analyzer, similarity, null);
+    }
 
+    /**
+     * Constructor.
+     * If a MinHash index is given (jaccard measure only), then the top related context entities of an entity are
+     * found with LSH ({@link MinHashIndex.Lsh#topRelated(int, int)}), among the context entities that share a band
+     * with the entity, instead of scoring every (entity, context entity) pair with WAT.
+     * @param minHashIndex MinHashIndex MinHash signatures of the pages. May be null.
+     */
 
+    public QERelECDEntities(String indexDir,
+                            String mainDir,
+                            String outputDir,
+                            String dataDir,
+                            String relFile,
+                            String paraRunFile,
+                            String entityRunFile,
+                            String outFile,
+                            String entityQrelFile,
+                            int takeKEntities,
+                            int takeKDocs,
+                            boolean omitQueryTerms,
+                            boolean parallel,
+                            boolean useEcd,
+                            @NotNull String relType,
+                            Analyzer analyzer,
+                            Similarity similarity,
+                            @Nullable MinHashIndex minHashIndex) {
+
+
+        this.minHashIndex = minHashIndex;
         this.takeKEntities = takeKEntities;
         this.takeKDocs = takeKDocs;
         this.analyzer = analyzer;
@@ -135,6 +171,14 @@ public class QERelECDEntities {
             this.relType = "pmi";
         }
 
+        if (minHashIndex != null) {
+            if (!MinHashIndex.supports(this.relType)) {
+                System.err.println("ERROR: Relatedness measure " + this.relType + " cannot be estimated from MinHash signatures.");
+                System.exit(-1);
+            }
+            System.out.println("Using MinHash signatures and LSH to find the top related context entities.");
+        }
+
         System.out.print("Reading entity rankings...");
         entityRankings = Utilities.getRankings(entityFilePath);
         System.out.println("[Done].");
@@ -223,10 +267,7 @@ public class QERelECDEntities {
         List<Map.Entry<String, Double>> contextEntityList;
         Map<String, Float> results;
         // Process the query
-        String queryStr = queryId
-                .substring(queryId.indexOf(":") + 1)          // remove enwiki: from query
-                .replaceAll("%20", " ")     // replace %20 with whitespace
-                .toLowerCase();                            //  convert query to lowercase
+        String queryStr = QueryAnalysis.getQueryString(queryId);
 
         if (entityQrels.containsKey(queryId) && entityRankings.containsKey(queryId)) {
 
@@ -245,59 +286,92 @@ public class QERelECDEntities {
             // Get the list of passages retrieved for the query
             ArrayList<String> paraList = paraRankings.get(queryId);
 
-            // For every entity in this set of relevant retrieved  entities do
-            for (String entityId : retEntitySet) {
+            // Expanded queries of the entities, to search the paragraph index with
+            Map<String, Query> entityQueries = new LinkedHashMap<>();
 
+            // Create the pseudo-documents of the entities first, to compute the relatedness of all pairs at once
+            // With LSH, only the pairs that share a band are scored, so no matrix is needed
+            Map<String, PseudoDocument> entityToPseudoDocMap = new LinkedHashMap<>();
+            RelatednessMatrix.Builder builder = new RelatednessMatrix.Builder(relType, Relatedness.WAT, IdResolver.WAT,
+                    entRelMap);
+            for (String entityId : retEntitySet) {
                 PseudoDocument d = Utilities.createPseudoDocument(entityId, "id", "entity",
                         " ", paraList, searcher);
-
                 if (d != null) {
-
-                    // Get the list of all entities which co-occur with this entity in a given context
-                    // Context here is the same as a PseudoDocument for the entity
-                    // So we are actually looking at all entities that occur in the PseudoDocument
-                    // sorted in descending order of frequency
-                    // Here we are using all entities retrieved for the query to get the expansion terms
-                    contextEntityList = getContextEntities(d);
-                    // Use the top K entities for expansion
-                    expansionEntities = contextEntityList.subList(0, Math.min(takeKEntities, contextEntityList.size()));
-
-                    if (expansionEntities.size() == 0) {
-                        continue;
-                    }
-
-                    // Convert the query to an expanded BooleanQuery
-                    BooleanQuery booleanQuery = null;
-                    try {
-                        booleanQuery = EntityRMExpand.toEntityRmQuery(queryStr, expansionEntities, omitQueryTerms,
-                                "text", analyzer);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                    entityToPseudoDocMap.put(entityId, d);
+                    if (minHashIndex == null) {
+                        for (String e : new HashSet<>(d.getEntityList())) {
+                            builder.add(entityId, e);
+                        }
                     }
+                }
+            }
+            RelatednessMatrix relMatrix = builder.build();
 
-                    if (useEcd) {
-                        ////////////////////////////////////////////////////////////////////
-                        /////////////////////Searching the Index of ECD passages////////////
-                        ////////////////////////////////////////////////////////////////////
+            // For every entity in this set of relevant retrieved  entities do
+            for (Map.Entry<String, PseudoDocument> entry : entityToPseudoDocMap.entrySet()) {
+                String entityId = entry.getKey();
+                PseudoDocument d = entry.getValue();
+
+                // Get the list of all entities which co-occur with this entity in a given context
+                // Context here is the same as a PseudoDocument for the entity
+                // So we are actually looking at all entities that occur in the PseudoDocument
+                // sorted in descending order of frequency
+                // Here we are using all entities retrieved for the query to get the expansion terms
+                contextEntityList = minHashIndex != null
+                        ? getLshContextEntities(d)
+                        : getContextEntities(d, relMatrix);
+                // Use the top K entities for expansion
+                expansionEntities = contextEntityList.subList(0, Math.min(takeKEntities, contextEntityList.size()));
+
+                if (expansionEntities.size() == 0) {
+                    continue;
+                }
 
-                        // Get the candidate passages
-                        List<Document> candidatePassages = d.getDocumentList();
+                // Convert the query to an expanded BooleanQuery
+                BooleanQuery booleanQuery = null;
+                try {
+                    booleanQuery = EntityRMExpand.toEntityRmQuery(queryStr, expansionEntities, omitQueryTerms,
+                            "text", analyzer);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
 
-                        results = searchIndex(booleanQuery, candidatePassages);
+                if (useEcd) {
+                    ////////////////////////////////////////////////////////////////////
+                    /////////////////////Searching the Index of ECD passages////////////
+                    ////////////////////////////////////////////////////////////////////
 
-                    } else {
-                        ////////////////////////////////////////////////////////////////////
-                        /////////////////////Searching the Paragraph Index//////////////////
-                        ////////////////////////////////////////////////////////////////////
+                    // Get the candidate passages
+                    List<Document> candidatePassages = d.getDocumentList();
 
-                        results = searchIndex(booleanQuery);
-                    }
+                    results = searchIndex(booleanQuery, candidatePassages);
 
                     // Make the run file strings for the query-entity pair
                     if (!results.isEmpty()) {
                         makeRunStrings(queryId, entityId, results);
                     }
 
+                } else {
+                    ////////////////////////////////////////////////////////////////////
+                    /////////////////////Searching the Paragraph Index//////////////////
+                    ////////////////////////////////////////////////////////////////////
+
+                    // Searched below, together with the queries of the other entities
+                    entityQueries.put(entityId, booleanQuery);
+                }
+            }
+
+            // Search the paragraph index with the expanded queries of all entities in one pass
+            Map<String, Map<String, Float>> entityResults = new LinkedHashMap<>();
+            try {
+                entityResults = MultiQueryScorer.searchParagraphs(searcher, entityQueries, takeKDocs, "id");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Map.Entry<String, Map<String, Float>> entry : entityResults.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    makeRunStrings(queryId, entry.getKey(), entry.getValue());
                 }
             }
             if (parallel) {
@@ -308,7 +382,7 @@ public class QERelECDEntities {
     }
 
     @NotNull
-    private List<Map.Entry<String, Double>> getContextEntities(PseudoDocument d) {
+    private List<Map.Entry<String, Double>> getContextEntities(PseudoDocument d, RelatednessMatrix relMatrix) {
         Map<String, Double> relMap = new HashMap<>();
         Set<String> pseudoDocEntitySet;
 
@@ -318,7 +392,7 @@ public class QERelECDEntities {
             // Get the list of co-occurring entities
             pseudoDocEntitySet = new HashSet<>(d.getEntityList());
             // Get the relatedness with the target entity
-            relMap = getRelatedness(entityId, pseudoDocEntitySet);
+            relMap = relMatrix.getRow(entityId, pseudoDocEntitySet);
         }
 
 
@@ -328,6 +402,42 @@ public class QERelECDEntities {
         return new ArrayList<>(Utilities.sortByValueDescending(relMap).entrySet());
     }
 
+    /**
+     * Get the top K related context entities of an entity with LSH over the MinHash signatures.
+     * As with the exact measure, the entity itself (if in its pseudo-document) comes first, with relatedness 1.
+     * @param d PseudoDocument Pseudo-document of the entity.
+     * @return List of (context entity, estimated Jaccard) in decreasing order of relatedness.
+     */
+
+    @NotNull
+    private List<Map.Entry<String, Double>> getLshContextEntities(@NotNull PseudoDocument d) {
+        List<Map.Entry<String, Double>> related = new ArrayList<>();
+        int target = minHashIndex.getId(d.getEntity());
+        if (target < 0) {
+            return related;
+        }
+
+        // Resolve the context entities once; entities that cannot be resolved have no relatedness
+        Map<Integer, String> idToEntity = new LinkedHashMap<>();
+        for (String e : new HashSet<>(d.getEntityList())) {
+            int id = minHashIndex.getId(e);
+            if (id >= 0) {
+                idToEntity.putIfAbsent(id, e);
+            }
+        }
+        String self = idToEntity.remove(target);
+        if (self != null) {
+            related.add(new AbstractMap.SimpleEntry<>(self, 1.0d));
+        }
+
+        int[] ids = idToEntity.keySet().stream().mapToInt(Integer::intValue).toArray();
+        int n = takeKEntities - related.size();
+        for (Map.Entry<Integer, Double> entry : minHashIndex.lsh(ids).topRelated(target, n)) {
+            related.add(new AbstractMap.SimpleEntry<>(idToEntity.get(entry.getKey()), entry.getValue()));
+        }
+        return related;
+    }
+
     @NotNull
     private Map<String, Float> searchIndex(BooleanQuery booleanQuery, List<Document> documents) {
 
@@ -361,76 +471,6 @@ public class QERelECDEntities {
 
         return results;
     }
-
-    @NotNull
-    private Map<String, Float> searchIndex(BooleanQuery booleanQuery) {
-
-        Map<String, Float> results = new HashMap<>();
-
-        TopDocs topDocs = null;
-        try {
-            topDocs = Index.Search.searchIndex(booleanQuery, takeKDocs, searcher);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        assert topDocs != null;
-        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-        for (int i = 0; i < scoreDocs.length; i++) {
-            Document d = null;
-            try {
-                d = searcher.doc(scoreDocs[i].doc);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            assert d != null;
-            String pID = d.getField("id").stringValue();
-            float score = topDocs.scoreDocs[i].score;
-            results.put(pID, score);
-        }
-        return results;
-    }
-    @NotNull
-    private Map<String, Double>  getRelatedness(String entityID,
-                                                @NotNull Set<String> contextEntitySet) {
-
-        Map<String, Double> relMap = new HashMap<>();
-        String processedEntity1 = processString(entityID);
-        double relatedness;
-
-        if (processedEntity1 != null) {
-            for (String e : contextEntitySet) {
-                String processedEntity2 = processString(e);
-                if (processedEntity2 == null) {
-                    continue;
-                }
-                if (processedEntity1.equalsIgnoreCase(processedEntity2)) {
-                    relatedness = 1.0;
-                } else if (entRelMap.get(entityID).containsKey(e)) {
-                    relatedness = entRelMap.get(entityID).get(e);
-                } else {
-                    int id1 = WATApi.TitleResolver.getId(processedEntity1);
-                    int id2 = WATApi.TitleResolver.getId(processedEntity2);
-                    relatedness = getRelatedness(id1, id2);
-                }
-                relMap.put(e, relatedness);
-            }
-        }
-        return relMap;
-    }
-    @NotNull
-    private Double getRelatedness(int id1, int id2) {
-        if (id1 < 0 || id2 < 0) {
-            return 0.0d;
-        }
-
-        List<WATApi.EntityRelatedness.Pair> pair = WATApi.EntityRelatedness.getRelatedness(relType,id1, id2);
-        if (!pair.isEmpty()) {
-            return pair.get(0).getRelatedness();
-        } else {
-            return 0.0d;
-        }
-    }
-
 //    @NotNull
 //    private Map<String, Double>  getRelatedness(String entityID,
 //                                                @NotNull Set<String> contextEntitySet) {
@@ -482,21 +522,6 @@ public class QERelECDEntities {
 //            }
 //        }
 //    }
-    @Nullable
-    private String processString(@NotNull String e) {
-        e = e.substring(e.indexOf(":") + 1).replaceAll("%20", "_");
-        try {
-            String[] parts = e.split("_");
-            parts[0] = parts[0].substring(0, 1).toUpperCase() + parts[0].substring(1);
-            for (int i = 1; i < parts.length; i++) {
-                parts[i] = parts[i].substring(0, 1).toLowerCase() + parts[i].substring(1);
-            }
-            return String.join("_", parts);
-        } catch (StringIndexOutOfBoundsException ex) {
-            System.err.println("ERROR in preprocessString(): " + ex.getMessage());
-            return null;
-        }
-    }
 
     /**
      * Makes the run file strings.
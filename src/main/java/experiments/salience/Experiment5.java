@@ -1,6 +1,7 @@
 package experiments.salience;
 
 import api.SWATApi;
+import api.SalienceStore;
 import help.PseudoDocument;
 import help.Utilities;
 import lucene.Index;
@@ -30,8 +31,11 @@ public class Experiment5 {
     // HashMap where Key = query and Value = List of passages retrieved for the query
     private final Map<String, ArrayList<String>> passageRankings;
 
-    // HashMap where Key = paraID and Value = Map of (entity, salience_score)
-    private Map<String, Map<String, Double>> salientEntityMap;
+    // SWAT annotations read from disk: Key = paraID and Value = Map of (entity, salience_score)
+    private SalienceStore swatStore;
+
+    // HashMap where Key = paraID and Value = Map of (entity, salience_score) for paragraphs not in the swat file
+    private final Map<String, Map<String, Double>> salientEntityMap = new HashMap<>();
 
     private final Map<String, Set<String>> entWithSalPsgMap = new HashMap<>();
     private final Map<String, Set<String>> entWithNoSalPsgMap = new HashMap<>();
@@ -63,13 +67,19 @@ public class Experiment5 {
 
         System.out.print("Reading the SWAT annotations...");
         try {
-            this.salientEntityMap = Utilities.readMap(swatFile);
-        } catch (IOException | ClassNotFoundException e) {
+            this.swatStore = SalienceStore.open(swatFile);
+        } catch (IOException e) {
             e.printStackTrace();
         }
         System.out.println("[Done].");
 
         analyze(outDir);
+
+        try {
+            swatStore.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -139,10 +149,13 @@ public class Experiment5 {
                     String paraID = document.getField("id").stringValue();
                     // If a  SWAT annotation exits for this paragraph in the swat file then we are good
                     // No need to query the SWAT API
-                    if (salientEntityMap.containsKey(paraID)) {
+                    if (swatStore.containsKey(paraID) || salientEntityMap.containsKey(paraID)) {
                         // Get the set of entities salient in the paragraph
-                        if (salientEntityMap.get(paraID) != null) {
-                            Set<String> salEnt = salientEntityMap.get(paraID).keySet();
+                        Map<String, Double> salMap = swatStore.containsKey(paraID)
+                                ? swatStore.get(paraID)
+                                : salientEntityMap.get(paraID);
+                        if (salMap != null) {
+                            Set<String> salEnt = salMap.keySet();
                             if (isPresent(salEnt, entityId)) {
                                 // If the set of salient entities contains the entity then
                                 // It means the entity has a passage in the candidate set
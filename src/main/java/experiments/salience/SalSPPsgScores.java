@@ -1,6 +1,7 @@
 package experiments.salience;
 
 import api.SWATApi;
+import api.SalienceStore;
 import help.Utilities;
 import lucene.Index;
 import me.tongfei.progressbar.ProgressBar;
@@ -32,7 +33,7 @@ public class SalSPPsgScores {
     private Map<String, Map<String, Map<String, Double>>> supportPsgRunFileMap;
     private final HashMap<String, LinkedHashMap<String, Double>> paraRankings;
     private final HashMap<String, Map<String, Double>> salientEntityMap;
-    private Map<String, Map<String, Double>> swatMap;
+    private SalienceStore swatStore;
     private final List<String> runStrings;
     private final DecimalFormat df;
 
@@ -61,7 +62,6 @@ public class SalSPPsgScores {
         this.supportPsgRunFileMap = new LinkedHashMap<>();
         this.paraRankings = new LinkedHashMap<>();
         this.supportPsgRunFileMap = new HashMap<>();
-        this.swatMap = new HashMap<>();
         this.salientEntityMap = new HashMap<>();
 
         String supportPsgRunFilePath = mainDir + "/" + dataDir + "/" + supportPsgRunFile;
@@ -86,14 +86,20 @@ public class SalSPPsgScores {
 
         System.out.print("Reading the SWAT annotations...");
         try {
-            this.swatMap = Utilities.readMap(swatFilePath);
-        } catch (IOException | ClassNotFoundException e) {
+            this.swatStore = SalienceStore.open(swatFilePath);
+        } catch (IOException e) {
             e.printStackTrace();
         }
         System.out.println("[Done].");
 
         experiment(outFilePath);
 
+        try {
+            swatStore.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
     }
 
     /**
@@ -185,9 +191,9 @@ public class SalSPPsgScores {
         Document document = null;
         for (String paraID : paraSet) {
 
-            if (swatMap.containsKey(paraID)) {
+            if (swatStore.containsKey(paraID)) {
                 // If you find the swat annotations for the passage in the swat file then good
-                saliencyMap = swatMap.get(paraID);
+                saliencyMap = swatStore.get(paraID);
             } else if (salientEntityMap.containsKey(paraID)) {
                 // If not, then look in the in-memory cache
                 saliencyMap = salientEntityMap.get(paraID);
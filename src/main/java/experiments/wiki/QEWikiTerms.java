@@ -2,8 +2,12 @@ package experiments.wiki;
 
 
 
+import help.AnalyzedTextCache;
 import help.PseudoDocument;
+import help.QueryAnalysis;
 import help.RM3Expand;
+import help.SparseVector;
+import help.TextPreprocessor;
 import help.Utilities;
 import lucene.Index;
 import lucene.RAMIndex;
@@ -58,6 +62,8 @@ public class QEWikiTerms {
     private final boolean omitQueryTerms; // Omit query terms or not when calculating expansion terms
     private  final Analyzer analyzer; // Analyzer to use
     private final Similarity similarity;
+    private final AnalyzedTextCache cache = AnalyzedTextCache.getInstance();
+    private final TextPreprocessor preprocessor;
 
     /**
      * Constructor.
@@ -132,6 +138,7 @@ public class QEWikiTerms {
         System.out.print("Reading stop words list...");
         getStopWords(stopWordsFilePath);
         System.out.println("[Done].");
+        preprocessor = new TextPreprocessor(stopWords, cache.getDictionary());
 
         System.out.print("Setting up page index for use...");
         pageSearcher = new Index.Setup(pageIndexDir, "Text", analyzer, similarity).getSearcher();
@@ -214,6 +221,7 @@ public class QEWikiTerms {
         Utilities.writeFile(runStrings, outputFilePath);
         System.out.println("[Done].");
         System.out.println("Run file written at: " + outputFilePath);
+        System.out.println("Analyzed text cache: " + cache.getStats());
     }
 
     /**
@@ -224,10 +232,7 @@ public class QEWikiTerms {
 
     private void doTask(@NotNull String queryId) {
 
-        String queryStr = queryId
-                .substring(queryId.indexOf(":")+1)          // remove enwiki: from query
-                .replaceAll("%20", " ")     // replace %20 with whitespace
-                .toLowerCase();                            //  convert query to lowercase
+        String queryStr = QueryAnalysis.getQueryString(queryId);
 
         Map<String, Float> results = new HashMap<>();
 
@@ -250,8 +255,8 @@ public class QEWikiTerms {
                 // Get distribution over the terms from the Wikipedia article
                 Map<String, Float> freqDist = getWikiTermDistribution(entityId);
 
-                // Convert the query to an expanded BooleanQuery
-                BooleanQuery booleanQuery = toBooleanQuery(queryStr, freqDist);
+                // Convert the query to an expanded query
+                Query expandedQuery = toExpandedQuery(queryStr, freqDist);
 
                 // Search the index with this expanded query
 
@@ -274,13 +279,13 @@ public class QEWikiTerms {
                         ArrayList<Document> documents = d.getDocumentList();
 
                         // Search the Index of ECD passages
-                        results = searchIndex(booleanQuery, documents);
+                        results = searchIndex(expandedQuery, documents);
                     }
                 } else {
                     ////////////////////////////////////////////////////////////////////
                     /////////////////////Searching the Paragraph Index//////////////////
                     ////////////////////////////////////////////////////////////////////
-                    results = searchIndex(booleanQuery);
+                    results = searchIndex(expandedQuery);
                 }
 
                 // Make the run file strings for the query-entity pair
@@ -294,22 +299,22 @@ public class QEWikiTerms {
         }
     }
 
-    private BooleanQuery toBooleanQuery(String queryStr, @NotNull Map<String, Float> freqDist) {
-        // Convert the query to an expanded BooleanQuery
-        BooleanQuery booleanQuery = null;
+    private Query toExpandedQuery(String queryStr, @NotNull Map<String, Float> freqDist) {
+        // Convert the query to an expanded query (RM3)
+        Query expandedQuery = null;
         List<Map.Entry<String, Float>> allWordFreqList = new ArrayList<>(freqDist.entrySet());
         List<Map.Entry<String, Float>> expansionTerms = allWordFreqList.subList(0,
                 Math.min(takeKTerms, allWordFreqList.size()));
         try {
-            booleanQuery = RM3Expand.toRm3Query(queryStr, expansionTerms, omitQueryTerms, "text", analyzer);
+            expandedQuery = RM3Expand.toWeightedRm3Query(queryStr, expansionTerms, omitQueryTerms, "text", analyzer);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return booleanQuery;
+        return expandedQuery;
     }
 
     @NotNull
-    private Map<String, Float> searchIndex(BooleanQuery booleanQuery, ArrayList<Document> documents) {
+    private Map<String, Float> searchIndex(Query expandedQuery, ArrayList<Document> documents) {
 
         Map<String, Float> results;
         // Get the top documents for this query-entity pair
@@ -337,19 +342,19 @@ public class QEWikiTerms {
 
         // Search the index
         assert is != null;
-        results = RAMIndex.searchIndex(booleanQuery, takeKDocs, is);
+        results = RAMIndex.searchIndex(expandedQuery, takeKDocs, is);
 
         return results;
     }
 
     @NotNull
-    private Map<String, Float> searchIndex(BooleanQuery booleanQuery) {
+    private Map<String, Float> searchIndex(Query expandedQuery) {
 
         Map<String, Float> results = new HashMap<>();
 
         TopDocs topDocs = null;
         try {
-            topDocs = Index.Search.searchIndex(booleanQuery, takeKDocs, paraSearcher);
+            topDocs = Index.Search.searchIndex(expandedQuery, takeKDocs, paraSearcher);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -401,24 +406,41 @@ public class QEWikiTerms {
      */
 
     private Map<String, Float> getWikiTermDistribution(String entity) {
+        // An entity is relevant for many queries, so the analyzed article is taken from the cache
+        String config = "wiki:" + analyzer.getClass().getName() + ":" + stopWords.hashCode();
+        SparseVector vector = cache.get(entity, config, () -> analyzeArticle(entity));
+        Map<String, Integer> freqMap = new HashMap<>();
+        for (int i = 0; i < vector.size(); i++) {
+            freqMap.put(cache.getDictionary().getTerm(vector.getId(i)), (int) vector.getValue(i));
+        }
+        return Utilities.sortByValueDescending(normalize(freqMap));
+    }
+
+    /**
+     * Analyzes the Wikipedia article of an entity.
+     * @param entity String
+     * @return SparseVector of (termId, tf). Empty if the article is not in the index.
+     */
+
+    @NotNull
+    private SparseVector analyzeArticle(String entity) {
         Document d;
-        Map<String, Float> freqDist = new HashMap<>();
         try {
             d = Index.Search.searchIndex("Id", entity, pageSearcher);
             assert d != null;
             String text = d.getField("Content").stringValue();
-            freqDist = frequencyDistribution(text);
+            return cache.toVector(analyzedTerms(text));
         } catch (ParseException | IOException | NullPointerException e) {
             e.printStackTrace();
         }
-        return freqDist;
+        return SparseVector.EMPTY;
     }
 
     /**
      * Helper method.
-     * Finds the distribution over the terms from the Wikipedia article.
+     * Finds the analyzed terms (with repeats) in the text of the Wikipedia article.
      * @param text String
-     * @return Map
+     * @return List of terms.
      */
 
 
@@ -439,28 +461,26 @@ public class QEWikiTerms {
 //    }
 
     @NotNull
-    private Map<String, Float> frequencyDistribution(String text) {
-        Map<String, Integer> freqMap = new HashMap<>();
+    private List<String> analyzedTerms(String text) {
+        List<String> terms = new ArrayList<>();
 
-        List<String> words = preProcess(text);
+        List<String> words = preprocessor.getWords(text);
         String processedText = String.join(" ", words);
 
         try {
-            addTokens(processedText, freqMap, analyzer);
+            addTokens(processedText, terms, analyzer);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        Map<String, Float> distribution = normalize(freqMap);
-        return Utilities.sortByValueDescending(distribution);
+        return terms;
     }
     private  void addTokens(String content,
-                            Map<String, Integer> wordFreq,
+                            List<String> terms,
                             @NotNull Analyzer analyzer) throws IOException {
         TokenStream tokenStream = analyzer.tokenStream("text", new StringReader(content));
         tokenStream.reset();
         while (tokenStream.incrementToken()) {
-            final String token = tokenStream.getAttribute(CharTermAttribute.class).toString();
-            wordFreq.compute(token, (t, oldV) -> (oldV == null) ? 1 : oldV + 1);
+            terms.add(tokenStream.getAttribute(CharTermAttribute.class).toString());
         }
         tokenStream.end();
         tokenStream.close();
@@ -496,39 +516,6 @@ public class QEWikiTerms {
         return dist;
     }
 
-    /**
-     * Pre-process the text.
-     * (1) Lowercase words.
-     * (2) Remove all spaces.
-     * (3) Remove special characters.
-     * (4) Remove stop words.
-     * @param text String Text to pre-process
-     * @return List of words from the text after pre-processing.
-     */
-
-    @NotNull
-    private List<String> preProcess(String text) {
-
-        // Convert all words to lowercase
-        text = text.toLowerCase();
-
-        // Remove all spaces
-        text = text.replace("\n", " ").replace("\r", " ");
-
-        // Remove all special characters such as - + ^ . : , ( )
-        text = text.replaceAll("[\\-+.^*:,;=(){}\\[\\]\"]","");
-
-        // Get all words
-        List<String> words = new ArrayList<>(Arrays.asList(text.split(" ")));
-        words.removeAll(Collections.singleton(null));
-        words.removeAll(Collections.singleton(""));
-
-        // Remove all stop words
-        words.removeIf(stopWords::contains);
-
-        return words;
-    }
-
     /**
      * Main method.
      * @param args Command line arguments.
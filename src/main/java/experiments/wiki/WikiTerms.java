@@ -1,22 +1,25 @@
 package experiments.wiki;
 
 
+import help.AnalyzedTextCache;
 import help.PseudoDocument;
+import help.ScoringKernel;
+import help.SparseVector;
+import help.TextPreprocessor;
 import help.Utilities;
+import lucene.CorpusStatistics;
+import lucene.EntityLanguageModels;
 import lucene.Index;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.similarities.*;
-import org.apache.lucene.store.FSDirectory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.math.RoundingMode;
@@ -40,7 +43,8 @@ public class WikiTerms {
 
     private final IndexSearcher KBSearcher;
     private final IndexSearcher paraSearcher;
-    private IndexReader indexReader = null;
+    private CorpusStatistics corpusStats = null;
+    private EntityLanguageModels entityModels = null;
     private final HashMap<String,ArrayList<String>> entityRankings;
     private final HashMap<String, ArrayList<String>> paraRankings;
     private final HashMap<String, ArrayList<String>> entityQrels;
@@ -50,6 +54,8 @@ public class WikiTerms {
     private final DecimalFormat df;
     private double MU;
     private final AtomicInteger count = new AtomicInteger();
+    private final AnalyzedTextCache cache = AnalyzedTextCache.getInstance();
+    private final TextPreprocessor preprocessor;
 
     /**
      * Constructor.
@@ -66,6 +72,8 @@ public class WikiTerms {
      * @param parallel Boolean Whether to run code in parallel or not.
      * @param analyzer Analyzer Type of lucene analyzer. Maybe English(eng) or Standard (std).
      * @param similarity Similarity Type of similarity. Maybe BM25, LMDS or LMJM.
+     * @param entityModelsFile String Path to the precomputed language models of the Wikipedia articles
+     *                         (see {@link EntityLanguageModels}). If null, the articles are read from the page index.
      */
 
     public WikiTerms(String KBIndexDir,
@@ -81,7 +89,8 @@ public class WikiTerms {
                      boolean parallel,
                      boolean useProb,
                      Analyzer analyzer,
-                     Similarity similarity) {
+                     Similarity similarity,
+                     @Nullable String entityModelsFile) {
 
 
         String entityRunFilePath = mainDir + "/" + dataDir + "/" + entityRunFile;
@@ -111,6 +120,17 @@ public class WikiTerms {
         System.out.print("Reading stop words list...");
         getStopWords(stopWordsFilePath);
         System.out.println("[Done].");
+        preprocessor = new TextPreprocessor(stopWords, cache.getDictionary());
+
+        if (entityModelsFile != null) {
+            System.out.print("Opening entity language models...");
+            try {
+                entityModels = EntityLanguageModels.open(entityModelsFile, stopWords, cache);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.out.println("[Done].");
+        }
 
         System.out.print("Setting up page index for search...");
         KBSearcher = new Index.Setup(KBIndexDir, "Text", analyzer, similarity).getSearcher();
@@ -122,20 +142,14 @@ public class WikiTerms {
 
         if (useProb) {
 
-            System.out.print("Setting up paragraph index for reading...");
-            try {
-                indexReader = DirectoryReader.open(FSDirectory.open(new File(paraIndexDir).toPath()));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
+            System.out.print("Loading collection statistics of paragraph index...");
             try {
-                long m = indexReader.getSumTotalTermFreq("text");
-                long n = indexReader.numDocs();
-                MU = 1.0 * m / n;
+                corpusStats = CorpusStatistics.getInstance(paraIndexDir, "text", cache.getDictionary());
+                MU = corpusStats.getAverageLength();
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            System.out.println("[Done].");
         }
 
         feature(outFilePath);
@@ -211,6 +225,7 @@ public class WikiTerms {
         Utilities.writeFile(runStrings, outputFilePath);
         System.out.println("[Done].");
         System.out.println("Run file written at: " + outputFilePath);
+        System.out.println("Analyzed text cache: " + cache.getStats());
     }
 
     /**
@@ -297,11 +312,15 @@ public class WikiTerms {
     private Map<String, Double> score(@NotNull List<Document> candidatePassages, Map<String, Double> freqDist) {
         Map<String, Double> paraScores = new HashMap<>();
 
+        // The pre-processed paragraphs are shared with other entities (and queries) through the cache
+        String config = "preProcess:" + stopWords.hashCode();
+        ScoringKernel kernel = ScoringKernel.get().load(freqDist, cache.getDictionary());
+
         for (Document d : candidatePassages) {
             String text = d.get("text");
             String id = d.get("id");
-            List<String> textWords = preProcess(text);
-            double score = scorePara(textWords, freqDist);
+            SparseVector textWords = cache.get(id, config, () -> preprocessor.toVector(text));
+            double score = scorePara(textWords, kernel);
             paraScores.put(id, score);
         }
         return paraScores;
@@ -309,24 +328,14 @@ public class WikiTerms {
 
     /**
      * Scores a single passage.
-     * @param textWords List of words in the paragraph.
-     * @param freqDist Frequency distribution over terms from the Wiki article.
+     * @param textWords Term vector of the paragraph (termId, tf).
+     * @param kernel ScoringKernel Loaded with the distribution over terms from the Wiki article.
      * @return Double Paragrapgh score.
      */
 
-    private double scorePara(@NotNull List<String> textWords, Map<String, Double> freqDist) {
-        double score = 0.0d;
-
-        for (String word : textWords) {
-            if (freqDist.containsKey(word)) {
-                if (useProb) {
-                    score += Math.log(freqDist.get(word));
-                } else {
-                    score += freqDist.get(word);
-                }
-
-            }
-        }
+    private double scorePara(@NotNull SparseVector textWords, @NotNull ScoringKernel kernel) {
+        // Every occurrence of a word in the distribution adds its frequency (or log probability)
+        double score = useProb ? kernel.logSum(textWords) : kernel.sum(textWords);
         return Double.parseDouble(df.format(score));
     }
 
@@ -337,65 +346,70 @@ public class WikiTerms {
      */
 
     public Map<String, Double> getWikiTermDistribution(String entity) {
-        Document d;
-        Map<String, Integer> freqDist = new HashMap<>();
-        Map<String, Double> probDist = new HashMap<>();
-        String text = null;
-        try {
-            d = Index.Search.searchIndex("Id", entity, KBSearcher);
-            assert d != null;
-            text = d.getField("Content").stringValue();
-        } catch (ParseException | IOException | NullPointerException e) {
-            e.printStackTrace();
-        }
+        SparseVector termVector = getArticleVector(entity);
         if (useProb) {
-            probDist = probabilityDistribution(text);
-            return probDist;
+            return probabilityDistribution(termVector);
         } else {
-            freqDist = frequencyDistribution(text);
+            Map<String, Integer> freqDist = frequencyDistribution(termVector);
             return Utilities.sortByValueDescending(normalize(freqDist));
         }
     }
 
+    /**
+     * Get the term counts of the Wikipedia article of an entity, from the precomputed language models if available.
+     * @param entity String
+     * @return SparseVector of (termId, count).
+     */
+
+    @NotNull
+    private SparseVector getArticleVector(String entity) {
+        if (entityModels != null) {
+            return entityModels.get(entity);
+        }
+        return cache.get(entity, "article:preProcess:" + stopWords.hashCode(), () -> {
+            try {
+                Document d = Index.Search.searchIndex("Id", entity, KBSearcher);
+                assert d != null;
+                return preprocessor.toVector(d.getField("Content").stringValue());
+            } catch (ParseException | IOException | NullPointerException e) {
+                e.printStackTrace();
+            }
+            return SparseVector.EMPTY;
+        });
+    }
+
     /**
      * Helper method.
      * Finds the distribution over the terms from the Wikipedia article.
-     * @param text String
+     * @param termVector SparseVector Term counts of the article.
      * @return Map
      */
 
 
     @NotNull
-    private Map<String, Integer> frequencyDistribution(String text) {
+    private Map<String, Integer> frequencyDistribution(@NotNull SparseVector termVector) {
         Map<String, Integer> freqMap = new HashMap<>();
 
-        List<String> words = preProcess(text);
-
-//        for (String w : words) {
-//            Integer n = freqMap.get(w);
-//            n = (n == null) ? 1 : ++n;
-//            freqMap.put(w, n);
-//        }
-
-        for (String w : words) {
-            freqMap.compute(w, (t, oldV) -> (oldV == null) ? 1 : oldV + 1);
+        for (int i = 0; i < termVector.size(); i++) {
+            freqMap.put(cache.getDictionary().getTerm(termVector.getId(i)), (int) termVector.getValue(i));
         }
 
         return freqMap;
     }
 
     @NotNull
-    private Map<String, Double> probabilityDistribution(String text) {
+    private Map<String, Double> probabilityDistribution(@NotNull SparseVector termVector) {
 
-        Map<String, Integer> freqMap = frequencyDistribution(text);
+        // One statistics lookup per distinct term of the article
+        float docLength = termVector.sum();
         Map<String, Double> probDist = new HashMap<>();
 
-        for (String w : freqMap.keySet()) {
-            int tf = freqMap.get(w);
-            double dirichletPrior  = dirichletPrior(w);
-            int docLength = preProcess(text).size();
+        for (int i = 0; i < termVector.size(); i++) {
+            int termId = termVector.getId(i);
+            float tf = termVector.getValue(i);
+            double dirichletPrior  = corpusStats.getProbability(termId);
             double posterior = (tf + MU * dirichletPrior) / (docLength + MU);
-            probDist.put(w, posterior);
+            probDist.put(cache.getDictionary().getTerm(termId), posterior);
         }
         return probDist;
     }
@@ -430,52 +444,6 @@ public class WikiTerms {
         return dist;
     }
 
-    /**
-     * Pre-process the text.
-     * (1) Lowercase words.
-     * (2) Remove all spaces.
-     * (3) Remove special characters.
-     * (4) Remove stop words.
-     * @param text String Text to pre-process
-     * @return List of words from the text after pre-processing.
-     */
-
-    @NotNull
-    private List<String> preProcess(String text) {
-
-        // Convert all words to lowercase
-        text = text.toLowerCase();
-
-        // Remove all spaces
-        text = text.replace("\n", " ").replace("\r", " ");
-
-        // Remove all special characters such as - + ^ . : , ( )
-        text = text.replaceAll("[\\-+.^*:,;=(){}\\[\\]\"]","");
-
-        // Get all words
-        List<String> words = new ArrayList<>(Arrays.asList(text.split(" ")));
-        words.removeAll(Collections.singleton(null));
-        words.removeAll(Collections.singleton(""));
-
-        // Remove all stop words
-        words.removeIf(stopWords::contains);
-
-        return words;
-    }
-
-    private double dirichletPrior(String word) {
-        long corpusTF = 0; // get the total frequency of the term in the "text" field
-        long corpusLength = 0;  // get the total length of the "text" field
-        try {
-            corpusTF = indexReader.totalTermFreq( new Term( "text", word ) );
-            corpusLength = indexReader.getSumTotalTermFreq( "text" );
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return 1.0 * corpusTF / corpusLength;
-    }
-
 
     /**
      * Main method.
@@ -544,9 +512,12 @@ public class WikiTerms {
         }
         String outFile = "WikiTerms.run";
 
+        // Optional last argument: precomputed entity language models
+        int next = sim.equalsIgnoreCase("lmjm") ? 14 : 13;
+        String entityModelsFile = args.length > next ? args[next] : null;
 
         new WikiTerms(pageIndexDir,paraIndexDir, mainDir, dataDir, outputDir, paraRunFile, entityRunFile,
-                entityQrelFile, outFile, stopWordsFilePath, parallel, useProb, analyzer, similarity);
+                entityQrelFile, outFile, stopWordsFilePath, parallel, useProb, analyzer, similarity, entityModelsFile);
     }
 
 
@@ -0,0 +1,300 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Shared cache of analyzed texts (paragraphs or Wikipedia articles): (docId, analyzer config) --> term vector.
+ *
+ * The same paragraphs are analyzed again and again in a run (for every entity of every query whose candidate set
+ * contains them), so the term vectors are cached here instead. The term ids are from the {@link TermDictionary}
+ * of the cache, so all users of the cache share the same ids.
+ *
+ * (1) The cache is bounded by (an estimate of) the number of bytes it holds, set with the system property
+ *     "analyzed.cache.bytes" (default 256MB). The bytes of the term dictionary count against this bound, so the
+ *     more terms have been seen, the fewer vectors are kept. The dictionary cannot shrink (ids are never reused), so
+ *     it is bounded separately by the system property "analyzed.dictionary.terms" (default 8M terms). A run does not
+ *     fail past this bound: new terms are still added, but no new vectors are cached, so every further miss analyzes
+ *     the text again.
+ * (2) Eviction is frequency-aware: every lookup is counted in a small count-min sketch (which is halved
+ *     periodically, so old counts fade away). When the cache is full, a new entry only replaces the least recently
+ *     used entries if it has been asked for more often than every one of them; otherwise nothing is evicted.
+ *     This keeps paragraphs shared by many queries in the cache and stops one-off paragraphs from flushing them out.
+ * (3) The cache is split into segments with a lock each, so it can be used from parallel streams.
+ *     Two threads missing on the same key at the same time may both analyze the text; one result is kept.
+ * (4) Hit/miss/eviction counts are available with {@link #getStats()}.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class AnalyzedTextCache {
+
+    private final static int NUM_SEGMENTS = 16;
+    private final static long DEFAULT_CAPACITY = 256L << 20;
+    private final static int DEFAULT_MAX_TERMS = 8 << 20;
+    private final static int ENTRY_OVERHEAD = 96; // Map entry, key, vector object and array headers
+
+    private static volatile AnalyzedTextCache instance;
+
+    private final TermDictionary dictionary;
+    private final Segment[] segments = new Segment[NUM_SEGMENTS];
+    private final long capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Constructor.
+     * @param capacity Long Maximum number of bytes held by the cache (term vectors and term dictionary).
+     * @param maxTerms Integer Maximum number of terms in the term dictionary.
+     */
+
+    public AnalyzedTextCache(long capacity, int maxTerms) {
+        this.capacity = capacity;
+        this.dictionary = new TermDictionary(maxTerms);
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get the cache shared by all experiments in this JVM.
+     * @return AnalyzedTextCache
+     */
+
+    @NotNull
+    public static AnalyzedTextCache getInstance() {
+        if (instance == null) {
+            synchronized (AnalyzedTextCache.class) {
+                if (instance == null) {
+                    instance = new AnalyzedTextCache(Long.getLong("analyzed.cache.bytes", DEFAULT_CAPACITY),
+                            Integer.getInteger("analyzed.dictionary.terms", DEFAULT_MAX_TERMS));
+                }
+            }
+        }
+        return instance;
+    }
+
+    @NotNull
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get the term vector of a document, analyzing it if it is not in the cache.
+     * @param docId String ID of the document (paragraph or page).
+     * @param config String Describes how the text is analyzed (analyzer, stop words, field).
+     *               Different configs are cached separately.
+     * @param loader Analyzes the document if it is not in the cache.
+     * @return SparseVector of (termId, tf).
+     */
+
+    @NotNull
+    public SparseVector get(@NotNull String docId, @NotNull String config, @NotNull Supplier<SparseVector> loader) {
+        String key = config + '|' + docId;
+        int hash = spread(key.hashCode());
+        Segment segment = segments[hash & (NUM_SEGMENTS - 1)];
+
+        SparseVector vector;
+        synchronized (segment) {
+            segment.sketch.increment(hash);
+            vector = segment.map.get(key);
+        }
+        if (vector != null) {
+            hits.increment();
+            return vector;
+        }
+        misses.increment();
+        vector = loader.get();
+        if (dictionary.isFull()) {
+            // The dictionary is past its bound and takes the memory of the cache
+            rejections.increment();
+            return vector;
+        }
+        synchronized (segment) {
+            put(segment, key, hash, vector);
+        }
+        return vector;
+    }
+
+    /**
+     * Make a term vector from a list of terms, with the term ids from the dictionary of this cache.
+     * @param terms Terms in the text (in any order, with repeats).
+     * @return SparseVector of (termId, tf).
+     */
+
+    @NotNull
+    public SparseVector toVector(@NotNull Collection<String> terms) {
+        int[] ids = new int[terms.size()];
+        float[] freqs = new float[terms.size()];
+        int n = 0;
+        for (String term : terms) {
+            ids[n] = dictionary.getId(term);
+            freqs[n++] = 1.0f;
+        }
+        return SparseVector.fromUnsorted(ids, freqs, n);
+    }
+
+    /**
+     * Number of documents in the cache.
+     * @return Integer
+     */
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimated number of bytes held by the cache, including the term dictionary.
+     * @return Long
+     */
+
+    public long bytes() {
+        long bytes = dictionary.bytes();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Summary of the cache metrics.
+     * @return String
+     */
+
+    @NotNull
+    public String getStats() {
+        long h = hits.sum(), m = misses.sum();
+        double hitRate = h + m == 0 ? 0.0 : (double) h / (h + m);
+        return String.format("hits = %d, misses = %d, hit rate = %.4f, evictions = %d, rejected = %d, " +
+                        "entries = %d, terms = %d, bytes = %d of %d",
+                h, m, hitRate, evictions.sum(), rejections.sum(), size(), dictionary.size(), bytes(), capacity);
+    }
+
+    //////////////////////////////////////// INTERNALS ///////////////////////////////////////////////
+
+    private void put(@NotNull Segment segment, String key, int hash, @NotNull SparseVector vector) {
+        if (segment.map.containsKey(key)) {
+            return;
+        }
+        // The dictionary is shared by all segments, and takes its share of every segment
+        long segmentCapacity = Math.max(0L, capacity - dictionary.bytes()) / NUM_SEGMENTS;
+        long weight = weigh(key, vector);
+        if (weight > segmentCapacity) {
+            rejections.increment();
+            return;
+        }
+
+        // Find the least recently used entries to make room for the new entry. The new entry is admitted only if
+        // it is used more often than every one of them; nothing is evicted before this is known.
+        int frequency = segment.sketch.frequency(hash);
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+        Iterator<Map.Entry<String, SparseVector>> it = segment.map.entrySet().iterator();
+        while (segment.bytes - freed + weight > segmentCapacity && it.hasNext()) {
+            Map.Entry<String, SparseVector> eldest = it.next();
+            // Ties keep the entry already in the cache
+            if (segment.sketch.frequency(spread(eldest.getKey().hashCode())) >= frequency) {
+                rejections.increment();
+                return;
+            }
+            victims.add(eldest.getKey());
+            freed += weigh(eldest.getKey(), eldest.getValue());
+        }
+        for (String victim : victims) {
+            segment.map.remove(victim);
+            evictions.increment();
+        }
+        segment.bytes -= freed;
+        segment.map.put(key, vector);
+        segment.bytes += weight;
+    }
+
+    private static long weigh(@NotNull String key, @NotNull SparseVector vector) {
+        return ENTRY_OVERHEAD + 2L * key.length() + 8L * vector.size();
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Part of the cache with its own lock, LRU order and frequency sketch.
+     */
+
+    private static class Segment {
+        final LinkedHashMap<String, SparseVector> map = new LinkedHashMap<>(256, 0.75f, true);
+        final FrequencySketch sketch = new FrequencySketch();
+        long bytes = 0;
+    }
+
+    /**
+     * Count-min sketch of how often keys are asked for, with four rows of saturating counters.
+     * All counters are halved after every SAMPLE_SIZE increments, so the counts reflect recent use.
+     */
+
+    private static class FrequencySketch {
+        private final static int WIDTH = 1 << 14;
+        private final static int MAX_COUNT = 15;
+        private final static int SAMPLE_SIZE = 10 * WIDTH;
+        private final static int[] SEEDS = {0x9E3779B9, 0x7F4A7C15, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] rows = new byte[SEEDS.length][WIDTH];
+        private int additions = 0;
+
+        void increment(int hash) {
+            for (int r = 0; r < SEEDS.length; r++) {
+                int i = index(hash, r);
+                if (rows[r][i] < MAX_COUNT) {
+                    rows[r][i]++;
+                }
+            }
+            if (++additions >= SAMPLE_SIZE) {
+                for (byte[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                additions = 0;
+            }
+        }
+
+        int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int r = 0; r < SEEDS.length; r++) {
+                min = Math.min(min, rows[r][index(hash, r)]);
+            }
+            return min;
+        }
+
+        private static int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x01000193;
+            return (h ^ (h >>> 15)) & (WIDTH - 1);
+        }
+    }
+}
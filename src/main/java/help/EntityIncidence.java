@@ -0,0 +1,260 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.*;
+
+/**
+ * Which candidate paragraphs of a query contain which entities, and how often: a sparse (paragraph x entity) matrix
+ * of entity frequencies, built once per query.
+ *
+ * The entities of the query get dense ordinals (in order of first occurrence), and the matrix is stored twice:
+ * (1) CSR (by paragraph): the entities of a paragraph with their frequencies, sorted by ordinal;
+ * (2) CSC (by entity): the paragraphs containing an entity with the frequencies, sorted by paragraph.
+ * Both are flat int arrays, so the operations the entity context features are made of are primitive loops:
+ * - the paragraphs of an entity (the pseudo-document of the entity): a column slice ({@link #getParagraphs(int)});
+ * - the frequencies of the entities in a set of paragraphs: {@link #entityFrequencies(int[])};
+ * - the score of a paragraph as the weighted sum of its entities: {@link #rowSum(int, double[])}.
+ *
+ * The matrix is immutable, so it can be shared by the threads working on a query.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class EntityIncidence {
+
+    private final String[] paraIds;
+    private final String[] entities;
+    private final Map<String, Integer> ordinals;
+
+    // CSR
+    private final int[] rowPtr;
+    private final int[] colIdx;
+    private final int[] rowFreq;
+
+    // CSC
+    private final int[] colPtr;
+    private final int[] rowIdx;
+    private final int[] colFreq;
+
+    private EntityIncidence(String[] paraIds, String[] entities, Map<String, Integer> ordinals,
+                            int[] rowPtr, int[] colIdx, int[] rowFreq) {
+        this.paraIds = paraIds;
+        this.entities = entities;
+        this.ordinals = ordinals;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.rowFreq = rowFreq;
+
+        // Transpose: count the entries of every column, then fill the columns in order of rows (so rows are sorted)
+        int nnz = colIdx.length;
+        this.colPtr = new int[entities.length + 1];
+        this.rowIdx = new int[nnz];
+        this.colFreq = new int[nnz];
+        for (int i = 0; i < nnz; i++) {
+            colPtr[colIdx[i] + 1]++;
+        }
+        for (int e = 0; e < entities.length; e++) {
+            colPtr[e + 1] += colPtr[e];
+        }
+        int[] next = Arrays.copyOf(colPtr, entities.length);
+        for (int r = 0; r < paraIds.length; r++) {
+            for (int i = rowPtr[r]; i < rowPtr[r + 1]; i++) {
+                int pos = next[colIdx[i]]++;
+                rowIdx[pos] = r;
+                colFreq[pos] = rowFreq[i];
+            }
+        }
+    }
+
+    /**
+     * Builds the matrix one paragraph at a time. Not thread-safe.
+     */
+
+    public static class Builder {
+        private final List<String> paraIds = new ArrayList<>();
+        private final List<String> entities = new ArrayList<>();
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private int[] rowPtr = new int[64];
+        private int[] colIdx = new int[256];
+        private int[] rowFreq = new int[256];
+        private int nnz = 0;
+
+        /**
+         * Add a paragraph.
+         * @param paraId String Paragraph id.
+         * @param paraEntities Entities in the paragraph, with repetitions (every mention counts).
+         * @return Integer Row of the paragraph.
+         */
+
+        public int addParagraph(String paraId, @NotNull Collection<String> paraEntities) {
+            Map<Integer, Integer> row = new TreeMap<>();
+            for (String e : paraEntities) {
+                int ordinal = ordinals.computeIfAbsent(e, k -> {
+                    entities.add(k);
+                    return entities.size() - 1;
+                });
+                row.merge(ordinal, 1, Integer::sum);
+            }
+            if (nnz + row.size() > colIdx.length) {
+                int capacity = Math.max(2 * colIdx.length, nnz + row.size());
+                colIdx = Arrays.copyOf(colIdx, capacity);
+                rowFreq = Arrays.copyOf(rowFreq, capacity);
+            }
+            for (Map.Entry<Integer, Integer> entry : row.entrySet()) {
+                colIdx[nnz] = entry.getKey();
+                rowFreq[nnz++] = entry.getValue();
+            }
+            paraIds.add(paraId);
+            if (paraIds.size() + 1 > rowPtr.length) {
+                rowPtr = Arrays.copyOf(rowPtr, 2 * rowPtr.length);
+            }
+            rowPtr[paraIds.size()] = nnz;
+            return paraIds.size() - 1;
+        }
+
+        @NotNull
+        public EntityIncidence build() {
+            return new EntityIncidence(paraIds.toArray(new String[0]), entities.toArray(new String[0]),
+                    new HashMap<>(ordinals), Arrays.copyOf(rowPtr, paraIds.size() + 1),
+                    Arrays.copyOf(colIdx, nnz), Arrays.copyOf(rowFreq, nnz));
+        }
+    }
+
+    public int numParagraphs() {
+        return paraIds.length;
+    }
+
+    public int numEntities() {
+        return entities.length;
+    }
+
+    public String getParaId(int row) {
+        return paraIds[row];
+    }
+
+    public String getEntity(int ordinal) {
+        return entities[ordinal];
+    }
+
+    /**
+     * Get the ordinal of an entity.
+     * @param entity String
+     * @return Integer Ordinal, or -1 if no paragraph contains the entity.
+     */
+
+    public int getOrdinal(String entity) {
+        Integer ordinal = ordinals.get(entity);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * Get the paragraphs containing an entity (a column slice).
+     * @param ordinal Integer Ordinal of the entity.
+     * @return Rows of the paragraphs, in increasing order. Empty if the ordinal is -1.
+     */
+
+    @NotNull
+    public int[] getParagraphs(int ordinal) {
+        if (ordinal < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(rowIdx, colPtr[ordinal], colPtr[ordinal + 1]);
+    }
+
+    /**
+     * Get the frequency of an entity in a paragraph.
+     * @param row Integer Row of the paragraph.
+     * @param ordinal Integer Ordinal of the entity.
+     * @return Integer
+     */
+
+    public int getFrequency(int row, int ordinal) {
+        int i = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], ordinal);
+        return i >= 0 ? rowFreq[i] : 0;
+    }
+
+    /**
+     * Get the frequencies of all entities in a set of paragraphs (e.g., the entities of a pseudo-document).
+     * @param rows Rows of the paragraphs.
+     * @return Array of frequencies, indexed by entity ordinal.
+     */
+
+    @NotNull
+    public int[] entityFrequencies(@NotNull int[] rows) {
+        int[] freq = new int[entities.length];
+        for (int r : rows) {
+            for (int i = rowPtr[r]; i < rowPtr[r + 1]; i++) {
+                freq[colIdx[i]] += rowFreq[i];
+            }
+        }
+        return freq;
+    }
+
+    /**
+     * Get the frequency distribution over some entities in a set of paragraphs (as ECNFreq): the frequency of every
+     * entity divided by the total frequency of these entities, rounded up to four decimals.
+     * @param rows Rows of the paragraphs (e.g., the pseudo-document of an entity).
+     * @param entities Array of flags, indexed by entity ordinal: the entities the distribution is over.
+     * @return Array of probabilities, indexed by entity ordinal (0 for the other entities).
+     */
+
+    @NotNull
+    public double[] frequencyDistribution(@NotNull int[] rows, @NotNull boolean[] entities) {
+        int[] freq = entityFrequencies(rows);
+        double[] dist = new double[freq.length];
+
+        // Calculate the normalizer over the given entities
+        int norm = 0;
+        for (int e = 0; e < freq.length; e++) {
+            if (entities[e]) {
+                norm += freq[e];
+            }
+        }
+
+        // Normalize the frequencies (DecimalFormat is not thread-safe, so one per call)
+        DecimalFormat df = new DecimalFormat("#.####");
+        df.setRoundingMode(RoundingMode.CEILING);
+        for (int e = 0; e < freq.length; e++) {
+            if (entities[e] && freq[e] > 0) {
+                dist[e] = Double.parseDouble(df.format((double) freq[e] / norm));
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Score a paragraph as the sum of the weights of its entities, every mention counting once:
+     *      sum_e freq(row, e) * weights[e]
+     * @param row Integer Row of the paragraph.
+     * @param weights Array of entity weights, indexed by entity ordinal.
+     * @return Double
+     */
+
+    public double rowSum(int row, @NotNull double[] weights) {
+        double sum = 0.0d;
+        for (int i = rowPtr[row]; i < rowPtr[row + 1]; i++) {
+            sum += rowFreq[i] * weights[colIdx[i]];
+        }
+        return sum;
+    }
+
+    /**
+     * Score a set of paragraphs with {@link #rowSum(int, double[])}.
+     * @param rows Rows of the paragraphs.
+     * @param weights Array of entity weights, indexed by entity ordinal.
+     * @return Array of scores, in the order of the rows.
+     */
+
+    @NotNull
+    public double[] rowSums(@NotNull int[] rows, @NotNull double[] weights) {
+        double[] scores = new double[rows.length];
+        for (int j = 0; j < rows.length; j++) {
+            scores[j] = rowSum(rows[j], weights);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,147 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Entity overlap between the paragraphs retrieved for a query and the entities retrieved for the query, as bitmaps.
+ *
+ * The retrieved entities of the query get ordinals (by their processed id, see {@link Utilities#process(String)}),
+ * and every paragraph is encoded once as the bitmap of the ordinals of the retrieved entities it links to; the
+ * other entities of the paragraph are dropped when encoding. Then:
+ * (1) the overlap of a paragraph with the retrieved entities is the cardinality of its bitmap;
+ * (2) the relevant entities in a paragraph are the AND of its bitmap with the bitmap of the relevant entities;
+ * (3) the paragraphs linking to an entity are a column of the (paragraph x entity) bitmap matrix, built on demand
+ *     by transposing the paragraph bitmaps.
+ * This replaces the list intersections (O(n * m) per paragraph) and the reverse mapping of processed ids to entity
+ * ids with word operations over a few longs: the number of retrieved entities of a query is small.
+ *
+ * One instance per query. Not thread-safe.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class EntityOverlap {
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<List<String>> entityIds = new ArrayList<>();
+    private final BitSet relevant = new BitSet();
+    private final List<BitSet> paragraphs = new ArrayList<>();
+    private BitSet[] columns = null;
+
+    /**
+     * Constructor.
+     * @param retEntityList List of entities retrieved for the query.
+     * @param relEntities Collection of entities relevant for the query.
+     */
+
+    public EntityOverlap(@NotNull List<String> retEntityList, @NotNull Collection<String> relEntities) {
+        Set<String> relEntitySet = new HashSet<>(relEntities);
+        for (String entityId : retEntityList) {
+            int ordinal = ordinals.computeIfAbsent(Utilities.process(entityId), e -> {
+                entityIds.add(new ArrayList<>());
+                return entityIds.size() - 1;
+            });
+            entityIds.get(ordinal).add(entityId);
+            if (relEntitySet.contains(entityId)) {
+                relevant.set(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Encode a paragraph.
+     * @param pEntList Collection of (processed) entities in the paragraph.
+     * @return Integer Ordinal of the paragraph, in order of addition.
+     */
+
+    public int addParagraph(@NotNull Collection<String> pEntList) {
+        BitSet bits = new BitSet(entityIds.size());
+        for (String e : pEntList) {
+            Integer ordinal = ordinals.get(e);
+            if (ordinal != null) {
+                bits.set(ordinal);
+            }
+        }
+        paragraphs.add(bits);
+        columns = null;
+        return paragraphs.size() - 1;
+    }
+
+    /**
+     * Number of distinct retrieved entities in a paragraph.
+     * @param paragraph Integer Ordinal of the paragraph.
+     * @return Integer
+     */
+
+    public int overlap(int paragraph) {
+        return paragraphs.get(paragraph).cardinality();
+    }
+
+    /**
+     * Get the relevant entities in a paragraph.
+     * @param paragraph Integer Ordinal of the paragraph.
+     * @return BitSet Entity ordinals.
+     */
+
+    @NotNull
+    public BitSet getRelevantEntities(int paragraph) {
+        BitSet bits = (BitSet) paragraphs.get(paragraph).clone();
+        bits.and(relevant);
+        return bits;
+    }
+
+    /**
+     * Get the ordinals of the relevant entities of the query.
+     * @return BitSet Entity ordinals. Do not modify.
+     */
+
+    @NotNull
+    public BitSet getRelevantEntities() {
+        return relevant;
+    }
+
+    /**
+     * Get the paragraphs linking to an entity.
+     * @param entity Integer Ordinal of the entity.
+     * @return BitSet Paragraph ordinals. Do not modify.
+     */
+
+    @NotNull
+    public BitSet getParagraphs(int entity) {
+        if (columns == null) {
+            columns = new BitSet[entityIds.size()];
+            for (int e = 0; e < columns.length; e++) {
+                columns[e] = new BitSet(paragraphs.size());
+            }
+            for (int p = 0; p < paragraphs.size(); p++) {
+                BitSet row = paragraphs.get(p);
+                for (int e = row.nextSetBit(0); e >= 0; e = row.nextSetBit(e + 1)) {
+                    columns[e].set(p);
+                }
+            }
+        }
+        return columns[entity];
+    }
+
+    /**
+     * Get the entity ids with an ordinal (usually one; more if several ids have the same processed id).
+     * @param entity Integer Ordinal of the entity.
+     * @return List of entity ids.
+     */
+
+    @NotNull
+    public List<String> getEntityIds(int entity) {
+        return entityIds.get(entity);
+    }
+
+    public int numEntities() {
+        return entityIds.size();
+    }
+
+    public int numParagraphs() {
+        return paragraphs.size();
+    }
+}
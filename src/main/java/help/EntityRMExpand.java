@@ -1,18 +1,14 @@
 package help;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.TermQuery;
-import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -30,7 +26,7 @@ public class EntityRMExpand {
         List<String> tokens = new ArrayList<>(64);
         int w1; double w2;
         if (!omitQueryTerms) {
-            tokens = tokenizeQuery(queryStr, searchField, analyzer);
+            tokens = QueryAnalysis.analyze(queryStr, searchField, analyzer, 64);
             for (String token : tokens) {
                 booleanQuery.add(new BoostQuery(new TermQuery(new Term(searchField, token)), 1.0f),
                         BooleanClause.Occur.SHOULD);
@@ -44,7 +40,7 @@ public class EntityRMExpand {
         for (Map.Entry<K,V> stringDoubleEntry : expansionEntities.subList(0, Math.min(expansionEntities.size(), (64 - tokens.size())))) {
             String e = (String) stringDoubleEntry.getKey();
             e = Utilities.process(e).replaceAll("_", " ");
-            List<String> entityToks = tokenizeQuery(e, searchField, analyzer);
+            List<String> entityToks = QueryAnalysis.analyze(e, searchField, analyzer, 64);
             for (String entity : entityToks) {
                 double weight = (Double) stringDoubleEntry.getValue();
                 booleanQuery.add(new BoostQuery(new TermQuery(new Term(searchField, entity)), (float) weight),
@@ -68,7 +64,7 @@ public class EntityRMExpand {
         searchFields.add(textSearchField);
         searchFields.add(entitySearchField);
         if(!omitQueryTerms) {
-            tokens = tokenizeQuery(queryStr, textSearchField, analyzer);
+            tokens = QueryAnalysis.analyze(queryStr, textSearchField, analyzer, 64);
 
             for (String searchField : searchFields) {
                 for (String token : tokens) {
@@ -81,7 +77,7 @@ public class EntityRMExpand {
         // add Entity RM terms
 
         for (Map.Entry<String, Float> stringFloatEntry : entityRelevanceModel.subList(0, Math.min(entityRelevanceModel.size(), (64-tokens.size())))) {
-            List<String> entityToks = tokenizeQuery(stringFloatEntry.getKey(), entitySearchField, analyzer);
+            List<String> entityToks = QueryAnalysis.analyze(stringFloatEntry.getKey(), entitySearchField, analyzer, 64);
             for(String entity: entityToks) {
                 float weight = stringFloatEntry.getValue();
                 booleanQuery.add(new BoostQuery(new TermQuery(new Term(entitySearchField, entity)),weight),
@@ -92,21 +88,6 @@ public class EntityRMExpand {
 
         return booleanQuery.build();
     }
-    @NotNull
-    private static List<String> tokenizeQuery(String queryStr,
-                                              String searchField,
-                                              @NotNull Analyzer analyzer) throws IOException {
-        TokenStream tokenStream = analyzer.tokenStream(searchField, new StringReader(queryStr));
-        List<String> tokens = new ArrayList<>();
-        tokenStream.reset();
-        while (tokenStream.incrementToken() && tokens.size() < 64) {
-            final String token = tokenStream.getAttribute(CharTermAttribute.class).toString();
-            tokens.add(token);
-        }
-        tokenStream.end();
-        tokenStream.close();
-        return tokens;
-    }
 }
 
 
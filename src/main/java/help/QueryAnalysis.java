@@ -0,0 +1,216 @@
+package help;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Query analysis shared by the experiments.
+ *
+ * The query string of a queryId (e.g., "enwiki:Green%20sea%20turtle" --> "green sea turtle") and the tokens of a
+ * text under an analyzer are computed once and cached, instead of once per entity of the query, per expansion and per
+ * run. The English and Standard analyzers are held as singletons: Lucene analyzers are thread-safe (every thread
+ * reuses its own token stream), so there is no need to create a new one for every query.
+ *
+ * Queries are built from the cached tokens directly ({@link #toQuery(List, String)}), which gives the same query as
+ * QueryParser.parse on the text (SHOULD clauses, one per token) without parsing the query syntax again.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public final class QueryAnalysis {
+
+    private final static Analyzer ENGLISH_ANALYZER = new EnglishAnalyzer();
+    private final static Analyzer STANDARD_ANALYZER = new StandardAnalyzer();
+    private final static int MAX_ENTRIES = 1 << 16;
+
+    private final static Map<String, String> QUERY_STRINGS = new ConcurrentHashMap<>();
+    private final static Map<Key, List<String>> TOKENS = new ConcurrentHashMap<>();
+
+    private QueryAnalysis() {
+    }
+
+    /**
+     * Get the shared English analyzer.
+     * @return Analyzer
+     */
+
+    @NotNull
+    public static Analyzer english() {
+        return ENGLISH_ANALYZER;
+    }
+
+    /**
+     * Get the shared Standard analyzer.
+     * @return Analyzer
+     */
+
+    @NotNull
+    public static Analyzer standard() {
+        return STANDARD_ANALYZER;
+    }
+
+    /**
+     * Get a shared analyzer by name.
+     * @param name String English(eng) or Standard(std).
+     * @return Analyzer, or null if the name is neither.
+     */
+
+    @Nullable
+    public static Analyzer getAnalyzer(@NotNull String name) {
+        switch (name) {
+            case "eng":
+                return ENGLISH_ANALYZER;
+            case "std":
+                return STANDARD_ANALYZER;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the query string of a queryId: the part after "enwiki:", with %20 replaced by whitespace, in lowercase.
+     * The same works for entity ids.
+     * @param queryId String
+     * @return String
+     */
+
+    @NotNull
+    public static String getQueryString(@NotNull String queryId) {
+        if (QUERY_STRINGS.size() > MAX_ENTRIES) {
+            QUERY_STRINGS.clear();
+        }
+        return QUERY_STRINGS.computeIfAbsent(queryId, id -> id
+                .substring(id.indexOf(":") + 1)          // remove enwiki: from query
+                .replaceAll("%20", " ")     // replace %20 with whitespace
+                .toLowerCase());                           //  convert query to lowercase
+    }
+
+    /**
+     * Get the tokens of the query string of a queryId.
+     * @param queryId String
+     * @param field String Field to analyze for.
+     * @param analyzer Analyzer
+     * @return Unmodifiable list of tokens.
+     */
+
+    @NotNull
+    public static List<String> analyzeQuery(@NotNull String queryId, String field, @NotNull Analyzer analyzer) {
+        return analyze(getQueryString(queryId), field, analyzer);
+    }
+
+    /**
+     * Get the tokens of a text.
+     * @param text String
+     * @param field String Field to analyze for.
+     * @param analyzer Analyzer
+     * @return Unmodifiable list of tokens.
+     */
+
+    @NotNull
+    public static List<String> analyze(@NotNull String text, String field, @NotNull Analyzer analyzer) {
+        if (TOKENS.size() > MAX_ENTRIES) {
+            TOKENS.clear();
+        }
+        List<String> tokens = TOKENS.computeIfAbsent(new Key(text, field, analyzer), QueryAnalysis::tokenize);
+        return tokens != null ? tokens : Collections.emptyList();
+    }
+
+    /**
+     * Get at most the first maxTokens tokens of a text.
+     * @param text String
+     * @param field String Field to analyze for.
+     * @param analyzer Analyzer
+     * @param maxTokens Integer
+     * @return Unmodifiable list of tokens.
+     */
+
+    @NotNull
+    public static List<String> analyze(@NotNull String text, String field, @NotNull Analyzer analyzer, int maxTokens) {
+        List<String> tokens = analyze(text, field, analyzer);
+        return tokens.size() > maxTokens ? tokens.subList(0, maxTokens) : tokens;
+    }
+
+    /**
+     * Make a query with one SHOULD TermQuery clause per token.
+     * @param tokens List of tokens.
+     * @param field String Field to search.
+     * @return BooleanQuery
+     */
+
+    @NotNull
+    public static BooleanQuery toQuery(@NotNull List<String> tokens, String field) {
+        BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
+        for (String token : tokens) {
+            booleanQuery.add(new TermQuery(new Term(field, token)), BooleanClause.Occur.SHOULD);
+        }
+        return booleanQuery.build();
+    }
+
+    @Nullable
+    private static List<String> tokenize(@NotNull Key key) {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream tokenStream = key.analyzer.tokenStream(key.field, new StringReader(key.text))) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                tokens.add(termAttribute.toString());
+            }
+            tokenStream.end();
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Do not cache a failed analysis
+            return null;
+        }
+        return Collections.unmodifiableList(tokens);
+    }
+
+    /**
+     * Cache key: (text, field, analyzer). Analyzers are compared by identity.
+     */
+
+    private final static class Key {
+        private final String text;
+        private final String field;
+        private final Analyzer analyzer;
+        private final int hash;
+
+        Key(String text, String field, Analyzer analyzer) {
+            this.text = text;
+            this.field = field;
+            this.analyzer = analyzer;
+            this.hash = 31 * (31 * text.hashCode() + Objects.hashCode(field)) + System.identityHashCode(analyzer);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return analyzer == key.analyzer && text.equals(key.text) && Objects.equals(field, key.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,15 +1,13 @@
 package help;
 
 import lucene.RAMIndex;
+import lucene.WeightedTermsQuery;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.*;
 
 /**
@@ -22,18 +20,8 @@ import java.util.*;
 
 public class RM3Expand {
 
-    private static void tokenizeQuery(String queryStr, String searchField, @NotNull List<String> tokens, @NotNull Analyzer analyzer) throws IOException {
-        TokenStream tokenStream = analyzer.tokenStream(searchField, new StringReader(queryStr));
-        tokenStream.reset();
-        tokens.clear();
-        while (tokenStream.incrementToken() && tokens.size() < 64)
-        {
-            final String token = tokenStream.getAttribute(CharTermAttribute.class).toString();
-            tokens.add(token);
-        }
-        tokenStream.end();
-        tokenStream.close();
-    }
+    // Maximum number of query tokens (BooleanQuery clauses) used
+    private final static int MAX_TOKENS = 64;
 
     public static BooleanQuery toRm3Query(String queryStr,
                                           List<Map.Entry<String, Float>> relevanceModel,
@@ -44,7 +32,7 @@ public class RM3Expand {
         BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
 
         if (!omitQueryTerms) {
-            tokenizeQuery(queryStr, searchField, tokens, analyzer);
+            tokens = QueryAnalysis.analyze(queryStr, searchField, analyzer, MAX_TOKENS);
             for (String token : tokens) {
                 booleanQuery.add(new BoostQuery(new TermQuery(new Term(searchField, token)), 1.0f),
                         BooleanClause.Occur.SHOULD);
@@ -52,7 +40,7 @@ public class RM3Expand {
         }
 
         // add RM3 terms
-        for (Map.Entry<String, Float> stringFloatEntry : relevanceModel.subList(0, Math.min(relevanceModel.size(), (64 - tokens.size())))) {
+        for (Map.Entry<String, Float> stringFloatEntry : relevanceModel.subList(0, Math.min(relevanceModel.size(), (MAX_TOKENS - tokens.size())))) {
             String token = stringFloatEntry.getKey();
             float weight = stringFloatEntry.getValue();
             booleanQuery.add(new BoostQuery(new TermQuery(new Term("text", token)),weight), BooleanClause.Occur.SHOULD);
@@ -60,16 +48,35 @@ public class RM3Expand {
         return booleanQuery.build();
     }
 
-    public static BooleanQuery toQuery(String queryStr, Analyzer analyzer) throws IOException {
-        List<String> tokens = new ArrayList<>();
+    /**
+     * Same as {@link #toRm3Query(String, List, boolean, String, Analyzer)}, but as a {@link WeightedTermsQuery}.
+     * The expansion is not cut at 64 terms and is scored term-at-a-time, so expanding a query with hundreds of terms
+     * costs little more than the query itself.
+     */
 
-        tokenizeQuery(queryStr, "text", tokens, analyzer);
-        BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
+    @NotNull
+    public static WeightedTermsQuery toWeightedRm3Query(String queryStr,
+                                                        List<Map.Entry<String, Float>> relevanceModel,
+                                                        boolean omitQueryTerms,
+                                                        String searchField,
+                                                        Analyzer analyzer) throws IOException {
+        WeightedTermsQuery.Builder query = new WeightedTermsQuery.Builder();
+
+        if (!omitQueryTerms) {
+            for (String token : QueryAnalysis.analyze(queryStr, searchField, analyzer, MAX_TOKENS)) {
+                query.add(new Term(searchField, token), 1.0f);
+            }
+        }
 
-        for (String token : tokens) {
-            booleanQuery.add(new TermQuery(new Term("text", token)), BooleanClause.Occur.SHOULD);
+        // add RM3 terms
+        for (Map.Entry<String, Float> stringFloatEntry : relevanceModel) {
+            query.add(new Term(searchField, stringFloatEntry.getKey()), stringFloatEntry.getValue());
         }
-        return booleanQuery.build();
+        return query.build();
+    }
+
+    public static BooleanQuery toQuery(String queryStr, Analyzer analyzer) throws IOException {
+        return QueryAnalysis.toQuery(QueryAnalysis.analyze(queryStr, "text", analyzer, MAX_TOKENS), "text");
     }
 
 
@@ -0,0 +1,153 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Append-only log of (key, value) records on disk.
+ * Used to store the results of long running jobs (such as annotating the paragraph corpus with WAT or SWAT)
+ * as they are produced, so that a crash does not lose the work done so far.
+ *
+ * (1) Records are appended from any number of threads and flushed to disk in batches.
+ * (2) When an existing log is opened, a partially written record at the end of the file (left over by a crash)
+ *     is truncated away and the keys already in the log are remembered, so the job can skip them on restart.
+ * (3) The log is turned into a read-only lookup file with {@link RecordStore#compact(String, String)}.
+ *
+ * Record format: int keyLength, key (UTF-8), int valueLength, value.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class RecordLog implements Closeable {
+
+    private final FileOutputStream fos;
+    private final DataOutputStream out;
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+    private final int batchSize;
+    private int pending = 0;
+
+    /**
+     * Open a log for appending. Creates the file if it does not exist.
+     * @param file String Path to the log file.
+     * @param batchSize Integer Number of records to buffer before forcing them to disk.
+     * @throws IOException
+     */
+
+    public RecordLog(String file, int batchSize) throws IOException {
+        this.batchSize = batchSize;
+        File f = new File(file);
+        if (f.exists()) {
+            long validLength = read(file, (key, value) -> keys.add(key));
+            if (validLength < f.length()) {
+                System.err.println("WARNING: Truncating partially written record at the end of " + file);
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+            if (!keys.isEmpty()) {
+                System.out.println("Found " + keys.size() + " records in " + file);
+            }
+        }
+        fos = new FileOutputStream(f, true);
+        out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+    }
+
+    /**
+     * Append a record to the log.
+     * @param key String
+     * @param value byte[]
+     * @throws IOException
+     */
+
+    public synchronized void append(@NotNull String key, @NotNull byte[] value) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(k.length);
+        out.write(k);
+        out.writeInt(value.length);
+        out.write(value);
+        keys.add(key);
+        if (++pending >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Force all buffered records to disk.
+     * @throws IOException
+     */
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+        fos.getChannel().force(false);
+        pending = 0;
+    }
+
+    /**
+     * Check if a record with this key has been written to the log.
+     * @param key String
+     * @return Boolean
+     */
+
+    public boolean contains(String key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Get the keys of all records in the log.
+     * @return Set
+     */
+
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    /**
+     * Read all complete records in a log.
+     * @param file String Path to the log file.
+     * @param consumer Called with every (key, value) in the order they were written.
+     * @return Long The length of the file up to the end of the last complete record.
+     * @throws IOException
+     */
+
+    public static long read(String file, BiConsumer<String, byte[]> consumer) throws IOException {
+        long validLength = 0;
+        long fileLength = new File(file).length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] k, v;
+                try {
+                    int kLength = in.readInt();
+                    if (kLength < 0 || validLength + 8 + kLength > fileLength) {
+                        break;
+                    }
+                    k = new byte[kLength];
+                    in.readFully(k);
+                    int vLength = in.readInt();
+                    if (vLength < 0 || validLength + 8 + kLength + vLength > fileLength) {
+                        break;
+                    }
+                    v = new byte[vLength];
+                    in.readFully(v);
+                } catch (EOFException e) {
+                    break;
+                }
+                consumer.accept(new String(k, StandardCharsets.UTF_8), v);
+                validLength += 8 + k.length + v.length;
+            }
+        }
+        return validLength;
+    }
+}
@@ -0,0 +1,376 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only (key, value) lookup file, memory-mapped from disk.
+ * The file is written by {@link #compact(String, String)} from a {@link RecordLog} (and the previous version of
+ * the store, if any). Keys are sorted, so a lookup is a binary search over the mapped file: nothing is loaded on the
+ * heap and any number of threads can read from the same store.
+ *
+ * File format:
+ * (1) Header: int MAGIC, int VERSION, int numRecords, int (padding).
+ * (2) long[numRecords]: offset of every record, in sorted order of the keys (UTF-8 byte order).
+ * (3) Records: int keyLength, key (UTF-8), int valueLength, value.
+ *
+ * A MappedByteBuffer can hold at most 2GB, so the file is mapped in chunks of 1GB. Records are padded so that
+ * none of them crosses a chunk boundary.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class RecordStore implements Closeable {
+
+    private final static int MAGIC = 0x52435354; // "RCST"
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+    private final static int CHUNK_BITS = 30;
+    private final static long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private final static long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int size;
+
+    private RecordStore(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        long length = channel.size();
+        int numChunks = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        chunks = new MappedByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            long start = (long) i << CHUNK_BITS;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            chunks[i].order(ByteOrder.BIG_ENDIAN);
+        }
+        if (length < HEADER_SIZE || getInt(0) != MAGIC || getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a record store: " + file);
+        }
+        size = getInt(8);
+    }
+
+    /**
+     * Open a store for reading.
+     * @param file String Path to the store.
+     * @return RecordStore
+     * @throws IOException
+     */
+
+    @NotNull
+    public static RecordStore open(String file) throws IOException {
+        return new RecordStore(file);
+    }
+
+    /**
+     * Check if a file is a record store.
+     * @param file String Path to the file.
+     * @return Boolean
+     */
+
+    public static boolean isRecordStore(String file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Number of records in the store.
+     * @return Integer
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the value stored with a key.
+     * @param key String
+     * @return byte[] The value, or null if the key is not in the store.
+     */
+
+    @Nullable
+    public byte[] get(@NotNull String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long offset = recordOffset(mid);
+            int cmp = compareKey(offset, k);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return readValue(offset);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if a key is in the store.
+     * @param key String
+     * @return Boolean
+     */
+
+    public boolean contains(@NotNull String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Iterate over all the records in the store in sorted order of the keys.
+     * @param consumer Called with every (key, value).
+     */
+
+    public void forEach(BiConsumer<String, byte[]> consumer) {
+        for (int i = 0; i < size; i++) {
+            long offset = recordOffset(i);
+            consumer.accept(new String(readKey(offset), StandardCharsets.UTF_8), readValue(offset));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    ////////////////////////////////// READING FROM THE MAPPED FILE ////////////////////////////////////
+
+    private long recordOffset(int i) {
+        return getLong(HEADER_SIZE + 8L * i);
+    }
+
+    private int getInt(long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)].getInt((int) (offset & CHUNK_MASK));
+    }
+
+    private long getLong(long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)].getLong((int) (offset & CHUNK_MASK));
+    }
+
+    private int compareKey(long offset, @NotNull byte[] key) {
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+        int pos = (int) (offset & CHUNK_MASK);
+        int length = chunk.getInt(pos);
+        pos += 4;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (chunk.get(pos + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    @NotNull
+    private byte[] readKey(long offset) {
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)].duplicate();
+        int pos = (int) (offset & CHUNK_MASK);
+        byte[] key = new byte[chunk.getInt(pos)];
+        chunk.position(pos + 4);
+        chunk.get(key);
+        return key;
+    }
+
+    @NotNull
+    private byte[] readValue(long offset) {
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)].duplicate();
+        int pos = (int) (offset & CHUNK_MASK);
+        pos += 4 + chunk.getInt(pos);
+        byte[] value = new byte[chunk.getInt(pos)];
+        chunk.position(pos + 4);
+        chunk.get(value);
+        return value;
+    }
+
+    ////////////////////////////////////////// COMPACTION //////////////////////////////////////////////
+
+    /**
+     * Pointer to a value in either the old store or the log.
+     */
+
+    private static class Pointer implements Comparable<Pointer> {
+        final byte[] key;
+        final boolean inLog;
+        final long offset;
+        final int length;
+        final int order;
+
+        Pointer(byte[] key, boolean inLog, long offset, int length, int order) {
+            this.key = key;
+            this.inLog = inLog;
+            this.offset = offset;
+            this.length = length;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(@NotNull Pointer o) {
+            int n = Math.min(key.length, o.key.length);
+            for (int i = 0; i < n; i++) {
+                int cmp = (key[i] & 0xFF) - (o.key[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            int cmp = key.length - o.key.length;
+            return cmp != 0 ? cmp : Integer.compare(order, o.order);
+        }
+    }
+
+    /**
+     * Merge a log into a store.
+     * The records of the existing store (if any) and the log are sorted by key and written to a new store, which
+     * then replaces the old one. If a key occurs more than once, the record written last wins.
+     * The log is deleted once the new store is in place.
+     * NOTE: The keys of all the records are held in memory during compaction.
+     * @param storeFile String Path to the store.
+     * @param logFile String Path to the log.
+     * @throws IOException
+     */
+
+    public static void compact(String storeFile, String logFile) throws IOException {
+        List<Pointer> pointers = new ArrayList<>();
+        RecordStore oldStore = null;
+
+        if (new File(storeFile).exists()) {
+            oldStore = open(storeFile);
+            for (int i = 0; i < oldStore.size; i++) {
+                long offset = oldStore.recordOffset(i);
+                byte[] key = oldStore.readKey(offset);
+                long valueOffset = offset + 4 + key.length;
+                int length = oldStore.getInt(valueOffset);
+                pointers.add(new Pointer(key, false, valueOffset + 4, length, pointers.size()));
+            }
+        }
+
+        if (new File(logFile).exists()) {
+            long[] position = {0};
+            List<Pointer> finalPointers = pointers;
+            RecordLog.read(logFile, (key, value) -> {
+                byte[] k = key.getBytes(StandardCharsets.UTF_8);
+                long valueOffset = position[0] + 4 + k.length + 4;
+                finalPointers.add(new Pointer(k, true, valueOffset, value.length, finalPointers.size()));
+                position[0] = valueOffset + value.length;
+            });
+        }
+
+        pointers.sort(null);
+
+        // Keep only the last record written for every key
+        List<Pointer> unique = new ArrayList<>(pointers.size());
+        for (int i = 0; i < pointers.size(); i++) {
+            Pointer p = pointers.get(i);
+            if (i + 1 < pointers.size() && java.util.Arrays.equals(p.key, pointers.get(i + 1).key)) {
+                continue;
+            }
+            unique.add(p);
+        }
+        pointers = null;
+
+        String tmpFile = storeFile + ".tmp";
+        RandomAccessFile log = new File(logFile).exists() ? new RandomAccessFile(logFile, "r") : null;
+        try (FileChannel out = FileChannel.open(Paths.get(tmpFile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            long tableEnd = HEADER_SIZE + 8L * unique.size();
+            long[] offsets = new long[unique.size()];
+            long position = tableEnd;
+
+            out.position(tableEnd);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+            for (int i = 0; i < unique.size(); i++) {
+                Pointer p = unique.get(i);
+                long recordLength = 8L + p.key.length + p.length;
+                if (recordLength > CHUNK_SIZE) {
+                    throw new IOException("Record too large for the store: " + recordLength + " bytes");
+                }
+                // Pad so that the record does not cross a chunk boundary
+                if ((position >>> CHUNK_BITS) != ((position + recordLength - 1) >>> CHUNK_BITS)) {
+                    long next = ((position >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+                    for (; position < next; position++) {
+                        dos.write(0);
+                    }
+                }
+                offsets[i] = position;
+                dos.writeInt(p.key.length);
+                dos.write(p.key);
+                dos.writeInt(p.length);
+                dos.write(p.inLog ? readLog(log, p) : readStore(oldStore, p));
+                position += recordLength;
+            }
+            dos.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(unique.size()).putInt(0);
+            header.flip();
+            out.write(header, 0);
+
+            ByteBuffer table = ByteBuffer.allocate(1 << 16);
+            long tablePosition = HEADER_SIZE;
+            for (long offset : offsets) {
+                if (!table.hasRemaining()) {
+                    table.flip();
+                    tablePosition += writeFully(out, table, tablePosition);
+                    table.clear();
+                }
+                table.putLong(offset);
+            }
+            table.flip();
+            writeFully(out, table, tablePosition);
+            out.force(true);
+        } finally {
+            if (log != null) {
+                log.close();
+            }
+            if (oldStore != null) {
+                oldStore.close();
+            }
+        }
+
+        Files.move(Paths.get(tmpFile), Paths.get(storeFile), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(Paths.get(logFile));
+    }
+
+    private static int writeFully(FileChannel out, @NotNull ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    @NotNull
+    private static byte[] readLog(@NotNull RandomAccessFile log, @NotNull Pointer p) throws IOException {
+        byte[] value = new byte[p.length];
+        log.seek(p.offset);
+        log.readFully(value);
+        return value;
+    }
+
+    @NotNull
+    private static byte[] readStore(@NotNull RecordStore store, @NotNull Pointer p) {
+        ByteBuffer chunk = store.chunks[(int) (p.offset >>> CHUNK_BITS)].duplicate();
+        byte[] value = new byte[p.length];
+        chunk.position((int) (p.offset & CHUNK_MASK));
+        chunk.get(value);
+        return value;
+    }
+}
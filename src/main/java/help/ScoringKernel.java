@@ -0,0 +1,197 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Scores passages against a distribution over terms (or entities), both given as term ids (see {@link TermDictionary}).
+ *
+ * The distribution is loaded once into an open addressing hash table (termId --> weight) of primitive arrays, sized
+ * to the distribution. A passage is then scored with one primitive loop over its (termId, tf) entries, with no String
+ * hashing or boxing:
+ * (1) sum: sum_t tf(t) * w(t), i.e., every occurrence of a term adds its weight.
+ * (2) logSum: sum_t tf(t) * log(w(t)), over the terms of the passage that are in the distribution.
+ * (3) dot: dot product of two sparse vectors, for when loading a distribution is not worth it.
+ *
+ * Terms not in the distribution have weight zero. The table is reused for the next distribution, and its size
+ * depends on the size of the distributions only, not on the number of terms in the dictionary.
+ * A kernel is not thread-safe, so use one kernel per thread ({@link #get()}).
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public final class ScoringKernel {
+
+    private final static ThreadLocal<ScoringKernel> KERNELS = ThreadLocal.withInitial(ScoringKernel::new);
+
+    private final static int EMPTY = -1;
+    private final static int MIN_CAPACITY = 64;
+
+    private int[] keys = new int[MIN_CAPACITY];
+    private double[] weights = new double[MIN_CAPACITY];
+    private double[] logWeights = new double[MIN_CAPACITY];
+    private int mask = MIN_CAPACITY - 1;
+
+    private ScoringKernel() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Get the kernel of the current thread.
+     * @return ScoringKernel
+     */
+
+    @NotNull
+    public static ScoringKernel get() {
+        return KERNELS.get();
+    }
+
+    /**
+     * Load a distribution.
+     * @param distribution SparseVector of (termId, weight).
+     * @return This kernel.
+     */
+
+    @NotNull
+    public ScoringKernel load(@NotNull SparseVector distribution) {
+        clear(distribution.size());
+        for (int i = 0; i < distribution.size(); i++) {
+            set(distribution.getId(i), distribution.getValue(i));
+        }
+        return this;
+    }
+
+    /**
+     * Load a distribution.
+     * @param distribution Map of (term, weight).
+     * @param dictionary TermDictionary Used to map terms to ids.
+     * @return This kernel.
+     */
+
+    @NotNull
+    public ScoringKernel load(@NotNull Map<String, ? extends Number> distribution, @NotNull TermDictionary dictionary) {
+        clear(distribution.size());
+        for (Map.Entry<String, ? extends Number> entry : distribution.entrySet()) {
+            set(dictionary.getId(entry.getKey()), entry.getValue().doubleValue());
+        }
+        return this;
+    }
+
+    /**
+     * Sum of the weights of every term occurrence in the passage: sum_t tf(t) * w(t).
+     * @param passage SparseVector of (termId, tf).
+     * @return Double
+     */
+
+    public double sum(@NotNull SparseVector passage) {
+        int[] ids = passage.ids();
+        float[] tf = passage.values();
+        double score = 0.0d;
+        for (int i = 0; i < ids.length; i++) {
+            int slot = find(ids[i]);
+            if (slot >= 0) {
+                score += tf[i] * weights[slot];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Sum of the log weights of every term occurrence in the passage that is in the distribution:
+     * sum_t tf(t) * log(w(t)).
+     * @param passage SparseVector of (termId, tf).
+     * @return Double
+     */
+
+    public double logSum(@NotNull SparseVector passage) {
+        int[] ids = passage.ids();
+        float[] tf = passage.values();
+        double score = 0.0d;
+        for (int i = 0; i < ids.length; i++) {
+            int slot = find(ids[i]);
+            if (slot >= 0) {
+                score += tf[i] * logWeights[slot];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Dot product of two sparse vectors (merge over the sorted ids).
+     * @param a SparseVector
+     * @param b SparseVector
+     * @return Double
+     */
+
+    public static double dot(@NotNull SparseVector a, @NotNull SparseVector b) {
+        int[] aIds = a.ids(), bIds = b.ids();
+        float[] aValues = a.values(), bValues = b.values();
+        double dot = 0.0d;
+        int i = 0, j = 0;
+        while (i < aIds.length && j < bIds.length) {
+            int x = aIds[i], y = bIds[j];
+            if (x == y) {
+                dot += (double) aValues[i] * bValues[j];
+            }
+            i += x <= y ? 1 : 0;
+            j += y <= x ? 1 : 0;
+        }
+        return dot;
+    }
+
+    private void set(int id, double weight) {
+        int i = mix(id) & mask;
+        while (keys[i] != EMPTY && keys[i] != id) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        weights[i] = weight;
+        logWeights[i] = Math.log(weight);
+    }
+
+    /**
+     * Find the slot of a term.
+     * @param id Integer Term id.
+     * @return Integer Slot of the term in the table, or -1 if the term is not in the distribution.
+     */
+
+    private int find(int id) {
+        int i = mix(id) & mask;
+        int key;
+        while ((key = keys[i]) != EMPTY) {
+            if (key == id) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empty the table, making room for a distribution with up to n terms (at most half full).
+     * A table much larger than needed (left by a large distribution) is shrunk.
+     * @param n Integer Number of terms.
+     */
+
+    private void clear(int n) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * n) {
+            capacity <<= 1;
+        }
+        if (capacity > keys.length || keys.length > 4 * capacity) {
+            keys = new int[capacity];
+            weights = new double[capacity];
+            logWeights = new double[capacity];
+            mask = capacity - 1;
+        }
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,234 @@
+package help;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse vector over term ids (see {@link TermDictionary}): parallel arrays of ids and values, sorted by id.
+ * Used for the term vector of a paragraph (id --> term frequency) and for distributions over terms.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public final class SparseVector {
+
+    public final static SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+    private final int[] ids;
+    private final float[] values;
+
+    /**
+     * Constructor.
+     * @param ids Array of ids sorted in increasing order (no duplicates).
+     * @param values Array of values.
+     */
+
+    @Contract(pure = true)
+    public SparseVector(@NotNull int[] ids, @NotNull float[] values) {
+        this.ids = ids;
+        this.values = values;
+    }
+
+    /**
+     * Make a vector from ids and values in any order. The values of repeated ids are added.
+     * @param ids Array of ids. Modified by this method.
+     * @param values Array of values.
+     * @param n Integer Number of entries to use from the arrays.
+     * @return SparseVector
+     */
+
+    @NotNull
+    public static SparseVector fromUnsorted(@NotNull int[] ids, @NotNull float[] values, int n) {
+        if (n == 0) {
+            return EMPTY;
+        }
+        // Sort the positions by id
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = ((long) ids[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        int[] sortedIds = new int[n];
+        float[] sortedValues = new float[n];
+        int size = 0;
+        for (long p : packed) {
+            int id = (int) (p >>> 32);
+            float value = values[(int) p];
+            if (size > 0 && sortedIds[size - 1] == id) {
+                sortedValues[size - 1] += value;
+            } else {
+                sortedIds[size] = id;
+                sortedValues[size] = value;
+                size++;
+            }
+        }
+        return new SparseVector(Arrays.copyOf(sortedIds, size), Arrays.copyOf(sortedValues, size));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public float getValue(int i) {
+        return values[i];
+    }
+
+    // Direct access for the scoring loops in this package (see ScoringKernel). Do not modify.
+
+    int[] ids() {
+        return ids;
+    }
+
+    float[] values() {
+        return values;
+    }
+
+    /**
+     * Get the value of an id.
+     * @param id Integer
+     * @return Float The value or 0 if the id is not in the vector.
+     */
+
+    public float get(int id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? values[i] : 0.0f;
+    }
+
+    /**
+     * Sum of the values.
+     * @return Float
+     */
+
+    public float sum() {
+        float sum = 0.0f;
+        for (float value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product with another vector (merge over the sorted ids).
+     * @param other SparseVector
+     * @return Float
+     */
+
+    public float dot(@NotNull SparseVector other) {
+        float dot = 0.0f;
+        int i = 0, j = 0;
+        while (i < ids.length && j < other.ids.length) {
+            if (ids[i] < other.ids[j]) {
+                i++;
+            } else if (ids[i] > other.ids[j]) {
+                j++;
+            } else {
+                dot += values[i++] * other.values[j++];
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * Weighted sum of vectors: sum_i weights[i] * vectors[i].
+     * The vectors are merged pairwise, so the cost is O(N log k) for k vectors with N entries in total.
+     * @param vectors List of vectors.
+     * @param weights Array of weights, one per vector.
+     * @return SparseVector
+     */
+
+    @NotNull
+    public static SparseVector weightedSum(@NotNull List<SparseVector> vectors, @NotNull float[] weights) {
+        if (vectors.isEmpty()) {
+            return EMPTY;
+        }
+        SparseVector[] level = new SparseVector[vectors.size()];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = vectors.get(i).scale(weights[i]);
+        }
+        int n = level.length;
+        while (n > 1) {
+            int m = 0;
+            for (int i = 0; i < n; i += 2) {
+                level[m++] = i + 1 < n ? add(level[i], level[i + 1]) : level[i];
+            }
+            n = m;
+        }
+        return level[0];
+    }
+
+    /**
+     * Multiply every value by a constant.
+     * @param weight Float
+     * @return SparseVector
+     */
+
+    @NotNull
+    public SparseVector scale(float weight) {
+        float[] scaled = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            scaled[i] = values[i] * weight;
+        }
+        return new SparseVector(ids, scaled);
+    }
+
+    /**
+     * Add two vectors.
+     * @param a SparseVector
+     * @param b SparseVector
+     * @return SparseVector
+     */
+
+    @NotNull
+    public static SparseVector add(@NotNull SparseVector a, @NotNull SparseVector b) {
+        int[] ids = new int[a.ids.length + b.ids.length];
+        float[] values = new float[ids.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.ids.length && j < b.ids.length) {
+            if (a.ids[i] < b.ids[j]) {
+                ids[n] = a.ids[i];
+                values[n++] = a.values[i++];
+            } else if (a.ids[i] > b.ids[j]) {
+                ids[n] = b.ids[j];
+                values[n++] = b.values[j++];
+            } else {
+                ids[n] = a.ids[i];
+                values[n++] = a.values[i++] + b.values[j++];
+            }
+        }
+        while (i < a.ids.length) {
+            ids[n] = a.ids[i];
+            values[n++] = a.values[i++];
+        }
+        while (j < b.ids.length) {
+            ids[n] = b.ids[j];
+            values[n++] = b.values[j++];
+        }
+        return new SparseVector(Arrays.copyOf(ids, n), Arrays.copyOf(values, n));
+    }
+
+    /**
+     * Convert to a Map of (term, value), sorted by value in descending order.
+     * @param dictionary TermDictionary Used to map the ids back to terms.
+     * @return Map
+     */
+
+    @NotNull
+    public LinkedHashMap<String, Float> toMap(@NotNull TermDictionary dictionary) {
+        Map<String, Float> map = new LinkedHashMap<>(2 * ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            map.put(dictionary.getTerm(ids[i]), values[i]);
+        }
+        return Utilities.sortByValueDescending(map);
+    }
+}
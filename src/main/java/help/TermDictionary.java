@@ -0,0 +1,129 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps terms to dense integer ids (0, 1, 2, ...) and back.
+ * Ids are assigned in the order the terms are first seen, so they are only meaningful within one run.
+ * Ids are never reused (vectors holding them may be alive anywhere), so the dictionary can only grow; it may be
+ * given a maximum number of terms. This is a soft bound, as a term without an id could not be scored: past it, new
+ * terms are still added and a warning is printed once. Users check {@link #isFull()} to stop taking more memory
+ * (e.g., the {@link AnalyzedTextCache} stops caching new vectors).
+ * Safe to use from multiple threads.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class TermDictionary {
+
+    // Estimated bytes per term besides its characters: map entry, Integer, String and array headers, list slot
+    private final static int TERM_OVERHEAD = 112;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> terms = new ArrayList<>();
+    private final int maxSize;
+    private long chars = 0;
+    private boolean warned = false;
+
+    /**
+     * Constructor. The dictionary is not bounded.
+     */
+
+    public TermDictionary() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor.
+     * @param maxSize Integer Maximum number of terms.
+     */
+
+    public TermDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the id of a term. A new id is assigned if the term has not been seen before.
+     * @param term String
+     * @return Integer
+     */
+
+    public int getId(@NotNull String term) {
+        Integer id = ids.get(term);
+        if (id != null) {
+            return id;
+        }
+        return ids.computeIfAbsent(term, t -> {
+            synchronized (terms) {
+                if (terms.size() >= maxSize && !warned) {
+                    System.err.println("WARNING: Term dictionary is past its maximum of " + maxSize + " terms. "
+                            + "New terms are still added, but analyzed texts are no longer cached.");
+                    warned = true;
+                }
+                terms.add(t);
+                chars += t.length();
+                return terms.size() - 1;
+            }
+        });
+    }
+
+    /**
+     * Get the id of a term without assigning a new one.
+     * @param term String
+     * @return Integer The id of the term or -1 if the term has not been seen before.
+     */
+
+    public int lookup(@NotNull String term) {
+        return ids.getOrDefault(term, -1);
+    }
+
+    /**
+     * Get the term with an id.
+     * @param id Integer
+     * @return String
+     */
+
+    public String getTerm(int id) {
+        synchronized (terms) {
+            return terms.get(id);
+        }
+    }
+
+    /**
+     * Number of terms in the dictionary.
+     * @return Integer
+     */
+
+    public int size() {
+        synchronized (terms) {
+            return terms.size();
+        }
+    }
+
+    /**
+     * Whether the dictionary has reached its maximum number of terms.
+     * @return Boolean
+     */
+
+    public boolean isFull() {
+        synchronized (terms) {
+            return terms.size() >= maxSize;
+        }
+    }
+
+    /**
+     * Estimated number of bytes held by the dictionary.
+     * @return Long
+     */
+
+    public long bytes() {
+        synchronized (terms) {
+            return (long) TERM_OVERHEAD * terms.size() + 2L * chars;
+        }
+    }
+}
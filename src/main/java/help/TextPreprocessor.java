@@ -0,0 +1,200 @@
+package help;
+
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.CharArraySet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Pre-process text into words, in a single pass over the characters.
+ * Gives the same words as the old preProcess() methods of the term experiments:
+ * (1) Lowercase words.
+ * (2) Split at spaces and line breaks.
+ * (3) Remove special characters such as - + ^ . : , ( ) (the words around them are joined, as before).
+ * (4) Remove stop words.
+ *
+ * The stop words are kept in a char-array set, so a word is only turned into a String if the caller asks for it.
+ * The words can also be turned into term ids (see {@link TermDictionary}) through a per-thread buffer, without
+ * making a String for words that were seen before.
+ *
+ * Instances are thread-safe: every thread gets its own buffers.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class TextPreprocessor {
+
+    private final static String SPECIAL_CHARS = "-+.^*:,;=(){}[]\"";
+    private final static boolean[] SPECIAL = new boolean[128];
+    private final static int MAX_MEMO_SIZE = 1 << 20;
+
+    static {
+        for (char c : SPECIAL_CHARS.toCharArray()) {
+            SPECIAL[c] = true;
+        }
+    }
+
+    /**
+     * Receives the words of a text. The buffer is reused for the next word.
+     */
+
+    public interface WordConsumer {
+        void accept(char[] buffer, int length);
+    }
+
+    private final CharArraySet stopWords;
+    private final TermDictionary dictionary;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    /**
+     * Constructor.
+     * @param stopWords Collection of stop words (matched exactly, after lowercasing the text).
+     * @param dictionary TermDictionary Used to map words to term ids.
+     */
+
+    public TextPreprocessor(@NotNull Collection<String> stopWords, @NotNull TermDictionary dictionary) {
+        this.stopWords = new CharArraySet(stopWords, false);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Pass every word of the text (after pre-processing) to the consumer, in order.
+     * @param text CharSequence Text to pre-process.
+     * @param consumer WordConsumer
+     */
+
+    public void forEachWord(@NotNull CharSequence text, @NotNull WordConsumer consumer) {
+        Buffer buffer = buffers.get();
+        char[] word = buffer.word;
+        int length = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\n' || c == '\r') {
+                if (length > 0 && !stopWords.contains(word, 0, length)) {
+                    consumer.accept(word, length);
+                }
+                length = 0;
+            } else if (c >= 128 || !SPECIAL[c]) {
+                if (length == word.length) {
+                    word = buffer.word = Arrays.copyOf(word, 2 * length);
+                }
+                word[length++] = Character.toLowerCase(c);
+            }
+        }
+        if (length > 0 && !stopWords.contains(word, 0, length)) {
+            consumer.accept(word, length);
+        }
+    }
+
+    /**
+     * Get the words of the text (after pre-processing).
+     * @param text CharSequence Text to pre-process.
+     * @return List of words.
+     */
+
+    @NotNull
+    public List<String> getWords(@NotNull CharSequence text) {
+        List<String> words = new ArrayList<>();
+        forEachWord(text, (buffer, length) -> words.add(new String(buffer, 0, length)));
+        return words;
+    }
+
+    /**
+     * Number of words in the text (after pre-processing).
+     * @param text CharSequence Text to pre-process.
+     * @return Integer
+     */
+
+    public int countWords(@NotNull CharSequence text) {
+        Buffer buffer = buffers.get();
+        buffer.count = 0;
+        forEachWord(text, buffer.counter);
+        return buffer.count;
+    }
+
+    /**
+     * Get the term ids of the words in the text, in order, into the per-thread buffer of this instance.
+     * The returned array is overwritten by the next call from the same thread.
+     * Use {@link #getLastSize()} for the number of ids.
+     * @param text CharSequence Text to pre-process.
+     * @return Array of term ids.
+     */
+
+    @NotNull
+    public int[] getTermIds(@NotNull CharSequence text) {
+        Buffer buffer = buffers.get();
+        buffer.size = 0;
+        forEachWord(text, buffer);
+        return buffer.ids;
+    }
+
+    /**
+     * Number of term ids returned by the last call to {@link #getTermIds(CharSequence)} from this thread.
+     * @return Integer
+     */
+
+    public int getLastSize() {
+        return buffers.get().size;
+    }
+
+    /**
+     * Get the term vector of the text (after pre-processing).
+     * @param text CharSequence Text to pre-process.
+     * @return SparseVector of (termId, tf).
+     */
+
+    @NotNull
+    public SparseVector toVector(@NotNull CharSequence text) {
+        Buffer buffer = buffers.get();
+        int[] ids = getTermIds(text);
+        int size = buffer.size;
+        if (buffer.ones.length < size) {
+            buffer.ones = new float[ids.length];
+            Arrays.fill(buffer.ones, 1.0f);
+        }
+        return SparseVector.fromUnsorted(ids, buffer.ones, size);
+    }
+
+    @NotNull
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Per-thread buffers: the current word, the term ids of the text, and a memo of (word, termId) so that
+     * words seen before are looked up without making a String.
+     */
+
+    private class Buffer implements WordConsumer {
+        char[] word = new char[64];
+        int[] ids = new int[256];
+        float[] ones = new float[0];
+        int size = 0;
+        int count = 0;
+        final WordConsumer counter = (buffer, length) -> count++;
+        final CharArrayMap<Integer> memo = new CharArrayMap<>(1024, false);
+
+        @Override
+        public void accept(char[] buffer, int length) {
+            Integer id = memo.get(buffer, 0, length);
+            if (id == null) {
+                if (memo.size() >= MAX_MEMO_SIZE) {
+                    memo.clear();
+                }
+                String term = new String(buffer, 0, length);
+                id = dictionary.getId(term);
+                memo.put(term, id);
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            ids[size++] = id;
+        }
+    }
+}
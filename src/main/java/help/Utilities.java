@@ -244,8 +244,7 @@ public class Utilities {
                                                       String delimiter,
                                                       @NotNull ArrayList<String> paraList,
                                                       IndexSearcher searcher) {
-        ArrayList<Document> documentList = new ArrayList<>();
-        ArrayList<String> pseudoDocEntityList = new ArrayList<>();
+        List<Document> paraDocs = new ArrayList<>();
         // Get the list of paragraphs relevant for the query
         // For every paragraph in the list of paragraphs relevant for the query do
         for (String paraId : paraList) {
@@ -253,31 +252,52 @@ public class Utilities {
                 // Get the document corresponding to the paragraph from the lucene index
                 Document doc = Index.Search.searchIndex(textSearchField, paraId, searcher);
 
-                if (doc == null) {
-                    continue;
+                if (doc != null) {
+                    paraDocs.add(doc);
                 }
-                // Get the entities in the paragraph
-               // String[] entityList = Utilities.clean(doc.get("entity").split(" "));
-                String[] entityList = Utilities.clean(doc.get(entitySearchField).split(delimiter));
-                // Make an ArrayList from the String array
-                ArrayList<String> pEntList = process(new ArrayList<>(Arrays.asList(entityList)));
-                // If the document does not have any entities then ignore
-                if (pEntList.isEmpty()) {
-                    continue;
-                }
-                // If the entity is present in the paragraph
-                if (pEntList.contains(Utilities.process(entity))) {
-                    // Add it to the pseudo document
-                    documentList.add(doc);
-                    // Add all the entities to the pseudo document entity list
-                    pseudoDocEntityList.addAll(pEntList);
-                }
-
             } catch (IOException | ParseException e) {
                 e.printStackTrace();
             }
 
         }
+        return createPseudoDocument(entity, entitySearchField, delimiter, paraDocs);
+    }
+
+    /**
+     * Method to create a Pseudo-Document for an entity from paragraphs already fetched from the index.
+     * Use this to create the Pseudo-Documents of many entities over the same list of paragraphs.
+     * @param entity String EntityID
+     * @param entitySearchField String Field of the entities in the paragraph documents.
+     * @param delimiter String Delimiter of the entities in the field.
+     * @param paraDocs List of paragraph documents relevant for query
+     * @return A Pseudo-Document for the (query, entity) pair
+     */
+
+    @Nullable
+    public static PseudoDocument createPseudoDocument(String entity,
+                                                      String entitySearchField,
+                                                      String delimiter,
+                                                      @NotNull List<Document> paraDocs) {
+        ArrayList<Document> documentList = new ArrayList<>();
+        ArrayList<String> pseudoDocEntityList = new ArrayList<>();
+        String processedEntity = Utilities.process(entity);
+        for (Document doc : paraDocs) {
+            // Get the entities in the paragraph
+            String[] entityList = Utilities.clean(doc.get(entitySearchField).split(delimiter));
+            // Make an ArrayList from the String array
+            ArrayList<String> pEntList = process(new ArrayList<>(Arrays.asList(entityList)));
+            // If the document does not have any entities then ignore
+            if (pEntList.isEmpty()) {
+                continue;
+            }
+            // If the entity is present in the paragraph
+            if (pEntList.contains(processedEntity)) {
+                // Add it to the pseudo document
+                documentList.add(doc);
+                // Add all the entities to the pseudo document entity list
+                pseudoDocEntityList.addAll(pEntList);
+            }
+        }
 
         // If there are no documents in the pseudo-document
         if (documentList.size() == 0) {
@@ -0,0 +1,53 @@
+package help;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length coding of non-negative integers, shared by the binary files of the project: 7 bits per byte,
+ * low-order bits first, with the high bit of a byte set if more bytes follow (the same coding as Lucene's VInt).
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class VInt {
+
+    private VInt() {
+    }
+
+    /**
+     * Write an integer.
+     * @param out DataOutput
+     * @param i Integer (non-negative; a negative value takes five bytes)
+     * @throws IOException
+     */
+
+    public static void write(@NotNull DataOutput out, int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    /**
+     * Read an integer written with {@link #write(DataOutput, int)}.
+     * @param in DataInput
+     * @return Integer
+     * @throws IOException
+     */
+
+    public static int read(@NotNull DataInput in) throws IOException {
+        byte b = in.readByte();
+        int i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = in.readByte();
+            i |= (b & 0x7F) << shift;
+        }
+        return i;
+    }
+}
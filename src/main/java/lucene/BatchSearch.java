@@ -0,0 +1,155 @@
+package lucene;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a batch of queries concurrently against one shared searcher.
+ *
+ * An IndexSearcher is thread-safe, so the queries of a batch (e.g., one per (query, entity) pair of a baseline) are
+ * searched by a fixed pool of threads. At most {@link #MAX_IN_FLIGHT_PER_THREAD} queries per thread of a batch are
+ * queued or running at once: the thread submitting the batch waits for a search to finish before submitting the
+ * next query. The results of the whole batch are kept until it returns.
+ * The stored id of every hit can also be loaded by the worker threads, since loading stored fields costs as much as
+ * the search itself for small queries.
+ *
+ * Results are returned in the order of the batch, whatever the order in which the searches finish, so the consumer
+ * can process them sequentially (e.g., deduplicate paragraphs across the batch) with the same result on every run.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class BatchSearch implements Closeable {
+
+    /**
+     * Number of queries of a batch per thread which may be queued or running at once.
+     */
+    public final static int MAX_IN_FLIGHT_PER_THREAD = 4;
+
+    private final IndexSearcher searcher;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    /**
+     * Constructor.
+     * @param searcher IndexSearcher Searcher shared by all threads.
+     * @param numThreads Integer Number of threads.
+     */
+
+    public BatchSearch(@NotNull IndexSearcher searcher, int numThreads) {
+        this.searcher = searcher;
+        this.executor = Executors.newFixedThreadPool(numThreads);
+        this.maxInFlight = MAX_IN_FLIGHT_PER_THREAD * numThreads;
+    }
+
+    /**
+     * Result of one query of a batch.
+     * @param <K> Type of the query id.
+     */
+
+    public static class Result<K> {
+        private final K id;
+        private final TopDocs topDocs;
+        private final String[] docIds;
+
+        Result(K id, TopDocs topDocs, String[] docIds) {
+            this.id = id;
+            this.topDocs = topDocs;
+            this.docIds = docIds;
+        }
+
+        public K getId() {
+            return id;
+        }
+
+        @NotNull
+        public TopDocs getTopDocs() {
+            return topDocs;
+        }
+
+        @NotNull
+        public ScoreDoc[] getScoreDocs() {
+            return topDocs.scoreDocs;
+        }
+
+        /**
+         * Get the stored ids of the hits, in the order of the hits.
+         * @return Array of ids, or null if no id field was given to the search.
+         */
+
+        @Nullable
+        public String[] getDocIds() {
+            return docIds;
+        }
+    }
+
+    /**
+     * Search a batch of queries.
+     * @param queries List of (id, query) pairs.
+     * @param n Integer Number of top hits per query.
+     * @param idField String Stored field to load for every hit (e.g., the paragraph id). May be null.
+     * @param <K> Type of the query id.
+     * @return List of results, in the order of the queries.
+     * @throws IOException If a search fails.
+     */
+
+    @NotNull
+    public <K> List<Result<K>> search(@NotNull List<? extends Map.Entry<K, ? extends Query>> queries,
+                                      int n,
+                                      @Nullable String idField) throws IOException {
+        List<Future<Result<K>>> futures = new ArrayList<>(queries.size());
+        Set<String> fields = idField != null ? Collections.singleton(idField) : null;
+        // One semaphore per batch: a permit held by a query cancelled before it ran is never released
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        List<Result<K>> results = new ArrayList<>(queries.size());
+        try {
+            for (Map.Entry<K, ? extends Query> entry : queries) {
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        TopDocs topDocs = searcher.search(entry.getValue(), n);
+                        String[] docIds = null;
+                        if (fields != null) {
+                            docIds = new String[topDocs.scoreDocs.length];
+                            for (int i = 0; i < docIds.length; i++) {
+                                docIds[i] = searcher.doc(topDocs.scoreDocs[i].doc, fields).get(idField);
+                            }
+                        }
+                        return new Result<>(entry.getKey(), topDocs, docIds);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (Future<Result<K>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            for (Future<Result<K>> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,144 @@
+package lucene;
+
+import help.TermDictionary;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collection statistics of a field of an index, used for Dirichlet smoothing: the collection frequency of a term,
+ * the total length of the field and the average document length.
+ *
+ * The total length and number of documents are read once. The collection frequency of a term is read from the
+ * index the first time it is asked for and then kept in a concurrent (termId --> cf) map, so a term that shows
+ * up in many Wikipedia articles only costs one lookup in the index, and threads asking for different terms do not
+ * wait for each other.
+ * The term ids are from the {@link TermDictionary} given when the statistics were loaded.
+ *
+ * Experiments on the same index with the same dictionary share one instance
+ * (see {@link #getInstance(String, String, TermDictionary)}); experiments on the same index share one reader.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class CorpusStatistics {
+
+    private final static Map<TermDictionary, Map<String, CorpusStatistics>> INSTANCES = new IdentityHashMap<>();
+    private final static Map<String, IndexReader> READERS = new HashMap<>();
+
+    private final IndexReader indexReader;
+    private final String field;
+    private final TermDictionary dictionary;
+    private final long totalLength;
+    private final int numDocs;
+
+    private final ConcurrentHashMap<Integer, Long> collectionFrequencies = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param indexReader IndexReader
+     * @param field String Name of the field.
+     * @param dictionary TermDictionary Maps term ids to terms.
+     * @throws IOException
+     */
+
+    public CorpusStatistics(@NotNull IndexReader indexReader,
+                            String field,
+                            @NotNull TermDictionary dictionary) throws IOException {
+        this.indexReader = indexReader;
+        this.field = field;
+        this.dictionary = dictionary;
+        this.totalLength = indexReader.getSumTotalTermFreq(field);
+        this.numDocs = indexReader.numDocs();
+    }
+
+    /**
+     * Get the statistics of a field of an index, shared by all users in this JVM with the same dictionary.
+     * @param indexDir String Path to the index.
+     * @param field String Name of the field.
+     * @param dictionary TermDictionary Maps term ids to terms.
+     * @return CorpusStatistics
+     * @throws IOException
+     */
+
+    @NotNull
+    public static synchronized CorpusStatistics getInstance(String indexDir,
+                                                            String field,
+                                                            @NotNull TermDictionary dictionary) throws IOException {
+        // The cached frequencies are by term id, so the dictionary is part of the key
+        Map<String, CorpusStatistics> instances = INSTANCES.computeIfAbsent(dictionary, d -> new HashMap<>());
+        String key = indexDir + "|" + field;
+        CorpusStatistics stats = instances.get(key);
+        if (stats == null) {
+            IndexReader indexReader = READERS.get(indexDir);
+            if (indexReader == null) {
+                indexReader = DirectoryReader.open(FSDirectory.open(new File(indexDir).toPath()));
+                READERS.put(indexDir, indexReader);
+            }
+            stats = new CorpusStatistics(indexReader, field, dictionary);
+            instances.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Total number of terms in the field over all documents.
+     * @return Long
+     */
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Average length of the field, used as the Dirichlet parameter MU.
+     * @return Double
+     */
+
+    public double getAverageLength() {
+        return numDocs == 0 ? 0.0 : 1.0 * totalLength / numDocs;
+    }
+
+    /**
+     * Number of times a term occurs in the field over all documents.
+     * @param termId Integer ID of the term in the dictionary.
+     * @return Long
+     */
+
+    public long getCollectionFrequency(int termId) {
+        Long cf = collectionFrequencies.get(termId);
+        if (cf != null) {
+            return cf;
+        }
+        return collectionFrequencies.computeIfAbsent(termId, this::readCollectionFrequency);
+    }
+
+    private long readCollectionFrequency(int termId) {
+        try {
+            return indexReader.totalTermFreq(new Term(field, dictionary.getTerm(termId)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0L;
+        }
+    }
+
+    /**
+     * Probability of a term in the collection: cf / total length.
+     * @param termId Integer ID of the term in the dictionary.
+     * @return Double
+     */
+
+    public double getProbability(int termId) {
+        return totalLength == 0 ? 0.0 : 1.0 * getCollectionFrequency(termId) / totalLength;
+    }
+}
@@ -0,0 +1,245 @@
+package lucene;
+
+import help.AnalyzedTextCache;
+import help.RecordLog;
+import help.RecordStore;
+import help.SparseVector;
+import help.TermDictionary;
+import help.TextPreprocessor;
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed language models (term counts) of the Wikipedia articles in the page index.
+ *
+ * The experiments in experiments.wiki use the distribution over the words of the article of an entity. Instead of
+ * reading and pre-processing the "Content" field of the article every time the entity shows up, the term counts of
+ * every article are computed once with {@link #build(String, String, String)} and written to a memory-mapped
+ * {@link RecordStore} (entityId --> term counts). At run time, an article model is one lookup in the store;
+ * models are also kept in the {@link AnalyzedTextCache}, so entities shared by many queries are decoded once.
+ * The terms of the store are added to the (shared) dictionary of the cache only when an article using them is
+ * decoded, so the dictionary holds the vocabulary of the articles actually used, not of all of Wikipedia.
+ *
+ * The words are the words of {@link TextPreprocessor}, with the stop words given when the store was built.
+ *
+ * Files:
+ * (1) file: Value format (per entity): vint length, vint numTerms, then for every term (sorted by id):
+ *     vint (termId - previous termId), vint count.
+ * (2) file.terms: int MAGIC, int hash of the stop words, int numTerms, then the terms (UTF) in order of id.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class EntityLanguageModels implements Closeable {
+
+    private final static int MAGIC = 0x454C4D54; // "ELMT"
+    private final static int BATCH_SIZE = 10000;
+
+    private final String file;
+    private final RecordStore store;
+    private final String[] terms; // Term id in the store --> term
+    private final int[] termIds; // Term id in the store --> term id in the dictionary, or -1 if not looked up yet
+    private final AnalyzedTextCache cache;
+
+    private EntityLanguageModels(String file, RecordStore store, String[] terms, AnalyzedTextCache cache) {
+        this.file = file;
+        this.store = store;
+        this.terms = terms;
+        this.termIds = new int[terms.length];
+        Arrays.fill(termIds, -1);
+        this.cache = cache;
+    }
+
+    /**
+     * Open a store for reading.
+     * @param file String Path to the store.
+     * @param stopWords Collection of stop words used by the caller. Must be the ones the store was built with.
+     * @param cache AnalyzedTextCache The term ids are mapped to the dictionary of this cache.
+     * @return EntityLanguageModels
+     * @throws IOException If the store can not be read or was built with different stop words.
+     */
+
+    @NotNull
+    public static EntityLanguageModels open(String file,
+                                            @NotNull Collection<String> stopWords,
+                                            @NotNull AnalyzedTextCache cache) throws IOException {
+        String[] terms;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file + ".terms")))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an entity language model store: " + file);
+            }
+            if (in.readInt() != new HashSet<>(stopWords).hashCode()) {
+                throw new IOException("Entity language model store was built with different stop words: " + file);
+            }
+            terms = new String[in.readInt()];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = in.readUTF();
+            }
+        }
+        return new EntityLanguageModels(file, RecordStore.open(file), terms, cache);
+    }
+
+    /**
+     * Number of articles in the store.
+     * @return Integer
+     */
+
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Get the term counts of the article of an entity.
+     * @param entityId String ID of the entity.
+     * @return SparseVector of (termId, count), with term ids from the dictionary of the cache.
+     * Empty if the entity is not in the store.
+     */
+
+    @NotNull
+    public SparseVector get(@NotNull String entityId) {
+        return cache.get(entityId, "elm:" + file, () -> load(entityId));
+    }
+
+    @NotNull
+    private SparseVector load(@NotNull String entityId) {
+        byte[] value = store.get(entityId);
+        if (value == null) {
+            return SparseVector.EMPTY;
+        }
+        ByteArrayDataInput in = new ByteArrayDataInput(value);
+        in.readVInt(); // length
+        int n = in.readVInt();
+        int[] ids = new int[n];
+        float[] counts = new float[n];
+        int storeId = 0;
+        for (int i = 0; i < n; i++) {
+            storeId += in.readVInt();
+            ids[i] = getTermId(storeId);
+            counts[i] = in.readVInt();
+        }
+        // Ids in the dictionary of the cache are in a different order than in the store
+        return SparseVector.fromUnsorted(ids, counts, n);
+    }
+
+    /**
+     * Map a term id of the store to the dictionary of the cache, adding the term to the dictionary if needed.
+     * Threads racing on the same term get the same id from the dictionary, so the race is harmless.
+     * @param storeId Integer Term id in the store.
+     * @return Integer Term id in the dictionary.
+     */
+
+    private int getTermId(int storeId) {
+        int id = termIds[storeId];
+        if (id < 0) {
+            id = cache.getDictionary().getId(terms[storeId]);
+            termIds[storeId] = id;
+        }
+        return id;
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /**
+     * Compute the term counts of every article in the page index and write them to a store.
+     * @param pageIndexDir String Path to the page index.
+     * @param stopWordsFile String Path to the stop words list.
+     * @param file String Path to the store.
+     * @throws IOException
+     */
+
+    public static void build(String pageIndexDir, String stopWordsFile, String file) throws IOException {
+        List<String> stopWords = Files.readAllLines(Paths.get(stopWordsFile));
+        TermDictionary dictionary = new TermDictionary();
+        TextPreprocessor preprocessor = new TextPreprocessor(stopWords, dictionary);
+        Set<String> fields = new HashSet<>(Arrays.asList("Id", "Content"));
+        String logFile = file + ".log";
+        Files.deleteIfExists(Paths.get(logFile));
+
+        try (IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(pageIndexDir).toPath()));
+             RecordLog log = new RecordLog(logFile, BATCH_SIZE)) {
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+            System.out.println("Computing language models of articles in page index...");
+            ProgressBar pb = new ProgressBar("Progress", reader.maxDoc());
+            IntStream.range(0, reader.maxDoc()).parallel().forEach(docId -> {
+                try {
+                    if (liveDocs == null || liveDocs.get(docId)) {
+                        Document doc = reader.document(docId, fields);
+                        String id = doc.get("Id");
+                        String content = doc.get("Content");
+                        if (id != null && content != null) {
+                            log.append(id, encode(preprocessor.toVector(content)));
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                pb.step();
+            });
+            pb.close();
+        }
+
+        System.out.print("Writing language models to: " + file + "...");
+        Files.deleteIfExists(Paths.get(file));
+        RecordStore.compact(file, logFile);
+        System.out.println("[Done].");
+
+        System.out.print("Writing " + dictionary.size() + " terms to: " + file + ".terms...");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file + ".terms")))) {
+            out.writeInt(MAGIC);
+            out.writeInt(new HashSet<>(stopWords).hashCode());
+            out.writeInt(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                out.writeUTF(dictionary.getTerm(i));
+            }
+        }
+        System.out.println("[Done].");
+    }
+
+    @NotNull
+    private static byte[] encode(@NotNull SparseVector vector) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        OutputStreamDataOutput out = new OutputStreamDataOutput(bos);
+        out.writeVInt((int) vector.sum());
+        out.writeVInt(vector.size());
+        int previous = 0;
+        for (int i = 0; i < vector.size(); i++) {
+            out.writeVInt(vector.getId(i) - previous);
+            out.writeVInt((int) vector.getValue(i));
+            previous = vector.getId(i);
+        }
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Main method.
+     * @param args Command line arguments: pageIndexDir stopWordsFile outFile
+     */
+
+    public static void main(@NotNull String[] args) {
+        try {
+            build(args[0], args[1], args[2]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -362,7 +362,7 @@ public class Index
         public static TopDocs searchIndex(BooleanQuery query,int n)throws IOException {
             return is.search(query, n);
         }
-        public static TopDocs searchIndex(BooleanQuery booleanQuery,
+        public static TopDocs searchIndex(Query booleanQuery,
                                           int n,
                                           @NotNull IndexSearcher searcher)throws IOException {
 
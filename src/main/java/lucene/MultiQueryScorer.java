@@ -0,0 +1,267 @@
+package lucene;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Scores many weighted-term queries over the same index in one pass over the postings.
+ *
+ * The expanded queries of the entities of a query (one per entity) share most of their terms (the query terms and
+ * many expansion terms). Searching them one by one decodes the postings of the shared terms once per entity.
+ * Here, the postings of every distinct term are decoded once and the score of the term is added to every query that
+ * has the term, with the weight of the term in that query:
+ *      score(q, d) = sum_t weight(q, t) * score(t, d)
+ * which is the score of a {@link WeightedTermsQuery} (or a BooleanQuery of boosted TermQuery SHOULD clauses) for q.
+ *
+ * As in {@link WeightedTermsQuery}, documents are processed in windows of {@link #WINDOW_SIZE} documents; after
+ * every window, the matches of every query are offered to the top-k heap of the query.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class MultiQueryScorer {
+
+    private final static int WINDOW_SIZE = 2048;
+    private final static int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    /**
+     * Search the index with many queries at once.
+     * @param searcher IndexSearcher
+     * @param queries Map of (key, (Term, weight)), e.g., key = entity id.
+     * @param k Integer Number of top documents per query.
+     * @param <K> Type of the key.
+     * @return Map of (key, top documents in descending order of score).
+     * @throws IOException
+     */
+
+    @NotNull
+    public static <K> Map<K, ScoreDoc[]> search(@NotNull IndexSearcher searcher,
+                                                @NotNull Map<K, Map<Term, Float>> queries,
+                                                int k) throws IOException {
+        List<K> keys = new ArrayList<>(queries.keySet());
+        int numQueries = keys.size();
+
+        // Term --> (query, weight) postings
+        Map<Term, TermQueries> termQueries = new LinkedHashMap<>();
+        for (int q = 0; q < numQueries; q++) {
+            for (Map.Entry<Term, Float> entry : queries.get(keys.get(q)).entrySet()) {
+                termQueries.computeIfAbsent(entry.getKey(), t -> new TermQueries()).add(q, entry.getValue());
+            }
+        }
+        int numTerms = termQueries.size();
+        Weight[] weights = new Weight[numTerms];
+        int[][] queryIds = new int[numTerms][];
+        float[][] queryWeights = new float[numTerms][];
+        int t = 0;
+        for (Map.Entry<Term, TermQueries> entry : termQueries.entrySet()) {
+            weights[t] = searcher.createWeight(searcher.rewrite(new TermQuery(entry.getKey())), true, 1.0f);
+            TermQueries list = entry.getValue();
+            queryIds[t] = Arrays.copyOf(list.queryIds, list.size);
+            queryWeights[t] = Arrays.copyOf(list.weights, list.size);
+            t++;
+        }
+
+        List<PriorityQueue<ScoreDoc>> heaps = new ArrayList<>(numQueries);
+        for (int q = 0; q < numQueries; q++) {
+            // Lowest score on top; for equal scores, the higher docid is dropped first (as in TopScoreDocCollector)
+            heaps.add(new PriorityQueue<>(k + 1, (a, b) -> a.score != b.score ? Float.compare(a.score, b.score)
+                    : Integer.compare(b.doc, a.doc)));
+        }
+        float[][] windowScores = new float[numQueries][WINDOW_SIZE];
+        long[][] windowMatches = new long[numQueries][WINDOW_SIZE / 64];
+
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            Bits liveDocs = context.reader().getLiveDocs();
+            List<Integer> termIndexes = new ArrayList<>();
+            List<Scorer> scorers = new ArrayList<>();
+            for (int i = 0; i < numTerms; i++) {
+                Scorer scorer = weights[i].scorer(context);
+                if (scorer != null) {
+                    termIndexes.add(i);
+                    scorers.add(scorer);
+                }
+            }
+            DocIdSetIterator[] iterators = new DocIdSetIterator[scorers.size()];
+            for (int i = 0; i < iterators.length; i++) {
+                iterators[i] = scorers.get(i).iterator();
+                iterators[i].nextDoc();
+            }
+
+            while (true) {
+                int min = DocIdSetIterator.NO_MORE_DOCS;
+                for (DocIdSetIterator it : iterators) {
+                    min = Math.min(min, it.docID());
+                }
+                if (min == DocIdSetIterator.NO_MORE_DOCS) {
+                    break;
+                }
+                int windowBase = min & ~WINDOW_MASK;
+                int windowEnd = windowBase + WINDOW_SIZE;
+
+                // Decode the postings of every term in the window once, adding the score to every query with the term
+                for (int i = 0; i < iterators.length; i++) {
+                    DocIdSetIterator it = iterators[i];
+                    Scorer scorer = scorers.get(i);
+                    int[] qIds = queryIds[termIndexes.get(i)];
+                    float[] qWeights = queryWeights[termIndexes.get(i)];
+                    for (int d = it.docID(); d < windowEnd; d = it.nextDoc()) {
+                        if (liveDocs != null && !liveDocs.get(d)) {
+                            continue;
+                        }
+                        int j = d & WINDOW_MASK;
+                        float score = scorer.score();
+                        for (int q = 0; q < qIds.length; q++) {
+                            windowScores[qIds[q]][j] += qWeights[q] * score;
+                            windowMatches[qIds[q]][j >>> 6] |= 1L << j;
+                        }
+                    }
+                }
+
+                // Offer the matches of the window to the heaps and reset the window
+                for (int q = 0; q < numQueries; q++) {
+                    PriorityQueue<ScoreDoc> heap = heaps.get(q);
+                    long[] matches = windowMatches[q];
+                    float[] scores = windowScores[q];
+                    for (int w = 0; w < matches.length; w++) {
+                        long bits = matches[w];
+                        while (bits != 0) {
+                            int j = (w << 6) | Long.numberOfTrailingZeros(bits);
+                            offer(heap, k, context.docBase + (windowBase | j), scores[j]);
+                            scores[j] = 0.0f;
+                            bits &= bits - 1;
+                        }
+                        matches[w] = 0L;
+                    }
+                }
+            }
+        }
+
+        Map<K, ScoreDoc[]> results = new LinkedHashMap<>();
+        for (int q = 0; q < numQueries; q++) {
+            PriorityQueue<ScoreDoc> heap = heaps.get(q);
+            ScoreDoc[] scoreDocs = new ScoreDoc[heap.size()];
+            for (int i = scoreDocs.length - 1; i >= 0; i--) {
+                scoreDocs[i] = heap.poll();
+            }
+            results.put(keys.get(q), scoreDocs);
+        }
+        return results;
+    }
+
+    /**
+     * Search the index with many queries at once, and get the ids of the top documents (e.g., the paragraphs).
+     * Weighted-term queries ({@link #getTermWeights(Query)}) are scored together with
+     * {@link #search(IndexSearcher, Map, int)}; any other query is searched on its own.
+     * @param searcher IndexSearcher
+     * @param queries Map of (key, query), e.g., key = entity id.
+     * @param k Integer Number of top documents per query.
+     * @param idField String Name of the stored id field of the documents (e.g., "id").
+     * @param <K> Type of the key.
+     * @return Map of (key, Map of (document id, score)), in the order of the queries.
+     * @throws IOException
+     */
+
+    @NotNull
+    public static <K> Map<K, Map<String, Float>> searchParagraphs(@NotNull IndexSearcher searcher,
+                                                                  @NotNull Map<K, Query> queries,
+                                                                  int k,
+                                                                  String idField) throws IOException {
+        Map<K, Map<Term, Float>> termQueries = new LinkedHashMap<>();
+        for (Map.Entry<K, Query> entry : queries.entrySet()) {
+            Map<Term, Float> termWeights = getTermWeights(entry.getValue());
+            if (termWeights != null) {
+                termQueries.put(entry.getKey(), termWeights);
+            }
+        }
+        Map<K, ScoreDoc[]> topDocs = search(searcher, termQueries, k);
+
+        Map<K, Map<String, Float>> results = new LinkedHashMap<>();
+        Set<String> fields = Collections.singleton(idField);
+        for (Map.Entry<K, Query> entry : queries.entrySet()) {
+            ScoreDoc[] scoreDocs = topDocs.get(entry.getKey());
+            if (scoreDocs == null) {
+                scoreDocs = searcher.search(entry.getValue(), k).scoreDocs;
+            }
+            Map<String, Float> scores = new HashMap<>();
+            for (ScoreDoc scoreDoc : scoreDocs) {
+                scores.put(searcher.doc(scoreDoc.doc, fields).get(idField), scoreDoc.score);
+            }
+            results.put(entry.getKey(), scores);
+        }
+        return results;
+    }
+
+    private static void offer(@NotNull PriorityQueue<ScoreDoc> heap, int k, int doc, float score) {
+        if (heap.size() < k) {
+            heap.add(new ScoreDoc(doc, score));
+        } else if (k > 0) {
+            ScoreDoc top = heap.peek();
+            // Documents come in increasing order of docid, so a new document only wins with a higher score
+            if (score > top.score) {
+                heap.poll();
+                heap.add(new ScoreDoc(doc, score));
+            }
+        }
+    }
+
+    /**
+     * Get the (Term, weight) pairs of a query, if it is a weighted-term query: a {@link WeightedTermsQuery}, or a
+     * BooleanQuery of SHOULD clauses that are TermQuery or BoostQuery(TermQuery).
+     * @param query Query
+     * @return Map of (Term, weight), or null if the query is of some other form.
+     */
+
+    @Nullable
+    public static Map<Term, Float> getTermWeights(@NotNull Query query) {
+        if (query instanceof WeightedTermsQuery) {
+            return ((WeightedTermsQuery) query).getTermWeights();
+        }
+        if (!(query instanceof BooleanQuery) || ((BooleanQuery) query).getMinimumNumberShouldMatch() > 0) {
+            return null;
+        }
+        Map<Term, Float> termWeights = new LinkedHashMap<>();
+        for (BooleanClause clause : (BooleanQuery) query) {
+            if (clause.getOccur() != BooleanClause.Occur.SHOULD) {
+                return null;
+            }
+            Query q = clause.getQuery();
+            float boost = 1.0f;
+            if (q instanceof BoostQuery) {
+                boost = ((BoostQuery) q).getBoost();
+                q = ((BoostQuery) q).getQuery();
+            }
+            if (!(q instanceof TermQuery)) {
+                return null;
+            }
+            termWeights.merge(((TermQuery) q).getTerm(), boost, Float::sum);
+        }
+        return termWeights;
+    }
+
+    /**
+     * The queries that have a term, with the weight of the term in each query.
+     */
+
+    private static class TermQueries {
+        private int[] queryIds = new int[4];
+        private float[] weights = new float[4];
+        private int size = 0;
+
+        private void add(int queryId, float weight) {
+            if (size == queryIds.length) {
+                queryIds = Arrays.copyOf(queryIds, 2 * size);
+                weights = Arrays.copyOf(weights, 2 * size);
+            }
+            queryIds[size] = queryId;
+            weights[size++] = weight;
+        }
+    }
+}
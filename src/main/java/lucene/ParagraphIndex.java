@@ -1,5 +1,8 @@
 package lucene;
 
+import api.AnchorLinker;
+import api.AnnotationStore;
+import api.Annotator;
 import api.WATApi;
 import edu.unh.cs.treccar_v2.Data;
 import edu.unh.cs.treccar_v2.read_data.DeserializeData;
@@ -8,6 +11,7 @@ import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
@@ -31,7 +35,43 @@ import java.util.stream.StreamSupport;
 
 public class ParagraphIndex {
     private final static AtomicInteger count = new AtomicInteger(0);
+    private final static double RHO = 0.1;
+
+    // The text is indexed with term vectors, so that the (term, tf) pairs of a paragraph can be read
+    // from the index without analyzing the text again (see TermVectors).
+    private final static FieldType TEXT_TYPE = new FieldType(TextField.TYPE_STORED);
+    static {
+        TEXT_TYPE.setStoreTermVectors(true);
+        TEXT_TYPE.freeze();
+    }
+
     public static void createIndex(String cborFile, String indexDir, Analyzer analyzer) throws IOException {
+        createIndex(cborFile, indexDir, analyzer, null, Annotator.WAT);
+    }
+
+    public static void createIndex(String cborFile, String indexDir, Analyzer analyzer,
+                                   @Nullable String annotationFile) throws IOException {
+        createIndex(cborFile, indexDir, analyzer, annotationFile, Annotator.WAT);
+    }
+
+    /**
+     * Create the index.
+     * Every paragraph is annotated once, and the annotations are used for both the "EntityLinks" and
+     * "OutlinkIds" fields. If an annotation file is given, the annotations are read from (and saved to) this file,
+     * so that the entity linker is only called for paragraphs not annotated in an earlier build.
+     * @param cborFile String Path to the paragraph corpus.
+     * @param indexDir String Path to the index directory.
+     * @param analyzer Analyzer Lucene analyzer.
+     * @param annotationFile String Path to the annotation store. May be null.
+     * @param annotator Annotator Entity linker (WAT or the local {@link AnchorLinker}).
+     * @throws IOException
+     */
+
+    public static void createIndex(String cborFile, String indexDir, Analyzer analyzer,
+                                   @Nullable String annotationFile, Annotator annotator) throws IOException {
+        AnnotationStore annotationStore = annotationFile == null ? null : new AnnotationStore(annotationFile, annotator);
+        // RHO is a WAT threshold; the AnchorLinker applies its own thresholds and scores on a different scale
+        double rho = annotator instanceof AnchorLinker ? 0.0d : RHO;
         IndexWriter writer = createWriter(analyzer, indexDir);
         BufferedInputStream bis = new BufferedInputStream(new FileInputStream(new File(cborFile)));
 
@@ -43,14 +83,14 @@ public class ParagraphIndex {
                 .forEach(paragraph ->
                 {
                     try {
-                        writer.addDocument(createDocument(paragraph));
+                        writer.addDocument(createDocument(paragraph, annotationStore, annotator, rho));
                         System.out.println("Done: " + paragraph.getParaId());
                         count.getAndIncrement();
                         if (count.get() % 10000 == 0) {
                             writer.commit();
                         }
 //                        if (! isPresentInIndex(paragraph, indexDir)) {
-//                            writer.addDocument(createDocument(paragraph));
+//                            writer.addDocument(createDocument(paragraph, annotationStore, annotator, rho));
 //                            System.out.println("Done: " + paragraph.getParaId());
 //                        } else {
 //                            System.out.println("Skipping:" + paragraph.getParaId());
@@ -61,6 +101,9 @@ public class ParagraphIndex {
                 });
         writer.commit();
         writer.close();
+        if (annotationStore != null) {
+            annotationStore.close();
+        }
         System.out.println("Finished.");
 
     }
@@ -94,12 +137,18 @@ public class ParagraphIndex {
     }
 
     @NotNull
-    private static Document createDocument(@NotNull Data.Paragraph paragraph) {
+    private static Document createDocument(@NotNull Data.Paragraph paragraph,
+                                           @Nullable AnnotationStore annotationStore,
+                                           @NotNull Annotator annotator,
+                                           double rho) {
 
         String paraID = paragraph.getParaId();
         String paraText = paragraph.getTextOnly();
-        List<String> entityLinks = getEntityLinks(paragraph);
-        List<String> outlinkIds = getOutlinkIds(paragraph);
+        List<WATApi.Annotation> annotations = annotationStore == null
+                ? annotator.getAnnotations(paraText, rho)
+                : annotationStore.getAnnotations(paraID, paraText, rho);
+        List<String> entityLinks = getEntityLinks(paragraph, annotations);
+        List<String> outlinkIds = getOutlinkIds(paragraph, annotations);
         //Document d = paraToLuceneDoc(paraID, paraText, entityLinks, outlinkIds);
         return paraToLuceneDoc(paraID, paraText, entityLinks, outlinkIds);
 
@@ -110,7 +159,7 @@ public class ParagraphIndex {
                                             List<String> entityLinks, List<String> outlinkIds) {
         Document doc = new Document();
         doc.add(new StringField("Id", paraID, Field.Store.YES));
-        doc.add(new TextField("Text", paraText, Field.Store.YES));
+        doc.add(new Field("Text", paraText, TEXT_TYPE));
         doc.add(new TextField("EntityLinks", String.join("\n", entityLinks), Field.Store.YES));
         doc.add(new TextField("OutlinkIds", String.join("\n", outlinkIds), Field.Store.YES));
 
@@ -118,36 +167,34 @@ public class ParagraphIndex {
     }
 
     @NotNull
-    private static List<String> getOutlinkIds(Data.Paragraph paragraph) {
+    private static List<String> getOutlinkIds(Data.Paragraph paragraph, List<WATApi.Annotation> annotations) {
         List<String> outlinkIds = new ArrayList<>();
 
         // Use entity links in the provided with the data
         outlinkIds.addAll(getParaEntityIds(paragraph));
 
         // Also use entity links from WAT
-        outlinkIds.addAll(getWatEntityIds(paragraph));
+        outlinkIds.addAll(getWatEntityIds(annotations));
 
         return outlinkIds;
     }
 
     @NotNull
-    private static List<String> getEntityLinks(Data.Paragraph paragraph) {
+    private static List<String> getEntityLinks(Data.Paragraph paragraph, List<WATApi.Annotation> annotations) {
         List<String> entityLinks = new ArrayList<>();
 
         // Use entity links in the provided with the data
         entityLinks.addAll(getParaEntities(paragraph));
 
         // Also use entity links from WAT
-        entityLinks.addAll(getWatEntities(paragraph));
+        entityLinks.addAll(getWatEntities(annotations));
 
         return entityLinks;
     }
 
     @NotNull
-    private static List<String> getWatEntities(@NotNull Data.Paragraph paragraph) {
+    private static List<String> getWatEntities(@NotNull List<WATApi.Annotation> annotations) {
         List<String> entities = new ArrayList<>();
-        String text = paragraph.getTextOnly();
-        List<WATApi.Annotation> annotations = WATApi.EntityLinker.getAnnotations(text,0.1);
         for (WATApi.Annotation annotation : annotations) {
             String wikiTitle = annotation.getWikiTitle().replaceAll("_", " ");
             String spot = annotation.getSpot();
@@ -157,10 +204,8 @@ public class ParagraphIndex {
     }
 
     @NotNull
-    private static List<String> getWatEntityIds(@NotNull Data.Paragraph paragraph) {
+    private static List<String> getWatEntityIds(@NotNull List<WATApi.Annotation> annotations) {
         List<String> entities = new ArrayList<>();
-        String text = paragraph.getTextOnly();
-        List<WATApi.Annotation> annotations = WATApi.EntityLinker.getAnnotations(text,0.1);
         for (WATApi.Annotation annotation : annotations) {
             String wikiTitle = annotation.getWikiTitle().replaceAll("_", " ");
             String id = "enwiki:" + wikiTitle.replaceAll(" ","%20");
@@ -208,6 +253,8 @@ public class ParagraphIndex {
         String cborFile = args[0];
         String indexDir = args[1];
         String a = args[2];
+        String annotationFile = args.length > 3 && !args[3].equalsIgnoreCase("none") ? args[3] : null;
+        String anchorLinkerFile = args.length > 4 ? args[4] : null;
 
         Analyzer analyzer = null;
         switch (a) {
@@ -224,7 +271,13 @@ public class ParagraphIndex {
                 System.exit(1);
         }
         try {
-            createIndex(cborFile, indexDir, analyzer);
+            Annotator annotator = Annotator.WAT;
+            if (anchorLinkerFile != null) {
+                System.out.print("Loading anchor linker from: " + anchorLinkerFile + "...");
+                annotator = AnchorLinker.load(anchorLinkerFile);
+                System.out.println("[Done].");
+            }
+            createIndex(cborFile, indexDir, analyzer, annotationFile, annotator);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,330 @@
+package lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Joined view of a paragraph index and the {@link StanfordNERIndex} of the same corpus.
+ *
+ * The two indexes are built independently (and in parallel), so the same paragraph has different docids in each.
+ * Instead of looking up every paragraph by id in both indexes, the view keeps a docid mapping
+ * (paragraph index docid --> NER index docid). The mapping is built with one merge-join of the sorted term
+ * dictionaries of the two id fields: no query is run, and every term is visited once. It can be written to a file
+ * so that it is built once per pair of indexes.
+ *
+ * One docid of the paragraph index (e.g., from a search on the paragraph index, or from {@link #getDocId(String)})
+ * then gives the text and the entity links of the paragraph ({@link #getParagraph(int)}) and its NER entities
+ * ({@link #getNerEntities(int)}). Only the requested stored fields are loaded.
+ *
+ * Mapping file: int MAGIC, int VERSION, UTF identity (paragraph index), UTF identity (NER index), int maxDoc
+ * (paragraph index), int maxDoc (NER index), then maxDoc ints (the NER docid of every paragraph docid, -1 if the
+ * paragraph is not in the NER index).
+ * The identity of an index is the commit it was opened at (segments file name, version and the unique id of the
+ * commit), so a mapping file is only used with the exact commits of the two indexes it was built from; after an
+ * index is rebuilt or updated, the mapping is rebuilt. A reader which is not a DirectoryReader has no identity,
+ * and the mapping is always rebuilt.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class ParagraphView {
+
+    private final static int MAGIC = 0x5056444D; // "PVDM"
+    private final static int VERSION = 2;
+    private final static String NER_ENTITY_FIELD = "Entity";
+
+    private final IndexSearcher searcher;
+    private final IndexSearcher nerSearcher;
+    private final String idField;
+    private final int[] nerDocs;
+
+    private ParagraphView(IndexSearcher searcher, String idField, IndexSearcher nerSearcher, int[] nerDocs) {
+        this.searcher = searcher;
+        this.idField = idField;
+        this.nerSearcher = nerSearcher;
+        this.nerDocs = nerDocs;
+    }
+
+    /**
+     * Open a view over a paragraph index and a NER index.
+     * @param searcher IndexSearcher Searcher for the paragraph index.
+     * @param idField String Name of the paragraph id field in the paragraph index ("id" or "Id").
+     * @param nerSearcher IndexSearcher Searcher for the NER index.
+     * @param nerIdField String Name of the paragraph id field in the NER index ("Id").
+     * @param docMapFile String Path to the mapping file. If the file exists and matches the indexes, the mapping is
+     *                   read from it; otherwise it is built (and written to the file). May be null (build in memory).
+     * @return ParagraphView
+     * @throws IOException
+     */
+
+    @NotNull
+    public static ParagraphView open(@NotNull IndexSearcher searcher,
+                                     String idField,
+                                     @NotNull IndexSearcher nerSearcher,
+                                     String nerIdField,
+                                     @Nullable String docMapFile) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        IndexReader nerReader = nerSearcher.getIndexReader();
+        String identity = getIdentity(reader);
+        String nerIdentity = getIdentity(nerReader);
+        boolean identified = identity != null && nerIdentity != null;
+        int[] nerDocs = null;
+        if (docMapFile != null && new File(docMapFile).exists()) {
+            if (identified) {
+                nerDocs = readDocMap(docMapFile, identity, nerIdentity, reader.maxDoc(), nerReader.maxDoc());
+            }
+            if (nerDocs == null) {
+                System.err.println("WARNING: Mapping file " + docMapFile + " does not match the indexes. Rebuilding.");
+            }
+        }
+        if (nerDocs == null) {
+            System.out.print("Aligning paragraph index with NER index...");
+            nerDocs = buildDocMap(reader, idField, nerReader, nerIdField);
+            System.out.println("[Done].");
+            if (docMapFile != null && identified) {
+                writeDocMap(docMapFile, identity, nerIdentity, nerDocs, nerReader.maxDoc());
+            }
+        }
+        return new ParagraphView(searcher, idField, nerSearcher, nerDocs);
+    }
+
+    /**
+     * Get the searcher of the paragraph index. Docids from searches with this searcher can be used with the view.
+     * @return IndexSearcher
+     */
+
+    @NotNull
+    public IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    /**
+     * Get the docid of a paragraph in the paragraph index.
+     * @param paraId String Paragraph id.
+     * @return Integer Docid, or -1 if the paragraph is not in the index.
+     * @throws IOException
+     */
+
+    public int getDocId(@NotNull String paraId) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        PostingsEnum postings = MultiFields.getTermDocsEnum(reader, idField, new BytesRef(paraId), PostingsEnum.NONE);
+        if (postings == null) {
+            return -1;
+        }
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        for (int d = postings.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS; d = postings.nextDoc()) {
+            if (liveDocs == null || liveDocs.get(d)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the docids of many paragraphs.
+     * @param paraIds List of paragraph ids.
+     * @return Array of docids, in the order of the paragraph ids (-1 for the paragraphs not in the index).
+     * @throws IOException
+     */
+
+    @NotNull
+    public int[] getDocIds(@NotNull List<String> paraIds) throws IOException {
+        int[] docs = new int[paraIds.size()];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = getDocId(paraIds.get(i));
+        }
+        return docs;
+    }
+
+    /**
+     * Get the stored fields of a paragraph from the paragraph index.
+     * @param doc Integer Docid in the paragraph index.
+     * @return Document
+     * @throws IOException
+     */
+
+    @NotNull
+    public Document getParagraph(int doc) throws IOException {
+        return searcher.doc(doc);
+    }
+
+    /**
+     * Get some stored fields of a paragraph from the paragraph index.
+     * @param doc Integer Docid in the paragraph index.
+     * @param fields Set of fields to load.
+     * @return Document
+     * @throws IOException
+     */
+
+    @NotNull
+    public Document getParagraph(int doc, @NotNull Set<String> fields) throws IOException {
+        return searcher.doc(doc, fields);
+    }
+
+    /**
+     * Get the stored fields of a paragraph from the NER index.
+     * @param doc Integer Docid in the paragraph index.
+     * @return Document, or null if the paragraph is not in the NER index.
+     * @throws IOException
+     */
+
+    @Nullable
+    public Document getNerDocument(int doc) throws IOException {
+        return hasNer(doc) ? nerSearcher.doc(nerDocs[doc]) : null;
+    }
+
+    /**
+     * Get the NER entities of a paragraph, as stored in the NER index ("entity:TAG").
+     * @param doc Integer Docid in the paragraph index.
+     * @return List of entities. Empty if the paragraph is not in the NER index.
+     * @throws IOException
+     */
+
+    @NotNull
+    public List<String> getNerEntities(int doc) throws IOException {
+        List<String> entities = new ArrayList<>();
+        if (!hasNer(doc)) {
+            return entities;
+        }
+        String value = nerSearcher.doc(nerDocs[doc], Collections.singleton(NER_ENTITY_FIELD)).get(NER_ENTITY_FIELD);
+        if (value != null) {
+            for (String e : value.split("\n")) {
+                if (!e.isEmpty()) {
+                    entities.add(e);
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Check if a paragraph is in the NER index.
+     * @param doc Integer Docid in the paragraph index.
+     * @return Boolean
+     */
+
+    public boolean hasNer(int doc) {
+        return doc >= 0 && doc < nerDocs.length && nerDocs[doc] >= 0;
+    }
+
+    /**
+     * Build the docid mapping by merging the sorted terms of the two id fields.
+     */
+
+    @NotNull
+    private static int[] buildDocMap(@NotNull IndexReader reader,
+                                     String idField,
+                                     @NotNull IndexReader nerReader,
+                                     String nerIdField) throws IOException {
+        int[] nerDocs = new int[reader.maxDoc()];
+        Arrays.fill(nerDocs, -1);
+        Terms terms = MultiFields.getTerms(reader, idField);
+        Terms nerTerms = MultiFields.getTerms(nerReader, nerIdField);
+        if (terms == null || nerTerms == null) {
+            throw new IOException("Missing paragraph id field: " + (terms == null ? idField : nerIdField));
+        }
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Bits nerLiveDocs = MultiFields.getLiveDocs(nerReader);
+        TermsEnum te = terms.iterator(), nerTe = nerTerms.iterator();
+        PostingsEnum postings = null, nerPostings = null;
+        BytesRef term = te.next(), nerTerm = nerTe.next();
+        while (term != null && nerTerm != null) {
+            int c = term.compareTo(nerTerm);
+            if (c < 0) {
+                term = te.next();
+            } else if (c > 0) {
+                nerTerm = nerTe.next();
+            } else {
+                postings = te.postings(postings, PostingsEnum.NONE);
+                nerPostings = nerTe.postings(nerPostings, PostingsEnum.NONE);
+                int nerDoc = firstLiveDoc(nerPostings, nerLiveDocs);
+                for (int d = postings.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS; d = postings.nextDoc()) {
+                    if (liveDocs == null || liveDocs.get(d)) {
+                        nerDocs[d] = nerDoc;
+                    }
+                }
+                term = te.next();
+                nerTerm = nerTe.next();
+            }
+        }
+        return nerDocs;
+    }
+
+    private static int firstLiveDoc(@NotNull PostingsEnum postings, @Nullable Bits liveDocs) throws IOException {
+        for (int d = postings.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS; d = postings.nextDoc()) {
+            if (liveDocs == null || liveDocs.get(d)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the identity of the commit an index reader was opened at.
+     * @param reader IndexReader
+     * @return String Segments file name, version and id of the commit, or null if the reader is not a DirectoryReader.
+     * @throws IOException
+     */
+
+    @Nullable
+    private static String getIdentity(@NotNull IndexReader reader) throws IOException {
+        if (!(reader instanceof DirectoryReader)) {
+            return null;
+        }
+        DirectoryReader directoryReader = (DirectoryReader) reader;
+        String segmentsFileName = directoryReader.getIndexCommit().getSegmentsFileName();
+        byte[] id = SegmentInfos.readCommit(directoryReader.directory(), segmentsFileName).getId();
+        return segmentsFileName + ":" + directoryReader.getVersion() + ":" + StringHelper.idToString(id);
+    }
+
+    private static void writeDocMap(String file,
+                                    String identity,
+                                    String nerIdentity,
+                                    @NotNull int[] nerDocs,
+                                    int nerMaxDoc) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(identity);
+            out.writeUTF(nerIdentity);
+            out.writeInt(nerDocs.length);
+            out.writeInt(nerMaxDoc);
+            for (int d : nerDocs) {
+                out.writeInt(d);
+            }
+        }
+    }
+
+    @Nullable
+    private static int[] readDocMap(String file,
+                                    @NotNull String identity,
+                                    @NotNull String nerIdentity,
+                                    int maxDoc,
+                                    int nerMaxDoc) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (!identity.equals(in.readUTF()) || !nerIdentity.equals(in.readUTF())
+                    || in.readInt() != maxDoc || in.readInt() != nerMaxDoc) {
+                return null;
+            }
+            int[] nerDocs = new int[maxDoc];
+            for (int i = 0; i < maxDoc; i++) {
+                nerDocs[i] = in.readInt();
+            }
+            return nerDocs;
+        }
+    }
+}
@@ -64,13 +64,13 @@ public class RAMIndex {
 
     /**
      * Search the index for the given query and return top n hits.
-     * The query is a Boolean Query which may consist of one or more terms queries.
-     * @param query BooleanQuery Query to search
+     * The query is a Boolean Query which may consist of one or more terms queries (or any other Query).
+     * @param query Query Query to search
      * @param n Integer Top hits for the query
      * @return HashMap where Key = Document and Value = Score
      */
     @NotNull
-    public static  Map<String,Float> searchIndex(BooleanQuery query, int n, @NotNull IndexSearcher is) {
+    public static  Map<String,Float> searchIndex(Query query, int n, @NotNull IndexSearcher is) {
         Map<String,Float> results = new HashMap<>();
 
         // Search the query
@@ -0,0 +1,373 @@
+package lucene;
+
+import help.AnalyzedTextCache;
+import help.SparseVector;
+import help.TermDictionary;
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Term vectors of the paragraphs in a paragraph index, as (termId, tf) pairs.
+ *
+ * If the text field of the index was indexed with term vectors (see {@link ParagraphIndex}), the vector is read
+ * directly from the index. Otherwise, the stored text is run through the analyzer once, and a warning is printed
+ * the first time this happens; term vectors can be added to an existing index with
+ * {@link #addTermVectors(String, String, String, String, Analyzer)}.
+ * Either way, the terms are the analyzed terms, i.e., the same terms a query on the text field uses.
+ *
+ * With a tokenizer instead of an analyzer, the stored text is always split with the tokenizer and the term vectors
+ * of the index are not used; this keeps features defined over raw words (rather than analyzed terms) unchanged.
+ *
+ * The term vectors are used to build feedback distributions (RM1/RM3) by summing sparse vectors instead of
+ * re-tokenizing the text of every feedback paragraph. Vectors looked up by paraId are kept in an
+ * {@link AnalyzedTextCache}, whose dictionary provides the term ids.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class TermVectors {
+
+    private final IndexSearcher searcher;
+    private final String idField;
+    private final String textField;
+    private final Analyzer analyzer;
+    private final Function<String, List<String>> tokenizer;
+    private final AtomicBoolean warned = new AtomicBoolean(false);
+    private final TermDictionary dictionary;
+    private final AnalyzedTextCache cache;
+    private final Set<String> stopTerms = new HashSet<>();
+    private String config;
+
+    /**
+     * Constructor.
+     * @param searcher IndexSearcher Searcher for the paragraph index.
+     * @param idField String Name of the paragraph id field ("id" or "Id").
+     * @param textField String Name of the text field ("text" or "Text").
+     * @param analyzer Analyzer Analyzer used to build the index.
+     * @param cache AnalyzedTextCache Cache of term vectors.
+     */
+
+    public TermVectors(IndexSearcher searcher,
+                       String idField,
+                       String textField,
+                       Analyzer analyzer,
+                       @NotNull AnalyzedTextCache cache) {
+        this(searcher, idField, textField, analyzer, null, cache);
+    }
+
+    /**
+     * Constructor.
+     * The term vectors are made of the words returned by the tokenizer for the stored text.
+     * @param searcher IndexSearcher Searcher for the paragraph index.
+     * @param idField String Name of the paragraph id field ("id" or "Id").
+     * @param textField String Name of the text field ("text" or "Text").
+     * @param tokenizer Function Splits a text into words.
+     * @param cache AnalyzedTextCache Cache of term vectors.
+     */
+
+    public TermVectors(IndexSearcher searcher,
+                       String idField,
+                       String textField,
+                       @NotNull Function<String, List<String>> tokenizer,
+                       @NotNull AnalyzedTextCache cache) {
+        this(searcher, idField, textField, null, tokenizer, cache);
+    }
+
+    private TermVectors(IndexSearcher searcher,
+                        String idField,
+                        String textField,
+                        @Nullable Analyzer analyzer,
+                        @Nullable Function<String, List<String>> tokenizer,
+                        @NotNull AnalyzedTextCache cache) {
+        this.searcher = searcher;
+        this.idField = idField;
+        this.textField = textField;
+        this.analyzer = analyzer;
+        this.tokenizer = tokenizer;
+        this.cache = cache;
+        this.dictionary = cache.getDictionary();
+        this.config = makeConfig();
+    }
+
+    @NotNull
+    private String makeConfig() {
+        String terms = analyzer != null ? analyzer.getClass().getName() : "raw@" + System.identityHashCode(tokenizer);
+        return "tv:" + textField + ":" + terms + ":" + stopTerms.hashCode();
+    }
+
+    /**
+     * Drop the given words from all term vectors.
+     * The stop words are analyzed with the analyzer (if any), so that they match the analyzed terms.
+     * @param stopWords Collection of stop words.
+     */
+
+    public void setStopWords(@NotNull Collection<String> stopWords) {
+        stopTerms.clear();
+        for (String stopWord : stopWords) {
+            if (analyzer != null) {
+                stopTerms.addAll(analyze(stopWord));
+            } else {
+                stopTerms.add(stopWord);
+            }
+        }
+        config = makeConfig();
+    }
+
+    @NotNull
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get the term vector of a paragraph.
+     * @param paraId String ID of the paragraph.
+     * @return SparseVector of (termId, tf). Empty if the paragraph is not in the index.
+     */
+
+    @NotNull
+    public SparseVector get(String paraId) {
+        return cache.get(paraId, config, () -> load(paraId));
+    }
+
+    @NotNull
+    private SparseVector load(String paraId) {
+        try {
+            TopDocs tds = searcher.search(new TermQuery(new Term(idField, paraId)), 1);
+            ScoreDoc[] retDocs = tds.scoreDocs;
+            if (retDocs.length == 0) {
+                return SparseVector.EMPTY;
+            }
+            return get(retDocs[0].doc);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return SparseVector.EMPTY;
+        }
+    }
+
+    /**
+     * Get the term vector of a paragraph.
+     * @param docId Integer Lucene docid of the paragraph.
+     * @return SparseVector of (termId, tf).
+     * @throws IOException
+     */
+
+    @NotNull
+    public SparseVector get(int docId) throws IOException {
+        if (analyzer != null) {
+            Terms terms = searcher.getIndexReader().getTermVector(docId, textField);
+            if (terms != null) {
+                return fromTerms(terms);
+            }
+            if (!warned.getAndSet(true)) {
+                System.err.println("WARNING: No term vectors for field \"" + textField + "\" in the index. " +
+                        "Analyzing the stored text instead (slower). Use --term-vectors to add them to the index.");
+            }
+        }
+        Document doc = searcher.doc(docId, Collections.singleton(textField));
+        String text = doc.get(textField);
+        if (text == null) {
+            return SparseVector.EMPTY;
+        }
+        return analyzer != null ? fromText(text) : fromWords(tokenizer.apply(text));
+    }
+
+    /**
+     * Feedback distribution over terms: sum_p weight(p) * tf(t, p), with the weights normalized to sum to one.
+     * @param psgWeights Map of (ParaID, weight), e.g., the retrieval scores of the feedback paragraphs.
+     * @return SparseVector of (termId, weight).
+     */
+
+    @NotNull
+    public SparseVector getDistribution(@NotNull Map<String, ? extends Number> psgWeights) {
+        double normalizer = 0.0;
+        for (Number weight : psgWeights.values()) {
+            normalizer += weight.doubleValue();
+        }
+        if (normalizer <= 0) {
+            return SparseVector.EMPTY;
+        }
+        List<SparseVector> vectors = new ArrayList<>(psgWeights.size());
+        float[] weights = new float[psgWeights.size()];
+        for (Map.Entry<String, ? extends Number> entry : psgWeights.entrySet()) {
+            weights[vectors.size()] = (float) (entry.getValue().doubleValue() / normalizer);
+            vectors.add(get(entry.getKey()));
+        }
+        return SparseVector.weightedSum(vectors, weights);
+    }
+
+    @NotNull
+    private SparseVector fromTerms(@NotNull Terms terms) throws IOException {
+        int n = (int) Math.max(terms.size(), 16);
+        int[] ids = new int[n];
+        float[] freqs = new float[n];
+        int size = 0;
+
+        TermsEnum termsEnum = terms.iterator();
+        BytesRef bytesRef;
+        while ((bytesRef = termsEnum.next()) != null) {
+            String term = bytesRef.utf8ToString();
+            if (stopTerms.contains(term)) {
+                continue;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                freqs = Arrays.copyOf(freqs, 2 * size);
+            }
+            ids[size] = dictionary.getId(term);
+            // For the term vector of a single document, the total term frequency is the tf in the document
+            freqs[size++] = termsEnum.totalTermFreq();
+        }
+        return SparseVector.fromUnsorted(ids, freqs, size);
+    }
+
+    @NotNull
+    private SparseVector fromText(@NotNull String text) throws IOException {
+        int[] ids = new int[64];
+        float[] freqs = new float[64];
+        int size = 0;
+
+        try (TokenStream tokenStream = analyzer.tokenStream(textField, new StringReader(text))) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                String term = termAttribute.toString();
+                if (stopTerms.contains(term)) {
+                    continue;
+                }
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, 2 * size);
+                    freqs = Arrays.copyOf(freqs, 2 * size);
+                }
+                ids[size] = dictionary.getId(term);
+                freqs[size++] = 1.0f;
+            }
+            tokenStream.end();
+        }
+        return SparseVector.fromUnsorted(ids, freqs, size);
+    }
+
+    @NotNull
+    private SparseVector fromWords(@NotNull List<String> words) {
+        int[] ids = new int[words.size()];
+        float[] freqs = new float[words.size()];
+        int size = 0;
+        for (String word : words) {
+            if (!stopTerms.contains(word)) {
+                ids[size] = dictionary.getId(word);
+                freqs[size++] = 1.0f;
+            }
+        }
+        return SparseVector.fromUnsorted(ids, freqs, size);
+    }
+
+    @NotNull
+    private List<String> analyze(String text) {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream tokenStream = analyzer.tokenStream(textField, new StringReader(text))) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                tokens.add(termAttribute.toString());
+            }
+            tokenStream.end();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return tokens;
+    }
+
+    /////////////////////////////////// ADDING TERM VECTORS TO AN INDEX ///////////////////////////////////
+
+    /**
+     * Copy an index, adding term vectors to its text field.
+     * Only stored fields can be copied. Every field is re-indexed the way it was indexed in the source index:
+     * (1) The text field is indexed as a stored TextField with term vectors.
+     * (2) Fields that are not indexed are stored only.
+     * (3) Fields indexed with docs only and no norms (as a StringField is, e.g., the id field) are not tokenized.
+     * (4) All other indexed fields are stored TextFields.
+     * Fields that are indexed but not stored cannot be recovered, and are reported.
+     * @param indexDir String Path to the source index.
+     * @param outIndexDir String Path to the new index.
+     * @param idField String Name of the paragraph id field.
+     * @param textField String Name of the text field.
+     * @param analyzer Analyzer Analyzer used to build the source index.
+     * @throws IOException
+     */
+
+    public static void addTermVectors(String indexDir,
+                                      String outIndexDir,
+                                      String idField,
+                                      String textField,
+                                      Analyzer analyzer) throws IOException {
+        FieldType textType = new FieldType(TextField.TYPE_STORED);
+        textType.setStoreTermVectors(true);
+        textType.freeze();
+
+        try (IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(indexDir).toPath()));
+             IndexWriter writer = new IndexWriter(FSDirectory.open(new File(outIndexDir).toPath()),
+                     new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE))) {
+            FieldInfos fieldInfos = MultiFields.getMergedFieldInfos(reader);
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            Set<String> storedFields = new HashSet<>();
+
+            ProgressBar pb = new ProgressBar("Progress", reader.maxDoc());
+            for (int docId = 0; docId < reader.maxDoc(); docId++) {
+                pb.step();
+                if (liveDocs != null && !liveDocs.get(docId)) {
+                    continue;
+                }
+                Document doc = new Document();
+                for (IndexableField field : reader.document(docId)) {
+                    String name = field.name();
+                    String value = field.stringValue();
+                    storedFields.add(name);
+                    if (value == null) {
+                        continue;
+                    }
+                    FieldInfo info = fieldInfos.fieldInfo(name);
+                    if (name.equals(textField)) {
+                        doc.add(new Field(name, value, textType));
+                    } else if (info == null || info.getIndexOptions() == IndexOptions.NONE) {
+                        doc.add(new StoredField(name, value));
+                    } else if (name.equals(idField)
+                            || (info.getIndexOptions() == IndexOptions.DOCS && info.omitsNorms())) {
+                        doc.add(new StringField(name, value, Field.Store.YES));
+                    } else {
+                        doc.add(new TextField(name, value, Field.Store.YES));
+                    }
+                }
+                writer.addDocument(doc);
+            }
+            pb.close();
+            writer.commit();
+
+            for (FieldInfo info : fieldInfos) {
+                if (info.getIndexOptions() != IndexOptions.NONE && !storedFields.contains(info.name)) {
+                    System.err.println("WARNING: Field \"" + info.name + "\" is indexed but not stored; " +
+                            "it is not in the new index.");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A query over a set of weighted terms: score(d) = sum_t weight(t) * score(t, d), where score(t, d) is the score of
+ * a TermQuery for t under the similarity of the searcher. This is the same score as a BooleanQuery of
+ * BoostQuery(TermQuery(t), weight(t)) SHOULD clauses (e.g., an RM3 expanded query), but:
+ *
+ * (1) There is no limit on the number of terms (BooleanQuery has a maximum clause count, and the RM3 queries were
+ *     cut at 64 terms).
+ * (2) The terms are scored term-at-a-time, in windows of {@link #WINDOW_SIZE} documents: the postings of every term
+ *     are walked once per window and the scores are added into an array, instead of merging hundreds of scorers
+ *     document-at-a-time through a priority queue. Terms that do not occur in a segment cost nothing there.
+ *
+ * If a term is given more than once, its weights are added.
+ *
+ * @author Shubham Chatterjee
+ * @version 10/18/2020
+ */
+
+public class WeightedTermsQuery extends Query {
+
+    private final static int WINDOW_SIZE = 2048;
+    private final static int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private final Term[] terms;
+    private final float[] weights;
+
+    /**
+     * Constructor.
+     * @param termWeights Map of (Term, weight).
+     */
+
+    public WeightedTermsQuery(@NotNull Map<Term, Float> termWeights) {
+        // Sort the terms so that equal queries are equal
+        TreeMap<Term, Float> sorted = new TreeMap<>(termWeights);
+        this.terms = sorted.keySet().toArray(new Term[0]);
+        this.weights = new float[terms.length];
+        int i = 0;
+        for (float weight : sorted.values()) {
+            weights[i++] = weight;
+        }
+    }
+
+    /**
+     * Builds a WeightedTermsQuery. Weights of repeated terms are added.
+     */
+
+    public static class Builder {
+        private final Map<Term, Float> termWeights = new HashMap<>();
+
+        @NotNull
+        public Builder add(@NotNull Term term, float weight) {
+            termWeights.merge(term, weight, Float::sum);
+            return this;
+        }
+
+        public int size() {
+            return termWeights.size();
+        }
+
+        @NotNull
+        public WeightedTermsQuery build() {
+            return new WeightedTermsQuery(termWeights);
+        }
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Get the terms of the query with their weights.
+     * @return Map of (Term, weight).
+     */
+
+    @NotNull
+    public Map<Term, Float> getTermWeights() {
+        Map<Term, Float> termWeights = new LinkedHashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            termWeights.put(terms[i], weights[i]);
+        }
+        return termWeights;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        if (terms.length == 0) {
+            return new MatchNoDocsQuery("Empty weighted term set");
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+        Weight[] termWeights = new Weight[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            termWeights[i] = searcher.createWeight(searcher.rewrite(new TermQuery(terms[i])), needsScores,
+                    boost * weights[i]);
+        }
+        return new WeightedTermsWeight(this, termWeights);
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder sb = new StringBuilder("WeightedTerms(");
+        for (int i = 0; i < terms.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(field != null && field.equals(terms[i].field()) ? terms[i].text() : terms[i].toString())
+                    .append('^').append(weights[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                Arrays.equals(terms, ((WeightedTermsQuery) other).terms) &&
+                Arrays.equals(weights, ((WeightedTermsQuery) other).weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * classHash() + Arrays.hashCode(terms)) + Arrays.hashCode(weights);
+    }
+
+    /**
+     * Weight: one TermQuery weight per term, combined by a {@link WindowScorer} for every segment.
+     */
+
+    private static class WeightedTermsWeight extends Weight {
+        private final Weight[] termWeights;
+
+        WeightedTermsWeight(Query query, Weight[] termWeights) {
+            super(query);
+            this.termWeights = termWeights;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> set) {
+            for (Weight weight : termWeights) {
+                weight.extractTerms(set);
+            }
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            List<Explanation> details = new ArrayList<>();
+            float score = 0.0f;
+            for (Weight weight : termWeights) {
+                Explanation e = weight.explain(context, doc);
+                if (e.isMatch()) {
+                    details.add(e);
+                    score += e.getValue();
+                }
+            }
+            if (details.isEmpty()) {
+                return Explanation.noMatch("No matching terms");
+            }
+            return Explanation.match(score, "sum of:", details);
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            List<Scorer> scorers = new ArrayList<>();
+            for (Weight weight : termWeights) {
+                Scorer scorer = weight.scorer(context);
+                if (scorer != null) {
+                    scorers.add(scorer);
+                }
+            }
+            if (scorers.isEmpty()) {
+                return null;
+            }
+            return new WindowScorer(this, scorers.toArray(new Scorer[0]));
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext context) {
+            for (Weight weight : termWeights) {
+                if (!weight.isCacheable(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Term-at-a-time scorer. For the next window of documents with a match, every term scorer adds the scores of its
+     * documents in the window into an array; the matching documents of the window are then returned in order.
+     */
+
+    private static class WindowScorer extends Scorer {
+        private final Scorer[] scorers;
+        private final DocIdSetIterator[] iterators;
+        private final float[] windowScores = new float[WINDOW_SIZE];
+        private final long[] windowMatches = new long[WINDOW_SIZE / 64];
+        private final int[] docs = new int[WINDOW_SIZE];
+        private final float[] scores = new float[WINDOW_SIZE];
+        private final long cost;
+        private int numDocs = 0;
+        private int pos = 0;
+        private int doc = -1;
+
+        WindowScorer(Weight weight, Scorer[] scorers) {
+            super(weight);
+            this.scorers = scorers;
+            this.iterators = new DocIdSetIterator[scorers.length];
+            long cost = 0;
+            for (int i = 0; i < scorers.length; i++) {
+                iterators[i] = scorers[i].iterator();
+                cost += iterators[i].cost();
+            }
+            this.cost = cost;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public float score() {
+            return scores[pos];
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return doc;
+                }
+
+                @Override
+                public int nextDoc() throws IOException {
+                    return advance(doc + 1);
+                }
+
+                @Override
+                public int advance(int target) throws IOException {
+                    // Skip within the current window
+                    while (pos + 1 < numDocs) {
+                        pos++;
+                        if (docs[pos] >= target) {
+                            return doc = docs[pos];
+                        }
+                    }
+                    return doc = fillWindow(target);
+                }
+
+                @Override
+                public long cost() {
+                    return cost;
+                }
+            };
+        }
+
+        /**
+         * Score the next window with a match at or after the target.
+         * @param target Integer
+         * @return Integer First matching document in the window, or NO_MORE_DOCS.
+         */
+
+        private int fillWindow(int target) throws IOException {
+            numDocs = 0;
+            pos = 0;
+            while (true) {
+                // The window starts at the first document at or after the target that matches any term
+                int min = DocIdSetIterator.NO_MORE_DOCS;
+                for (DocIdSetIterator it : iterators) {
+                    int d = it.docID() < target ? it.advance(target) : it.docID();
+                    min = Math.min(min, d);
+                }
+                if (min == DocIdSetIterator.NO_MORE_DOCS) {
+                    return DocIdSetIterator.NO_MORE_DOCS;
+                }
+                int windowBase = min & ~WINDOW_MASK;
+                int windowEnd = windowBase + WINDOW_SIZE;
+
+                for (int i = 0; i < scorers.length; i++) {
+                    DocIdSetIterator it = iterators[i];
+                    for (int d = it.docID(); d < windowEnd; d = it.nextDoc()) {
+                        int j = d & WINDOW_MASK;
+                        windowScores[j] += scorers[i].score();
+                        windowMatches[j >>> 6] |= 1L << j;
+                    }
+                }
+
+                // Collect the matches of the window in order and reset the window
+                for (int w = 0; w < windowMatches.length; w++) {
+                    long bits = windowMatches[w];
+                    while (bits != 0) {
+                        int j = (w << 6) | Long.numberOfTrailingZeros(bits);
+                        docs[numDocs] = windowBase | j;
+                        scores[numDocs++] = windowScores[j];
+                        windowScores[j] = 0.0f;
+                        bits &= bits - 1;
+                    }
+                    windowMatches[w] = 0L;
+                }
+                if (numDocs > 0) {
+                    return docs[0];
+                }
+                target = windowEnd;
+            }
+        }
+    }
+}
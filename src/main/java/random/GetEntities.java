@@ -1,5 +1,7 @@
 package random;
 
+import api.IdResolver;
+import api.TitleIndex;
 import api.WATApi;
 import help.PseudoDocument;
 import help.Utilities;
@@ -29,6 +31,7 @@ public class GetEntities {
     private final IndexSearcher pageIndexSearcher;
     private final IndexSearcher paraIndexSearcher;
     private String relType;
+    private final IdResolver idResolver;
 
     public GetEntities(String pageIndexDir,
                        String paraIndexDir,
@@ -44,11 +47,36 @@ public class GetEntities {
                        String mode,
                        Analyzer analyzer,
                        Similarity similarity) {
+        this(pageIndexDir, paraIndexDir, mainDir, dataDir, outputDir, paraRunFile, entityRunFile, idFile,
+                entityQrelFilePath, contextEntityFile, relType, mode, analyzer, similarity, IdResolver.WAT);
+    }
+
+    /**
+     * Constructor.
+     * Resolves the ids missing from the id file with the given IdResolver instead of the WAT server.
+     */
+
+    public GetEntities(String pageIndexDir,
+                       String paraIndexDir,
+                       String mainDir,
+                       String dataDir,
+                       String outputDir,
+                       String paraRunFile,
+                       String entityRunFile,
+                       String idFile,
+                       String entityQrelFilePath,
+                       String contextEntityFile,
+                       @NotNull String relType,
+                       String mode,
+                       Analyzer analyzer,
+                       Similarity similarity,
+                       @NotNull IdResolver idResolver) {
 
         String paraRunFilePath = mainDir + "/" + dataDir + "/" + paraRunFile;
         String entityRunFilePath = mainDir + "/" + dataDir + "/" + entityRunFile;
         String idFilePath = mainDir + "/" + dataDir + "/" + idFile;
         String contextEntityFilePath = mainDir + "/" + outputDir + "/" + contextEntityFile;
+        this.idResolver = idResolver;
 
         if (relType.equalsIgnoreCase("mw")) {
             System.out.println("Entity Similarity Measure: Milne-Witten");
@@ -265,11 +293,11 @@ public class GetEntities {
 
         id1 = entityIDMap.containsKey(e1)
                 ? entityIDMap.get(e1)
-                : WATApi.TitleResolver.getId(s1);
+                : idResolver.getId(s1);
 
         id2 = entityIDMap.containsKey(e2)
                 ? entityIDMap.get(e2)
-                : WATApi.TitleResolver.getId(s2);
+                : idResolver.getId(s2);
 
         if (s1.equalsIgnoreCase(s2)) {
             return id2 + ":" + 1;
@@ -375,10 +403,24 @@ public class GetEntities {
         System.out.println("Enter you choice:");
         String relType = sc.nextLine();
 
+        // Optional last argument: path to a title index built with --title-index from a title dump
+        int titleIndexArg = sim.equalsIgnoreCase("lmjm") ? 13 : 12;
+        IdResolver idResolver = IdResolver.WAT;
+        if (args.length > titleIndexArg) {
+            System.out.print("Loading title index...");
+            try {
+                idResolver = TitleIndex.load(args[titleIndexArg], TitleIndex.IdSpace.WIKIPEDIA);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("[Done].");
+        }
+
         String outputFile = "benchmarkY1-train-" + mode + "-entities-rel-" + relType;
 
         new GetEntities(pageIndexDir,paraIndexDir, mainDir, dataDir,outputDir, paraRunFile, entityRunFile, idFile,
-                entityQrelFilePath, outputFile, relType, mode, analyzer, similarity);
+                entityQrelFilePath, outputFile, relType, mode, analyzer, similarity, idResolver);
 
     }
 
@@ -1,6 +1,6 @@
 package random;
 
-import api.WATApi;
+import api.IdResolver;
 import help.PseudoDocument;
 import help.Utilities;
 import lucene.Index;
@@ -30,6 +30,7 @@ public class GetEntityId {
     private final IndexSearcher pageIndexSearcher;
     private final IndexSearcher paraIndexSearcher;
     private final boolean parallel;
+    private final IdResolver idResolver;
 
     public GetEntityId(String pageIndexDir,
                        String paraIndexDir,
@@ -44,12 +45,36 @@ public class GetEntityId {
                        boolean parallel,
                        Analyzer analyzer,
                        Similarity similarity) {
+        this(pageIndexDir, paraIndexDir, mainDir, dataDir, outputDir, paraRunFile, entityRunFile, entityQrelFile,
+                outputFile, mode, parallel, analyzer, similarity, IdResolver.WAT);
+    }
+
+    /**
+     * Constructor.
+     * Resolves the ids with the given IdResolver (for example, a local TitleIndex) instead of the WAT server.
+     */
+
+    public GetEntityId(String pageIndexDir,
+                       String paraIndexDir,
+                       String mainDir,
+                       String dataDir,
+                       String outputDir,
+                       String paraRunFile,
+                       String entityRunFile,
+                       String entityQrelFile,
+                       String outputFile,
+                       String mode,
+                       boolean parallel,
+                       Analyzer analyzer,
+                       Similarity similarity,
+                       @NotNull IdResolver idResolver) {
 
         String paraRunFilePath = mainDir + "/" + dataDir + "/" + paraRunFile;
         String entityRunFilePath = mainDir + "/" + dataDir + "/" + entityRunFile;
         String outputFilePath = mainDir + "/" + outputDir + "/" + outputFile;
         String entityQrelFilePath = mainDir + "/" + dataDir + "/" + entityQrelFile;
         this.parallel = parallel;
+        this.idResolver = idResolver;
 
         System.out.print("Reading entity rankings...");
         entityRankings = Utilities.getRankings(entityRunFilePath);
@@ -261,7 +286,7 @@ public class GetEntityId {
         entity = entity.substring(entity.indexOf(":") + 1)                // remove enwiki: from query
                 .replaceAll("%20", "_");     // replace %20 with whitespace
 
-        return WATApi.TitleResolver.getId(entity);
+        return idResolver.getId(entity);
     }
     @NotNull
     private String toTitleCase(@NotNull String givenString) {
@@ -1,9 +1,9 @@
 package random;
 
 import api.SWATApi;
+import api.SalienceStore;
 import edu.unh.cs.treccar_v2.Data;
 import edu.unh.cs.treccar_v2.read_data.DeserializeData;
-import help.Utilities;
 import lucene.Index;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -15,9 +15,15 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.StreamSupport;
 
+/**
+ * Annotate paragraphs with SWAT.
+ * The annotations are written to a {@link SalienceStore} as they are received, so if the job crashes it can be
+ * restarted with the same output file: paragraphs that were already annotated are skipped.
+ */
+
 public class SWATAnnotate {
-    private final Map<String, Map<String, Double>> salientEntityMap = new HashMap<>();
     private AtomicInteger atomicInteger = new AtomicInteger();
+    private AtomicInteger skipped = new AtomicInteger();
 
     public SWATAnnotate(String inFile, String outFile, @NotNull String type) {
         System.out.println("Input File: " + inFile);
@@ -62,24 +68,27 @@ public class SWATAnnotate {
         }
         Iterable<Data.Paragraph> ip = DeserializeData.iterableParagraphs(bis);
 
-        StreamSupport.stream(ip.spliterator(), true)
-                .forEach(paragraph ->
-                {
-                    String text = paragraph.getTextOnly();
-                    Map<String, Double> salMap = SWATApi.getEntities(text, type);
-                    salientEntityMap.put(paragraph.getParaId(), salMap);
-                    //System.out.println(paragraph.getParaId());
-                    atomicInteger.getAndIncrement();
-                    if (atomicInteger.get() % 1000 == 0) {
-                        System.out.println("Progress: " + atomicInteger.get());
-                    }
-                });
-        System.out.println("Writing data to file: " + file);
-        try {
-            Utilities.writeMap(salientEntityMap,file);
+        try (SalienceStore store = new SalienceStore(file)) {
+            StreamSupport.stream(ip.spliterator(), true)
+                    .forEach(paragraph ->
+                    {
+                        if (store.containsKey(paragraph.getParaId())) {
+                            skipped.getAndIncrement();
+                            return;
+                        }
+                        String text = paragraph.getTextOnly();
+                        Map<String, Double> salMap = SWATApi.getEntities(text, type);
+                        put(store, paragraph.getParaId(), salMap);
+                        //System.out.println(paragraph.getParaId());
+                        int n = atomicInteger.incrementAndGet();
+                        if (n % 1000 == 0) {
+                            System.out.println("Progress: " + n);
+                        }
+                    });
         } catch (IOException e) {
             e.printStackTrace();
         }
+        System.out.println("Skipped " + skipped.get() + " paragraphs annotated in an earlier run.");
         System.out.println("Done");
     }
 
@@ -87,17 +96,19 @@ public class SWATAnnotate {
 
         Set<String> paraSet = getParaIds(inFile);
         int size = paraSet.size();
-        paraSet.parallelStream().forEach(paraId -> doTask(paraId, type, searcher, size));
-
-        System.out.println("Writing data to file: " + outFile);
-        try {
-            Utilities.writeMap(salientEntityMap,outFile);
+        try (SalienceStore store = new SalienceStore(outFile)) {
+            paraSet.parallelStream().forEach(paraId -> doTask(paraId, type, searcher, size, store));
         } catch (IOException e) {
             e.printStackTrace();
         }
+        System.out.println("Skipped " + skipped.get() + " paragraphs annotated in an earlier run.");
         System.out.println("Done");
     }
-    private void doTask(String paraId, String type, IndexSearcher searcher, int size) {
+    private void doTask(String paraId, String type, IndexSearcher searcher, int size, @NotNull SalienceStore store) {
+        if (store.containsKey(paraId)) {
+            skipped.getAndIncrement();
+            return;
+        }
         Document doc = null;
         String text = null;
         try {
@@ -109,14 +120,26 @@ public class SWATAnnotate {
             text = doc.get("text");
         }
         Map<String, Double> salMap = SWATApi.getEntities(text, type);
-        salientEntityMap.put(paraId, salMap);
-        atomicInteger.getAndIncrement();
-        if (atomicInteger.get() % 1000 == 0) {
-            System.out.println("Progress: " + atomicInteger.get() + " of " + size);
+        put(store, paraId, salMap);
+        int n = atomicInteger.incrementAndGet();
+        if (n % 1000 == 0) {
+            System.out.println("Progress: " + n + " of " + size);
         }
         //System.out.println(paraId);
     }
 
+    private void put(@NotNull SalienceStore store, String paraId, Map<String, Double> salMap) {
+        if (salMap == null) {
+            // Nothing is written, so the paragraph is tried again when the job is restarted
+            return;
+        }
+        try {
+            store.put(paraId, salMap);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     @NotNull
     private Set<String> getParaIds(String inFile) {
         Set<String> paraIds = new HashSet<>();